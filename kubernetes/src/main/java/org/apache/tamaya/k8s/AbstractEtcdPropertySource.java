@@ -1,273 +1,452 @@
-///*
-// * Licensed to the Apache Software Foundation (ASF) under one
-// * or more contributor license agreements.  See the NOTICE file
-// * distributed with this work for additional information
-// * regarding copyright ownership.  The ASF licenses this file
-// * to you under the Apache License, Version 2.0 (the
-// * "License"); you may not use this file except in compliance
-// * with the License.  You may obtain a copy of the License at
-// *
-// *   http://www.apache.org/licenses/LICENSE-2.0
-// *
-// * Unless required by applicable law or agreed to in writing,
-// * software distributed under the License is distributed on an
-// * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
-// * KIND, either express or implied.  See the License for the
-// * specific language governing permissions and limitations
-// * under the License.
-// */
-//package org.apache.tamaya.etcd;
-//
-//import org.apache.tamaya.mutableconfig.ConfigChangeRequest;
-//import org.apache.tamaya.mutableconfig.spi.MutablePropertySource;
-//import org.apache.tamaya.spi.ChangeSupport;
-//import org.apache.tamaya.spi.PropertyValue;
-//import org.apache.tamaya.spisupport.propertysource.BasePropertySource;
-//
-//import java.util.*;
-//import java.util.concurrent.TimeUnit;
-//import java.util.concurrent.atomic.AtomicLong;
-//import java.util.logging.Level;
-//import java.util.logging.Logger;
-//
-///**
-// * Propertysource that is reading configuration from a configured etcd endpoint. Setting
-// * {@code etcd.prefix} as system property maps the etcd based configuration
-// * to this prefix namespace. Etcd servers are configured as {@code etcd.server.urls} system or environment property.
-// * Etcd can be disabled by setting {@code tamaya.etcdprops.disable} either as environment or system property.
-// */
-//public abstract class AbstractEtcdPropertySource extends BasePropertySource
-//        implements MutablePropertySource{
-//
-//    private static final Logger LOG = Logger.getLogger(AbstractEtcdPropertySource.class.getName());
-//
-//    private String directory ="";
-//
-//    private List<String> servers = new ArrayList<>();
-//
-//    private List<EtcdAccessor> etcdBackends = new ArrayList<>();
-//
-//    private Map<String,String> metaData = new HashMap<>();
-//
-//    private AtomicLong timeoutDuration = new AtomicLong(TimeUnit.MILLISECONDS.convert(5, TimeUnit.MINUTES));
-//
-//    private AtomicLong timeout = new AtomicLong();
-//
-//    /** The Hazelcast config map used. */
-//    private Map<String, PropertyValue> configMap = new HashMap<>();
-//
-//    public AbstractEtcdPropertySource(){
-//        this("etcd");
-//    }
-//
-//    public AbstractEtcdPropertySource(String name){
-//        super(name);
-//        metaData.put("source", "etcd");
-//    }
-//
-//    /**
-//     * Get the current timeout, when a reload will be triggered on access.
-//     * @return the current timeout, or 0 if no data has been loaded at all.
-//     */
-//    public long getValidUntil(){
-//        return timeout.get();
-//    }
-//
-//    /**
-//     * Get the current cache timeout.
-//     * @return the timeout duration after which data will be reloaded.
-//     */
-//    public long getCachePeriod(){
-//        return timeoutDuration.get();
-//    }
-//
-//    /**
-//     * Set the duration after which the data cache will be reloaded.
-//     * @param millis the millis
-//     */
-//    public void setCacheTimeout(long millis){
-//        this.timeoutDuration.set(millis);
-//    }
-//
-//    /**
-//     * Get the etc directora accessed.
-//     * @return the etc director, not null.
-//     */
-//    public String getDirectory() {
-//        return directory;
-//    }
-//
-//    /**
-//     * Sets the etcd directory to read from.
-//     * @param directory the directory, not null.
-//     */
-//    public void setDirectory(String directory) {
-//        if(!Objects.equals(this.directory, directory)) {
-//            this.directory = Objects.requireNonNull(directory);
-//            refresh();
-//        }
-//    }
-//
-//    public void setServer(List<String> servers) {
-//        if(!Objects.equals(this.servers, servers)) {
-//            List<EtcdAccessor> etcdBackends = new ArrayList<>();
-//            for (String s : servers) {
-//                etcdBackends.add(new EtcdAccessor(s));
-//            }
-//            this.servers = Collections.unmodifiableList(servers);
-//            this.etcdBackends = etcdBackends;
-//            metaData.put("backends", servers.toString());
-//            refresh();
-//        }
-//    }
-//
-//    /**
-//     * Get the underlying servers this instance will try to connect to.
-//     * @return the server list, not null.
-//     */
-//    public List<String> getServer(){
-//        return servers;
-//    }
-//
-//    /**
-//     * Checks for a cache timeout and optionally reloads the data.
-//     */
-//    public void checkRefresh(){
-//        if(this.timeout.get() < System.currentTimeMillis()){
-//            refresh();
-//        }
-//    }
-//
-//    /**
-//     * Reloads the data and updated the cache timeouts.
-//     */
-//    public void refresh() {
-//        for(EtcdAccessor accessor: this.etcdBackends){
-//            try{
-//                Map<String, String> props = accessor.getProperties(directory);
-//                if(!props.containsKey("_ERROR")) {
-//                    this.configMap = mapPrefix(props);
-//                    this.timeout.set(System.currentTimeMillis() + timeoutDuration.get());
-//                } else{
-//                    LOG.log(Level.FINE, "etcd error on " + accessor.getUrl() + ": " + props.get("_ERROR"));
-//                }
-//            } catch(Exception e){
-//                LOG.log(Level.FINE, "etcd access failed on " + accessor.getUrl() + ", trying next...", e);
-//            }
-//        }
-//    }
-//
-//    @Override
-//    public int getOrdinal() {
-//        PropertyValue configuredOrdinal = get(TAMAYA_ORDINAL);
-//        if(configuredOrdinal!=null){
-//            try{
-//                return Integer.parseInt(configuredOrdinal.getValue());
-//            } catch(Exception e){
-//                Logger.getLogger(getClass().getName()).log(Level.WARNING,
-//                        "Configured ordinal is not an int number: " + configuredOrdinal, e);
-//            }
-//        }
-//        return getDefaultOrdinal();
-//    }
-//
-//    @Override
-//    public PropertyValue get(String key) {
-//        checkRefresh();
-//        return configMap.get(key);
-//    }
-//
-//    @Override
-//    public Map<String, PropertyValue> getProperties() {
-//        checkRefresh();
-//        return configMap;
-//    }
-//
-//    @Override
-//    public ChangeSupport getChangeSupport(){
-//        return ChangeSupport.SUPPORTED;
-//    }
-//
-//    private Map<String, PropertyValue> mapPrefix(Map<String, String> props) {
-//
-//        Map<String, PropertyValue> values = new HashMap<>();
-//        // Evaluate keys
-//        for(Map.Entry<String,String> entry:props.entrySet()) {
-//            if (!entry.getKey().startsWith("_")) {
-//                PropertyValue val = values.get(entry.getKey());
-//                if (val == null) {
-//                    val = PropertyValue.createValue(entry.getKey(), "").setMeta("source", getName()).setMeta(metaData);
-//                    values.put(entry.getKey(), val);
-//                }
-//            }
-//        }
-//        // add getMeta entries
-//        for(Map.Entry<String,String> entry:props.entrySet()) {
-//            if (entry.getKey().startsWith("_")) {
-//                String key = entry.getKey().substring(1);
-//                for(String field:new String[]{".createdIndex", ".modifiedIndex", ".ttl",
-//                        ".expiration", ".source"}) {
-//                    if (key.endsWith(field)) {
-//                        key = key.substring(0, key.length() - field.length());
-//                        PropertyValue val = values.get(key);
-//                        if (val != null) {
-//                            val.setMeta(field, entry.getValue());
-//                        }
-//                    }
-//                }
-//            }
-//        }
-//        // Map to createValue map.
-////        Map<String, PropertyValue> values = new HashMap<>();
-//        for(Map.Entry<String,PropertyValue> en:values.entrySet()) {
-//            values.put(en.getKey(), en.getValue());
-//        }
-//        return values;
-//    }
-//
-//    @Override
-//    public void applyChange(ConfigChangeRequest configChange) {
-//        for(EtcdAccessor accessor: etcdBackends){
-//            try{
-//                for(String k: configChange.getRemovedProperties()){
-//                    Map<String,String> res = accessor.delete(k);
-//                    if(res.get("_ERROR")!=null){
-//                        LOG.info("Failed to remove key from etcd: " + k);
-//                    }
-//                }
-//                for(Map.Entry<String,String> en:configChange.getAddedProperties().entrySet()){
-//                    String key = en.getKey();
-//                    Integer ttl = null;
-//                    int index = en.getKey().indexOf('?');
-//                    if(index>0){
-//                        key = en.getKey().substring(0, index);
-//                        String rawQuery = en.getKey().substring(index+1);
-//                        String[] queries = rawQuery.split("&");
-//                        for(String query:queries){
-//                            if(query.contains("ttl")){
-//                                int qIdx = query.indexOf('=');
-//                                ttl = qIdx>0?Integer.parseInt(query.substring(qIdx+1).trim()):null;
-//                            }
-//                        }
-//                    }
-//                    Map<String,String> res = accessor.set(key, en.getValue(), ttl);
-//                    if(res.get("_ERROR")!=null){
-//                        LOG.info("Failed to add key to etcd: " + en.getKey()  + "=" + en.getValue());
-//                    }
-//                }
-//                // success, stop here
-//                break;
-//            } catch(Exception e){
-//                LOG.log(Level.FINE, "etcd access failed on " + accessor.getUrl() + ", trying next...", e);
-//            }
-//        }
-//    }
-//
-//
-//    @Override
-//    protected String toStringValues() {
-//        return  super.toStringValues() +
-//                "  directory=" + directory + '\n' +
-//                "  servers=" + this.servers + '\n';
-//    }
-//}
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.k8s;
+
+import org.apache.tamaya.ConfigException;
+import org.apache.tamaya.mutableconfig.ConfigChangeRequest;
+import org.apache.tamaya.mutableconfig.spi.MutablePropertySource;
+import org.apache.tamaya.spi.ChangeSupport;
+import org.apache.tamaya.spi.PropertyValue;
+import org.apache.tamaya.spisupport.propertysource.BasePropertySource;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Propertysource that is reading configuration from a configured etcd endpoint. The etcd directory read is
+ * configured as {@code tamaya.etcd.directory}, the etcd servers as {@code tamaya.etcd.server} system or
+ * environment property.
+ * <p>
+ * The directory is read once, afterwards a background thread watches it recursively, starting at the etcd index
+ * of the data read, and applies each change to the cached properties. So reads never access the network and
+ * changes are visible immediately. The directory is only read again, when etcd does not contain the changes
+ * since the last index watched anymore, or when the watch failed on all backends.
+ * <p>
+ * Reads and watches use the healthy etcd member responding fastest, changes are written to the leader. The
+ * health of the members is checked in the background every {@code tamaya.etcd.healthInterval} seconds.
+ */
+public abstract class AbstractEtcdPropertySource extends BasePropertySource
+        implements MutablePropertySource, AutoCloseable{
+
+    private static final Logger LOG = Logger.getLogger(AbstractEtcdPropertySource.class.getName());
+
+    /** Maximal pause between retries of a failed watch. */
+    private static final long MAX_RETRY_DELAY = TimeUnit.SECONDS.toMillis(30);
+
+    private volatile String directory ="";
+
+    private List<String> servers = new ArrayList<>();
+
+    private volatile EtcdCluster cluster = new EtcdCluster(Collections.<String>emptyList(), 0L);
+
+    private final Map<String,String> metaData = new HashMap<>();
+
+    private AtomicLong timeoutDuration = new AtomicLong(TimeUnit.MILLISECONDS.convert(5, TimeUnit.MINUTES));
+
+    private AtomicLong timeout = new AtomicLong();
+
+    private volatile long watchTimeout = EtcdBackendConfig.getEtcdWatchTimeout();
+
+    /** The etcd config map used, updated by the watcher and replaced as a whole on reload. */
+    private volatile Map<String, PropertyValue> configMap = new ConcurrentHashMap<>();
+
+    /** Lock guarding updates of the config map and the etcd index. */
+    private final Object lock = new Object();
+
+    /** The etcd index the config map is consistent with. */
+    private long etcdIndex;
+
+    private volatile boolean loaded;
+
+    private volatile boolean closed;
+
+    private Thread watcher;
+
+    public AbstractEtcdPropertySource(){
+        this("etcd");
+    }
+
+    public AbstractEtcdPropertySource(String name){
+        super(name);
+        metaData.put("source", "etcd");
+    }
+
+    /**
+     * Get the current timeout, when a reload will be triggered on access.
+     * @return the current timeout, or 0 if no data has been loaded at all.
+     */
+    public long getValidUntil(){
+        return timeout.get();
+    }
+
+    /**
+     * Get the current cache timeout.
+     * @return the timeout duration after which data will be reloaded.
+     */
+    public long getCachePeriod(){
+        return timeoutDuration.get();
+    }
+
+    /**
+     * Set the duration after which the data cache will be reloaded.
+     * @param millis the millis
+     */
+    public void setCacheTimeout(long millis){
+        this.timeoutDuration.set(millis);
+    }
+
+    /**
+     * Get the maximal duration of a single watch request, after which the watch is renewed.
+     * @return the watch timeout in milliseconds.
+     */
+    public long getWatchTimeout(){
+        return watchTimeout;
+    }
+
+    /**
+     * Set the maximal duration of a single watch request, after which the watch is renewed.
+     * @param millis the watch timeout in milliseconds.
+     */
+    public void setWatchTimeout(long millis){
+        this.watchTimeout = millis;
+    }
+
+    /**
+     * Get the etc directora accessed.
+     * @return the etc director, not null.
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Sets the etcd directory to read from.
+     * @param directory the directory, not null.
+     */
+    public void setDirectory(String directory) {
+        if(!Objects.equals(this.directory, directory)) {
+            this.directory = Objects.requireNonNull(directory);
+            refresh();
+        }
+    }
+
+    public void setServer(List<String> servers) {
+        if(!Objects.equals(this.servers, servers)) {
+            EtcdCluster previous = this.cluster;
+            this.servers = Collections.unmodifiableList(new ArrayList<>(servers));
+            this.cluster = new EtcdCluster(this.servers, EtcdBackendConfig.getEtcdHealthInterval());
+            previous.close();
+            metaData.put("backends", servers.toString());
+            refresh();
+        }
+    }
+
+    /**
+     * Get the underlying servers this instance will try to connect to.
+     * @return the server list, not null.
+     */
+    public List<String> getServer(){
+        return servers;
+    }
+
+    /**
+     * Checks for a cache timeout and optionally reloads the data. Reads do not check the timeout, since the
+     * data is kept current by watching etcd.
+     */
+    public void checkRefresh(){
+        if(this.timeout.get() < System.currentTimeMillis()){
+            refresh();
+        }
+    }
+
+    /**
+     * Reloads the data and updates the cache timeouts. Watching the directory for changes is started, if not
+     * yet running.
+     */
+    public void refresh() {
+        reload();
+        if(!cluster.getMembers().isEmpty()){
+            startWatching();
+        }
+    }
+
+    /**
+     * Stops watching etcd and checking the health of its members. The data loaded remains accessible, but is not
+     * updated anymore.
+     */
+    @Override
+    public void close() {
+        Thread watcher;
+        synchronized (lock){
+            closed = true;
+            watcher = this.watcher;
+        }
+        if(watcher!=null){
+            watcher.interrupt();
+        }
+        cluster.close();
+    }
+
+    /**
+     * Get the etcd members with their current health state.
+     * @return the cluster, not null.
+     */
+    EtcdCluster getCluster(){
+        return cluster;
+    }
+
+    /**
+     * Reads the directory from the fastest healthy backend, trying the others on failure.
+     * @return true, if the data has been read.
+     */
+    private boolean reload() {
+        for(EtcdAccessor accessor: this.cluster.getReadOrder()){
+            try{
+                String directory = this.directory;
+                Map<String, String> props = accessor.getProperties(directory);
+                if(!props.containsKey("_ERROR")) {
+                    String index = props.get(EtcdAccessor.INDEX);
+                    synchronized (lock){
+                        this.configMap = new ConcurrentHashMap<>(mapPrefix(props));
+                        this.etcdIndex = index==null?0L:Long.parseLong(index);
+                    }
+                    this.loaded = true;
+                    this.timeout.set(System.currentTimeMillis() + timeoutDuration.get());
+                    return true;
+                } else{
+                    LOG.log(Level.FINE, "etcd error on " + accessor.getUrl() + ": " + props.get("_ERROR"));
+                }
+            } catch(Exception e){
+                LOG.log(Level.FINE, "etcd access failed on " + accessor.getUrl() + ", trying next...", e);
+            }
+        }
+        return false;
+    }
+
+    private void startWatching() {
+        synchronized (lock){
+            if(watcher==null && !closed){
+                watcher = new Thread(this::watch, "tamaya-etcd-watch-" + getName());
+                watcher.setDaemon(true);
+                watcher.start();
+            }
+        }
+    }
+
+    /**
+     * Watch loop, applying the changes of the directory read, and reading it again, if changes have been missed.
+     * The fastest healthy backend is watched, failing backends are marked unhealthy and thus skipped on the next
+     * attempt. Retries are delayed with exponential backoff.
+     */
+    private void watch() {
+        int failures = 0;
+        while(!closed){
+            List<EtcdAccessor> backends = this.cluster.getReadOrder();
+            EtcdAccessor accessor = backends.isEmpty()?null:backends.get(0);
+            try{
+                if(accessor==null || !loaded && !reload()){
+                    throw new IllegalStateException("No etcd backend accessible: " + servers);
+                }
+                String directory;
+                long index;
+                synchronized (lock){
+                    directory = this.directory;
+                    index = this.etcdIndex;
+                }
+                EtcdAccessor.WatchEvent event = accessor.watch(directory, index + 1, watchTimeout);
+                if(event!=null){
+                    apply(directory, event);
+                }
+                failures = 0;
+            } catch(EtcdAccessor.IndexClearedException e){
+                LOG.log(Level.FINE, "etcd changes missed on " + accessor.getUrl() + ", reloading...", e);
+                loaded = false;
+            } catch(Exception e){
+                failures++;
+                if(accessor!=null){
+                    accessor.markFailed();
+                }
+                LOG.log(Level.FINE, "etcd watch failed on " + (accessor==null?servers:accessor.getUrl())
+                        + ", trying next...", e);
+                try{
+                    Thread.sleep(Math.min(MAX_RETRY_DELAY, 100L << Math.min(failures, 10)));
+                } catch(InterruptedException ie){
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void apply(String directory, EtcdAccessor.WatchEvent event) {
+        synchronized (lock){
+            if(event.getModifiedIndex() <= etcdIndex || !directory.equals(this.directory)){
+                return;
+            }
+            etcdIndex = event.getModifiedIndex();
+            Map<String, PropertyValue> values = this.configMap;
+            if(event.isRemoval()){
+                if(event.isDir()){
+                    String prefix = event.getKey() + '/';
+                    values.keySet().removeIf(k -> k.startsWith(prefix));
+                } else{
+                    values.remove(event.getKey());
+                }
+            } else if(!event.isDir()){
+                values.putAll(mapPrefix(event.getProperties()));
+            }
+        }
+    }
+
+    @Override
+    public int getOrdinal() {
+        PropertyValue configuredOrdinal = get(TAMAYA_ORDINAL);
+        if(configuredOrdinal!=null){
+            try{
+                return Integer.parseInt(configuredOrdinal.getValue());
+            } catch(Exception e){
+                Logger.getLogger(getClass().getName()).log(Level.WARNING,
+                        "Configured ordinal is not an int number: " + configuredOrdinal, e);
+            }
+        }
+        return getDefaultOrdinal();
+    }
+
+    @Override
+    public PropertyValue get(String key) {
+        return configMap.get(key);
+    }
+
+    @Override
+    public Map<String, PropertyValue> getProperties() {
+        return Collections.unmodifiableMap(configMap);
+    }
+
+    @Override
+    public ChangeSupport getChangeSupport(){
+        return ChangeSupport.SUPPORTED;
+    }
+
+    private Map<String, PropertyValue> mapPrefix(Map<String, String> props) {
+        Map<String, PropertyValue> values = new HashMap<>();
+        // Evaluate keys
+        for(Map.Entry<String,String> entry:props.entrySet()) {
+            if (!entry.getKey().startsWith("_")) {
+                values.put(entry.getKey(), PropertyValue.createValue(entry.getKey(), entry.getValue())
+                        .setMeta(metaData).setMeta("source", getName()));
+            }
+        }
+        // add getMeta entries
+        for(Map.Entry<String,String> entry:props.entrySet()) {
+            if (entry.getKey().startsWith("_")) {
+                String key = entry.getKey().substring(1);
+                for(String field:new String[]{".createdIndex", ".modifiedIndex", ".ttl",
+                        ".expiration"}) {
+                    if (key.endsWith(field)) {
+                        PropertyValue val = values.get(key.substring(0, key.length() - field.length()));
+                        if (val != null) {
+                            val.setMeta(field.substring(1), entry.getValue());
+                        }
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Applies the change to the etcd leader as pipelined requests, at most {@code tamaya.etcd.threads} in flight.
+     * Writes failing, because the backend became unreachable, are retried on the next backend. A ttl can be
+     * passed as query of an added key, e.g. {@code a.b?ttl=60}.
+     * @param configChange the change, not null.
+     * @throws ConfigException listing all keys not written, if not all changes could be applied.
+     */
+    @Override
+    public void applyChange(ConfigChangeRequest configChange) {
+        Map<String,String> errors = new LinkedHashMap<>();
+        List<EtcdAccessor.Write> writes = toWrites(configChange, errors);
+        int total = writes.size() + errors.size();
+        if(writes.isEmpty() && errors.isEmpty()){
+            return;
+        }
+        Map<String,String> failed = new LinkedHashMap<>();
+        for(EtcdAccessor.Write write:writes){
+            failed.put(write.getKey(), "No etcd backend accessible: " + servers);
+        }
+        for(EtcdAccessor accessor: cluster.getWriteOrder()){
+            if(writes.isEmpty()){
+                break;
+            }
+            failed = accessor.write(writes, EtcdBackendConfig.getEtcdThreads());
+            if(failed.isEmpty() || accessor.isHealthy()){
+                break;
+            }
+            LOG.log(Level.FINE, "etcd access failed on " + accessor.getUrl() + ", writing " + failed.size()
+                    + " keys to next backend...");
+            List<EtcdAccessor.Write> retries = new ArrayList<>();
+            for(EtcdAccessor.Write write:writes){
+                if(failed.containsKey(write.getKey())){
+                    retries.add(write);
+                }
+            }
+            writes = retries;
+        }
+        errors.putAll(failed);
+        if(!errors.isEmpty()){
+            StringBuilder message = new StringBuilder("Failed to apply ").append(errors.size()).append(" of ")
+                    .append(total).append(" changes to etcd:");
+            for(Map.Entry<String,String> en:errors.entrySet()){
+                message.append("\n  ").append(en.getKey()).append(": ").append(en.getValue());
+            }
+            LOG.warning(message.toString());
+            throw new ConfigException(message.toString());
+        }
+    }
+
+    /**
+     * Converts a change into writes, parsing the ttl of each added key once. A key added is not deleted before.
+     */
+    private static List<EtcdAccessor.Write> toWrites(ConfigChangeRequest configChange, Map<String,String> errors){
+        List<EtcdAccessor.Write> writes = new ArrayList<>();
+        for(String key: configChange.getRemovedProperties()){
+            if(!configChange.getAddedProperties().containsKey(key)){
+                writes.add(EtcdAccessor.Write.delete(key));
+            }
+        }
+        for(Map.Entry<String,String> en:configChange.getAddedProperties().entrySet()){
+            try{
+                writes.add(EtcdAccessor.Write.set(en.getKey(), en.getValue()));
+            } catch(IllegalArgumentException e){
+                errors.put(en.getKey(), e.getMessage());
+            }
+        }
+        return writes;
+    }
+
+    @Override
+    protected String toStringValues() {
+        return  super.toStringValues() +
+                "  directory=" + directory + '\n' +
+                "  servers=" + this.cluster + '\n';
+    }
+}
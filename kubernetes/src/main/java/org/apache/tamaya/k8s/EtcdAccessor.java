@@ -1,520 +1,1107 @@
-///*
-// * Licensed to the Apache Software Foundation (ASF) under one
-// * or more contributor license agreements.  See the NOTICE file
-// * distributed with this work for additional information
-// * regarding copyright ownership.  The ASF licenses this file
-// * to you under the Apache License, Version 2.0 (the
-// * "License"); you may not use this file except in compliance
-// * with the License.  You may obtain a copy of the License at
-// *
-// *   http://www.apache.org/licenses/LICENSE-2.0
-// *
-// * Unless required by applicable law or agreed to in writing,
-// * software distributed under the License is distributed on an
-// * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
-// * KIND, either express or implied.  See the License for the
-// * specific language governing permissions and limitations
-// * under the License.
-// */
-//package org.apache.tamaya.etcd;
-//
-//import java.io.StringReader;
-//import java.util.ArrayList;
-//import java.util.HashMap;
-//import java.util.List;
-//import java.util.Map;
-//import java.util.logging.Level;
-//import java.util.logging.Logger;
-//
-//import javax.json.Json;
-//import javax.json.JsonArray;
-//import javax.json.JsonObject;
-//import javax.json.JsonReader;
-//import javax.json.JsonReaderFactory;
-//
-//import org.apache.http.HttpEntity;
-//import org.apache.http.HttpStatus;
-//import org.apache.http.NameValuePair;
-//import org.apache.http.client.config.RequestConfig;
-//import org.apache.http.client.entity.UrlEncodedFormEntity;
-//import org.apache.http.client.methods.CloseableHttpResponse;
-//import org.apache.http.client.methods.HttpDelete;
-//import org.apache.http.client.methods.HttpGet;
-//import org.apache.http.client.methods.HttpPut;
-//import org.apache.http.impl.client.CloseableHttpClient;
-//import org.apache.http.impl.client.HttpClients;
-//import org.apache.http.message.BasicNameValuePair;
-//import org.apache.http.util.EntityUtils;
-//
-///**
-// * Accessor for reading to or writing from an etcd endpoint.
-// */
-//class EtcdAccessor {
-//
-//    private static final Logger LOG = Logger.getLogger(EtcdAccessor.class.getName());
-//
-//    /**
-//     * Timeout in seconds.
-//     */
-//    private int timeout = 2;
-//    /**
-//     * Timeout in seconds.
-//     */
-//    private final int socketTimeout = 1000;
-//    /**
-//     * Timeout in seconds.
-//     */
-//    private final int connectTimeout = 1000;
-//
-//    /**
-//     * Property that makes Johnzon accept comments.
-//     */
-//    public static final String JOHNZON_SUPPORTS_COMMENTS_PROP = "org.apache.johnzon.supports-comments";
-//    /**
-//     * The JSON reader factory used.
-//     */
-//    private final JsonReaderFactory readerFactory = initReaderFactory();
-//
-//
-//    /**
-//     * Initializes the factory to be used for creating readers.
-//     */
-//    private JsonReaderFactory initReaderFactory() {
-//        final Map<String, Object> config = new HashMap<>();
-//        config.put(JOHNZON_SUPPORTS_COMMENTS_PROP, true);
-//        return Json.createReaderFactory(config);
-//    }
-//
-//    /**
-//     * The base server url.
-//     */
-//    private final String serverURL;
-//    /**
-//     * The http client.
-//     */
-//    private final CloseableHttpClient httpclient = HttpClients.createDefault();
-//
-//    /**
-//     * Creates a new instance with the basic access url.
-//     *
-//     * @param server server url, e.g. {@code http://127.0.0.1:4001}, not null.
-//     */
-//    public EtcdAccessor(String server) {
-//        this(server, 2);
-//    }
-//
-//    public EtcdAccessor(String server, int timeout) {
-//        this.timeout = timeout;
-//        if (server.endsWith("/")) {
-//            serverURL = server.substring(0, server.length() - 1);
-//        } else {
-//            serverURL = server;
-//        }
-//    }
-//
-//    /**
-//     * Get the etcd server version.
-//     *
-//     * @return the etcd server version, never null.
-//     */
-//    public String getVersion() {
-//        String version = "<ERROR>";
-//        try {
-//            final CloseableHttpClient httpclient = HttpClients.createDefault();
-//            final HttpGet httpGet = new HttpGet(serverURL + "/version");
-//            httpGet.setConfig(RequestConfig.copy(RequestConfig.DEFAULT).setSocketTimeout(socketTimeout)
-//                    .setConnectTimeout(timeout).build());
-//            try (CloseableHttpResponse response = httpclient.execute(httpGet)) {
-//                if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
-//                    final HttpEntity entity = response.getEntity();
-//                    // and ensure it is fully consumed
-//                    version = EntityUtils.toString(entity);
-//                    EntityUtils.consume(entity);
-//                }
-//            }
-//            return version;
-//        } catch (final Exception e) {
-//            LOG.log(Level.INFO, "Error getting etcd version from: " + serverURL, e);
-//        }
-//        return version;
-//    }
-//
-//    /**
-//     * Ask etcd for a single key, createValue pair. Hereby the response returned from
-//     * etcd:
-//     *
-//     * <pre>
-//     * {
-//     * "action": "current",
-//     * "value": {
-//     * "createdIndex": 2,
-//     * "key": "/message",
-//     * "modifiedIndex": 2,
-//     * "value": "Hello world"
-//     * }
-//     * }
-//     * </pre>
-//     *
-//     * is mapped to:
-//     *
-//     * <pre>
-//     *     key=value
-//     *     _key.source=[etcd]http://127.0.0.1:4001
-//     *     _key.createdIndex=12
-//     *     _key.modifiedIndex=34
-//     *     _key.ttl=300
-//     *     _key.expiration=...
-//     * </pre>
-//     *
-//     * @param key the requested key
-//     * @return the mapped result, including getMeta-entries.
-//     */
-//    public Map<String, String> get(String key) {
-//        final Map<String, String> result = new HashMap<>();
-//        try {
-//            final HttpGet httpGet = new HttpGet(serverURL + "/v2/keys/" + key);
-//            httpGet.setConfig(RequestConfig.copy(RequestConfig.DEFAULT).setSocketTimeout(socketTimeout)
-//                    .setConnectionRequestTimeout(timeout).setConnectTimeout(connectTimeout).build());
-//            try (CloseableHttpResponse response = httpclient.execute(httpGet)) {
-//                if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
-//                    final HttpEntity entity = response.getEntity();
-//                    final JsonReader reader = readerFactory
-//                            .createReader(new StringReader(EntityUtils.toString(entity)));
-//                    final JsonObject o = reader.readObject();
-//                    final JsonObject node = o.getJsonObject("value");
-//                    if (node.containsKey("key")) {
-//                        result.put(key, node.getString("key"));
-//                        result.put("_" + key + ".source", "[etcd]" + serverURL);
-//                    }
-//                    if (node.containsKey("createdIndex")) {
-//                        result.put("_" + key + ".createdIndex", String.valueOf(node.getInt("createdIndex")));
-//                    }
-//                    if (node.containsKey("modifiedIndex")) {
-//                        result.put("_" + key + ".modifiedIndex", String.valueOf(node.getInt("modifiedIndex")));
-//                    }
-//                    if (node.containsKey("expiration")) {
-//                        result.put("_" + key + ".expiration", String.valueOf(node.getString("expiration")));
-//                    }
-//                    if (node.containsKey("ttl")) {
-//                        result.put("_" + key + ".ttl", String.valueOf(node.getInt("ttl")));
-//                    }
-//                    EntityUtils.consume(entity);
-//                } else {
-//                    result.put("_" + key + ".NOT_FOUND.target", "[etcd]" + serverURL);
-//                }
-//            }
-//        } catch (final Exception e) {
-//            LOG.log(Level.INFO, "Error reading key '" + key + "' from etcd: " + serverURL, e);
-//            result.put("_ERROR", "Error reading key '" + key + "' from etcd: " + serverURL + ": " + e.toString());
-//        }
-//        return result;
-//    }
-//
-//    /**
-//     * Creates/updates an entry in etcd without any ttl setCurrent.
-//     *
-//     * @param key   the property key, not null
-//     * @param value the createValue to be setCurrent
-//     * @return the result map as described above.
-//     * @see #set(String, String, Integer)
-//     */
-//    public Map<String, String> set(String key, String value) {
-//        return set(key, value, null);
-//    }
-//
-//    /**
-//     * Creates/updates an entry in etcd. The response as follows:
-//     *
-//     * <pre>
-//     *     {
-//     * "action": "setCurrent",
-//     * "getValue": {
-//     * "createdIndex": 3,
-//     * "key": "/message",
-//     * "modifiedIndex": 3,
-//     * "createValue": "Hello etcd"
-//     * },
-//     * "prevNode": {
-//     * "createdIndex": 2,
-//     * "key": "/message",
-//     * "createValue": "Hello world",
-//     * "modifiedIndex": 2
-//     * }
-//     * }
-//     * </pre>
-//     *
-//     * is mapped to:
-//     *
-//     * <pre>
-//     *     key=createValue
-//     *     _key.source=[etcd]http://127.0.0.1:4001
-//     *     _key.createdIndex=12
-//     *     _key.modifiedIndex=34
-//     *     _key.ttl=300
-//     *     _key.expiry=...
-//     *      // optional
-//     *     _key.prevNode.createdIndex=12
-//     *     _key.prevNode.modifiedIndex=34
-//     *     _key.prevNode.ttl=300
-//     *     _key.prevNode.expiration=...
-//     * </pre>
-//     *
-//     * @param key        the property key, not null
-//     * @param value      the createValue to be setCurrent
-//     * @param ttlSeconds the ttl in seconds (optional)
-//     * @return the result map as described above.
-//     */
-//    public Map<String, String> set(String key, String value, Integer ttlSeconds) {
-//        final Map<String, String> result = new HashMap<>();
-//        try {
-//            final HttpPut put = new HttpPut(serverURL + "/v2/keys/" + key);
-//            put.setConfig(RequestConfig.copy(RequestConfig.DEFAULT).setSocketTimeout(socketTimeout)
-//                    .setConnectionRequestTimeout(timeout).setConnectTimeout(connectTimeout).build());
-//            final List<NameValuePair> nvps = new ArrayList<>();
-//            nvps.add(new BasicNameValuePair("value", value));
-//            if (ttlSeconds != null) {
-//                nvps.add(new BasicNameValuePair("ttl", ttlSeconds.toString()));
-//            }
-//            put.setEntity(new UrlEncodedFormEntity(nvps));
-//            try (CloseableHttpResponse response = httpclient.execute(put)) {
-//                if (response.getStatusLine().getStatusCode() == HttpStatus.SC_CREATED
-//                        || response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
-//                    final HttpEntity entity = response.getEntity();
-//                    final JsonReader reader = readerFactory
-//                            .createReader(new StringReader(EntityUtils.toString(entity)));
-//                    final JsonObject o = reader.readObject();
-//                    final JsonObject node = o.getJsonObject("value");
-//                    if (node.containsKey("createdIndex")) {
-//                        result.put("_" + key + ".createdIndex", String.valueOf(node.getInt("createdIndex")));
-//                    }
-//                    if (node.containsKey("modifiedIndex")) {
-//                        result.put("_" + key + ".modifiedIndex", String.valueOf(node.getInt("modifiedIndex")));
-//                    }
-//                    if (node.containsKey("expiration")) {
-//                        result.put("_" + key + ".expiration", String.valueOf(node.getString("expiration")));
-//                    }
-//                    if (node.containsKey("ttl")) {
-//                        result.put("_" + key + ".ttl", String.valueOf(node.getInt("ttl")));
-//                    }
-//                    result.put(key, node.getString("key"));
-//                    result.put("_" + key + ".source", "[etcd]" + serverURL);
-//                    parsePrevNode(key, result, node);
-//                    EntityUtils.consume(entity);
-//                }
-//            }
-//        } catch (final Exception e) {
-//            LOG.log(Level.INFO, "Error writing to etcd: " + serverURL, e);
-//            result.put("_ERROR", "Error writing '" + key + "' to etcd: " + serverURL + ": " + e.toString());
-//        }
-//        return result;
-//    }
-//
-//    /**
-//     * Deletes a given key. The response is as follows:
-//     *
-//     * <pre>
-//     *     _key.source=[etcd]http://127.0.0.1:4001
-//     *     _key.createdIndex=12
-//     *     _key.modifiedIndex=34
-//     *     _key.ttl=300
-//     *     _key.expiry=...
-//     *      // optional
-//     *     _key.prevNode.createdIndex=12
-//     *     _key.prevNode.modifiedIndex=34
-//     *     _key.prevNode.ttl=300
-//     *     _key.prevNode.expiration=...
-//     *     _key.prevNode.value=...
-//     * </pre>
-//     *
-//     * @param key the key to be deleted.
-//     * @return the response maps as described above.
-//     */
-//    public Map<String, String> delete(String key) {
-//        final Map<String, String> result = new HashMap<>();
-//        try {
-//            final HttpDelete delete = new HttpDelete(serverURL + "/v2/keys/" + key);
-//            delete.setConfig(RequestConfig.copy(RequestConfig.DEFAULT).setSocketTimeout(socketTimeout)
-//                    .setConnectionRequestTimeout(timeout).setConnectTimeout(connectTimeout).build());
-//            try (CloseableHttpResponse response = httpclient.execute(delete)) {
-//                if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
-//                    final HttpEntity entity = response.getEntity();
-//                    final JsonReader reader = readerFactory
-//                            .createReader(new StringReader(EntityUtils.toString(entity)));
-//                    final JsonObject o = reader.readObject();
-//                    final JsonObject node = o.getJsonObject("value");
-//                    if (node.containsKey("createdIndex")) {
-//                        result.put("_" + key + ".createdIndex", String.valueOf(node.getInt("createdIndex")));
-//                    }
-//                    if (node.containsKey("modifiedIndex")) {
-//                        result.put("_" + key + ".modifiedIndex", String.valueOf(node.getInt("modifiedIndex")));
-//                    }
-//                    if (node.containsKey("expiration")) {
-//                        result.put("_" + key + ".expiration", String.valueOf(node.getString("expiration")));
-//                    }
-//                    if (node.containsKey("ttl")) {
-//                        result.put("_" + key + ".ttl", String.valueOf(node.getInt("ttl")));
-//                    }
-//                    parsePrevNode(key, result, o);
-//                    EntityUtils.consume(entity);
-//                }
-//            }
-//        } catch (final Exception e) {
-//            LOG.log(Level.INFO, "Error deleting key '" + key + "' from etcd: " + serverURL, e);
-//            result.put("_ERROR", "Error deleting '" + key + "' from etcd: " + serverURL + ": " + e.toString());
-//        }
-//        return result;
-//    }
-//
-//    private static void parsePrevNode(String key, Map<String, String> result, JsonObject o) {
-//        if (o.containsKey("prevNode")) {
-//            final JsonObject prevNode = o.getJsonObject("prevNode");
-//            if (prevNode.containsKey("createdIndex")) {
-//                result.put("_" + key + ".prevNode.createdIndex",
-//                        String.valueOf(prevNode.getInt("createdIndex")));
-//            }
-//            if (prevNode.containsKey("modifiedIndex")) {
-//                result.put("_" + key + ".prevNode.modifiedIndex",
-//                        String.valueOf(prevNode.getInt("modifiedIndex")));
-//            }
-//            if (prevNode.containsKey("expiration")) {
-//                result.put("_" + key + ".prevNode.expiration",
-//                        String.valueOf(prevNode.getString("expiration")));
-//            }
-//            if (prevNode.containsKey("ttl")) {
-//                result.put("_" + key + ".prevNode.ttl", String.valueOf(prevNode.getInt("ttl")));
-//            }
-//            result.put("_" + key + ".prevNode.value", prevNode.getString("value"));
-//        }
-//    }
-//
-//    /**
-//     * Get all properties for the given directory key recursively.
-//     *
-//     * @param directory the directory entry
-//     * @return the properties and its metadata
-//     * @see #getProperties(String, boolean)
-//     */
-//    public Map<String, String> getProperties(String directory) {
-//        return getProperties(directory, true);
-//    }
-//
-//    /**
-//     * Access all properties. The response of:
-//     *
-//     * <pre>
-//     * {
-//     * "action": "current",
-//     * "getValue": {
-//     * "key": "/",
-//     * "dir": true,
-//     * "getValues": [
-//     * {
-//     * "key": "/foo_dir",
-//     * "dir": true,
-//     * "modifiedIndex": 2,
-//     * "createdIndex": 2
-//     * },
-//     * {
-//     * "key": "/foo",
-//     * "createValue": "two",
-//     * "modifiedIndex": 1,
-//     * "createdIndex": 1
-//     * }
-//     * ]
-//     * }
-//     * }
-//     * </pre>
-//     *
-//     * is mapped to a regular Tamaya properties map as follows:
-//     *
-//     * <pre>
-//     *    key1=myvalue
-//     *     _key1.source=[etcd]http://127.0.0.1:4001
-//     *     _key1.createdIndex=12
-//     *     _key1.modifiedIndex=34
-//     *     _key1.ttl=300
-//     *     _key1.expiration=...
-//     *
-//     *      key2=myvaluexxx
-//     *     _key2.source=[etcd]http://127.0.0.1:4001
-//     *     _key2.createdIndex=12
-//     *
-//     *      key3=val3
-//     *     _key3.source=[etcd]http://127.0.0.1:4001
-//     *     _key3.createdIndex=12
-//     *     _key3.modifiedIndex=2
-//     * </pre>
-//     *
-//     * @param directory remote directory to query.
-//     * @param recursive allows to setCurrent if querying is performed recursively
-//     * @return all properties read from the remote server.
-//     */
-//    public Map<String, String> getProperties(String directory, boolean recursive) {
-//        final Map<String, String> result = new HashMap<>();
-//        try {
-//            final HttpGet get = new HttpGet(serverURL + "/v2/keys/" + directory + "?recursive=" + recursive);
-//            get.setConfig(RequestConfig.copy(RequestConfig.DEFAULT).setSocketTimeout(socketTimeout)
-//                    .setConnectionRequestTimeout(timeout).setConnectTimeout(connectTimeout).build());
-//            try (CloseableHttpResponse response = httpclient.execute(get)) {
-//
-//                if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
-//                    final HttpEntity entity = response.getEntity();
-//                    final JsonReader reader = readerFactory.createReader(new StringReader(EntityUtils.toString(entity)));
-//                    final JsonObject o = reader.readObject();
-//                    final JsonObject node = o.getJsonObject("value");
-//                    if (node != null) {
-//                        addNodes(result, node);
-//                    }
-//                    EntityUtils.consume(entity);
-//                }
-//            }
-//        } catch (final Exception e) {
-//            LOG.log(Level.INFO, "Error reading properties for '" + directory + "' from etcd: " + serverURL, e);
-//            result.put("_ERROR",
-//                    "Error reading properties for '" + directory + "' from etcd: " + serverURL + ": " + e.toString());
-//        }
-//        return result;
-//    }
-//
-//    /**
-//     * Recursively read out all key/values from this etcd JSON array.
-//     *
-//     * @param result map with key, values and metadata.
-//     * @param node   the getValue to parse.
-//     */
-//    private void addNodes(Map<String, String> result, JsonObject node) {
-//        if (!node.containsKey("dir") || "false".equals(node.get("dir").toString())) {
-//            final String key = node.getString("key").substring(1);
-//            result.put(key, node.getString("value"));
-//            if (node.containsKey("createdIndex")) {
-//                result.put("_" + key + ".createdIndex", String.valueOf(node.getInt("createdIndex")));
-//            }
-//            if (node.containsKey("modifiedIndex")) {
-//                result.put("_" + key + ".modifiedIndex", String.valueOf(node.getInt("modifiedIndex")));
-//            }
-//            if (node.containsKey("expiration")) {
-//                result.put("_" + key + ".expiration", String.valueOf(node.getString("expiration")));
-//            }
-//            if (node.containsKey("ttl")) {
-//                result.put("_" + key + ".ttl", String.valueOf(node.getInt("ttl")));
-//            }
-//            result.put("_" + key + ".source", "[etcd]" + serverURL);
-//        } else {
-//            final JsonArray nodes = node.getJsonArray("values");
-//            if (nodes != null) {
-//                for (int i = 0; i < nodes.size(); i++) {
-//                    addNodes(result, nodes.getJsonObject(i));
-//                }
-//            }
-//        }
-//    }
-//
-//    /**
-//     * Access the server root URL used by this accessor.
-//     *
-//     * @return the server root URL.
-//     */
-//    public String getUrl() {
-//        return serverURL;
-//    }
-//}
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.k8s;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.json.Json;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import javax.json.stream.JsonParserFactory;
+
+/**
+ * Accessor for reading to or writing from an etcd endpoint. All accessors share one pool of daemon threads
+ * executing the asynchronous requests. Connections are reused across requests and accessors by the keep-alive
+ * cache of the JDK, which is why every response body is read completely. Responses are parsed with a streaming
+ * JSON parser, so a recursive directory read never holds more than one node in memory besides the result.
+ * <p>
+ * Each accessor tracks the health of its member and an exponentially weighted moving average of its response
+ * times, which are used by {@link EtcdCluster} for routing requests. Redirects, as sent by members not accepting
+ * writes, are followed for all requests.
+ */
+class EtcdAccessor {
+
+    private static final Logger LOG = Logger.getLogger(EtcdAccessor.class.getName());
+
+    /**
+     * Key of the etcd index in the result of {@link #getProperties(String, boolean)}.
+     */
+    static final String INDEX = "_INDEX";
+
+    /**
+     * etcd error code for a watch index no longer contained in the event history.
+     */
+    private static final int EVENT_INDEX_CLEARED = 401;
+
+    /**
+     * Weight of a new response time in the moving average.
+     */
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    /**
+     * Maximal number of redirects followed for a single request.
+     */
+    private static final int MAX_REDIRECTS = 3;
+
+    /**
+     * The executor shared by all accessors.
+     */
+    private static final ExecutorService EXECUTOR = createExecutor(EtcdBackendConfig.getEtcdThreads());
+
+    /**
+     * The JSON parser factory used.
+     */
+    private static final JsonParserFactory PARSER_FACTORY = Json.createParserFactory(Collections.<String, Object>emptyMap());
+
+    /**
+     * The base server url.
+     */
+    private final String serverURL;
+    /**
+     * Connect timeout in milliseconds.
+     */
+    private final int connectTimeout;
+    /**
+     * Read timeout in milliseconds.
+     */
+    private final int readTimeout;
+    /**
+     * Moving average of the response times in nanoseconds, 0 if not yet measured.
+     */
+    private final AtomicLong latency = new AtomicLong();
+    /**
+     * Whether the last request or health check succeeded.
+     */
+    private volatile boolean healthy = true;
+    /**
+     * Whether the member reported to be the leader on the last health check.
+     */
+    private volatile boolean leader;
+
+    /**
+     * Creates a new instance with the basic access url, using the timeouts configured in {@link EtcdBackendConfig}.
+     *
+     * @param server server url, e.g. {@code http://127.0.0.1:4001}, not null.
+     */
+    public EtcdAccessor(String server) {
+        this(server, EtcdBackendConfig.getEtcdConnectTimeout(), EtcdBackendConfig.getEtcdTimeout());
+    }
+
+    /**
+     * Creates a new instance with the basic access url.
+     *
+     * @param server server url, e.g. {@code http://127.0.0.1:4001}, not null.
+     * @param connectTimeout the connect timeout in milliseconds.
+     * @param readTimeout the read timeout in milliseconds.
+     */
+    public EtcdAccessor(String server, long connectTimeout, long readTimeout) {
+        this.connectTimeout = (int) Math.min(Integer.MAX_VALUE, connectTimeout);
+        this.readTimeout = (int) Math.min(Integer.MAX_VALUE, readTimeout);
+        if (server.endsWith("/")) {
+            serverURL = server.substring(0, server.length() - 1);
+        } else {
+            serverURL = server;
+        }
+    }
+
+    private static ExecutorService createExecutor(int threads) {
+        final AtomicInteger count = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), r -> {
+                    final Thread thread = new Thread(r, "tamaya-etcd-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Get the etcd server version.
+     *
+     * @return the etcd server version, never null.
+     */
+    public String getVersion() {
+        try {
+            return execute("GET", "/version", null, (connection, status, body) -> {
+                if (status == HttpURLConnection.HTTP_OK) {
+                    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    copy(body, out);
+                    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+                }
+                return "<ERROR>";
+            });
+        } catch (final Exception e) {
+            LOG.log(Level.INFO, "Error getting etcd version from: " + serverURL, e);
+        }
+        return "<ERROR>";
+    }
+
+    /**
+     * Ask etcd for a single key, createValue pair. Hereby the response returned from
+     * etcd:
+     *
+     * <pre>
+     * {
+     * "action": "get",
+     * "node": {
+     * "createdIndex": 2,
+     * "key": "/message",
+     * "modifiedIndex": 2,
+     * "value": "Hello world"
+     * }
+     * }
+     * </pre>
+     *
+     * is mapped to:
+     *
+     * <pre>
+     *     key=value
+     *     _key.source=[etcd]http://127.0.0.1:4001
+     *     _key.createdIndex=12
+     *     _key.modifiedIndex=34
+     *     _key.ttl=300
+     *     _key.expiration=...
+     * </pre>
+     *
+     * @param key the requested key
+     * @return the mapped result, including getMeta-entries.
+     */
+    public Map<String, String> get(String key) {
+        final Map<String, String> result = new HashMap<>();
+        try {
+            execute("GET", keyPath(key), null, (connection, status, body) -> {
+                if (status == HttpURLConnection.HTTP_OK) {
+                    final Response response = parse(body, null);
+                    if (response.node != null && !response.node.dir) {
+                        addNode(result, key, response.node);
+                    }
+                } else {
+                    result.put("_" + key + ".NOT_FOUND.target", "[etcd]" + serverURL);
+                }
+                return result;
+            });
+        } catch (final Exception e) {
+            LOG.log(Level.INFO, "Error reading key '" + key + "' from etcd: " + serverURL, e);
+            result.put("_ERROR", "Error reading key '" + key + "' from etcd: " + serverURL + ": " + e.toString());
+        }
+        return result;
+    }
+
+    /**
+     * Asynchronously asks etcd for a single key.
+     *
+     * @param key the requested key
+     * @return the future result map as described in {@link #get(String)}.
+     */
+    public CompletableFuture<Map<String, String>> getAsync(String key) {
+        return CompletableFuture.supplyAsync(() -> get(key), EXECUTOR);
+    }
+
+    /**
+     * Creates/updates an entry in etcd without any ttl setCurrent.
+     *
+     * @param key   the property key, not null
+     * @param value the createValue to be setCurrent
+     * @return the result map as described above.
+     * @see #set(String, String, Integer)
+     */
+    public Map<String, String> set(String key, String value) {
+        return set(key, value, null);
+    }
+
+    /**
+     * Creates/updates an entry in etcd. The response as follows:
+     *
+     * <pre>
+     *     {
+     * "action": "set",
+     * "node": {
+     * "createdIndex": 3,
+     * "key": "/message",
+     * "modifiedIndex": 3,
+     * "value": "Hello etcd"
+     * },
+     * "prevNode": {
+     * "createdIndex": 2,
+     * "key": "/message",
+     * "value": "Hello world",
+     * "modifiedIndex": 2
+     * }
+     * }
+     * </pre>
+     *
+     * is mapped to:
+     *
+     * <pre>
+     *     key=createValue
+     *     _key.source=[etcd]http://127.0.0.1:4001
+     *     _key.createdIndex=12
+     *     _key.modifiedIndex=34
+     *     _key.ttl=300
+     *     _key.expiry=...
+     *      // optional
+     *     _key.prevNode.createdIndex=12
+     *     _key.prevNode.modifiedIndex=34
+     *     _key.prevNode.ttl=300
+     *     _key.prevNode.expiration=...
+     * </pre>
+     *
+     * @param key        the property key, not null
+     * @param value      the createValue to be setCurrent
+     * @param ttlSeconds the ttl in seconds (optional)
+     * @return the result map as described above.
+     */
+    public Map<String, String> set(String key, String value, Integer ttlSeconds) {
+        final Map<String, String> result = new HashMap<>();
+        try {
+            String form = "value=" + encode(value);
+            if (ttlSeconds != null) {
+                form += "&ttl=" + ttlSeconds;
+            }
+            execute("PUT", keyPath(key), form, (connection, status, body) -> {
+                if (status == HttpURLConnection.HTTP_CREATED || status == HttpURLConnection.HTTP_OK) {
+                    final Response response = parse(body, null);
+                    if (response.node != null) {
+                        addNode(result, key, response.node);
+                    }
+                    addPrevNode(result, key, response.prevNode);
+                } else {
+                    result.put("_ERROR", "Error writing '" + key + "' to etcd: " + serverURL + ": HTTP " + status);
+                }
+                return result;
+            });
+        } catch (final Exception e) {
+            LOG.log(Level.INFO, "Error writing to etcd: " + serverURL, e);
+            result.put("_ERROR", "Error writing '" + key + "' to etcd: " + serverURL + ": " + e.toString());
+        }
+        return result;
+    }
+
+    /**
+     * Asynchronously creates/updates an entry in etcd.
+     *
+     * @param key        the property key, not null
+     * @param value      the createValue to be setCurrent
+     * @param ttlSeconds the ttl in seconds (optional)
+     * @return the future result map as described in {@link #set(String, String, Integer)}.
+     */
+    public CompletableFuture<Map<String, String>> setAsync(String key, String value, Integer ttlSeconds) {
+        return CompletableFuture.supplyAsync(() -> set(key, value, ttlSeconds), EXECUTOR);
+    }
+
+    /**
+     * Deletes a given key. The response is as follows:
+     *
+     * <pre>
+     *     _key.source=[etcd]http://127.0.0.1:4001
+     *     _key.createdIndex=12
+     *     _key.modifiedIndex=34
+     *     _key.ttl=300
+     *     _key.expiry=...
+     *      // optional
+     *     _key.prevNode.createdIndex=12
+     *     _key.prevNode.modifiedIndex=34
+     *     _key.prevNode.ttl=300
+     *     _key.prevNode.expiration=...
+     *     _key.prevNode.value=...
+     * </pre>
+     *
+     * @param key the key to be deleted.
+     * @return the response maps as described above.
+     */
+    public Map<String, String> delete(String key) {
+        final Map<String, String> result = new HashMap<>();
+        try {
+            execute("DELETE", keyPath(key), null, (connection, status, body) -> {
+                if (status == HttpURLConnection.HTTP_OK) {
+                    final Response response = parse(body, null);
+                    if (response.node != null) {
+                        addMeta(result, "_" + key, response.node);
+                    }
+                    addPrevNode(result, key, response.prevNode);
+                } else if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                    result.put("_" + key + ".NOT_FOUND.target", "[etcd]" + serverURL);
+                } else {
+                    result.put("_ERROR", "Error deleting '" + key + "' from etcd: " + serverURL + ": HTTP " + status);
+                }
+                return result;
+            });
+        } catch (final Exception e) {
+            LOG.log(Level.INFO, "Error deleting key '" + key + "' from etcd: " + serverURL, e);
+            result.put("_ERROR", "Error deleting '" + key + "' from etcd: " + serverURL + ": " + e.toString());
+        }
+        return result;
+    }
+
+    /**
+     * Asynchronously deletes a given key.
+     *
+     * @param key the key to be deleted.
+     * @return the future response map as described in {@link #delete(String)}.
+     */
+    public CompletableFuture<Map<String, String>> deleteAsync(String key) {
+        return CompletableFuture.supplyAsync(() -> delete(key), EXECUTOR);
+    }
+
+    /**
+     * Applies the writes as pipelined asynchronous requests, with at most {@code maxConcurrent} requests in
+     * flight, and waits for all of them to complete. Deleting a key not existing is not considered an error.
+     *
+     * @param writes the writes, for distinct keys.
+     * @param maxConcurrent the maximal number of concurrent requests.
+     * @return the error of each key not written, in the order of the writes, empty if all writes succeeded.
+     */
+    public Map<String, String> write(List<Write> writes, int maxConcurrent) {
+        final Semaphore permits = new Semaphore(Math.max(1, maxConcurrent));
+        final List<CompletableFuture<Map<String, String>>> pending = new ArrayList<>(writes.size());
+        final Map<String, String> errors = new LinkedHashMap<>();
+        try {
+            for (final Write write : writes) {
+                permits.acquire();
+                final CompletableFuture<Map<String, String>> future = CompletableFuture.supplyAsync(() ->
+                        write.isDelete() ? delete(write.key) : set(write.key, write.value, write.ttlSeconds), EXECUTOR);
+                future.whenComplete((result, e) -> permits.release());
+                pending.add(future);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (int i = 0; i < writes.size(); i++) {
+            final String key = writes.get(i).key;
+            if (i >= pending.size()) {
+                errors.put(key, "Interrupted before writing to etcd: " + serverURL);
+                continue;
+            }
+            try {
+                final String error = pending.get(i).join().get("_ERROR");
+                if (error != null) {
+                    errors.put(key, error);
+                }
+            } catch (final CompletionException e) {
+                errors.put(key, "Error writing '" + key + "' to etcd: " + serverURL + ": " + e.getCause());
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Get all properties for the given directory key recursively.
+     *
+     * @param directory the directory entry
+     * @return the properties and its metadata
+     * @see #getProperties(String, boolean)
+     */
+    public Map<String, String> getProperties(String directory) {
+        return getProperties(directory, true);
+    }
+
+    /**
+     * Access all properties. The response of:
+     *
+     * <pre>
+     * {
+     * "action": "get",
+     * "node": {
+     * "key": "/",
+     * "dir": true,
+     * "nodes": [
+     * {
+     * "key": "/foo_dir",
+     * "dir": true,
+     * "modifiedIndex": 2,
+     * "createdIndex": 2
+     * },
+     * {
+     * "key": "/foo",
+     * "value": "two",
+     * "modifiedIndex": 1,
+     * "createdIndex": 1
+     * }
+     * ]
+     * }
+     * }
+     * </pre>
+     *
+     * is mapped to a regular Tamaya properties map as follows:
+     *
+     * <pre>
+     *    key1=myvalue
+     *     _key1.source=[etcd]http://127.0.0.1:4001
+     *     _key1.createdIndex=12
+     *     _key1.modifiedIndex=34
+     *     _key1.ttl=300
+     *     _key1.expiration=...
+     *
+     *      key2=myvaluexxx
+     *     _key2.source=[etcd]http://127.0.0.1:4001
+     *     _key2.createdIndex=12
+     *
+     *      key3=val3
+     *     _key3.source=[etcd]http://127.0.0.1:4001
+     *     _key3.createdIndex=12
+     *     _key3.modifiedIndex=2
+     *
+     *     _INDEX=35
+     * </pre>
+     *
+     * The {@code _INDEX} entry contains the etcd index the result is consistent with, also when the directory
+     * does not exist.
+     *
+     * @param directory remote directory to query.
+     * @param recursive allows to setCurrent if querying is performed recursively
+     * @return all properties read from the remote server.
+     */
+    public Map<String, String> getProperties(String directory, boolean recursive) {
+        final Map<String, String> result = new HashMap<>();
+        try {
+            execute("GET", keyPath(directory) + "?recursive=" + recursive, null, (connection, status, body) -> {
+                final String index = connection.getHeaderField("X-Etcd-Index");
+                if (index != null) {
+                    result.put(INDEX, index);
+                }
+                if (status == HttpURLConnection.HTTP_OK) {
+                    final Response response = parse(body, node -> addNode(result, node));
+                    if (response.node != null && !response.node.dir) {
+                        addNode(result, response.node);
+                    }
+                } else if (status != HttpURLConnection.HTTP_NOT_FOUND) {
+                    result.put("_ERROR", "Error reading properties for '" + directory + "' from etcd: "
+                            + serverURL + ": HTTP " + status);
+                }
+                return result;
+            });
+        } catch (final Exception e) {
+            LOG.log(Level.INFO, "Error reading properties for '" + directory + "' from etcd: " + serverURL, e);
+            result.put("_ERROR",
+                    "Error reading properties for '" + directory + "' from etcd: " + serverURL + ": " + e.toString());
+        }
+        return result;
+    }
+
+    /**
+     * Asynchronously accesses all properties of a directory.
+     *
+     * @param directory remote directory to query.
+     * @param recursive allows to setCurrent if querying is performed recursively
+     * @return the future properties as described in {@link #getProperties(String, boolean)}.
+     */
+    public CompletableFuture<Map<String, String>> getPropertiesAsync(String directory, boolean recursive) {
+        return CompletableFuture.supplyAsync(() -> getProperties(directory, recursive), EXECUTOR);
+    }
+
+    /**
+     * Waits for the next change of the given directory or key, or of any of its children. The request is a
+     * long poll, which is answered by etcd as soon as a change with an index of at least {@code waitIndex} is
+     * contained in its event history.
+     *
+     * @param directory the directory or key watched.
+     * @param waitIndex the minimal etcd index of the change returned.
+     * @param timeout the maximal time to wait in milliseconds.
+     * @return the change, or null if nothing changed within the timeout.
+     * @throws IndexClearedException if the change at {@code waitIndex} is no longer contained in the event history
+     * of etcd, so the data has to be read again.
+     * @throws IOException if etcd is not accessible.
+     */
+    public WatchEvent watch(String directory, long waitIndex, long timeout) throws IOException {
+        final String path = keyPath(directory) + "?wait=true&recursive=true&waitIndex=" + waitIndex;
+        try {
+            return execute("GET", path, null, (int) Math.min(Integer.MAX_VALUE, timeout), false, (connection, status, body) -> {
+                if (status == HttpURLConnection.HTTP_OK) {
+                    final Response response = parse(body, null);
+                    if (response.node == null || response.node.key == null) {
+                        throw new IOException("Invalid watch response from etcd: " + serverURL);
+                    }
+                    final Map<String, String> properties = new HashMap<>();
+                    final String key = response.node.key.startsWith("/") ? response.node.key.substring(1)
+                            : response.node.key;
+                    addNode(properties, key, response.node);
+                    return new WatchEvent(response.action, key, response.node.dir,
+                            Long.parseLong(response.node.modifiedIndex), properties);
+                }
+                final Response response = parse(body, null);
+                if (response.errorCode == EVENT_INDEX_CLEARED) {
+                    throw new IndexClearedException(waitIndex, response.index);
+                }
+                throw new IOException("Error watching '" + directory + "' on etcd: " + serverURL + ": HTTP " + status);
+            });
+        } catch (final SocketTimeoutException e) {
+            return null;
+        } catch (final IndexClearedException e) {
+            throw e;
+        } catch (final IOException e) {
+            markFailed();
+            throw e;
+        }
+    }
+
+    /**
+     * Checks, whether the member is accessible, by reading its statistics. The result updates the health, the
+     * response time and the leader state of this accessor.
+     *
+     * @return true, if the member is healthy.
+     */
+    public boolean checkHealth() {
+        try {
+            leader = execute("GET", "/v2/stats/self", null, (connection, status, body) ->
+                    status == HttpURLConnection.HTTP_OK && "StateLeader".equals(parse(body, null).state));
+        } catch (final Exception e) {
+            LOG.log(Level.FINE, "etcd health check failed on: " + serverURL, e);
+            leader = false;
+        }
+        return healthy;
+    }
+
+    /**
+     * Asynchronously checks, whether the member is accessible.
+     *
+     * @return the future result as described in {@link #checkHealth()}.
+     */
+    public CompletableFuture<Boolean> checkHealthAsync() {
+        return CompletableFuture.supplyAsync(this::checkHealth, EXECUTOR);
+    }
+
+    /**
+     * Whether the last request or health check on this member succeeded.
+     *
+     * @return true, if the member is considered healthy.
+     */
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    /**
+     * Whether the member reported to be the cluster leader on the last health check.
+     *
+     * @return true, if the member is the leader.
+     */
+    public boolean isLeader() {
+        return leader;
+    }
+
+    /**
+     * Get the moving average of the response times of this member. Watches are not measured.
+     *
+     * @return the average response time in nanoseconds, or 0 if nothing has been measured yet.
+     */
+    public long getLatency() {
+        return latency.get();
+    }
+
+    /**
+     * Marks this member as failed, e.g. after a failed watch.
+     */
+    void markFailed() {
+        healthy = false;
+    }
+
+    private void recordLatency(long nanos) {
+        long current;
+        long updated;
+        do {
+            current = latency.get();
+            updated = current == 0L ? Math.max(1L, nanos)
+                    : Math.max(1L, current + Math.round((nanos - current) * LATENCY_WEIGHT));
+        } while (!latency.compareAndSet(current, updated));
+    }
+
+    /**
+     * Access the server root URL used by this accessor.
+     *
+     * @return the server root URL.
+     */
+    public String getUrl() {
+        return serverURL;
+    }
+
+    /**
+     * Executes a request, handing the response body to the handler. The body is read completely afterwards,
+     * so the connection can be reused.
+     */
+    private <T> T execute(String method, String path, String form, ResponseHandler<T> handler) throws IOException {
+        return execute(method, path, form, readTimeout, true, handler);
+    }
+
+    /**
+     * Executes a request, following redirects. If {@code measured}, the response time is added to the moving
+     * average and the health is updated: server errors and failed requests mark the member as unhealthy.
+     */
+    private <T> T execute(String method, String path, String form, int readTimeout, boolean measured,
+                          ResponseHandler<T> handler) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            URL url = new URL(serverURL + path);
+            for (int redirects = 0; ; redirects++) {
+                final HttpURLConnection connection = open(url, method, form, readTimeout);
+                final int status = connection.getResponseCode();
+                final String location = connection.getHeaderField("Location");
+                if (isRedirect(status) && location != null && redirects < MAX_REDIRECTS) {
+                    drain(connection, status);
+                    url = new URL(url, location);
+                    continue;
+                }
+                final T result;
+                try (InputStream body = getBody(connection, status)) {
+                    result = handler.handle(connection, status, body);
+                    copy(body, null);
+                }
+                if (measured) {
+                    recordLatency(System.nanoTime() - start);
+                    healthy = status < HttpURLConnection.HTTP_INTERNAL_ERROR;
+                }
+                return result;
+            }
+        } catch (final IOException | RuntimeException e) {
+            if (measured) {
+                markFailed();
+            }
+            throw e;
+        }
+    }
+
+    private HttpURLConnection open(URL url, String method, String form, int readTimeout) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setInstanceFollowRedirects(false);
+        connection.setRequestMethod(method);
+        connection.setRequestProperty("Accept", "application/json");
+        if (form != null) {
+            final byte[] content = form.getBytes(StandardCharsets.UTF_8);
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            connection.setFixedLengthStreamingMode(content.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(content);
+            }
+        }
+        return connection;
+    }
+
+    private static boolean isRedirect(int status) {
+        return status == HttpURLConnection.HTTP_MOVED_PERM || status == HttpURLConnection.HTTP_MOVED_TEMP
+                || status == 307 || status == 308;
+    }
+
+    private static InputStream getBody(HttpURLConnection connection, int status) throws IOException {
+        final InputStream in = status < HttpURLConnection.HTTP_BAD_REQUEST ? connection.getInputStream()
+                : connection.getErrorStream();
+        return in == null ? new ByteArrayInputStream(new byte[0]) : in;
+    }
+
+    private static void drain(HttpURLConnection connection, int status) throws IOException {
+        try (InputStream body = getBody(connection, status)) {
+            copy(body, null);
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        final byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            if (out != null) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
+    private static String keyPath(String key) throws UnsupportedEncodingException {
+        final StringBuilder path = new StringBuilder("/v2/keys");
+        for (final String segment : key.split("/")) {
+            if (!segment.isEmpty()) {
+                path.append('/').append(encode(segment).replace("+", "%20"));
+            }
+        }
+        if (path.length() == "/v2/keys".length()) {
+            path.append('/');
+        }
+        return path.toString();
+    }
+
+    private static String encode(String value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+
+    /**
+     * Parses an etcd response. The leaf nodes contained in the {@code nodes} of the response's node are
+     * passed to the given consumer as soon as they have been read, and are not added to the returned response.
+     *
+     * @param in the response body.
+     * @param leaves the consumer of the leaf nodes, or null.
+     * @return the parsed response, never null.
+     */
+    private static Response parse(InputStream in, Consumer<Node> leaves) {
+        // the parser is not closed, since the stream still has to be drained by execute
+        final JsonParser parser = PARSER_FACTORY.createParser(in, StandardCharsets.UTF_8);
+        final Response response = new Response();
+        if (!parser.hasNext() || parser.next() != Event.START_OBJECT) {
+            return response;
+        }
+        while (parser.next() == Event.KEY_NAME) {
+            switch (parser.getString()) {
+                case "action":
+                    response.action = readString(parser);
+                    break;
+                case "node":
+                    response.node = readNode(parser, parser.next(), leaves);
+                    break;
+                case "prevNode":
+                    response.prevNode = readNode(parser, parser.next(), null);
+                    break;
+                case "errorCode":
+                    final String errorCode = readString(parser);
+                    response.errorCode = errorCode == null ? 0 : Integer.parseInt(errorCode);
+                    break;
+                case "index":
+                    final String index = readString(parser);
+                    response.index = index == null ? 0L : Long.parseLong(index);
+                    break;
+                case "state":
+                    response.state = readString(parser);
+                    break;
+                default:
+                    skip(parser, parser.next());
+            }
+        }
+        return response;
+    }
+
+    private static Node readNode(JsonParser parser, Event start, Consumer<Node> leaves) {
+        if (start != Event.START_OBJECT) {
+            skip(parser, start);
+            return null;
+        }
+        final Node node = new Node();
+        while (parser.next() == Event.KEY_NAME) {
+            switch (parser.getString()) {
+                case "key":
+                    node.key = readString(parser);
+                    break;
+                case "value":
+                    node.value = readString(parser);
+                    break;
+                case "dir":
+                    node.dir = parser.next() == Event.VALUE_TRUE;
+                    break;
+                case "createdIndex":
+                    node.createdIndex = readString(parser);
+                    break;
+                case "modifiedIndex":
+                    node.modifiedIndex = readString(parser);
+                    break;
+                case "ttl":
+                    node.ttl = readString(parser);
+                    break;
+                case "expiration":
+                    node.expiration = readString(parser);
+                    break;
+                case "nodes":
+                    final Event event = parser.next();
+                    if (event != Event.START_ARRAY) {
+                        skip(parser, event);
+                        break;
+                    }
+                    Event child;
+                    while ((child = parser.next()) != Event.END_ARRAY) {
+                        final Node childNode = readNode(parser, child, leaves);
+                        if (childNode != null && !childNode.dir && leaves != null) {
+                            leaves.accept(childNode);
+                        }
+                    }
+                    break;
+                default:
+                    skip(parser, parser.next());
+            }
+        }
+        return node;
+    }
+
+    private static String readString(JsonParser parser) {
+        final Event event = parser.next();
+        if (event == Event.VALUE_STRING || event == Event.VALUE_NUMBER) {
+            return parser.getString();
+        }
+        skip(parser, event);
+        return null;
+    }
+
+    private static void skip(JsonParser parser, Event event) {
+        if (event != Event.START_OBJECT && event != Event.START_ARRAY) {
+            return;
+        }
+        int depth = 1;
+        while (depth > 0) {
+            switch (parser.next()) {
+                case START_OBJECT:
+                case START_ARRAY:
+                    depth++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    depth--;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void addNode(Map<String, String> result, Node node) {
+        if (node.key != null) {
+            addNode(result, node.key.startsWith("/") ? node.key.substring(1) : node.key, node);
+        }
+    }
+
+    private void addNode(Map<String, String> result, String key, Node node) {
+        if (node.value != null) {
+            result.put(key, node.value);
+        }
+        addMeta(result, "_" + key, node);
+        result.put("_" + key + ".source", "[etcd]" + serverURL);
+    }
+
+    private static void addPrevNode(Map<String, String> result, String key, Node prevNode) {
+        if (prevNode != null) {
+            addMeta(result, "_" + key + ".prevNode", prevNode);
+            if (prevNode.value != null) {
+                result.put("_" + key + ".prevNode.value", prevNode.value);
+            }
+        }
+    }
+
+    private static void addMeta(Map<String, String> result, String prefix, Node node) {
+        if (node.createdIndex != null) {
+            result.put(prefix + ".createdIndex", node.createdIndex);
+        }
+        if (node.modifiedIndex != null) {
+            result.put(prefix + ".modifiedIndex", node.modifiedIndex);
+        }
+        if (node.expiration != null) {
+            result.put(prefix + ".expiration", node.expiration);
+        }
+        if (node.ttl != null) {
+            result.put(prefix + ".ttl", node.ttl);
+        }
+    }
+
+    /**
+     * Handler of a response.
+     */
+    @FunctionalInterface
+    private interface ResponseHandler<T> {
+        T handle(HttpURLConnection connection, int status, InputStream body) throws IOException;
+    }
+
+    /**
+     * A parsed etcd response.
+     */
+    private static final class Response {
+        private String action;
+        private Node node;
+        private Node prevNode;
+        private int errorCode;
+        private long index;
+        private String state;
+    }
+
+    /**
+     * A write of a single key: a set with optional ttl, or a delete.
+     */
+    static final class Write {
+        private final String key;
+        private final String value;
+        private final Integer ttlSeconds;
+
+        private Write(String key, String value, Integer ttlSeconds) {
+            this.key = key;
+            this.value = value;
+            this.ttlSeconds = ttlSeconds;
+        }
+
+        /**
+         * Creates a write setting a key. The ttl can be passed as query of the key, e.g. {@code a.b?ttl=60}.
+         *
+         * @param key the key, with an optional ttl query.
+         * @param value the value, not null.
+         * @return the write, never null.
+         * @throws IllegalArgumentException if the ttl is not a number.
+         */
+        static Write set(String key, String value) {
+            final int index = key.indexOf('?');
+            if (index <= 0) {
+                return new Write(key, value, null);
+            }
+            Integer ttl = null;
+            for (final String query : key.substring(index + 1).split("&")) {
+                final int eq = query.indexOf('=');
+                if (eq > 0 && "ttl".equals(query.substring(0, eq).trim())) {
+                    try {
+                        ttl = Integer.valueOf(query.substring(eq + 1).trim());
+                    } catch (final NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid ttl: " + query, e);
+                    }
+                }
+            }
+            return new Write(key.substring(0, index), value, ttl);
+        }
+
+        /**
+         * Creates a write deleting a key.
+         *
+         * @param key the key.
+         * @return the write, never null.
+         */
+        static Write delete(String key) {
+            return new Write(key, null, null);
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public boolean isDelete() {
+            return value == null;
+        }
+
+        @Override
+        public String toString() {
+            return isDelete() ? "delete " + key : key + '=' + value + (ttlSeconds == null ? "" : "?ttl=" + ttlSeconds);
+        }
+    }
+
+    /**
+     * A change of a key or directory, as returned by a watch.
+     */
+    static final class WatchEvent {
+        private final String action;
+        private final String key;
+        private final boolean dir;
+        private final long modifiedIndex;
+        private final Map<String, String> properties;
+
+        private WatchEvent(String action, String key, boolean dir, long modifiedIndex, Map<String, String> properties) {
+            this.action = action;
+            this.key = key;
+            this.dir = dir;
+            this.modifiedIndex = modifiedIndex;
+            this.properties = properties;
+        }
+
+        /**
+         * Get the etcd action, e.g. {@code set} or {@code delete}.
+         * @return the action.
+         */
+        String getAction() {
+            return action;
+        }
+
+        /**
+         * Get the key changed, without leading slash.
+         * @return the key, never null.
+         */
+        String getKey() {
+            return key;
+        }
+
+        /**
+         * Get if a directory has been changed.
+         * @return true, if the key is a directory.
+         */
+        boolean isDir() {
+            return dir;
+        }
+
+        /**
+         * Check if the key has been removed, e.g. deleted or expired.
+         * @return true, if the key does not exist anymore.
+         */
+        boolean isRemoval() {
+            return "delete".equals(action) || "expire".equals(action) || "compareAndDelete".equals(action);
+        }
+
+        /**
+         * Get the etcd index of the change.
+         * @return the index.
+         */
+        long getModifiedIndex() {
+            return modifiedIndex;
+        }
+
+        /**
+         * Get the key, value and meta entries of the changed key, as returned by {@link EtcdAccessor#get(String)}.
+         * @return the properties, never null.
+         */
+        Map<String, String> getProperties() {
+            return properties;
+        }
+    }
+
+    /**
+     * Thrown by a watch, if the requested index is no longer contained in the event history of etcd.
+     */
+    static final class IndexClearedException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private IndexClearedException(long waitIndex, long index) {
+            super("etcd event index " + waitIndex + " has been cleared, current index is " + index);
+        }
+    }
+
+    /**
+     * A parsed etcd node, the indexes are kept as read.
+     */
+    private static final class Node {
+        private String key;
+        private String value;
+        private boolean dir;
+        private String createdIndex;
+        private String modifiedIndex;
+        private String ttl;
+        private String expiration;
+    }
+}
@@ -1,95 +1,146 @@
-///*
-// * Licensed to the Apache Software Foundation (ASF) under one
-// * or more contributor license agreements.  See the NOTICE file
-// * distributed with this work for additional information
-// * regarding copyright ownership.  The ASF licenses this file
-// * to you under the Apache License, Version 2.0 (the
-// * "License"); you may not use this file except in compliance
-// * with the License.  You may obtain a copy of the License at
-// *
-// *   http://www.apache.org/licenses/LICENSE-2.0
-// *
-// * Unless required by applicable law or agreed to in writing,
-// * software distributed under the License is distributed on an
-// * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
-// * KIND, either express or implied.  See the License for the
-// * specific language governing permissions and limitations
-// * under the License.
-// */
-//package org.apache.tamaya.etcd;
-//
-//import java.util.ArrayList;
-//import java.util.List;
-//import java.util.concurrent.TimeUnit;
-//import java.util.logging.Level;
-//import java.util.logging.Logger;
-//
-///**
-// * Singleton that reads the current etcd setup, especially the possible URLs to be used.
-// */
-//final class EtcdBackendConfig {
-//
-//	private static final Logger LOG = Logger.getLogger(EtcdBackendConfig.class.getName());
-//	private static final String TAMAYA_ETCD_SERVER_URLS = "tamaya.etcd.server";
-//	private static final String TAMAYA_ETCD_TIMEOUT = "tamaya.etcd.timeout";
-//    private static final String TAMAYA_ETCD_DIRECTORY = "tamaya.etcd.directory";
-//
-//
-//    private EtcdBackendConfig(){}
-//
-//    /**
-//     * Get the default etcd directory selector, default {@code ""}.
-//     * @return the default etcd directory selector, never null.
-//     */
-//    public static String getEtcdDirectory(){
-//        String val = System.getProperty(TAMAYA_ETCD_DIRECTORY);
-//        if(val == null){
-//            val = System.getenv(TAMAYA_ETCD_DIRECTORY);
-//        }
-//        if(val!=null){
-//            return val;
-//        }
-//        return "";
-//    }
-//
-//    /**
-//     * Get the etcd connection timeout from system/enfironment property {@code tamaya.etcd.timeout (=seconds)}
-//     * (default 2 seconds).
-//     * @return the etcd connection timeout.
-//     */
-//    public static long getEtcdTimeout(){
-//        String val = System.getProperty(TAMAYA_ETCD_TIMEOUT);
-//        if(val == null){
-//            val = System.getenv(TAMAYA_ETCD_TIMEOUT);
-//        }
-//        if(val!=null){
-//            return TimeUnit.MILLISECONDS.convert(Integer.parseInt(val), TimeUnit.SECONDS);
-//        }
-//        return 2000L;
-//    }
-//
-//    /**
-//     * Evaluate the etcd target servers fomr system/environment property {@code tamaya.etcd.server}.
-//     * @return the servers configured, or {@code http://127.0.0.1:4001} (default).
-//     */
-//    public static List<String> getServers(){
-//        String serverURLs = System.getProperty(TAMAYA_ETCD_SERVER_URLS);
-//        if(serverURLs==null){
-//            serverURLs = System.getenv(TAMAYA_ETCD_SERVER_URLS);
-//        }
-//        if(serverURLs==null){
-//            serverURLs = "http://127.0.0.1:4001";
-//        }
-//        List<String> servers = new ArrayList<>();
-//        for(String url:serverURLs.split("\\,")) {
-//            try{
-//                servers.add(url.trim());
-//                LOG.info("Using etcd endoint: " + url);
-//            } catch(Exception e){
-//                LOG.log(Level.SEVERE, "Error initializing etcd accessor for URL: " + url, e);
-//            }
-//        }
-//        return servers;
-//    }
-//
-//}
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.k8s;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Singleton that reads the current etcd setup, especially the possible URLs to be used.
+ */
+final class EtcdBackendConfig {
+
+	private static final Logger LOG = Logger.getLogger(EtcdBackendConfig.class.getName());
+	private static final String TAMAYA_ETCD_SERVER_URLS = "tamaya.etcd.server";
+	private static final String TAMAYA_ETCD_TIMEOUT = "tamaya.etcd.timeout";
+	private static final String TAMAYA_ETCD_CONNECT_TIMEOUT = "tamaya.etcd.connectTimeout";
+	private static final String TAMAYA_ETCD_WATCH_TIMEOUT = "tamaya.etcd.watchTimeout";
+	private static final String TAMAYA_ETCD_THREADS = "tamaya.etcd.threads";
+	private static final String TAMAYA_ETCD_HEALTH_INTERVAL = "tamaya.etcd.healthInterval";
+    private static final String TAMAYA_ETCD_DIRECTORY = "tamaya.etcd.directory";
+
+
+    private EtcdBackendConfig(){}
+
+    /**
+     * Get the default etcd directory selector, default {@code ""}.
+     * @return the default etcd directory selector, never null.
+     */
+    public static String getEtcdDirectory(){
+        String val = getProperty(TAMAYA_ETCD_DIRECTORY);
+        if(val!=null){
+            return val;
+        }
+        return "";
+    }
+
+    /**
+     * Get the etcd read timeout from system/environment property {@code tamaya.etcd.timeout (=seconds)}
+     * (default 2 seconds).
+     * @return the etcd read timeout in milliseconds.
+     */
+    public static long getEtcdTimeout(){
+        return getSeconds(TAMAYA_ETCD_TIMEOUT, 2000L);
+    }
+
+    /**
+     * Get the etcd connection timeout from system/environment property {@code tamaya.etcd.connectTimeout (=seconds)}
+     * (default 1 second).
+     * @return the etcd connection timeout in milliseconds.
+     */
+    public static long getEtcdConnectTimeout(){
+        return getSeconds(TAMAYA_ETCD_CONNECT_TIMEOUT, 1000L);
+    }
+
+    /**
+     * Get the maximal duration of a single etcd watch request from system/environment property
+     * {@code tamaya.etcd.watchTimeout (=seconds)} (default 60 seconds). Watches are renewed, when they time out.
+     * @return the etcd watch timeout in milliseconds.
+     */
+    public static long getEtcdWatchTimeout(){
+        return getSeconds(TAMAYA_ETCD_WATCH_TIMEOUT, 60000L);
+    }
+
+    /**
+     * Get the interval of the background health checks of the etcd members from system/environment property
+     * {@code tamaya.etcd.healthInterval (=seconds)} (default 5 seconds).
+     * @return the health check interval in milliseconds.
+     */
+    public static long getEtcdHealthInterval(){
+        return getSeconds(TAMAYA_ETCD_HEALTH_INTERVAL, 5000L);
+    }
+
+    /**
+     * Get the number of threads shared by all etcd accessors for executing requests from system/environment
+     * property {@code tamaya.etcd.threads} (default 4).
+     * @return the number of threads, at least 1.
+     */
+    public static int getEtcdThreads(){
+        String val = getProperty(TAMAYA_ETCD_THREADS);
+        if(val!=null){
+            try{
+                return Math.max(1, Integer.parseInt(val.trim()));
+            } catch(NumberFormatException e){
+                LOG.log(Level.WARNING, "Invalid number of etcd threads: " + val, e);
+            }
+        }
+        return 4;
+    }
+
+    /**
+     * Evaluate the etcd target servers fomr system/environment property {@code tamaya.etcd.server}.
+     * @return the servers configured, or {@code http://127.0.0.1:4001} (default).
+     */
+    public static List<String> getServers(){
+        String serverURLs = getProperty(TAMAYA_ETCD_SERVER_URLS);
+        if(serverURLs==null){
+            serverURLs = "http://127.0.0.1:4001";
+        }
+        List<String> servers = new ArrayList<>();
+        for(String url:serverURLs.split("\\,")) {
+            servers.add(url.trim());
+            LOG.info("Using etcd endoint: " + url);
+        }
+        return servers;
+    }
+
+    private static long getSeconds(String key, long defaultMillis){
+        String val = getProperty(key);
+        if(val!=null){
+            try{
+                return TimeUnit.MILLISECONDS.convert(Integer.parseInt(val.trim()), TimeUnit.SECONDS);
+            } catch(NumberFormatException e){
+                LOG.log(Level.WARNING, "Invalid etcd timeout " + key + ": " + val, e);
+            }
+        }
+        return defaultMillis;
+    }
+
+    private static String getProperty(String key){
+        String val = System.getProperty(key);
+        if(val == null){
+            val = System.getenv(key);
+        }
+        return val;
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.k8s;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The members of an etcd cluster, ordered for routing requests. Reads go to the healthy member with the lowest
+ * average response time, writes go to the leader, falling back to the read order. The health of the members is
+ * checked in the background, so callers never have to wait for a dead member to time out, unless no member is
+ * healthy at all.
+ */
+final class EtcdCluster implements AutoCloseable {
+
+    /**
+     * The scheduler triggering the health checks of all clusters, the checks themselves are run asynchronously
+     * by the accessors.
+     */
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "tamaya-etcd-health");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Comparator<EtcdAccessor> BY_LATENCY = Comparator.comparingLong(EtcdAccessor::getLatency);
+
+    private final List<EtcdAccessor> members;
+
+    private final ScheduledFuture<?> healthCheck;
+
+    private volatile CompletableFuture<Void> runningCheck = CompletableFuture.completedFuture(null);
+
+    /**
+     * Creates a new cluster, checking the health of the members every {@code healthInterval} milliseconds.
+     *
+     * @param servers the member urls, not null.
+     * @param healthInterval the health check interval in milliseconds, 0 for no background checks.
+     */
+    EtcdCluster(List<String> servers, long healthInterval) {
+        final List<EtcdAccessor> members = new ArrayList<>();
+        for (final String server : servers) {
+            members.add(new EtcdAccessor(server));
+        }
+        this.members = Collections.unmodifiableList(members);
+        if (healthInterval > 0 && !members.isEmpty()) {
+            healthCheck = SCHEDULER.scheduleWithFixedDelay(this::startHealthCheck, 0L, healthInterval,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            healthCheck = null;
+        }
+    }
+
+    /**
+     * Get all members in configured order.
+     *
+     * @return the members, not null.
+     */
+    public List<EtcdAccessor> getMembers() {
+        return members;
+    }
+
+    /**
+     * Get the members in the order to be tried for reads: the healthy members by ascending average response
+     * time, followed by the unhealthy ones.
+     *
+     * @return the members, not null.
+     */
+    public List<EtcdAccessor> getReadOrder() {
+        final List<EtcdAccessor> healthy = new ArrayList<>(members.size());
+        final List<EtcdAccessor> unhealthy = new ArrayList<>();
+        for (final EtcdAccessor member : members) {
+            (member.isHealthy() ? healthy : unhealthy).add(member);
+        }
+        healthy.sort(BY_LATENCY);
+        healthy.addAll(unhealthy);
+        return healthy;
+    }
+
+    /**
+     * Get the members in the order to be tried for writes: the healthy leader first, followed by the read order.
+     * Writes sent to another member are redirected or forwarded to the leader by etcd.
+     *
+     * @return the members, not null.
+     */
+    public List<EtcdAccessor> getWriteOrder() {
+        final List<EtcdAccessor> order = getReadOrder();
+        for (int i = 0; i < order.size(); i++) {
+            final EtcdAccessor member = order.get(i);
+            if (member.isLeader() && member.isHealthy()) {
+                order.remove(i);
+                order.add(0, member);
+                break;
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Checks the health of all members, unless a check is still running.
+     *
+     * @return the future completed, when all members have been checked.
+     */
+    public CompletableFuture<Void> checkHealth() {
+        startHealthCheck();
+        return runningCheck;
+    }
+
+    private synchronized void startHealthCheck() {
+        if (!runningCheck.isDone()) {
+            return;
+        }
+        final CompletableFuture<?>[] checks = new CompletableFuture<?>[members.size()];
+        for (int i = 0; i < checks.length; i++) {
+            checks[i] = members.get(i).checkHealthAsync();
+        }
+        runningCheck = CompletableFuture.allOf(checks);
+    }
+
+    /**
+     * Stops the background health checks.
+     */
+    @Override
+    public void close() {
+        if (healthCheck != null) {
+            healthCheck.cancel(false);
+        }
+    }
+
+    @Override
+    public String toString() {
+        final List<String> states = new ArrayList<>(members.size());
+        for (final EtcdAccessor member : members) {
+            states.add(member.getUrl() + (member.isLeader() ? " leader" : "") + (member.isHealthy() ? "" : " down")
+                    + " " + TimeUnit.NANOSECONDS.toMillis(member.getLatency()) + "ms");
+        }
+        return "EtcdCluster" + states;
+    }
+}
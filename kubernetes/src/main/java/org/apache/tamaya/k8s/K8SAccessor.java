@@ -18,27 +18,576 @@
  */
 package org.apache.tamaya.k8s;
 
-import io.kubernetes.client.ApiClient;
-import io.kubernetes.client.Configuration;
-import io.kubernetes.client.models.V1APIService;
-import io.kubernetes.client.models.V1ConfigMap;
-import io.kubernetes.client.proto.V1;
-import io.kubernetes.client.util.Config;
-
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.json.Json;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import javax.json.stream.JsonParserFactory;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
 
 /**
- * Accessor for reading to or writing from an etcd endpoint.
+ * Accessor for reading ConfigMaps and Secrets from a Kubernetes API server. Resources are listed and then
+ * watched starting at the resource version of the list, as the informers of the Kubernetes clients do. The
+ * REST API is accessed directly and responses are parsed with a streaming JSON parser, so no Kubernetes client
+ * library is required.
  */
 class K8SAccessor {
 
     private static final Logger LOG = Logger.getLogger(K8SAccessor.class.getName());
 
-    public void test(){
-        ApiClient client = Config.defaultClient();
-        Configuration.setDefaultApiClient(client);
-        client.
-        V1ConfigMap configMap = new V1ConfigMap().    }
+    /**
+     * Name of the ConfigMap resource.
+     */
+    static final String CONFIG_MAPS = "configmaps";
+
+    /**
+     * Name of the Secret resource.
+     */
+    static final String SECRETS = "secrets";
+
+    /**
+     * HTTP status and status code of a resource version no longer available for watching.
+     */
+    private static final int HTTP_GONE = 410;
+
+    /**
+     * The JSON parser factory used.
+     */
+    private static final JsonParserFactory PARSER_FACTORY = Json.createParserFactory(Collections.<String, Object>emptyMap());
+
+    /**
+     * The base server url.
+     */
+    private final String serverURL;
+    /**
+     * Supplier of the bearer token, evaluated for each request.
+     */
+    private final Supplier<String> token;
+    /**
+     * Socket factory trusting the API server, null for the default one.
+     */
+    private final SSLSocketFactory sslSocketFactory;
+    /**
+     * Connect timeout in milliseconds.
+     */
+    private final int connectTimeout;
+    /**
+     * Read timeout in milliseconds.
+     */
+    private final int readTimeout;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param server the API server url, e.g. {@code https://10.0.0.1:443}, not null.
+     * @param token supplier of the bearer token, returning null for anonymous access, not null.
+     * @param sslSocketFactory socket factory trusting the API server, or null for the default one.
+     * @param connectTimeout the connect timeout in milliseconds.
+     * @param readTimeout the read timeout in milliseconds.
+     */
+    public K8SAccessor(String server, Supplier<String> token, SSLSocketFactory sslSocketFactory,
+                       long connectTimeout, long readTimeout) {
+        this.serverURL = server.endsWith("/") ? server.substring(0, server.length() - 1) : server;
+        this.token = token;
+        this.sslSocketFactory = sslSocketFactory;
+        this.connectTimeout = (int) Math.min(Integer.MAX_VALUE, connectTimeout);
+        this.readTimeout = (int) Math.min(Integer.MAX_VALUE, readTimeout);
+    }
+
+    /**
+     * Creates an accessor for the API server as configured by {@link K8SBackendConfig}, by default the one of
+     * the pod running, authenticated by its service account.
+     *
+     * @return the accessor, never null.
+     */
+    public static K8SAccessor connect() {
+        SSLSocketFactory sslSocketFactory = null;
+        final Path ca = K8SBackendConfig.getCaFile();
+        if (ca != null) {
+            try {
+                sslSocketFactory = createSocketFactory(ca);
+            } catch (final IOException | GeneralSecurityException e) {
+                LOG.log(Level.WARNING, "Failed to read Kubernetes CA certificates from " + ca
+                        + ", using the default trust store.", e);
+            }
+        }
+        final K8SAccessor accessor = new K8SAccessor(K8SBackendConfig.getServer(), K8SBackendConfig::getToken,
+                sslSocketFactory, K8SBackendConfig.getConnectTimeout(), K8SBackendConfig.getTimeout());
+        LOG.fine("Using Kubernetes API server: " + accessor.getUrl());
+        return accessor;
+    }
+
+    private static SSLSocketFactory createSocketFactory(Path ca) throws IOException, GeneralSecurityException {
+        final KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        trustStore.load(null, null);
+        try (InputStream in = Files.newInputStream(ca)) {
+            int i = 0;
+            for (final Certificate certificate : CertificateFactory.getInstance("X.509").generateCertificates(in)) {
+                trustStore.setCertificateEntry("ca-" + i++, certificate);
+            }
+        }
+        final TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(
+                TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(trustStore);
+        final SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trustManagers.getTrustManagers(), null);
+        return context.getSocketFactory();
+    }
+
+    /**
+     * Lists the resources of a namespace matching a label selector.
+     *
+     * @param namespace the namespace, not null.
+     * @param resource the resource, {@link #CONFIG_MAPS} or {@link #SECRETS}.
+     * @param labelSelector the label selector, e.g. {@code app=myapp}, empty for all resources.
+     * @return the resources and the resource version of the list, never null.
+     * @throws IOException if the resources cannot be read.
+     */
+    public ResourceList list(String namespace, String resource, String labelSelector) throws IOException {
+        return execute(path(namespace, resource, labelSelector), readTimeout, (status, body) -> {
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw error("listing", resource, status, body);
+            }
+            return parseList(resource, body);
+        });
+    }
+
+    /**
+     * Watches the resources of a namespace matching a label selector, passing each change after the given
+     * resource version to the consumer, until the watch times out.
+     *
+     * @param namespace the namespace, not null.
+     * @param resource the resource, {@link #CONFIG_MAPS} or {@link #SECRETS}.
+     * @param labelSelector the label selector, e.g. {@code app=myapp}, empty for all resources.
+     * @param resourceVersion the resource version to start from, usually the one of a list.
+     * @param timeout the maximal duration of the watch in milliseconds.
+     * @param events the consumer of the changes, not null.
+     * @return the resource version of the last change or bookmark received, to continue watching from.
+     * @throws ResourceExpiredException if the resource version is too old, so the resources have to be
+     * listed again.
+     * @throws IOException if the resources cannot be watched.
+     */
+    public String watch(String namespace, String resource, String labelSelector, String resourceVersion,
+                        long timeout, Consumer<WatchEvent> events) throws IOException {
+        final long seconds = Math.max(1L, TimeUnit.MILLISECONDS.toSeconds(timeout));
+        final String path = path(namespace, resource, labelSelector) + "&watch=true&allowWatchBookmarks=true"
+                + "&resourceVersion=" + encode(resourceVersion) + "&timeoutSeconds=" + seconds;
+        final long watchReadTimeout = TimeUnit.SECONDS.toMillis(seconds) + readTimeout;
+        return execute(path, (int) Math.min(Integer.MAX_VALUE, watchReadTimeout), (status, body) -> {
+            if (status == HTTP_GONE) {
+                throw new ResourceExpiredException(resource, resourceVersion);
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw error("watching", resource, status, body);
+            }
+            String version = resourceVersion;
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                final WatchEvent event = parseEvent(resource, line);
+                if (event.isError()) {
+                    if (event.getResource().code == HTTP_GONE) {
+                        throw new ResourceExpiredException(resource, version);
+                    }
+                    throw new IOException("Error watching " + resource + " on " + serverURL + ": "
+                            + event.getResource().message);
+                }
+                if (event.getResource().resourceVersion != null) {
+                    version = event.getResource().resourceVersion;
+                }
+                if (!event.isBookmark()) {
+                    events.accept(event);
+                }
+            }
+            return version;
+        });
+    }
+
+    /**
+     * Access the server root URL used by this accessor.
+     *
+     * @return the server root URL.
+     */
+    public String getUrl() {
+        return serverURL;
+    }
+
+    /**
+     * Executes a GET request, handing the response body to the handler. The body is read completely
+     * afterwards, so the connection can be reused.
+     */
+    private <T> T execute(String path, int readTimeout, ResponseHandler<T> handler) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(serverURL + path).openConnection();
+        if (sslSocketFactory != null && connection instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
+        }
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setRequestProperty("Accept", "application/json");
+        final String bearer = token.get();
+        if (bearer != null && !bearer.isEmpty()) {
+            connection.setRequestProperty("Authorization", "Bearer " + bearer);
+        }
+        final int status = connection.getResponseCode();
+        InputStream in = status < HttpURLConnection.HTTP_BAD_REQUEST ? connection.getInputStream()
+                : connection.getErrorStream();
+        if (in == null) {
+            in = new ByteArrayInputStream(new byte[0]);
+        }
+        try (InputStream body = in) {
+            final T result = handler.handle(status, body);
+            final byte[] buffer = new byte[4096];
+            while (body.read(buffer) >= 0) {
+                // drain the body
+            }
+            return result;
+        }
+    }
+
+    private IOException error(String action, String resource, int status, InputStream body) {
+        String message = null;
+        try {
+            final JsonParser parser = PARSER_FACTORY.createParser(body, StandardCharsets.UTF_8);
+            if (parser.hasNext()) {
+                message = readObject(parser, parser.next(), resource).message;
+            }
+        } catch (final RuntimeException e) {
+            LOG.log(Level.FINEST, "Invalid error response from Kubernetes: " + serverURL, e);
+        }
+        return new IOException("Error " + action + " " + resource + " on " + serverURL + ": HTTP " + status
+                + (message == null ? "" : ": " + message));
+    }
+
+    private static String path(String namespace, String resource, String labelSelector)
+            throws UnsupportedEncodingException {
+        final StringBuilder path = new StringBuilder("/api/v1/namespaces/").append(encode(namespace))
+                .append('/').append(encode(resource)).append('?');
+        if (labelSelector != null && !labelSelector.isEmpty()) {
+            path.append("labelSelector=").append(encode(labelSelector));
+        }
+        return path.toString();
+    }
+
+    private static String encode(String value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+    }
+
+    private static ResourceList parseList(String resource, InputStream in) {
+        // the parser is not closed, since the stream still has to be drained by execute
+        final JsonParser parser = PARSER_FACTORY.createParser(in, StandardCharsets.UTF_8);
+        final ResourceList list = new ResourceList();
+        if (!parser.hasNext() || parser.next() != Event.START_OBJECT) {
+            return list;
+        }
+        while (parser.next() == Event.KEY_NAME) {
+            switch (parser.getString()) {
+                case "metadata":
+                    list.resourceVersion = readObject(parser, parser.next(), resource).resourceVersion;
+                    break;
+                case "items":
+                    final Event event = parser.next();
+                    if (event != Event.START_ARRAY) {
+                        skip(parser, event);
+                        break;
+                    }
+                    Event item;
+                    while ((item = parser.next()) != Event.END_ARRAY) {
+                        list.items.add(readObject(parser, item, resource));
+                    }
+                    break;
+                default:
+                    skip(parser, parser.next());
+            }
+        }
+        return list;
+    }
+
+    private static WatchEvent parseEvent(String resource, String line) {
+        final JsonParser parser = PARSER_FACTORY.createParser(new StringReader(line));
+        String type = null;
+        Resource object = null;
+        if (parser.hasNext() && parser.next() == Event.START_OBJECT) {
+            while (parser.next() == Event.KEY_NAME) {
+                switch (parser.getString()) {
+                    case "type":
+                        type = readString(parser);
+                        break;
+                    case "object":
+                        object = readObject(parser, parser.next(), resource);
+                        break;
+                    default:
+                        skip(parser, parser.next());
+                }
+            }
+        }
+        parser.close();
+        return new WatchEvent(type, object == null ? new Resource(resource) : object);
+    }
+
+    /**
+     * Reads an object, which is a resource, a status or the metadata of a resource or list.
+     */
+    private static Resource readObject(JsonParser parser, Event start, String resource) {
+        final Resource object = new Resource(resource);
+        if (start != Event.START_OBJECT) {
+            skip(parser, start);
+            return object;
+        }
+        while (parser.next() == Event.KEY_NAME) {
+            switch (parser.getString()) {
+                case "metadata":
+                    final Resource metadata = readObject(parser, parser.next(), resource);
+                    object.namespace = metadata.namespace;
+                    object.name = metadata.name;
+                    object.resourceVersion = metadata.resourceVersion;
+                    break;
+                case "name":
+                    object.name = readString(parser);
+                    break;
+                case "namespace":
+                    object.namespace = readString(parser);
+                    break;
+                case "resourceVersion":
+                    object.resourceVersion = readString(parser);
+                    break;
+                case "data":
+                    object.data = readData(parser, parser.next(), SECRETS.equals(resource));
+                    break;
+                case "code":
+                    final String code = readString(parser);
+                    object.code = code == null ? 0 : Integer.parseInt(code);
+                    break;
+                case "message":
+                    object.message = readString(parser);
+                    break;
+                default:
+                    skip(parser, parser.next());
+            }
+        }
+        return object;
+    }
+
+    private static Map<String, String> readData(JsonParser parser, Event start, boolean base64) {
+        if (start != Event.START_OBJECT) {
+            skip(parser, start);
+            return Collections.emptyMap();
+        }
+        final Map<String, String> data = new HashMap<>();
+        while (parser.next() == Event.KEY_NAME) {
+            final String key = parser.getString();
+            final String value = readString(parser);
+            if (value == null) {
+                continue;
+            }
+            if (base64) {
+                try {
+                    data.put(key, new String(Base64.getDecoder().decode(value), StandardCharsets.UTF_8));
+                } catch (final IllegalArgumentException e) {
+                    LOG.log(Level.WARNING, "Ignoring invalid secret value of key: " + key, e);
+                }
+            } else {
+                data.put(key, value);
+            }
+        }
+        return data;
+    }
+
+    private static String readString(JsonParser parser) {
+        final Event event = parser.next();
+        if (event == Event.VALUE_STRING || event == Event.VALUE_NUMBER) {
+            return parser.getString();
+        }
+        skip(parser, event);
+        return null;
+    }
+
+    private static void skip(JsonParser parser, Event event) {
+        if (event != Event.START_OBJECT && event != Event.START_ARRAY) {
+            return;
+        }
+        int depth = 1;
+        while (depth > 0) {
+            switch (parser.next()) {
+                case START_OBJECT:
+                case START_ARRAY:
+                    depth++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    depth--;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Handler of a response.
+     */
+    @FunctionalInterface
+    private interface ResponseHandler<T> {
+        T handle(int status, InputStream body) throws IOException;
+    }
+
+    /**
+     * A ConfigMap or Secret. The values of Secrets are decoded.
+     */
+    static final class Resource {
+        private final String resource;
+        private String namespace;
+        private String name;
+        private String resourceVersion;
+        private Map<String, String> data = Collections.emptyMap();
+        private int code;
+        private String message;
+
+        private Resource(String resource) {
+            this.resource = resource;
+        }
+
+        Resource(String resource, String namespace, String name, String resourceVersion, Map<String, String> data) {
+            this.resource = resource;
+            this.namespace = namespace;
+            this.name = name;
+            this.resourceVersion = resourceVersion;
+            this.data = Collections.unmodifiableMap(new HashMap<>(data));
+        }
+
+        /**
+         * The unique id of the resource: {@code resource/namespace/name}, e.g. {@code configmaps/default/app}.
+         */
+        public String getId() {
+            return resource + '/' + namespace + '/' + name;
+        }
+
+        public String getResource() {
+            return resource;
+        }
+
+        public String getNamespace() {
+            return namespace;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getResourceVersion() {
+            return resourceVersion;
+        }
+
+        public Map<String, String> getData() {
+            return data;
+        }
+
+        @Override
+        public String toString() {
+            return getId() + '@' + resourceVersion + data.keySet();
+        }
+    }
+
+    /**
+     * The result of a list.
+     */
+    static final class ResourceList {
+        private final List<Resource> items = new ArrayList<>();
+        private String resourceVersion;
+
+        public List<Resource> getItems() {
+            return items;
+        }
+
+        public String getResourceVersion() {
+            return resourceVersion;
+        }
+    }
+
+    /**
+     * A change of a resource, as returned by a watch.
+     */
+    static final class WatchEvent {
+        private final String type;
+        private final Resource resource;
+
+        private WatchEvent(String type, Resource resource) {
+            this.type = type;
+            this.resource = resource;
+        }
+
+        /**
+         * The event type: {@code ADDED}, {@code MODIFIED} or {@code DELETED}.
+         */
+        public String getType() {
+            return type;
+        }
+
+        public Resource getResource() {
+            return resource;
+        }
+
+        public boolean isDeletion() {
+            return "DELETED".equals(type);
+        }
+
+        private boolean isBookmark() {
+            return "BOOKMARK".equals(type);
+        }
+
+        private boolean isError() {
+            return "ERROR".equals(type);
+        }
+
+        @Override
+        public String toString() {
+            return type + ' ' + resource;
+        }
+    }
+
+    /**
+     * Thrown, when a resource version is no longer available for watching.
+     */
+    static final class ResourceExpiredException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        ResourceExpiredException(String resource, String resourceVersion) {
+            super("Resource version of " + resource + " expired: " + resourceVersion);
+        }
+    }
 
 }
@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.k8s;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Singleton that reads the current Kubernetes setup. Inside a pod the API server, namespace and credentials
+ * default to the ones of the pod's service account.
+ */
+final class K8SBackendConfig {
+
+    private static final Logger LOG = Logger.getLogger(K8SBackendConfig.class.getName());
+    private static final String TAMAYA_K8S_SERVER = "tamaya.k8s.server";
+    private static final String TAMAYA_K8S_NAMESPACE = "tamaya.k8s.namespace";
+    private static final String TAMAYA_K8S_LABEL_SELECTOR = "tamaya.k8s.labelSelector";
+    private static final String TAMAYA_K8S_RESOURCES = "tamaya.k8s.resources";
+    private static final String TAMAYA_K8S_TOKEN = "tamaya.k8s.token";
+    private static final String TAMAYA_K8S_CA_FILE = "tamaya.k8s.caFile";
+    private static final String TAMAYA_K8S_TIMEOUT = "tamaya.k8s.timeout";
+    private static final String TAMAYA_K8S_CONNECT_TIMEOUT = "tamaya.k8s.connectTimeout";
+    private static final String TAMAYA_K8S_WATCH_TIMEOUT = "tamaya.k8s.watchTimeout";
+    private static final Path SERVICE_ACCOUNT = Paths.get("/var/run/secrets/kubernetes.io/serviceaccount");
+
+
+    private K8SBackendConfig(){}
+
+    /**
+     * Get the API server url from system/environment property {@code tamaya.k8s.server}, by default the url
+     * published to pods as {@code KUBERNETES_SERVICE_HOST/PORT}.
+     * @return the API server url, never null.
+     */
+    public static String getServer(){
+        String val = getProperty(TAMAYA_K8S_SERVER);
+        if(val!=null){
+            return val.trim();
+        }
+        String host = System.getenv("KUBERNETES_SERVICE_HOST");
+        if(host!=null){
+            String port = System.getenv("KUBERNETES_SERVICE_PORT");
+            if(host.indexOf(':')>=0){
+                host = '[' + host + ']';
+            }
+            return "https://" + host + ':' + (port==null?"443":port);
+        }
+        return "https://kubernetes.default.svc";
+    }
+
+    /**
+     * Get the namespace read from system/environment property {@code tamaya.k8s.namespace}, by default the
+     * namespace of the pod's service account, or {@code default}.
+     * @return the namespace, never null.
+     */
+    public static String getNamespace(){
+        String val = getProperty(TAMAYA_K8S_NAMESPACE);
+        if(val==null){
+            val = readServiceAccount("namespace");
+        }
+        return val==null?"default":val.trim();
+    }
+
+    /**
+     * Get the label selector of the ConfigMaps and Secrets read from system/environment property
+     * {@code tamaya.k8s.labelSelector}, e.g. {@code app=myapp,tier!=test} (default: all).
+     * @return the label selector, empty for all resources.
+     */
+    public static String getLabelSelector(){
+        String val = getProperty(TAMAYA_K8S_LABEL_SELECTOR);
+        return val==null?"":val.trim();
+    }
+
+    /**
+     * Get the resources read from system/environment property {@code tamaya.k8s.resources}
+     * (default {@code configmaps,secrets}).
+     * @return the resource names, in ascending precedence.
+     */
+    public static List<String> getResources(){
+        String val = getProperty(TAMAYA_K8S_RESOURCES);
+        if(val==null){
+            val = K8SAccessor.CONFIG_MAPS + "," + K8SAccessor.SECRETS;
+        }
+        List<String> resources = new ArrayList<>();
+        for(String resource:val.split(",")){
+            if(!resource.trim().isEmpty()){
+                resources.add(resource.trim());
+            }
+        }
+        return resources;
+    }
+
+    /**
+     * Get the bearer token from system/environment property {@code tamaya.k8s.token}, by default the
+     * token of the pod's service account. The token file is read on each call, since it is rotated.
+     * @return the token, or null.
+     */
+    public static String getToken(){
+        String val = getProperty(TAMAYA_K8S_TOKEN);
+        if(val==null){
+            val = readServiceAccount("token");
+        }
+        return val==null?null:val.trim();
+    }
+
+    /**
+     * Get the file containing the CA certificates of the API server from system/environment property
+     * {@code tamaya.k8s.caFile}, by default the CA of the pod's service account.
+     * @return the CA file, or null if the default trust store should be used.
+     */
+    public static Path getCaFile(){
+        String val = getProperty(TAMAYA_K8S_CA_FILE);
+        if(val!=null){
+            return Paths.get(val.trim());
+        }
+        Path ca = SERVICE_ACCOUNT.resolve("ca.crt");
+        return Files.isReadable(ca)?ca:null;
+    }
+
+    /**
+     * Get the API server read timeout from system/environment property {@code tamaya.k8s.timeout (=seconds)}
+     * (default 10 seconds).
+     * @return the read timeout in milliseconds.
+     */
+    public static long getTimeout(){
+        return getSeconds(TAMAYA_K8S_TIMEOUT, 10000L);
+    }
+
+    /**
+     * Get the API server connection timeout from system/environment property
+     * {@code tamaya.k8s.connectTimeout (=seconds)} (default 2 seconds).
+     * @return the connection timeout in milliseconds.
+     */
+    public static long getConnectTimeout(){
+        return getSeconds(TAMAYA_K8S_CONNECT_TIMEOUT, 2000L);
+    }
+
+    /**
+     * Get the maximal duration of a single watch request from system/environment property
+     * {@code tamaya.k8s.watchTimeout (=seconds)} (default 5 minutes). Watches are renewed, when they time out.
+     * @return the watch timeout in milliseconds.
+     */
+    public static long getWatchTimeout(){
+        return getSeconds(TAMAYA_K8S_WATCH_TIMEOUT, 300000L);
+    }
+
+    private static String readServiceAccount(String file){
+        Path path = SERVICE_ACCOUNT.resolve(file);
+        if(Files.isReadable(path)){
+            try{
+                return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+            } catch(IOException e){
+                LOG.log(Level.WARNING, "Failed to read service account " + file + ": " + path, e);
+            }
+        }
+        return null;
+    }
+
+    private static long getSeconds(String key, long defaultMillis){
+        String val = getProperty(key);
+        if(val!=null){
+            try{
+                return TimeUnit.MILLISECONDS.convert(Integer.parseInt(val.trim()), TimeUnit.SECONDS);
+            } catch(NumberFormatException e){
+                LOG.log(Level.WARNING, "Invalid Kubernetes timeout " + key + ": " + val, e);
+            }
+        }
+        return defaultMillis;
+    }
+
+    private static String getProperty(String key){
+        String val = System.getProperty(key);
+        if(val == null){
+            val = System.getenv(key);
+        }
+        return val;
+    }
+
+}
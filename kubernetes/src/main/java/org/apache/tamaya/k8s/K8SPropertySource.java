@@ -0,0 +1,312 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.k8s;
+
+import org.apache.tamaya.spi.PropertyValue;
+import org.apache.tamaya.spisupport.propertysource.BasePropertySource;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Propertysource that is reading configuration from the ConfigMaps and Secrets of a Kubernetes namespace,
+ * selected by a label selector. The namespace, selector and API server are configured as
+ * {@code tamaya.k8s.namespace}, {@code tamaya.k8s.labelSelector} and {@code tamaya.k8s.server} system or
+ * environment properties, by default the namespace and API server of the pod running are used.
+ * <p>
+ * Each resource type is listed once, afterwards a background thread watches it, starting at the resource version
+ * of the list, and applies each change to a local index. So reads never access the API server and changes are
+ * visible immediately. The resources are only listed again, when the API server does not keep the changes since
+ * the last resource version watched anymore, or when the watch failed.
+ * <p>
+ * The data entries of all resources are provided as properties. If several resources contain the same key, Secrets
+ * take precedence over ConfigMaps, and within a resource type the resource with the greater name wins.
+ */
+public class K8SPropertySource extends BasePropertySource implements AutoCloseable{
+
+    private static final Logger LOG = Logger.getLogger(K8SPropertySource.class.getName());
+
+    /** Maximal pause between retries of a failed watch. */
+    private static final long MAX_RETRY_DELAY = TimeUnit.SECONDS.toMillis(30);
+
+    private final K8SAccessor accessor;
+
+    private final String namespace;
+
+    private final String labelSelector;
+
+    private final List<String> resources;
+
+    private volatile long watchTimeout = K8SBackendConfig.getWatchTimeout();
+
+    /** The properties, resolved from the resources indexed. */
+    private final Map<String, PropertyValue> properties = new ConcurrentHashMap<>();
+
+    /** Lock guarding the index. */
+    private final Object lock = new Object();
+
+    /** The resources read by id. */
+    private final Map<String, K8SAccessor.Resource> index = new HashMap<>();
+
+    /** The ids of the resources containing a key, in ascending precedence. */
+    private final Map<String, TreeSet<String>> owners = new HashMap<>();
+
+    private final List<Thread> watchers = new ArrayList<>();
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a new instance reading the ConfigMaps and Secrets configured in {@link K8SBackendConfig}.
+     */
+    public K8SPropertySource(){
+        this(K8SBackendConfig.getNamespace(), K8SBackendConfig.getLabelSelector());
+    }
+
+    /**
+     * Creates a new instance reading the ConfigMaps and Secrets of the given namespace from the configured API
+     * server.
+     * @param namespace the namespace, not null.
+     * @param labelSelector the label selector, e.g. {@code app=myapp}, empty for all resources.
+     */
+    public K8SPropertySource(String namespace, String labelSelector){
+        this(K8SAccessor.connect(), namespace, labelSelector, K8SBackendConfig.getResources());
+    }
+
+    K8SPropertySource(K8SAccessor accessor, String namespace, String labelSelector, List<String> resources){
+        super("k8s");
+        this.accessor = Objects.requireNonNull(accessor);
+        this.namespace = Objects.requireNonNull(namespace);
+        this.labelSelector = labelSelector==null?"":labelSelector;
+        this.resources = Collections.unmodifiableList(new ArrayList<>(resources));
+        setDefaultOrdinal(1000);
+        start();
+    }
+
+    /**
+     * Get the maximal duration of a single watch request, after which the watch is renewed.
+     * @return the watch timeout in milliseconds.
+     */
+    public long getWatchTimeout(){
+        return watchTimeout;
+    }
+
+    /**
+     * Set the maximal duration of a single watch request, after which the watch is renewed.
+     * @param millis the watch timeout in milliseconds.
+     */
+    public void setWatchTimeout(long millis){
+        this.watchTimeout = millis;
+    }
+
+    /**
+     * Get the namespace read.
+     * @return the namespace, not null.
+     */
+    public String getNamespace(){
+        return namespace;
+    }
+
+    /**
+     * Get the label selector of the resources read.
+     * @return the label selector, empty for all resources.
+     */
+    public String getLabelSelector(){
+        return labelSelector;
+    }
+
+    /**
+     * Lists all resources and starts watching them. A resource type, which cannot be listed, is listed again by
+     * its watcher.
+     */
+    private void start(){
+        synchronized (lock){
+            for(String resource:resources){
+                String version = null;
+                try{
+                    version = list(resource);
+                } catch(Exception e){
+                    LOG.log(Level.WARNING, "Failed to read " + resource + " from " + accessor.getUrl()
+                            + ", retrying in background...", e);
+                }
+                String startVersion = version;
+                Thread watcher = new Thread(() -> watch(resource, startVersion),
+                        "tamaya-k8s-watch-" + resource);
+                watcher.setDaemon(true);
+                watchers.add(watcher);
+            }
+            for(Thread watcher:watchers){
+                watcher.start();
+            }
+        }
+    }
+
+    /**
+     * Stops watching the resources. The data loaded remains accessible, but is not updated anymore.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (lock){
+            for(Thread watcher:watchers){
+                watcher.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Lists the resources of a type, replacing the resources of this type indexed.
+     * @return the resource version of the list.
+     */
+    private String list(String resource) throws Exception {
+        K8SAccessor.ResourceList list = accessor.list(namespace, resource, labelSelector);
+        synchronized (lock){
+            Set<String> listed = new HashSet<>();
+            for(K8SAccessor.Resource item:list.getItems()){
+                listed.add(item.getId());
+                update(item);
+            }
+            List<String> removed = new ArrayList<>();
+            for(K8SAccessor.Resource indexed:index.values()){
+                if(indexed.getResource().equals(resource) && !listed.contains(indexed.getId())){
+                    removed.add(indexed.getId());
+                }
+            }
+            for(String id:removed){
+                remove(id);
+            }
+        }
+        return list.getResourceVersion();
+    }
+
+    /**
+     * Watch loop of a resource type, applying the changes after the resource version listed, and listing the
+     * resources again, if changes have been missed. Retries are delayed with exponential backoff.
+     */
+    private void watch(String resource, String listVersion) {
+        String version = listVersion;
+        int failures = 0;
+        while(!closed){
+            try{
+                if(version==null){
+                    version = list(resource);
+                }
+                version = accessor.watch(namespace, resource, labelSelector, version, watchTimeout, this::apply);
+                failures = 0;
+            } catch(K8SAccessor.ResourceExpiredException e){
+                LOG.log(Level.FINE, "Kubernetes changes missed, listing " + resource + " again...", e);
+                version = null;
+            } catch(Exception e){
+                failures++;
+                LOG.log(failures==1?Level.WARNING:Level.FINE, "Watching " + resource + " failed on "
+                        + accessor.getUrl() + ", retrying...", e);
+                try{
+                    Thread.sleep(Math.min(MAX_RETRY_DELAY, 100L << Math.min(failures, 10)));
+                } catch(InterruptedException ie){
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void apply(K8SAccessor.WatchEvent event) {
+        synchronized (lock){
+            if(event.isDeletion()){
+                remove(event.getResource().getId());
+            } else{
+                update(event.getResource());
+            }
+        }
+    }
+
+    /**
+     * Indexes a new or changed resource and resolves the keys affected. Must be called holding the lock.
+     */
+    private void update(K8SAccessor.Resource resource) {
+        String id = resource.getId();
+        K8SAccessor.Resource previous = index.put(id, resource);
+        if(previous!=null && Objects.equals(previous.getResourceVersion(), resource.getResourceVersion())){
+            return;
+        }
+        Set<String> keys = new HashSet<>(resource.getData().keySet());
+        if(previous!=null){
+            for(String key:previous.getData().keySet()){
+                if(!resource.getData().containsKey(key)){
+                    owners.get(key).remove(id);
+                    keys.add(key);
+                }
+            }
+        }
+        for(String key:resource.getData().keySet()){
+            owners.computeIfAbsent(key, k -> new TreeSet<>()).add(id);
+        }
+        for(String key:keys){
+            resolve(key);
+        }
+    }
+
+    /**
+     * Removes a resource from the index and resolves the keys affected. Must be called holding the lock.
+     */
+    private void remove(String id) {
+        K8SAccessor.Resource previous = index.remove(id);
+        if(previous!=null){
+            for(String key:previous.getData().keySet()){
+                owners.get(key).remove(id);
+                resolve(key);
+            }
+        }
+    }
+
+    private void resolve(String key) {
+        TreeSet<String> ids = owners.get(key);
+        if(ids==null || ids.isEmpty()){
+            owners.remove(key);
+            properties.remove(key);
+            return;
+        }
+        K8SAccessor.Resource resource = index.get(ids.last());
+        properties.put(key, PropertyValue.createValue(key, resource.getData().get(key))
+                .setMeta("source", getName())
+                .setMeta("resource", resource.getId())
+                .setMeta("resourceVersion", resource.getResourceVersion()));
+    }
+
+    @Override
+    public PropertyValue get(String key) {
+        return properties.get(key);
+    }
+
+    @Override
+    public Map<String, PropertyValue> getProperties() {
+        return Collections.unmodifiableMap(properties);
+    }
+
+    @Override
+    protected String toStringValues() {
+        return  super.toStringValues() +
+                "  server=" + accessor.getUrl() + '\n' +
+                "  namespace=" + namespace + '\n' +
+                "  labelSelector=" + labelSelector + '\n' +
+                "  resources=" + resources + '\n';
+    }
+}
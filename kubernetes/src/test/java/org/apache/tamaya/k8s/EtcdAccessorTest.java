@@ -1,116 +1,301 @@
-///*
-// * Licensed to the Apache Software Foundation (ASF) under one
-// * or more contributor license agreements.  See the NOTICE file
-// * distributed with this work for additional information
-// * regarding copyright ownership.  The ASF licenses this file
-// * to you under the Apache License, Version 2.0 (the
-// * "License"); you may not use this file except in compliance
-// * with the License.  You may obtain a copy of the License at
-// *
-// *   http://www.apache.org/licenses/LICENSE-2.0
-// *
-// * Unless required by applicable law or agreed to in writing,
-// * software distributed under the License is distributed on an
-// * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
-// * KIND, either express or implied.  See the License for the
-// * specific language governing permissions and limitations
-// * under the License.
-// */
-//package org.apache.tamaya.etcd;
-//
-//import org.junit.BeforeClass;
-//import org.junit.Test;
-//
-//import java.net.MalformedURLException;
-//import java.util.Map;
-//import java.util.UUID;
-//
-//import static org.junit.Assert.*;
-//
-///**
-// * Tests for the etcd backend integration. You must have setCurrent a system property so, theses tests are executed, e.g.
-// * {@code -Detcd.url=http://127.0.0.1:4001}.
-// */
-//public class EtcdAccessorTest {
-//
-//    private static EtcdAccessor accessor;
-//    static boolean execute = false;
-//
-//    @BeforeClass
-//    public static void setup() throws MalformedURLException {
-//        accessor = new EtcdAccessor("http://192.168.99.105:4001");
-//        if(!accessor.getVersion().contains("etcd")){
-//            System.out.println("Disabling etcd tests, etcd not accessible at: " + System.getProperty("etcd.server.urls"));
-//            System.out.println("Configure etcd with -Detcd.server.urls=http://<IP>:<PORT>");
-//        }
-//        else{
-//            execute = true;
-//        }
-//    }
-//
-//    @Test
-//    public void testGetVersion() throws Exception {
-//        if(!execute)return;
-//        assertEquals(accessor.getVersion(), "etcd 0.4.9");
-//    }
-//
-//    @Test
-//    public void testGet() throws Exception {
-//        if(!execute)return;
-//        Map<String,String> result = accessor.get("test1");
-//        assertNotNull(result);
-//    }
-//
-//    @Test
-//    public void testSetNormal() throws Exception {
-//        if(!execute)return;
-//        String value = UUID.randomUUID().toString();
-//        Map<String,String> result = accessor.set("testSetNormal", value);
-//        assertNull(result.get("_testSetNormal.ttl"));
-//        assertEquals(value, accessor.get("testSetNormal").get("testSetNormal"));
-//    }
-//
-//    @Test
-//    public void testSetNormal2() throws Exception {
-//        if(!execute)return;
-//        String value = UUID.randomUUID().toString();
-//        Map<String,String> result = accessor.set("testSetNormal2", value, null);
-//        assertNull(result.get("_testSetNormal2.ttl"));
-//        assertEquals(value, accessor.get("testSetNormal2").get("testSetNormal2"));
-//    }
-//
-//    @Test
-//    public void testSetWithTTL() throws Exception {
-//        if(!execute)return;
-//        String value = UUID.randomUUID().toString();
-//        Map<String,String> result = accessor.set("testSetWithTTL", value, 1);
-//        assertNotNull(result.get("_testSetWithTTL.ttl"));
-//        assertEquals(value, accessor.get("testSetWithTTL").get("testSetWithTTL"));
-//        Thread.sleep(2000L);
-//        result = accessor.get("testSetWithTTL");
-//        assertNull(result.get("testSetWithTTL"));
-//    }
-//
-//    @Test
-//    public void testDelete() throws Exception {
-//        if(!execute)return;
-//        String value = UUID.randomUUID().toString();
-//        Map<String,String> result = accessor.set("testDelete", value, null);
-//        assertEquals(value, accessor.get("testDelete").get("testDelete"));
-//        assertNotNull(result.get("_testDelete.createdIndex"));
-//        result = accessor.delete("testDelete");
-//        assertEquals(value, result.get("_testDelete.prevNode.createValue"));
-//        assertNull(accessor.get("testDelete").get("testDelete"));
-//    }
-//
-//    @Test
-//    public void testGetProperties() throws Exception {
-//        if(!execute)return;
-//        String value = UUID.randomUUID().toString();
-//        accessor.set("testGetProperties1", value);
-//        Map<String,String> result = accessor.getProperties("");
-//        assertNotNull(result);
-//        assertEquals(value, result.get("testGetProperties1"));
-//        assertNotNull(result.get("_testGetProperties1.createdIndex"));
-//    }
-//}
\ No newline at end of file
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.k8s;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the etcd accessor, run against an in-process etcd stand-in.
+ */
+public class EtcdAccessorTest {
+
+    private LocalEtcdServer etcd;
+    private EtcdAccessor accessor;
+
+    @Before
+    public void setup() throws Exception {
+        etcd = new LocalEtcdServer();
+        accessor = new EtcdAccessor(etcd.getUrl() + "/", 1000L, 2000L);
+    }
+
+    @After
+    public void tearDown() {
+        etcd.close();
+    }
+
+    @Test
+    public void testGetVersion() throws Exception {
+        assertTrue(accessor.getVersion().contains("etcdserver"));
+        assertEquals(etcd.getUrl(), accessor.getUrl());
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        etcd.put("/test1", "value1");
+        Map<String,String> result = accessor.get("test1");
+        assertEquals("value1", result.get("test1"));
+        assertEquals("1", result.get("_test1.createdIndex"));
+        assertEquals("[etcd]" + etcd.getUrl(), result.get("_test1.source"));
+        result = accessor.get("missing");
+        assertNull(result.get("missing"));
+        assertNotNull(result.get("_missing.NOT_FOUND.target"));
+    }
+
+    @Test
+    public void testSetNormal() throws Exception {
+        String value = UUID.randomUUID().toString();
+        Map<String,String> result = accessor.set("testSetNormal", value);
+        assertNull(result.get("_testSetNormal.ttl"));
+        assertEquals(value, accessor.get("testSetNormal").get("testSetNormal"));
+    }
+
+    @Test
+    public void testSetEncoded() throws Exception {
+        String value = "a=b&c d\u00e4\"";
+        accessor.set("dir/test set", value);
+        assertEquals(value, accessor.get("dir/test set").get("dir/test set"));
+        assertEquals(value, accessor.getProperties("dir").get("dir/test set"));
+    }
+
+    @Test
+    public void testSetWithTTL() throws Exception {
+        String value = UUID.randomUUID().toString();
+        Map<String,String> result = accessor.set("testSetWithTTL", value, 1);
+        assertEquals("1", result.get("_testSetWithTTL.ttl"));
+        assertNotNull(result.get("_testSetWithTTL.expiration"));
+        assertEquals(value, accessor.get("testSetWithTTL").get("testSetWithTTL"));
+        Thread.sleep(1100L);
+        result = accessor.get("testSetWithTTL");
+        assertNull(result.get("testSetWithTTL"));
+    }
+
+    @Test
+    public void testSetReturnsPrevNode() throws Exception {
+        accessor.set("testSetPrev", "1");
+        Map<String,String> result = accessor.set("testSetPrev", "2");
+        assertEquals("2", result.get("testSetPrev"));
+        assertEquals("1", result.get("_testSetPrev.prevNode.value"));
+        assertEquals("1", result.get("_testSetPrev.createdIndex"));
+        assertEquals("2", result.get("_testSetPrev.modifiedIndex"));
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        String value = UUID.randomUUID().toString();
+        Map<String,String> result = accessor.set("testDelete", value, null);
+        assertEquals(value, accessor.get("testDelete").get("testDelete"));
+        assertNotNull(result.get("_testDelete.createdIndex"));
+        result = accessor.delete("testDelete");
+        assertEquals(value, result.get("_testDelete.prevNode.value"));
+        assertNull(accessor.get("testDelete").get("testDelete"));
+        assertNotNull(accessor.delete("testDelete").get("_testDelete.NOT_FOUND.target"));
+    }
+
+    @Test
+    public void testGetProperties() throws Exception {
+        etcd.put("/app/a", "1");
+        etcd.put("/app/db/url", "jdbc:x");
+        etcd.put("/app/db/pool/size", "5");
+        etcd.put("/other", "x");
+        Map<String,String> result = accessor.getProperties("app");
+        assertEquals("1", result.get("app/a"));
+        assertEquals("jdbc:x", result.get("app/db/url"));
+        assertEquals("5", result.get("app/db/pool/size"));
+        assertEquals("3", result.get("_app/db/pool/size.modifiedIndex"));
+        assertNull(result.get("other"));
+        result = accessor.getProperties("app", false);
+        assertEquals("1", result.get("app/a"));
+        assertNull(result.get("app/db/url"));
+        result = accessor.getProperties("");
+        assertEquals("x", result.get("other"));
+        assertEquals("5", result.get("app/db/pool/size"));
+        assertEquals(Collections.singleton(EtcdAccessor.INDEX), accessor.getProperties("missing").keySet());
+    }
+
+    @Test
+    public void testConnectionsAreReused() throws Exception {
+        etcd.put("/a", "1");
+        for (int i = 0; i < 20; i++) {
+            assertEquals("1", accessor.get("a").get("a"));
+            assertNotNull(accessor.get("b").get("_b.NOT_FOUND.target"));
+        }
+        assertEquals(40, etcd.getRequestCount());
+        assertEquals(1, etcd.getConnectionCount());
+    }
+
+    @Test
+    public void testAsyncRequests() throws Exception {
+        List<CompletableFuture<Map<String,String>>> writes = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            writes.add(accessor.setAsync("async/key" + i, "v" + i, null));
+        }
+        for (CompletableFuture<Map<String,String>> write : writes) {
+            assertNull(write.get().get("_ERROR"));
+        }
+        Map<String,String> result = accessor.getPropertiesAsync("async", true).get();
+        for (int i = 0; i < 50; i++) {
+            assertEquals("v" + i, result.get("async/key" + i));
+        }
+        assertEquals("v7", accessor.getAsync("async/key7").get().get("async/key7"));
+        assertNotNull(accessor.deleteAsync("async/key7").get().get("_async/key7.prevNode.value"));
+        assertTrue(etcd.getConnectionCount() <= EtcdBackendConfig.getEtcdThreads());
+    }
+
+    @Test
+    public void testWatch() throws Exception {
+        etcd.put("/app/a", "1");
+        long index = Long.parseLong(accessor.getProperties("app").get(EtcdAccessor.INDEX));
+        CompletableFuture<EtcdAccessor.WatchEvent> watch = CompletableFuture.supplyAsync(() -> {
+            try {
+                return accessor.watch("app", index + 1, 5000L);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(50L);
+        etcd.put("/other", "x");
+        etcd.put("/app/db/url", "jdbc:x");
+        EtcdAccessor.WatchEvent event = watch.get();
+        assertEquals("set", event.getAction());
+        assertEquals("app/db/url", event.getKey());
+        assertEquals(index + 2, event.getModifiedIndex());
+        assertEquals("jdbc:x", event.getProperties().get("app/db/url"));
+        assertFalse(event.isRemoval());
+    }
+
+    @Test
+    public void testWatchHistory() throws Exception {
+        long index = etcd.put("/app/a", "1");
+        etcd.put("/app/a", "2");
+        etcd.remove("/app");
+        EtcdAccessor.WatchEvent event = accessor.watch("app", index + 1, 1000L);
+        assertEquals("2", event.getProperties().get("app/a"));
+        event = accessor.watch("app", event.getModifiedIndex() + 1, 1000L);
+        assertEquals("delete", event.getAction());
+        assertEquals("app", event.getKey());
+        assertTrue(event.isDir());
+        assertTrue(event.isRemoval());
+        assertNull(accessor.watch("app", event.getModifiedIndex() + 1, 200L));
+    }
+
+    @Test
+    public void testWatchIndexCleared() throws Exception {
+        etcd.setHistorySize(2);
+        for (int i = 0; i < 5; i++) {
+            etcd.put("/a", String.valueOf(i));
+        }
+        try {
+            accessor.watch("", 1L, 1000L);
+            fail("Expected cleared index");
+        } catch (EtcdAccessor.IndexClearedException e) {
+            // expected
+        }
+        assertEquals("4", accessor.watch("", 5L, 1000L).getProperties().get("a"));
+    }
+
+    @Test
+    public void testReadTimeout() throws Exception {
+        etcd.put("/a", "1");
+        etcd.setDelay(3000L);
+        EtcdAccessor impatient = new EtcdAccessor(etcd.getUrl(), 1000L, 200L);
+        long start = System.currentTimeMillis();
+        Map<String,String> result = impatient.get("a");
+        assertNotNull(result.get("_ERROR"));
+        assertTrue(System.currentTimeMillis() - start < 2000L);
+    }
+
+    @Test
+    public void testUnreachableServer() throws Exception {
+        etcd.close();
+        assertNotNull(accessor.getProperties("").get("_ERROR"));
+        assertNotNull(accessor.set("a", "b").get("_ERROR"));
+        assertEquals("<ERROR>", accessor.getVersion());
+        assertFalse(accessor.isHealthy());
+        assertFalse(accessor.checkHealth());
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        etcd.put("/gone", "x");
+        etcd.put("/file", "x");
+        Map<String,String> errors = accessor.write(Arrays.asList(EtcdAccessor.Write.set("a?ttl=60", "1"),
+                EtcdAccessor.Write.set("file/b", "2"), EtcdAccessor.Write.delete("gone"),
+                EtcdAccessor.Write.delete("missing")), 2);
+        assertEquals(Collections.singleton("file/b"), errors.keySet());
+        assertEquals("1", accessor.get("a").get("a"));
+        assertEquals("60", accessor.get("a").get("_a.ttl"));
+        assertNull(accessor.get("gone").get("gone"));
+    }
+
+    @Test
+    public void testWriteParsesTtl() throws Exception {
+        assertEquals("a=1", EtcdAccessor.Write.set("a", "1").toString());
+        assertEquals("a=1?ttl=5", EtcdAccessor.Write.set("a?foo=bar&ttl=5", "1").toString());
+        assertEquals("a", EtcdAccessor.Write.set("a?ttl=5", "1").getKey());
+        assertTrue(EtcdAccessor.Write.delete("a").isDelete());
+        try {
+            EtcdAccessor.Write.set("a?ttl=x", "1");
+            fail("Invalid ttl not detected.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testWritesAreRedirected() throws Exception {
+        LocalEtcdServer follower = new LocalEtcdServer();
+        try {
+            follower.redirectWritesTo(etcd);
+            EtcdAccessor followerAccessor = new EtcdAccessor(follower.getUrl());
+            Map<String,String> result = followerAccessor.set("a b", "1", 60);
+            assertNull(result.get("_ERROR"));
+            assertEquals("1", result.get("a b"));
+            assertEquals("60", result.get("_a b.ttl"));
+            assertNotNull(followerAccessor.delete("a b").get("_a b.prevNode.value"));
+            assertEquals(0, follower.getWriteCount());
+            assertEquals(2, etcd.getWriteCount());
+            assertTrue(followerAccessor.isHealthy());
+        } finally {
+            follower.close();
+        }
+    }
+
+    @Test
+    public void testHealthCheck() throws Exception {
+        assertEquals(0L, accessor.getLatency());
+        assertTrue(accessor.checkHealth());
+        assertTrue(accessor.isLeader());
+        assertTrue(accessor.getLatency() > 0L);
+        etcd.setLeader(false);
+        assertTrue(accessor.checkHealthAsync().get());
+        assertFalse(accessor.isLeader());
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.k8s;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the routing of requests to the members of an etcd cluster, run against in-process etcd stand-ins.
+ */
+public class EtcdClusterTest {
+
+    private LocalEtcdServer slow;
+    private LocalEtcdServer fast;
+    private EtcdCluster cluster;
+
+    @Before
+    public void setup() throws Exception {
+        slow = new LocalEtcdServer();
+        fast = new LocalEtcdServer();
+        slow.setDelay(100L);
+        fast.setLeader(false);
+        cluster = new EtcdCluster(Arrays.asList(slow.getUrl(), fast.getUrl()), 0L);
+    }
+
+    @After
+    public void tearDown() {
+        cluster.close();
+        slow.close();
+        fast.close();
+    }
+
+    @Test
+    public void testReadsPreferFastestMember() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            cluster.checkHealth().get(5, TimeUnit.SECONDS);
+        }
+        EtcdAccessor first = cluster.getReadOrder().get(0);
+        assertEquals(fast.getUrl(), first.getUrl());
+        assertTrue(first.getLatency() < cluster.getReadOrder().get(1).getLatency());
+        slow.setDelay(0L);
+        fast.setDelay(100L);
+        for (int i = 0; i < 20 && cluster.getReadOrder().get(0) == first; i++) {
+            cluster.checkHealth().get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(slow.getUrl(), cluster.getReadOrder().get(0).getUrl());
+    }
+
+    @Test
+    public void testWritesGoToLeader() throws Exception {
+        cluster.checkHealth().get(5, TimeUnit.SECONDS);
+        assertTrue(cluster.getMembers().get(0).isLeader());
+        assertFalse(cluster.getMembers().get(1).isLeader());
+        assertEquals(slow.getUrl(), cluster.getWriteOrder().get(0).getUrl());
+        assertEquals(fast.getUrl(), cluster.getReadOrder().get(0).getUrl());
+    }
+
+    @Test
+    public void testDeadMembersAreSkipped() throws Exception {
+        slow.close();
+        cluster.checkHealth().get(5, TimeUnit.SECONDS);
+        assertFalse(cluster.getMembers().get(0).isHealthy());
+        assertFalse(cluster.getMembers().get(0).isLeader());
+        assertTrue(cluster.getMembers().get(1).isHealthy());
+        assertEquals(fast.getUrl(), cluster.getReadOrder().get(0).getUrl());
+        assertEquals(fast.getUrl(), cluster.getWriteOrder().get(0).getUrl());
+        assertEquals(2, cluster.getReadOrder().size());
+    }
+
+    @Test
+    public void testFailedRequestMarksMemberUnhealthy() throws Exception {
+        EtcdAccessor accessor = cluster.getMembers().get(1);
+        assertTrue(accessor.isHealthy());
+        fast.close();
+        assertNotNull(accessor.get("a").get("_ERROR"));
+        assertFalse(accessor.isHealthy());
+        assertEquals(slow.getUrl(), cluster.getReadOrder().get(0).getUrl());
+    }
+
+    @Test
+    public void testHealthIsCheckedInBackground() throws Exception {
+        cluster.close();
+        cluster = new EtcdCluster(Arrays.asList(slow.getUrl(), fast.getUrl()), 50L);
+        long end = System.currentTimeMillis() + 5000L;
+        while (cluster.getMembers().get(1).getLatency() == 0L && System.currentTimeMillis() < end) {
+            Thread.sleep(10L);
+        }
+        assertTrue(cluster.getMembers().get(1).getLatency() > 0L);
+        fast.close();
+        while (cluster.getMembers().get(1).isHealthy() && System.currentTimeMillis() < end) {
+            Thread.sleep(10L);
+        }
+        assertFalse(cluster.getMembers().get(1).isHealthy());
+    }
+}
@@ -1,75 +1,280 @@
-///*
-// * Licensed to the Apache Software Foundation (ASF) under one
-// * or more contributor license agreements.  See the NOTICE file
-// * distributed with this work for additional information
-// * regarding copyright ownership.  The ASF licenses this file
-// * to you under the Apache License, Version 2.0 (the
-// * "License"); you may not use this file except in compliance
-// * with the License.  You may obtain a copy of the License at
-// *
-// *   http://www.apache.org/licenses/LICENSE-2.0
-// *
-// * Unless required by applicable law or agreed to in writing,
-// * software distributed under the License is distributed on an
-// * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
-// * KIND, either express or implied.  See the License for the
-// * specific language governing permissions and limitations
-// * under the License.
-// */
-//package org.apache.tamaya.etcd;
-//
-//import org.apache.tamaya.spi.PropertyValue;
-//import org.junit.BeforeClass;
-//import org.junit.Test;
-//
-//import java.util.Map;
-//
-//import static org.junit.Assert.*;
-//import static org.junit.Assert.assertEquals;
-//
-///**
-// * Created by atsticks on 07.01.16.
-// */
-//public class EtcdPropertySourceTest {
-//
-//    private final EtcdPropertySource propertySource = new EtcdPropertySource();
-//
-//    @BeforeClass
-//    public static void setup(){
-//        System.setProperty("etcd.server.urls", "http://8.8.8.8:4001,http://192.168.99.105:4001");
-//    }
-//
-//    @Test
-//    public void testGetOrdinal() throws Exception {
-//        assertEquals(1000, propertySource.getOrdinal());
-//    }
-//
-//    @Test
-//    public void testGetDefaultOrdinal() throws Exception {
-//        assertEquals(1000, propertySource.getDefaultOrdinal());
-//    }
-//
-//    @Test
-//    public void testGetName() throws Exception {
-//        assertEquals("etcd", propertySource.getName());
-//    }
-//
-//    @Test
-//    public void testGet() throws Exception {
-//        Map<String,PropertyValue> props = propertySource.getProperties();
-//        for(Map.Entry<String,PropertyValue> en:props.entrySet()){
-//            assertNotNull("Key not found: " + en.getKey(), propertySource.get(en.getKey()));
-//        }
-//    }
-//
-//    @Test
-//    public void testGetProperties() throws Exception {
-//        Map<String,PropertyValue> props = propertySource.getProperties();
-//        assertNotNull(props);
-//    }
-//
-//    @Test
-//    public void testIsScannable() throws Exception {
-//        assertTrue(propertySource.isScannable());
-//    }
-//}
\ No newline at end of file
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.k8s;
+
+import org.apache.tamaya.ConfigException;
+import org.apache.tamaya.mutableconfig.ConfigChangeRequest;
+import org.apache.tamaya.spi.ChangeSupport;
+import org.apache.tamaya.spi.PropertyValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the etcd property source, run against in-process etcd stand-ins.
+ */
+public class EtcdPropertySourceTest {
+
+    private LocalEtcdServer etcd;
+    private EtcdPropertySource propertySource;
+
+    @Before
+    public void setup() throws Exception {
+        etcd = new LocalEtcdServer();
+        etcd.put("/a", "1");
+        etcd.put("/b/c", "2");
+        propertySource = new EtcdPropertySource(etcd.getUrl());
+    }
+
+    @After
+    public void tearDown() {
+        propertySource.close();
+        etcd.close();
+    }
+
+    @Test
+    public void testGetOrdinal() throws Exception {
+        assertEquals(1000, propertySource.getOrdinal());
+        etcd.put("/tamaya.ordinal", "123");
+        awaitValue("tamaya.ordinal", "123");
+        assertEquals(123, propertySource.getOrdinal());
+    }
+
+    @Test
+    public void testGetDefaultOrdinal() throws Exception {
+        assertEquals(1000, propertySource.getDefaultOrdinal());
+    }
+
+    @Test
+    public void testGetName() throws Exception {
+        assertEquals("etcd", propertySource.getName());
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        PropertyValue value = propertySource.get("b/c");
+        assertEquals("2", value.getValue());
+        assertEquals("etcd", value.getMeta("source"));
+        assertEquals("2", value.getMeta("modifiedIndex"));
+        Map<String,PropertyValue> props = propertySource.getProperties();
+        for(Map.Entry<String,PropertyValue> en:props.entrySet()){
+            assertNotNull("Key not found: " + en.getKey(), propertySource.get(en.getKey()));
+        }
+    }
+
+    @Test
+    public void testGetProperties() throws Exception {
+        Map<String,PropertyValue> props = propertySource.getProperties();
+        assertEquals(2, props.size());
+        assertEquals("1", props.get("a").getValue());
+    }
+
+    @Test
+    public void testDirectory() throws Exception {
+        propertySource.setDirectory("b");
+        assertNull(propertySource.get("a"));
+        assertEquals("2", propertySource.get("b/c").getValue());
+    }
+
+    @Test
+    public void testChangesAreWatched() throws Exception {
+        etcd.put("/a", "changed");
+        awaitValue("a", "changed");
+        etcd.put("/b/d", "3");
+        awaitValue("b/d", "3");
+        assertEquals("4", propertySource.get("b/d").getMeta("modifiedIndex"));
+        etcd.remove("/a");
+        awaitValue("a", null);
+        etcd.remove("/b");
+        awaitValue("b/c", null);
+        assertTrue(propertySource.getProperties().isEmpty());
+        // the directory has been read once, all changes have been watched
+        assertEquals(1, etcd.getRequestCount() - etcd.getWatchCount());
+    }
+
+    @Test
+    public void testReadsDoNotBlock() throws Exception {
+        etcd.setDelay(2000L);
+        propertySource.setCacheTimeout(0L);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 100; i++) {
+            assertEquals("1", propertySource.get("a").getValue());
+            assertEquals(2, propertySource.getProperties().size());
+        }
+        assertTrue(System.currentTimeMillis() - start < 1000L);
+    }
+
+    @Test
+    public void testReloadOnClearedHistory() throws Exception {
+        etcd.setHistorySize(1);
+        synchronized (etcd) {
+            etcd.put("/a", "x");
+            etcd.put("/b/c", "y");
+            etcd.put("/z", "z");
+        }
+        awaitValue("z", "z");
+        assertEquals("x", propertySource.get("a").getValue());
+        assertEquals("y", propertySource.get("b/c").getValue());
+        assertEquals(2, etcd.getRequestCount() - etcd.getWatchCount());
+    }
+
+    @Test
+    public void testWatchIsRenewed() throws Exception {
+        propertySource.close();
+        System.setProperty("tamaya.etcd.watchTimeout", "1");
+        try {
+            propertySource = new EtcdPropertySource(etcd.getUrl());
+        } finally {
+            System.clearProperty("tamaya.etcd.watchTimeout");
+        }
+        assertEquals(1000L, propertySource.getWatchTimeout());
+        Thread.sleep(1500L);
+        etcd.put("/a", "changed");
+        awaitValue("a", "changed");
+        assertTrue(etcd.getWatchCount() >= 2);
+    }
+
+    @Test
+    public void testFailover() throws Exception {
+        LocalEtcdServer dead = new LocalEtcdServer();
+        dead.close();
+        EtcdPropertySource failover = new EtcdPropertySource(dead.getUrl(), etcd.getUrl());
+        try {
+            assertEquals("1", failover.get("a").getValue());
+            etcd.put("/a", "changed");
+            long end = System.currentTimeMillis() + 5000L;
+            while (!"changed".equals(failover.get("a").getValue()) && System.currentTimeMillis() < end) {
+                Thread.sleep(10L);
+            }
+            assertEquals("changed", failover.get("a").getValue());
+        } finally {
+            failover.close();
+        }
+    }
+
+    @Test
+    public void testApplyChange() throws Exception {
+        assertEquals(ChangeSupport.SUPPORTED, propertySource.getChangeSupport());
+        ConfigChangeRequest request = new ConfigChangeRequest("test");
+        request.put("x", "y");
+        request.put("t?ttl=60", "z");
+        request.remove("a");
+        propertySource.applyChange(request);
+        awaitValue("a", null);
+        awaitValue("x", "y");
+        awaitValue("t", "z");
+        assertEquals("60", propertySource.get("t").getMeta("ttl"));
+    }
+
+    @Test
+    public void testApplyChangeIsPipelined() throws Exception {
+        ConfigChangeRequest request = new ConfigChangeRequest("test");
+        for (int i = 0; i < 40; i++) {
+            request.put("batch/" + i, String.valueOf(i));
+        }
+        request.remove("a");
+        etcd.setDelay(50L);
+        long start = System.currentTimeMillis();
+        propertySource.applyChange(request);
+        long duration = System.currentTimeMillis() - start;
+        etcd.setDelay(0L);
+        assertEquals(41, etcd.getWriteCount());
+        assertTrue(etcd.getMaxConcurrentWrites() > 1);
+        assertTrue(etcd.getMaxConcurrentWrites() <= EtcdBackendConfig.getEtcdThreads());
+        assertTrue("Writes not pipelined: " + duration + "ms", duration < 41 * 50L);
+        awaitValue("batch/39", "39");
+        awaitValue("a", null);
+    }
+
+    @Test
+    public void testApplyChangeReportsFailures() throws Exception {
+        ConfigChangeRequest request = new ConfigChangeRequest("test");
+        request.put("a/x", "1");
+        request.put("y", "2");
+        request.put("t?ttl=abc", "3");
+        request.remove("missing");
+        try {
+            propertySource.applyChange(request);
+            fail("Failures not reported.");
+        } catch (ConfigException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Failed to apply 2 of 4 changes to etcd:"));
+            assertTrue(e.getMessage(), e.getMessage().contains("a/x: "));
+            assertTrue(e.getMessage(), e.getMessage().contains("t?ttl=abc: Invalid ttl: ttl=abc"));
+        }
+        awaitValue("y", "2");
+        assertEquals(3, etcd.getWriteCount());
+    }
+
+    @Test
+    public void testChangesAreWrittenToLeader() throws Exception {
+        LocalEtcdServer follower = new LocalEtcdServer();
+        follower.redirectWritesTo(etcd);
+        EtcdPropertySource cluster = new EtcdPropertySource(follower.getUrl(), etcd.getUrl());
+        try {
+            cluster.getCluster().checkHealth().get();
+            assertEquals(etcd.getUrl(), cluster.getCluster().getWriteOrder().get(0).getUrl());
+            ConfigChangeRequest request = new ConfigChangeRequest("test");
+            request.put("x", "y");
+            cluster.applyChange(request);
+            assertEquals(0, follower.getWriteCount());
+            assertEquals(1, etcd.getWriteCount());
+            awaitValue("x", "y");
+        } finally {
+            cluster.close();
+            follower.close();
+        }
+    }
+
+    @Test
+    public void testChangesFailOver() throws Exception {
+        LocalEtcdServer dead = new LocalEtcdServer();
+        dead.close();
+        EtcdPropertySource failover = new EtcdPropertySource(dead.getUrl(), etcd.getUrl());
+        try {
+            ConfigChangeRequest request = new ConfigChangeRequest("test");
+            request.put("x", "y");
+            failover.applyChange(request);
+            assertEquals(1, etcd.getWriteCount());
+            awaitValue("x", "y");
+        } finally {
+            failover.close();
+        }
+    }
+
+    @Test
+    public void testIsScannable() throws Exception {
+        assertTrue(propertySource.isScannable());
+    }
+
+    private void awaitValue(String key, String value) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000L;
+        while (System.currentTimeMillis() < end) {
+            PropertyValue current = propertySource.get(key);
+            if (value == null ? current == null : current != null && value.equals(current.getValue())) {
+                return;
+            }
+            Thread.sleep(10L);
+        }
+        fail("Timeout waiting for " + key + "=" + value + ", was: " + propertySource.get(key));
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.k8s;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the Kubernetes accessor, run against an in-process API server stand-in.
+ */
+public class K8SAccessorTest {
+
+    private LocalK8SServer k8s;
+    private K8SAccessor accessor;
+
+    @Before
+    public void setup() throws Exception {
+        k8s = new LocalK8SServer();
+        k8s.setToken("secret-token");
+        accessor = new K8SAccessor(k8s.getUrl() + "/", () -> "secret-token", null, 1000L, 2000L);
+        k8s.put("configmaps", "default", "app", labels("app", "test"), data("a", "1", "b", "2"));
+        k8s.put("configmaps", "default", "other", labels("app", "other"), data("c", "3"));
+        k8s.put("configmaps", "kube-system", "app", labels("app", "test"), data("d", "4"));
+        k8s.put("secrets", "default", "app", labels("app", "test"), data("password", "s\u00e4cret"));
+    }
+
+    @After
+    public void tearDown() {
+        k8s.close();
+    }
+
+    @Test
+    public void testList() throws Exception {
+        K8SAccessor.ResourceList list = accessor.list("default", K8SAccessor.CONFIG_MAPS, "");
+        assertEquals("104", list.getResourceVersion());
+        assertEquals(2, list.getItems().size());
+        K8SAccessor.Resource app = list.getItems().get(0);
+        assertEquals("configmaps/default/app", app.getId());
+        assertEquals("default", app.getNamespace());
+        assertEquals("app", app.getName());
+        assertEquals("101", app.getResourceVersion());
+        assertEquals(data("a", "1", "b", "2"), app.getData());
+    }
+
+    @Test
+    public void testListWithLabelSelector() throws Exception {
+        K8SAccessor.ResourceList list = accessor.list("default", K8SAccessor.CONFIG_MAPS, "app=test");
+        assertEquals(1, list.getItems().size());
+        assertEquals("app", list.getItems().get(0).getName());
+        assertTrue(accessor.list("default", K8SAccessor.CONFIG_MAPS, "app=none").getItems().isEmpty());
+    }
+
+    @Test
+    public void testSecretsAreDecoded() throws Exception {
+        K8SAccessor.ResourceList list = accessor.list("default", K8SAccessor.SECRETS, "app=test");
+        assertEquals("s\u00e4cret", list.getItems().get(0).getData().get("password"));
+    }
+
+    @Test
+    public void testWatch() throws Exception {
+        List<K8SAccessor.WatchEvent> events = new ArrayList<>();
+        k8s.put("configmaps", "default", "app", labels("app", "test"), data("a", "changed"));
+        k8s.put("configmaps", "default", "new", labels("app", "test"), data("e", "5"));
+        k8s.put("configmaps", "default", "other", labels("app", "test"), data("c", "3"));
+        k8s.delete("configmaps", "default", "new");
+        k8s.put("configmaps", "default", "other", labels("app", "other"), data("c", "3"));
+        String version = accessor.watch("default", K8SAccessor.CONFIG_MAPS, "app=test", "104", 1000L, events::add);
+        assertEquals("109", version);
+        assertEquals(5, events.size());
+        assertEquals("MODIFIED", events.get(0).getType());
+        assertEquals("changed", events.get(0).getResource().getData().get("a"));
+        assertEquals("ADDED", events.get(1).getType());
+        assertEquals("configmaps/default/new", events.get(1).getResource().getId());
+        // the label change makes the resource match the selector
+        assertEquals("ADDED", events.get(2).getType());
+        assertTrue(events.get(3).isDeletion());
+        assertEquals("configmaps/default/new", events.get(3).getResource().getId());
+        assertTrue(events.get(4).isDeletion());
+        assertEquals("configmaps/default/other", events.get(4).getResource().getId());
+    }
+
+    @Test
+    public void testWatchTimeoutReturnsBookmark() throws Exception {
+        k8s.put("configmaps", "kube-system", "app", labels("app", "test"), data("d", "changed"));
+        List<K8SAccessor.WatchEvent> events = new ArrayList<>();
+        assertEquals("105", accessor.watch("default", K8SAccessor.CONFIG_MAPS, "", "104", 1000L, events::add));
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void testWatchExpired() throws Exception {
+        k8s.setHistorySize(1);
+        k8s.put("configmaps", "default", "app", labels("app", "test"), data("a", "x"));
+        k8s.put("configmaps", "default", "app", labels("app", "test"), data("a", "y"));
+        try {
+            accessor.watch("default", K8SAccessor.CONFIG_MAPS, "", "104", 1000L, e -> fail("Unexpected: " + e));
+            fail("Expired resource version not detected.");
+        } catch (K8SAccessor.ResourceExpiredException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testUnauthorized() throws Exception {
+        K8SAccessor anonymous = new K8SAccessor(k8s.getUrl(), () -> null, null, 1000L, 2000L);
+        try {
+            anonymous.list("default", K8SAccessor.CONFIG_MAPS, "");
+            fail("Missing token not detected.");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("HTTP 401: Unauthorized"));
+        }
+    }
+
+    @Test
+    public void testUnreachableServer() throws Exception {
+        k8s.close();
+        try {
+            accessor.list("default", K8SAccessor.CONFIG_MAPS, "");
+            fail("Unreachable server not detected.");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    static Map<String, String> labels(String key, String value) {
+        return Collections.singletonMap(key, value);
+    }
+
+    static Map<String, String> data(String... entries) {
+        Map<String, String> data = new HashMap<>();
+        for (int i = 0; i < entries.length; i += 2) {
+            data.put(entries[i], entries[i + 1]);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.k8s;
+
+import org.apache.tamaya.spi.PropertyValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.apache.tamaya.k8s.K8SAccessorTest.data;
+import static org.apache.tamaya.k8s.K8SAccessorTest.labels;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the Kubernetes property source, run against an in-process API server stand-in.
+ */
+public class K8SPropertySourceTest {
+
+    private LocalK8SServer k8s;
+    private K8SPropertySource propertySource;
+
+    @Before
+    public void setup() throws Exception {
+        k8s = new LocalK8SServer();
+        k8s.put("configmaps", "default", "app", labels("app", "test"), data("a", "1", "b", "2"));
+        k8s.put("configmaps", "default", "other", labels("app", "other"), data("c", "3"));
+        k8s.put("secrets", "default", "app", labels("app", "test"), data("b", "secret"));
+        propertySource = create();
+    }
+
+    @After
+    public void tearDown() {
+        propertySource.close();
+        k8s.close();
+    }
+
+    private K8SPropertySource create() {
+        return new K8SPropertySource(new K8SAccessor(k8s.getUrl(), () -> null, null, 1000L, 2000L),
+                "default", "app=test", Arrays.asList(K8SAccessor.CONFIG_MAPS, K8SAccessor.SECRETS));
+    }
+
+    @Test
+    public void testGetName() throws Exception {
+        assertEquals("k8s", propertySource.getName());
+        assertEquals(1000, propertySource.getDefaultOrdinal());
+        assertEquals("default", propertySource.getNamespace());
+        assertEquals("app=test", propertySource.getLabelSelector());
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        PropertyValue value = propertySource.get("a");
+        assertEquals("1", value.getValue());
+        assertEquals("k8s", value.getMeta("source"));
+        assertEquals("configmaps/default/app", value.getMeta("resource"));
+        assertEquals("101", value.getMeta("resourceVersion"));
+        assertNull(propertySource.get("c"));
+    }
+
+    @Test
+    public void testGetProperties() throws Exception {
+        assertEquals(2, propertySource.getProperties().size());
+        assertEquals("1", propertySource.getProperties().get("a").getValue());
+    }
+
+    @Test
+    public void testSecretsTakePrecedence() throws Exception {
+        assertEquals("secret", propertySource.get("b").getValue());
+        assertEquals("secrets/default/app", propertySource.get("b").getMeta("resource"));
+        k8s.delete("secrets", "default", "app");
+        awaitValue("b", "2");
+    }
+
+    @Test
+    public void testReadsDoNotAccessServer() throws Exception {
+        int lists = k8s.getListCount();
+        for (int i = 0; i < 100; i++) {
+            assertEquals("1", propertySource.get("a").getValue());
+            assertEquals(2, propertySource.getProperties().size());
+        }
+        assertEquals(lists, k8s.getListCount());
+    }
+
+    @Test
+    public void testChangesAreWatched() throws Exception {
+        k8s.put("configmaps", "default", "app", labels("app", "test"), data("a", "changed"));
+        awaitValue("a", "changed");
+        // b is still provided by the secret
+        assertEquals("secret", propertySource.get("b").getValue());
+        k8s.put("configmaps", "default", "other", labels("app", "test"), data("c", "3"));
+        awaitValue("c", "3");
+        k8s.put("configmaps", "default", "other", labels("app", "other"), data("c", "3"));
+        awaitValue("c", null);
+        k8s.delete("configmaps", "default", "app");
+        awaitValue("a", null);
+        k8s.delete("secrets", "default", "app");
+        awaitValue("b", null);
+        assertTrue(propertySource.getProperties().isEmpty());
+        // every resource type has been listed once, all changes have been watched
+        assertEquals(2, k8s.getListCount());
+    }
+
+    @Test
+    public void testRelistOnExpiredVersion() throws Exception {
+        propertySource.close();
+        k8s.setHistorySize(1);
+        k8s.setWatchesHeld(true);
+        propertySource = create();
+        k8s.put("configmaps", "default", "app", labels("app", "test"), data("a", "x"));
+        k8s.put("configmaps", "default", "new", labels("app", "test"), data("n", "y"));
+        k8s.setWatchesHeld(false);
+        awaitValue("a", "x");
+        awaitValue("n", "y");
+        // both resource types have been listed again
+        assertEquals(6, k8s.getListCount());
+    }
+
+    @Test
+    public void testWatchIsRenewed() throws Exception {
+        propertySource.close();
+        System.setProperty("tamaya.k8s.watchTimeout", "1");
+        try {
+            propertySource = create();
+        } finally {
+            System.clearProperty("tamaya.k8s.watchTimeout");
+        }
+        assertEquals(1000L, propertySource.getWatchTimeout());
+        Thread.sleep(1500L);
+        k8s.put("configmaps", "default", "app", labels("app", "test"), data("a", "changed"));
+        awaitValue("a", "changed");
+        assertTrue(k8s.getWatchCount() >= 4);
+    }
+
+    @Test
+    public void testServerUnavailableOnStart() throws Exception {
+        propertySource.close();
+        k8s.close();
+        propertySource = create();
+        assertTrue(propertySource.getProperties().isEmpty());
+    }
+
+    private void awaitValue(String key, String value) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000L;
+        while (System.currentTimeMillis() < end) {
+            PropertyValue current = propertySource.get(key);
+            if (value == null ? current == null : current != null && value.equals(current.getValue())) {
+                return;
+            }
+            Thread.sleep(10L);
+        }
+        fail("Timeout waiting for " + key + "=" + value + ", was: " + propertySource.get(key));
+    }
+}
@@ -0,0 +1,518 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.k8s;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process stand-in for an etcd member, serving the parts of the etcd v2 keys API used by the accessor.
+ */
+final class LocalEtcdServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+    private final Deque<Event> history = new ArrayDeque<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger watches = new AtomicInteger();
+    private final AtomicInteger writes = new AtomicInteger();
+    private final AtomicInteger activeWrites = new AtomicInteger();
+    private final AtomicInteger maxActiveWrites = new AtomicInteger();
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private volatile long delay;
+    private volatile boolean leader = true;
+    private volatile LocalEtcdServer redirectTarget;
+    private int historySize = 1000;
+    private long index;
+
+    LocalEtcdServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/version", this::version);
+        server.createContext("/v2/keys", this::keys);
+        server.createContext("/v2/stats/self", this::stats);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Get the number of requests served.
+     * @return the number of requests.
+     */
+    int getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Get the number of distinct client connections requests were received on.
+     * @return the number of connections.
+     */
+    int getConnectionCount() {
+        return clientPorts.size();
+    }
+
+    /**
+     * Get the number of watch requests received.
+     * @return the number of watches.
+     */
+    int getWatchCount() {
+        return watches.get();
+    }
+
+    /**
+     * Get the number of writes applied by this member.
+     * @return the number of writes.
+     */
+    int getWriteCount() {
+        return writes.get();
+    }
+
+    /**
+     * Get the maximal number of writes received concurrently.
+     * @return the number of writes.
+     */
+    int getMaxConcurrentWrites() {
+        return maxActiveWrites.get();
+    }
+
+    /**
+     * Sets the state reported by the member statistics, a member is the leader by default.
+     * @param leader true, if the member is the leader.
+     */
+    void setLeader(boolean leader) {
+        this.leader = leader;
+    }
+
+    /**
+     * Makes this member a follower, redirecting all writes to the given leader, as etcd 0.4 did.
+     * @param target the leader.
+     */
+    void redirectWritesTo(LocalEtcdServer target) {
+        this.leader = false;
+        this.redirectTarget = target;
+    }
+
+    /**
+     * Sets the number of events kept for watches, etcd keeps 1000.
+     * @param size the number of events.
+     */
+    synchronized void setHistorySize(int size) {
+        this.historySize = size;
+    }
+
+    /**
+     * Delays all following responses.
+     * @param millis the delay in milliseconds.
+     */
+    void setDelay(long millis) {
+        this.delay = millis;
+    }
+
+    /**
+     * Sets a key directly.
+     * @param key the key, e.g. {@code /a/b}.
+     * @param value the value.
+     * @return the modified index of the key.
+     */
+    synchronized long put(String key, String value) {
+        final Entry existing = entries.get(key);
+        final Entry entry = new Entry(value, existing == null ? index + 1 : existing.createdIndex, ++index);
+        entries.put(key, entry);
+        record(new Event("set", key, false, entry, existing));
+        return entry.modifiedIndex;
+    }
+
+    /**
+     * Deletes a key or a directory directly.
+     * @param key the key, e.g. {@code /a/b}.
+     */
+    synchronized void remove(String key) {
+        final Entry existing = entries.remove(key);
+        final boolean dir = existing == null;
+        if (dir) {
+            entries.subMap(key + '/', key + '/' + Character.MAX_VALUE).clear();
+        }
+        index++;
+        record(new Event("delete", key, dir, new Entry(null, existing == null ? index : existing.createdIndex, index),
+                existing));
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void version(HttpExchange exchange) throws IOException {
+        respond(exchange, 200, "{\"etcdserver\":\"2.3.8\",\"etcdcluster\":\"2.3.0\"}".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void stats(HttpExchange exchange) throws IOException {
+        if (pause(exchange, false)) {
+            respond(exchange, 200, ("{\"name\":\"" + getUrl() + "\",\"state\":\""
+                    + (leader ? "StateLeader" : "StateFollower") + "\"}").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private boolean pause(HttpExchange exchange, boolean write) {
+        if (write) {
+            maxActiveWrites.accumulateAndGet(activeWrites.incrementAndGet(), Math::max);
+        }
+        try {
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exchange.close();
+            return false;
+        } finally {
+            if (write) {
+                activeWrites.decrementAndGet();
+            }
+        }
+    }
+
+    private void keys(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        if (!pause(exchange, !"GET".equals(exchange.getRequestMethod()))) {
+            return;
+        }
+        final LocalEtcdServer target = redirectTarget;
+        if (target != null && !"GET".equals(exchange.getRequestMethod())) {
+            read(exchange.getRequestBody());
+            exchange.getResponseHeaders().add("Location", target.getUrl() + exchange.getRequestURI());
+            respond(exchange, 307, new byte[0]);
+            return;
+        }
+        String key = exchange.getRequestURI().getPath().substring("/v2/keys".length());
+        if (key.length() > 1 && key.endsWith("/")) {
+            key = key.substring(0, key.length() - 1);
+        }
+        if (key.isEmpty()) {
+            key = "/";
+        }
+        final Map<String, String> query = parseForm(exchange.getRequestURI().getRawQuery());
+        if ("GET".equals(exchange.getRequestMethod()) && "true".equals(query.get("wait"))) {
+            watch(exchange, key, "true".equals(query.get("recursive")), query.get("waitIndex"));
+            return;
+        }
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final int status;
+        try (JsonGenerator generator = Json.createGenerator(body)) {
+            synchronized (this) {
+                purgeExpired();
+                switch (exchange.getRequestMethod()) {
+                    case "GET":
+                        status = get(generator, key, "true".equals(query.get("recursive")));
+                        break;
+                    case "PUT":
+                        writes.incrementAndGet();
+                        status = set(generator, key, parseForm(read(exchange.getRequestBody())));
+                        break;
+                    case "DELETE":
+                        writes.incrementAndGet();
+                        status = delete(generator, key);
+                        break;
+                    default:
+                        status = 405;
+                        generator.writeStartObject().write("message", "Method not allowed").writeEnd();
+                }
+            }
+        }
+        exchange.getResponseHeaders().add("X-Etcd-Index", String.valueOf(index));
+        respond(exchange, status, body.toByteArray());
+    }
+
+    private int get(JsonGenerator generator, String key, boolean recursive) {
+        final Entry entry = entries.get(key);
+        if (entry != null) {
+            generator.writeStartObject().write("action", "get");
+            writeNode(generator.writeStartObject("node"), key, entry).writeEnd();
+            generator.writeEnd();
+            return 200;
+        }
+        final String prefix = key.equals("/") ? "/" : key + '/';
+        if (!key.equals("/") && entries.subMap(prefix, prefix + Character.MAX_VALUE).isEmpty()) {
+            return notFound(generator, key);
+        }
+        generator.writeStartObject().write("action", "get");
+        writeDirectory(generator.writeStartObject("node"), key, recursive);
+        generator.writeEnd().writeEnd();
+        return 200;
+    }
+
+    private int set(JsonGenerator generator, String key, Map<String, String> form) {
+        for (int slash = key.indexOf('/', 1); slash > 0; slash = key.indexOf('/', slash + 1)) {
+            if (entries.containsKey(key.substring(0, slash))) {
+                generator.writeStartObject().write("errorCode", 104).write("message", "Not a directory")
+                        .write("cause", key.substring(0, slash)).write("index", index).writeEnd();
+                return 403;
+            }
+        }
+        final Entry existing = entries.get(key);
+        final Entry entry = new Entry(form.get("value"), existing == null ? index + 1 : existing.createdIndex, ++index);
+        if (form.containsKey("ttl")) {
+            entry.ttl = Integer.parseInt(form.get("ttl"));
+            entry.expiresAt = System.currentTimeMillis() + entry.ttl * 1000L;
+        }
+        entries.put(key, entry);
+        record(new Event("set", key, false, entry, existing));
+        generator.writeStartObject().write("action", "set");
+        writeNode(generator.writeStartObject("node"), key, entry).writeEnd();
+        if (existing != null) {
+            writeNode(generator.writeStartObject("prevNode"), key, existing).writeEnd();
+        }
+        generator.writeEnd();
+        return existing == null ? 201 : 200;
+    }
+
+    private int delete(JsonGenerator generator, String key) {
+        final Entry existing = entries.remove(key);
+        if (existing == null) {
+            return notFound(generator, key);
+        }
+        index++;
+        record(new Event("delete", key, false, new Entry(null, existing.createdIndex, index), existing));
+        generator.writeStartObject().write("action", "delete");
+        generator.writeStartObject("node").write("key", key).write("modifiedIndex", index)
+                .write("createdIndex", existing.createdIndex).writeEnd();
+        writeNode(generator.writeStartObject("prevNode"), key, existing).writeEnd();
+        generator.writeEnd();
+        return 200;
+    }
+
+    private void watch(HttpExchange exchange, String key, boolean recursive, String waitIndex) throws IOException {
+        watches.incrementAndGet();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int status = 200;
+        try (JsonGenerator generator = Json.createGenerator(body)) {
+            synchronized (this) {
+                final long from = waitIndex == null ? index + 1 : Long.parseLong(waitIndex);
+                Event event = null;
+                while (true) {
+                    if (from <= index - historySize) {
+                        generator.writeStartObject().write("errorCode", 401)
+                                .write("message", "The event in requested index is outdated and cleared")
+                                .write("cause", "the requested history has been cleared [" + (index - historySize + 1)
+                                        + "/" + from + "]")
+                                .write("index", index).writeEnd();
+                        status = 400;
+                        break;
+                    }
+                    event = findEvent(key, recursive, from);
+                    if (event != null) {
+                        break;
+                    }
+                    wait();
+                }
+                if (event != null) {
+                    generator.writeStartObject().write("action", event.action);
+                    if (event.dir) {
+                        generator.writeStartObject("node").write("key", event.key).write("dir", true)
+                                .write("modifiedIndex", event.node.modifiedIndex)
+                                .write("createdIndex", event.node.createdIndex).writeEnd();
+                    } else if (event.node.value == null) {
+                        generator.writeStartObject("node").write("key", event.key)
+                                .write("modifiedIndex", event.node.modifiedIndex)
+                                .write("createdIndex", event.node.createdIndex).writeEnd();
+                    } else {
+                        writeNode(generator.writeStartObject("node"), event.key, event.node).writeEnd();
+                    }
+                    if (event.prevNode != null) {
+                        writeNode(generator.writeStartObject("prevNode"), event.key, event.prevNode).writeEnd();
+                    }
+                    generator.writeEnd();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exchange.close();
+            return;
+        }
+        respond(exchange, status, body.toByteArray());
+    }
+
+    private Event findEvent(String key, boolean recursive, long from) {
+        for (Event event : history) {
+            if (event.node.modifiedIndex >= from && (event.key.equals(key)
+                    || recursive && (key.equals("/") || event.key.startsWith(key + '/')))) {
+                return event;
+            }
+        }
+        return null;
+    }
+
+    private void record(Event event) {
+        history.addLast(event);
+        while (history.size() > historySize) {
+            history.removeFirst();
+        }
+        notifyAll();
+    }
+
+    private int notFound(JsonGenerator generator, String key) {
+        generator.writeStartObject().write("errorCode", 100).write("message", "Key not found")
+                .write("cause", key).write("index", index).writeEnd();
+        return 404;
+    }
+
+    private void writeDirectory(JsonGenerator generator, String key, boolean recursive) {
+        if (!key.equals("/")) {
+            generator.write("key", key);
+        }
+        generator.write("dir", true).writeStartArray("nodes");
+        final String prefix = key.equals("/") ? "/" : key + '/';
+        final Set<String> directories = new LinkedHashSet<>();
+        for (Map.Entry<String, Entry> en : entries.subMap(prefix, prefix + Character.MAX_VALUE).entrySet()) {
+            final String rest = en.getKey().substring(prefix.length());
+            final int slash = rest.indexOf('/');
+            if (slash < 0) {
+                writeNode(generator.writeStartObject(), en.getKey(), en.getValue()).writeEnd();
+            } else {
+                directories.add(prefix + rest.substring(0, slash));
+            }
+        }
+        for (String directory : directories) {
+            generator.writeStartObject();
+            if (recursive) {
+                writeDirectory(generator, directory, true);
+            } else {
+                generator.write("key", directory).write("dir", true);
+            }
+            generator.writeEnd();
+        }
+        generator.writeEnd();
+    }
+
+    private static JsonGenerator writeNode(JsonGenerator generator, String key, Entry entry) {
+        generator.write("key", key).write("value", entry.value);
+        if (entry.ttl != null) {
+            generator.write("expiration", Instant.ofEpochMilli(entry.expiresAt).toString()).write("ttl", entry.ttl);
+        }
+        return generator.write("modifiedIndex", entry.modifiedIndex).write("createdIndex", entry.createdIndex);
+    }
+
+    private void purgeExpired() {
+        final long now = System.currentTimeMillis();
+        entries.entrySet().removeIf(en -> {
+            if (en.getValue().expiresAt > 0 && en.getValue().expiresAt <= now) {
+                index++;
+                record(new Event("expire", en.getKey(), false, new Entry(null, en.getValue().createdIndex, index),
+                        en.getValue()));
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, String> parseForm(String form) throws UnsupportedEncodingException {
+        final Map<String, String> result = new HashMap<>();
+        if (form != null && !form.isEmpty()) {
+            for (String param : form.split("&")) {
+                final int eq = param.indexOf('=');
+                if (eq < 0) {
+                    result.put(URLDecoder.decode(param, "UTF-8"), "");
+                } else {
+                    result.put(URLDecoder.decode(param.substring(0, eq), "UTF-8"),
+                            URLDecoder.decode(param.substring(eq + 1), "UTF-8"));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static final class Event {
+        private final String action;
+        private final String key;
+        private final boolean dir;
+        private final Entry node;
+        private final Entry prevNode;
+
+        private Event(String action, String key, boolean dir, Entry node, Entry prevNode) {
+            this.action = action;
+            this.key = key;
+            this.dir = dir;
+            this.node = node;
+            this.prevNode = prevNode;
+        }
+    }
+
+    private static final class Entry {
+        private final String value;
+        private final long createdIndex;
+        private final long modifiedIndex;
+        private Integer ttl;
+        private long expiresAt;
+
+        private Entry(String value, long createdIndex, long modifiedIndex) {
+            this.value = value;
+            this.createdIndex = createdIndex;
+            this.modifiedIndex = modifiedIndex;
+        }
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.k8s;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process stand-in for a Kubernetes API server, serving list and watch of the ConfigMaps and Secrets of a
+ * namespace with equality based label selectors.
+ */
+final class LocalK8SServer implements AutoCloseable {
+
+    private static final String PREFIX = "/api/v1/namespaces/";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final TreeMap<String, Item> items = new TreeMap<>();
+    private final Deque<Change> history = new ArrayDeque<>();
+    private final AtomicInteger lists = new AtomicInteger();
+    private final AtomicInteger watches = new AtomicInteger();
+    private volatile String token;
+    private int historySize = 1000;
+    private boolean watchesHeld;
+    private long version = 100;
+
+    LocalK8SServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(PREFIX, this::resources);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Get the number of list requests served.
+     * @return the number of lists.
+     */
+    int getListCount() {
+        return lists.get();
+    }
+
+    /**
+     * Get the number of watch requests received.
+     * @return the number of watches.
+     */
+    int getWatchCount() {
+        return watches.get();
+    }
+
+    /**
+     * Requires all requests to carry the given bearer token.
+     * @param token the token.
+     */
+    void setToken(String token) {
+        this.token = token;
+    }
+
+    /**
+     * Sets the number of changes kept for watches.
+     * @param size the number of changes.
+     */
+    synchronized void setHistorySize(int size) {
+        this.historySize = size;
+    }
+
+    /**
+     * Holds all watches before they are started, until released.
+     * @param held true, to hold the watches.
+     */
+    synchronized void setWatchesHeld(boolean held) {
+        this.watchesHeld = held;
+        notifyAll();
+    }
+
+    /**
+     * Creates or replaces a resource.
+     * @param resource {@code configmaps} or {@code secrets}.
+     * @param namespace the namespace.
+     * @param name the resource name.
+     * @param labels the labels.
+     * @param data the data, unencoded also for secrets.
+     * @return the resource version.
+     */
+    synchronized long put(String resource, String namespace, String name, Map<String, String> labels,
+                          Map<String, String> data) {
+        final String id = resource + '/' + namespace + '/' + name;
+        final Item item = new Item(resource, namespace, name, ++version, labels, data);
+        record(new Change(items.put(id, item), item, item.version));
+        return item.version;
+    }
+
+    /**
+     * Deletes a resource.
+     * @param resource {@code configmaps} or {@code secrets}.
+     * @param namespace the namespace.
+     * @param name the resource name.
+     */
+    synchronized void delete(String resource, String namespace, String name) {
+        final Item existing = items.remove(resource + '/' + namespace + '/' + name);
+        if (existing != null) {
+            record(new Change(existing, null, ++version));
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void resources(HttpExchange exchange) throws IOException {
+        final String[] path = exchange.getRequestURI().getPath().substring(PREFIX.length()).split("/");
+        final Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        if (token != null && !("Bearer " + token).equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+            respond(exchange, 401, status(401, "Unauthorized"));
+            return;
+        }
+        if (path.length != 2 || !"GET".equals(exchange.getRequestMethod())) {
+            respond(exchange, 404, status(404, "the server could not find the requested resource"));
+            return;
+        }
+        final Map<String, String> selector = parseSelector(query.get("labelSelector"));
+        if ("true".equals(query.get("watch"))) {
+            watch(exchange, path[1], path[0], selector, query);
+        } else {
+            list(exchange, path[1], path[0], selector);
+        }
+    }
+
+    private void list(HttpExchange exchange, String resource, String namespace, Map<String, String> selector)
+            throws IOException {
+        lists.incrementAndGet();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (JsonGenerator generator = Json.createGenerator(body)) {
+            synchronized (this) {
+                generator.writeStartObject().write("kind", kind(resource) + "List").write("apiVersion", "v1");
+                generator.writeStartObject("metadata").write("resourceVersion", String.valueOf(version)).writeEnd();
+                generator.writeStartArray("items");
+                for (Item item : items.values()) {
+                    if (item.matches(resource, namespace, selector)) {
+                        writeItem(generator.writeStartObject(), item).writeEnd();
+                    }
+                }
+                generator.writeEnd().writeEnd();
+            }
+        }
+        respond(exchange, 200, body.toByteArray());
+    }
+
+    private void watch(HttpExchange exchange, String resource, String namespace, Map<String, String> selector,
+                       Map<String, String> query) throws IOException {
+        watches.incrementAndGet();
+        final long timeout = query.containsKey("timeoutSeconds") ? Long.parseLong(query.get("timeoutSeconds")) : 60L;
+        final long end = System.currentTimeMillis() + timeout * 1000L;
+        long from = Long.parseLong(query.get("resourceVersion"));
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            while (true) {
+                final Map<Change, String> events = new LinkedHashMap<>();
+                final long now = System.currentTimeMillis();
+                synchronized (this) {
+                    while (watchesHeld) {
+                        wait();
+                    }
+                    if (from < version - historySize) {
+                        final String message = "too old resource version: " + from + " (" + (version - historySize) + ")";
+                        writeEvent(out, "ERROR", generator -> generator.write("kind", "Status")
+                                .write("status", "Failure").write("reason", "Expired")
+                                .write("message", message).write("code", 410));
+                        return;
+                    }
+                    for (Change change : history) {
+                        if (change.version > from) {
+                            final boolean before = change.before != null && change.before.matches(resource, namespace, selector);
+                            final boolean after = change.after != null && change.after.matches(resource, namespace, selector);
+                            if (after) {
+                                events.put(change, before ? "MODIFIED" : "ADDED");
+                            } else if (before) {
+                                events.put(change, "DELETED");
+                            }
+                        }
+                    }
+                    if (events.isEmpty()) {
+                        if (now >= end) {
+                            if ("true".equals(query.get("allowWatchBookmarks"))) {
+                                final String bookmark = String.valueOf(version);
+                                writeEvent(out, "BOOKMARK", generator -> generator.write("kind", kind(resource))
+                                        .writeStartObject("metadata").write("resourceVersion", bookmark).writeEnd());
+                            }
+                            return;
+                        }
+                        wait(end - now);
+                        continue;
+                    }
+                    from = version;
+                }
+                for (Map.Entry<Change, String> event : events.entrySet()) {
+                    final Change change = event.getKey();
+                    final Item item = change.after != null && !"DELETED".equals(event.getValue()) ? change.after
+                            : change.before.deleted(change.version);
+                    writeEvent(out, event.getValue(), generator -> writeItem(generator, item));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // client gone
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private interface ObjectWriter {
+        void write(JsonGenerator generator);
+    }
+
+    private static void writeEvent(OutputStream out, String type, ObjectWriter object) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (JsonGenerator generator = Json.createGenerator(body)) {
+            generator.writeStartObject().write("type", type).writeStartObject("object");
+            object.write(generator);
+            generator.writeEnd().writeEnd();
+        }
+        body.write('\n');
+        out.write(body.toByteArray());
+        out.flush();
+    }
+
+    private static JsonGenerator writeItem(JsonGenerator generator, Item item) {
+        generator.write("kind", kind(item.resource)).write("apiVersion", "v1");
+        generator.writeStartObject("metadata").write("name", item.name).write("namespace", item.namespace)
+                .write("resourceVersion", String.valueOf(item.version))
+                .write("uid", item.resource + '-' + item.name);
+        generator.writeStartObject("labels");
+        for (Map.Entry<String, String> label : item.labels.entrySet()) {
+            generator.write(label.getKey(), label.getValue());
+        }
+        generator.writeEnd().writeEnd();
+        generator.writeStartObject("data");
+        for (Map.Entry<String, String> en : item.data.entrySet()) {
+            generator.write(en.getKey(), "secrets".equals(item.resource)
+                    ? Base64.getEncoder().encodeToString(en.getValue().getBytes(StandardCharsets.UTF_8))
+                    : en.getValue());
+        }
+        generator.writeEnd();
+        if ("secrets".equals(item.resource)) {
+            generator.write("type", "Opaque");
+        }
+        return generator;
+    }
+
+    private static String kind(String resource) {
+        return "secrets".equals(resource) ? "Secret" : "ConfigMap";
+    }
+
+    private static byte[] status(int code, String message) {
+        return ("{\"kind\":\"Status\",\"apiVersion\":\"v1\",\"status\":\"Failure\",\"message\":\"" + message
+                + "\",\"code\":" + code + "}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void record(Change change) {
+        history.addLast(change);
+        while (history.size() > historySize) {
+            history.removeFirst();
+        }
+        notifyAll();
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static Map<String, String> parseSelector(String selector) {
+        final Map<String, String> result = new HashMap<>();
+        if (selector != null && !selector.isEmpty()) {
+            for (String requirement : selector.split(",")) {
+                final int eq = requirement.indexOf('=');
+                result.put(requirement.substring(0, eq).trim(), requirement.substring(eq + 1).replace("=", "").trim());
+            }
+        }
+        return result;
+    }
+
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        final Map<String, String> result = new HashMap<>();
+        if (query != null && !query.isEmpty()) {
+            for (String param : query.split("&")) {
+                final int eq = param.indexOf('=');
+                if (eq < 0) {
+                    result.put(URLDecoder.decode(param, "UTF-8"), "");
+                } else {
+                    result.put(URLDecoder.decode(param.substring(0, eq), "UTF-8"),
+                            URLDecoder.decode(param.substring(eq + 1), "UTF-8"));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static final class Change {
+        private final Item before;
+        private final Item after;
+        private final long version;
+
+        private Change(Item before, Item after, long version) {
+            this.before = before;
+            this.after = after;
+            this.version = version;
+        }
+    }
+
+    private static final class Item {
+        private final String resource;
+        private final String namespace;
+        private final String name;
+        private final long version;
+        private final Map<String, String> labels;
+        private final Map<String, String> data;
+
+        private Item(String resource, String namespace, String name, long version, Map<String, String> labels,
+                     Map<String, String> data) {
+            this.resource = resource;
+            this.namespace = namespace;
+            this.name = name;
+            this.version = version;
+            this.labels = Collections.unmodifiableMap(new TreeMap<>(labels));
+            this.data = Collections.unmodifiableMap(new TreeMap<>(data));
+        }
+
+        private Item deleted(long deletedVersion) {
+            return new Item(resource, namespace, name, deletedVersion, labels, data);
+        }
+
+        private boolean matches(String resource, String namespace, Map<String, String> selector) {
+            if (!this.resource.equals(resource) || !this.namespace.equals(namespace)) {
+                return false;
+            }
+            for (Map.Entry<String, String> requirement : selector.entrySet()) {
+                if (!requirement.getValue().equals(labels.get(requirement.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
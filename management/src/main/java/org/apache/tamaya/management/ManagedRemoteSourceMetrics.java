@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.management;
+
+import org.apache.tamaya.remote.RemoteSourceMetrics;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Default implementation of the {@link ManagedRemoteSourceMetricsMBean} interface, delegating to the
+ * metrics collected by a remote property source.
+ */
+public class ManagedRemoteSourceMetrics implements ManagedRemoteSourceMetricsMBean {
+
+    private final RemoteSourceMetrics metrics;
+
+    /**
+     * Creates a new bean.
+     * @param metrics the metrics to expose, not null.
+     */
+    public ManagedRemoteSourceMetrics(RemoteSourceMetrics metrics) {
+        this.metrics = Objects.requireNonNull(metrics);
+    }
+
+    @Override
+    public String getSourceName() {
+        return metrics.getSourceName();
+    }
+
+    @Override
+    public long getReloadCount() {
+        return metrics.getReloadCount();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return metrics.getFailureCount();
+    }
+
+    @Override
+    public int getConsecutiveFailures() {
+        return metrics.getConsecutiveFailures();
+    }
+
+    @Override
+    public long getLastLatencyMillis() {
+        return metrics.getLastLatencyMillis();
+    }
+
+    @Override
+    public long getLatencyP50Millis() {
+        return metrics.getLatencyPercentileMillis(0.5);
+    }
+
+    @Override
+    public long getLatencyP99Millis() {
+        return metrics.getLatencyPercentileMillis(0.99);
+    }
+
+    @Override
+    public Map<String, Long> getLatencyHistogram() {
+        return metrics.getLatencyHistogram();
+    }
+
+    @Override
+    public long getLastBytes() {
+        return metrics.getLastBytes();
+    }
+
+    @Override
+    public long getTotalBytes() {
+        return metrics.getTotalBytes();
+    }
+
+    @Override
+    public long getLastParseMillis() {
+        return metrics.getLastParseMillis();
+    }
+
+    @Override
+    public int getEntryCount() {
+        return metrics.getEntryCount();
+    }
+
+    @Override
+    public long getDataAgeMillis() {
+        return metrics.getDataAgeMillis();
+    }
+}
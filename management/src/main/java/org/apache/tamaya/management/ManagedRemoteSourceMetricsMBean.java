@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.management;
+
+import java.util.Map;
+
+/**
+ * Managed bean interface for accessing the reload metrics of a remote property source.
+ */
+public interface ManagedRemoteSourceMetricsMBean {
+
+    /**
+     * Get the name of the remote property source.
+     * @return the source name.
+     */
+    String getSourceName();
+
+    /**
+     * Get the number of successful reloads.
+     * @return the number of successful reloads.
+     */
+    long getReloadCount();
+
+    /**
+     * Get the number of failed reloads.
+     * @return the number of failed reloads.
+     */
+    long getFailureCount();
+
+    /**
+     * Get the number of reloads failed since the last successful reload.
+     * @return the number of consecutive failures.
+     */
+    int getConsecutiveFailures();
+
+    /**
+     * Get the duration of the last reload attempt in milliseconds.
+     * @return the last reload latency.
+     */
+    long getLastLatencyMillis();
+
+    /**
+     * Get the upper bound of the median reload latency in milliseconds.
+     * @return the median reload latency, or -1 if no reloads were recorded.
+     */
+    long getLatencyP50Millis();
+
+    /**
+     * Get the upper bound of the 99th percentile reload latency in milliseconds.
+     * @return the 99th percentile reload latency, or -1 if no reloads were recorded.
+     */
+    long getLatencyP99Millis();
+
+    /**
+     * Get the reload latency histogram.
+     * @return the number of reloads per latency bucket.
+     */
+    Map<String, Long> getLatencyHistogram();
+
+    /**
+     * Get the number of bytes transferred by the last successful reload.
+     * @return the number of bytes.
+     */
+    long getLastBytes();
+
+    /**
+     * Get the overall number of bytes transferred.
+     * @return the number of bytes.
+     */
+    long getTotalBytes();
+
+    /**
+     * Get the time spent reading and decoding the last response in milliseconds.
+     * @return the parse time.
+     */
+    long getLastParseMillis();
+
+    /**
+     * Get the number of entries currently loaded.
+     * @return the number of entries.
+     */
+    int getEntryCount();
+
+    /**
+     * Get the age of the data currently loaded in milliseconds.
+     * @return the data age, or -1 if no data has been loaded.
+     */
+    long getDataAgeMillis();
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.management;
+
+import org.apache.tamaya.remote.RemoteSourceMetrics;
+import org.apache.tamaya.remote.spi.RemoteMetricsListener;
+
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Listener registering a {@link ManagedRemoteSourceMetricsMBean} into the local platform mbean server for each
+ * remote property source reloaded, so remote reload latencies, failures and the data age can be monitored.
+ * If a property source with the same name reports another metrics instance, e.g. because the source was
+ * recreated, the mbean is replaced, so it never exposes stale metrics.
+ */
+public class RemoteMetricsMBeanRegistrar implements RemoteMetricsListener {
+
+    /** The logger used. */
+    private final static Logger LOG = Logger.getLogger(RemoteMetricsMBeanRegistrar.class.getName());
+
+    /** The metrics registered, keyed by source name. */
+    private final Map<String, RemoteSourceMetrics> registered = new ConcurrentHashMap<>();
+
+    @Override
+    public void reloaded(URL url, RemoteSourceMetrics metrics, Exception error) {
+        if(registered.get(metrics.getSourceName())!=metrics) {
+            registered.compute(metrics.getSourceName(),
+                    (name, current) -> current==metrics || registerMBean(metrics) ? metrics : current);
+        }
+    }
+
+    /**
+     * Evaluates the object name used for the metrics of the given remote property source.
+     * @param sourceName the source name, not null.
+     * @return the object name.
+     * @throws MalformedObjectNameException if the object name is invalid.
+     */
+    public static ObjectName getObjectName(String sourceName) throws MalformedObjectNameException {
+        return new ObjectName("org.apache.tamaya.management:type=RemoteSourceMetrics,source="
+                + ObjectName.quote(sourceName));
+    }
+
+    private static boolean registerMBean(RemoteSourceMetrics metrics) {
+        try{
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            ObjectName on = getObjectName(metrics.getSourceName());
+            if(mbs.isRegistered(on)){
+                LOG.info("Replacing mbean " + on + "...");
+                mbs.unregisterMBean(on);
+            }else {
+                LOG.info("Registering mbean " + on + "...");
+            }
+            mbs.registerMBean(new ManagedRemoteSourceMetrics(metrics), on);
+            return true;
+        } catch(Exception e){
+            LOG.log(Level.WARNING, "Failed to register ManagedRemoteSourceMetricsMBean.", e);
+        }
+        return false;
+    }
+}
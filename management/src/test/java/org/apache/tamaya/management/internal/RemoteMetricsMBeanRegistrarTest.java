@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.management.internal;
+
+import org.apache.tamaya.management.RemoteMetricsMBeanRegistrar;
+import org.apache.tamaya.remote.RemoteSourceMetrics;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link RemoteMetricsMBeanRegistrar}.
+ */
+public class RemoteMetricsMBeanRegistrarTest {
+
+    @Test
+    public void testRegistersMetricsOnReload() throws Exception {
+        RemoteSourceMetrics metrics = new RemoteSourceMetrics("test:remote");
+        metrics.recordSuccess(3_000_000L, 1024L, 1_000_000L, 42);
+        new RemoteMetricsMBeanRegistrar().reloaded(new URL("http://localhost/config"), metrics, null);
+
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        ObjectName on = RemoteMetricsMBeanRegistrar.getObjectName("test:remote");
+        assertThat(mbs.isRegistered(on)).isTrue();
+        assertThat(mbs.getAttribute(on, "EntryCount")).isEqualTo(42);
+        assertThat(mbs.getAttribute(on, "ReloadCount")).isEqualTo(1L);
+        assertThat(mbs.getAttribute(on, "LatencyP50Millis")).isEqualTo(5L);
+
+        metrics.recordFailure(1_000_000L);
+        assertThat(mbs.getAttribute(on, "ConsecutiveFailures")).isEqualTo(1);
+        mbs.unregisterMBean(on);
+    }
+
+    @Test
+    public void testReplacesStaleMetrics() throws Exception {
+        RemoteMetricsMBeanRegistrar registrar = new RemoteMetricsMBeanRegistrar();
+        URL url = new URL("http://localhost/config");
+        RemoteSourceMetrics metrics = new RemoteSourceMetrics("test:recreated");
+        metrics.recordSuccess(1_000_000L, 10L, 0L, 1);
+        registrar.reloaded(url, metrics, null);
+
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        ObjectName on = RemoteMetricsMBeanRegistrar.getObjectName("test:recreated");
+        assertThat(mbs.getAttribute(on, "EntryCount")).isEqualTo(1);
+
+        RemoteSourceMetrics recreated = new RemoteSourceMetrics("test:recreated");
+        recreated.recordSuccess(1_000_000L, 10L, 0L, 2);
+        registrar.reloaded(url, recreated, null);
+        assertThat(mbs.getAttribute(on, "EntryCount")).isEqualTo(2);
+
+        // the replaced instance is no longer exposed
+        metrics.recordSuccess(1_000_000L, 10L, 0L, 3);
+        registrar.reloaded(url, recreated, null);
+        assertThat(mbs.getAttribute(on, "EntryCount")).isEqualTo(2);
+        mbs.unregisterMBean(on);
+    }
+}
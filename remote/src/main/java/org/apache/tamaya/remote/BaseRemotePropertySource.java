@@ -21,30 +21,121 @@ package org.apache.tamaya.remote;
 import org.apache.tamaya.format.ConfigurationData;
 import org.apache.tamaya.format.ConfigurationFormat;
 import org.apache.tamaya.json.JSONFormat;
+import org.apache.tamaya.remote.spi.RemoteMetricsListener;
 import org.apache.tamaya.spi.PropertySource;
 import org.apache.tamaya.spi.PropertyValue;
+import org.apache.tamaya.spi.ServiceContextManager;
 
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLEncoder;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Collection;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Abstract base class for implementing a PropertySource that reads configuration data from a remote resource. It uses
  * by default the JSON format as defined by the JSON module.
+ * <p>
+ * Optionally the last configuration successfully read is stored in a local cache directory (see
+ * {@link #getCacheDirectory()}). If such a cached copy exists, it is loaded on initialization and the remote
+ * resources are read asynchronously, so startup does not depend on the availability of the remote servers.
+ * <p>
+ * The configuration is not read on construction, since the access URLs and cache location are usually
+ * provided by fields of the subclass, which are not initialized at that time. It is read by {@link #init()},
+ * which is called on first access of the properties, if not called explicitly before.
  */
 public abstract class BaseRemotePropertySource implements PropertySource{
 
+    /**
+     * System property defining the directory, where the last remote configuration read is cached. If not set,
+     * caching is disabled.
+     */
+    public static final String CACHE_DIRECTORY_PROP = "tamaya.remote.cache.dir";
+
     private static final ConfigurationFormat DEFAULT_FORMAT = new JSONFormat();
 
-    private Map<String,String> properties = new HashMap<>();
+    /**
+     * Format used to stream complete JSON documents, if the default configuration format is active. The keys are
+     * flattened as read, like done by the default format and {@link #mapConfigurationData(ConfigurationData)}.
+     */
+    private static final RemoteConfigurationFormat PLAIN_JSON_FORMAT = new StreamingJsonFormat(false);
+
+    /** Format used to stream the etcd compatible section and batch resources of a Tamaya server. */
+    private static final RemoteConfigurationFormat SERVER_JSON_FORMAT = new StreamingJsonFormat();
+
+    /** Executor used for asynchronous reloads, when the configuration could be initialized from the cache. */
+    private static final ExecutorService RELOAD_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "tamaya-remote-reload");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile Map<String,PropertyValue> properties = Collections.emptyMap();
+
+    private volatile RemoteSourceMetrics metrics;
+
+    private final List<RemoteMetricsListener> metricsListeners;
+
+    /** Lock guarding the initialization. */
+    private final Object initLock = new Object();
 
+    private volatile boolean initialized;
+
+    /** Set, once a server did not support batch requests, so sections are read one by one afterwards. */
+    private volatile boolean batchUnsupported;
+
+    /** Whether a subclass overrides {@link #mapConfigurationData(ConfigurationData)}, evaluated lazily. */
+    private volatile Boolean mapsConfigurationData;
+
+    /**
+     * Creates a new instance. The configuration is read on {@link #init()}.
+     */
     protected BaseRemotePropertySource(){
-        reload();
+        this.metricsListeners = loadMetricsListeners();
+    }
+
+    /**
+     * Initially reads the configuration, if not done yet. If a cached configuration is available, it is used
+     * and the remote configuration is reloaded in the background, otherwise the remote configuration is loaded
+     * synchronously. This method is called on first access of the properties, subclasses may call it at the end
+     * of their construction to read the configuration eagerly.
+     */
+    public void init(){
+        if(initialized){
+            return;
+        }
+        synchronized (initLock){
+            if(initialized){
+                return;
+            }
+            if(!properties.isEmpty()){
+                // already reloaded explicitly
+            }else if(loadCache()){
+                RELOAD_EXECUTOR.execute(this::reload);
+            }else {
+                reload();
+            }
+            initialized = true;
+        }
     }
 
     @Override
@@ -54,7 +145,8 @@ public abstract class BaseRemotePropertySource implements PropertySource{
 
     @Override
     public Map<String, PropertyValue> getProperties() {
-        return PropertyValue.mapProperties(properties, getName());
+        init();
+        return properties;
     }
 
     /**
@@ -62,60 +154,457 @@ public abstract class BaseRemotePropertySource implements PropertySource{
      * stay untouched.
      */
     public void reload(){
-        ConfigurationFormat format = getConfigurationFormat();
+        RemoteSourceMetrics metrics = getMetrics();
+        boolean loaded = false;
         for(URL url:getAccessURLs()) {
-            try (InputStream is = url.openStream()) {
-                ConfigurationData data = format.readConfiguration(url.toString(), is);
-                if(data!=null){
-                    Map<String,String> newProperties = mapConfigurationData(data);
-                    // the configs served by the tamaya server module has a 'data' root section containing the
-                    // config  entries. if not present, we assume an alternate format, which is sued as is...
-                    if(!newProperties.isEmpty()){
-                        this.properties = newProperties;
-                        Logger.getLogger(getClass().getName()).info(
-                                "Reloaded remote config from: " + url + ", entries read: " + this.properties.size());
-                    }
+            long start = System.nanoTime();
+            ReadStats stats = new ReadStats();
+            Exception error = null;
+            try {
+                Map<String,PropertyValue> newProperties = readProperties(url, stats);
+                // the configs served by the tamaya server module has a 'data' root section containing the
+                // config  entries. if not present, we assume an alternate format, which is sued as is...
+                if(!newProperties.isEmpty()){
+                    this.properties = newProperties;
+                    loaded = true;
+                    metrics.recordSuccess(System.nanoTime() - start, stats.bytes, stats.parseNanos,
+                            newProperties.size());
+                    Logger.getLogger(getClass().getName()).info(
+                            "Reloaded remote config from: " + url + ", entries read: " + this.properties.size());
+                }else{
+                    metrics.recordFailure(System.nanoTime() - start);
+                    Logger.getLogger(getClass().getName()).warning("No config entries read from url: " + url);
                 }
             } catch (Exception e) {
+                error = e;
+                metrics.recordFailure(System.nanoTime() - start);
                 Logger.getLogger(getClass().getName()).log(Level.SEVERE, "Failed to load config from url: " + url, e);
             }
+            fireReloaded(url, error);
+        }
+        if(loaded){
+            storeCache(this.properties);
+        }
+    }
+
+    /**
+     * Reads the given keys and sections in a single request to the batch resource of a Tamaya configuration
+     * server (see {@link #getBatchURL(URL)}), instead of one request per key. All values are read from the same
+     * server state. The access URLs are tried in order, until one answers. The properties of this property
+     * source are not changed.
+     * @param keys the keys to read, not null.
+     * @param sections the sections to read, including the section's own key, not null.
+     * @return the properties read, never null. Keys not found are not contained.
+     * @throws IOException if none of the access URLs could be read.
+     */
+    public Map<String,PropertyValue> fetch(Collection<String> keys, Collection<String> sections) throws IOException {
+        IOException error = null;
+        for(URL url:getAccessURLs()) {
+            Map<String,PropertyValue> result = new HashMap<>(capacity(keys.size()));
+            try {
+                if(readBatch(url, keys, sections, result, new ReadStats())){
+                    return Collections.unmodifiableMap(result);
+                }
+                error = new IOException("Batch requests not supported by: " + url);
+            } catch (IOException e) {
+                Logger.getLogger(getClass().getName()).log(Level.FINE, "Failed to fetch config from url: " + url, e);
+                error = e;
+            }
+        }
+        throw error!=null?error:new IOException("No access URLs configured.");
+    }
+
+    /**
+     * Get the metrics collected by this property source.
+     * @return the metrics, never null.
+     */
+    public RemoteSourceMetrics getMetrics(){
+        RemoteSourceMetrics current = metrics;
+        if(current==null){
+            synchronized (initLock){
+                current = metrics;
+                if(current==null){
+                    current = new RemoteSourceMetrics(getName());
+                    metrics = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private static List<RemoteMetricsListener> loadMetricsListeners(){
+        try {
+            return ServiceContextManager.getServiceContext().getServices(RemoteMetricsListener.class);
+        } catch (Exception e) {
+            Logger.getLogger(BaseRemotePropertySource.class.getName()).log(Level.WARNING,
+                    "Failed to load remote metrics listeners.", e);
+            return Collections.emptyList();
+        }
+    }
+
+    private void fireReloaded(URL url, Exception error){
+        for(RemoteMetricsListener listener:metricsListeners){
+            try {
+                listener.reloaded(url, getMetrics(), error);
+            } catch (Exception e) {
+                Logger.getLogger(getClass().getName()).log(Level.WARNING, "Metrics listener failed: " + listener, e);
+            }
+        }
+    }
+
+    /**
+     * Get the directory where the last configuration read is cached. By default the directory is evaluated from the
+     * {@code tamaya.remote.cache.dir} system property.
+     * @return the cache directory, or null, if caching is disabled.
+     */
+    protected File getCacheDirectory(){
+        String dir = System.getProperty(CACHE_DIRECTORY_PROP);
+        if(dir==null || dir.trim().isEmpty()){
+            return null;
+        }
+        return new File(dir.trim());
+    }
+
+    /**
+     * Get the cache file used by this property source, which is keyed by the property source's name.
+     * @return the cache file, or null, if caching is disabled.
+     */
+    protected File getCacheFile(){
+        File dir = getCacheDirectory();
+        if(dir==null){
+            return null;
+        }
+        return new File(dir, getName().replaceAll("[^a-zA-Z0-9._-]", "_") + ".properties");
+    }
+
+    /**
+     * Loads the cached configuration, if present.
+     * @return true, if a non empty configuration could be loaded from the cache.
+     */
+    private boolean loadCache(){
+        File cacheFile = getCacheFile();
+        if(cacheFile==null || !cacheFile.isFile()){
+            return false;
+        }
+        try (InputStream is = Files.newInputStream(cacheFile.toPath())) {
+            Properties props = new Properties();
+            props.load(is);
+            Map<String,PropertyValue> cached = new HashMap<>(capacity(props.size()));
+            String source = getName();
+            for(String key:props.stringPropertyNames()){
+                cached.put(key, createValue(key, props.getProperty(key), source));
+            }
+            if(!cached.isEmpty()) {
+                this.properties = Collections.unmodifiableMap(cached);
+                getMetrics().recordCacheLoad(cacheFile.lastModified(), cached.size());
+                Logger.getLogger(getClass().getName()).info(
+                        "Loaded cached remote config from: " + cacheFile + ", entries read: " + cached.size());
+                return true;
+            }
+        } catch (Exception e) {
+            Logger.getLogger(getClass().getName()).log(Level.WARNING, "Failed to read config cache: " + cacheFile, e);
+        }
+        return false;
+    }
+
+    /**
+     * Stores the given configuration into the cache. The data is written into a temporary file first, which then
+     * is moved to the target file, so concurrent readers never see a partially written cache. Entries without
+     * a value are not cached.
+     * @param config the configuration to cache, not null.
+     */
+    void storeCache(Map<String,PropertyValue> config){
+        File cacheFile = getCacheFile();
+        if(cacheFile==null){
+            return;
+        }
+        Path tempFile = null;
+        try {
+            Path dir = Files.createDirectories(cacheFile.getParentFile().toPath());
+            tempFile = Files.createTempFile(dir, cacheFile.getName(), ".tmp");
+            Properties props = new Properties();
+            for(PropertyValue value:config.values()){
+                if(value.getKey()!=null && value.getValue()!=null){
+                    props.setProperty(value.getKey(), value.getValue());
+                }
+            }
+            try (OutputStream os = Files.newOutputStream(tempFile)) {
+                props.store(os, "Cached remote configuration of " + getName());
+            }
+            try {
+                Files.move(tempFile, cacheFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }catch(AtomicMoveNotSupportedException e){
+                Files.move(tempFile, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (Exception e) {
+            Logger.getLogger(getClass().getName()).log(Level.WARNING, "Failed to write config cache: " + cacheFile, e);
+            if(tempFile!=null){
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException ioe) {
+                    Logger.getLogger(getClass().getName()).log(Level.FINEST, "Failed to delete: " + tempFile, ioe);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the properties from the given URL. If remote formats are configured, their media types are sent as
+     * {@code Accept} header and a matching format is used to decode the response directly. Otherwise the
+     * response is read using the {@link #getConfigurationFormat() configuration format}. If the default JSON format
+     * is active and {@link #mapConfigurationData(ConfigurationData)} is not overridden, the response is streamed
+     * directly into the property map without creating an intermediate configuration tree. If
+     * {@link #getSections() sections} are configured, only these sections are requested from the given server URL.
+     * @param url the url to read, not null.
+     * @param stats the statistics to be updated, not null.
+     * @return the properties read, never null.
+     * @throws IOException if reading fails.
+     */
+    private Map<String,PropertyValue> readProperties(URL url, ReadStats stats) throws IOException {
+        // expect about the same number of entries as currently loaded
+        Map<String,PropertyValue> newProperties = new HashMap<>(capacity(properties.size()));
+        Collection<String> sections = getSections();
+        if(sections.isEmpty()){
+            readProperties(url, newProperties, stats, true);
+        }else if(batchUnsupported || !readBatch(url, Collections.emptyList(), sections, newProperties, stats)){
+            batchUnsupported = true;
+            for(String section:sections){
+                readProperties(getSectionURL(url, section), newProperties, stats, false);
+            }
+        }
+        return Collections.unmodifiableMap(newProperties);
+    }
+
+    private void readProperties(URL url, Map<String,PropertyValue> target, ReadStats stats, boolean fullDocument)
+            throws IOException {
+        URLConnection connection = url.openConnection();
+        setAcceptHeader(connection);
+        readResponse(url, connection, target, stats, fullDocument);
+    }
+
+    /**
+     * Reads keys and sections from the batch resource of the given server.
+     * @return true, if the server answered the batch request, false, if batch requests are not supported.
+     */
+    private boolean readBatch(URL baseURL, Collection<String> keys, Collection<String> sections,
+                              Map<String,PropertyValue> target, ReadStats stats) throws IOException {
+        URL url = getBatchURL(baseURL);
+        StringBuilder form = new StringBuilder();
+        for(String key:keys){
+            form.append(form.length()==0?"":"&").append("key=").append(URLEncoder.encode(key, "UTF-8"));
+        }
+        for(String section:sections){
+            form.append(form.length()==0?"":"&").append("prefix=").append(URLEncoder.encode(section, "UTF-8"));
+        }
+        URLConnection connection = url.openConnection();
+        if(!(connection instanceof HttpURLConnection)){
+            return false;
+        }
+        HttpURLConnection httpConnection = (HttpURLConnection) connection;
+        setAcceptHeader(httpConnection);
+        httpConnection.setRequestMethod("POST");
+        httpConnection.setDoOutput(true);
+        httpConnection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+        try (OutputStream os = httpConnection.getOutputStream()) {
+            os.write(form.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        int status = httpConnection.getResponseCode();
+        if(status==HttpURLConnection.HTTP_NOT_FOUND || status==HttpURLConnection.HTTP_BAD_METHOD){
+            InputStream errorStream = httpConnection.getErrorStream();
+            if(errorStream!=null){
+                errorStream.close();
+            }
+            return false;
+        }
+        readResponse(url, httpConnection, target, stats, false);
+        return true;
+    }
+
+    private void setAcceptHeader(URLConnection connection){
+        Collection<RemoteConfigurationFormat> remoteFormats = getRemoteFormats();
+        if(!remoteFormats.isEmpty()){
+            StringBuilder accept = new StringBuilder();
+            for(RemoteConfigurationFormat remoteFormat:remoteFormats){
+                accept.append(remoteFormat.getMediaType()).append(", ");
+            }
+            connection.setRequestProperty("Accept", accept.append("application/json;q=0.5").toString());
+        }
+    }
+
+    private void readResponse(URL url, URLConnection connection, Map<String,PropertyValue> target,
+                              ReadStats stats, boolean fullDocument) throws IOException {
+        try (CountingInputStream is = new CountingInputStream(connection.getInputStream())) {
+            long parseStart = System.nanoTime();
+            try {
+                readProperties(url, connection.getContentType(), is, target, fullDocument);
+            } finally {
+                stats.parseNanos += System.nanoTime() - parseStart;
+                stats.bytes += is.count;
+            }
+        }
+    }
+
+    /**
+     * Decodes a response.
+     * @param fullDocument true, if the response is the complete configuration document of an access URL, false for
+     *                     the section and batch resources of a Tamaya server.
+     */
+    private void readProperties(URL url, String contentType, InputStream is, Map<String,PropertyValue> target,
+                                boolean fullDocument) throws IOException {
+        ConfigurationFormat format = getConfigurationFormat();
+        RemoteConfigurationFormat remoteFormat = selectFormat(getRemoteFormats(), contentType);
+        if(remoteFormat==null && format==DEFAULT_FORMAT){
+            if(!fullDocument){
+                remoteFormat = SERVER_JSON_FORMAT;
+            }else if(!mapsConfigurationData()){
+                remoteFormat = PLAIN_JSON_FORMAT;
+            }
+        }
+        String source = getName();
+        if(remoteFormat!=null){
+            remoteFormat.readProperties(url.toString(), is,
+                    (key, value) -> target.put(key, createValue(key, value, source)));
+            return;
+        }
+        ConfigurationData data = format.readConfiguration(url.toString(), is);
+        for(Map.Entry<String,String> en:mapConfigurationData(data).entrySet()){
+            target.put(en.getKey(), createValue(en.getKey(), en.getValue(), source));
+        }
+    }
+
+    /**
+     * Checks whether {@link #mapConfigurationData(ConfigurationData)} is overridden, so streaming the default
+     * format would bypass it.
+     */
+    private boolean mapsConfigurationData(){
+        Boolean result = mapsConfigurationData;
+        if(result==null){
+            result = false;
+            for(Class<?> type = getClass(); type!=BaseRemotePropertySource.class; type = type.getSuperclass()){
+                try {
+                    type.getDeclaredMethod("mapConfigurationData", ConfigurationData.class);
+                    result = true;
+                    break;
+                } catch (NoSuchMethodException e) {
+                    // not overridden here
+                }
+            }
+            mapsConfigurationData = result;
         }
+        return result;
+    }
+
+    private static PropertyValue createValue(String key, String value, String source){
+        return PropertyValue.createValue(key, value).setMeta("source", source);
+    }
+
+    /**
+     * Evaluates the initial capacity of a hash map, so the given number of entries can be added without
+     * rehashing.
+     * @param expectedSize the expected number of entries.
+     * @return the initial capacity to be used.
+     */
+    private static int capacity(int expectedSize){
+        return (int)(Math.max(expectedSize, 12) / 0.75f) + 1;
+    }
+
+    private static RemoteConfigurationFormat selectFormat(Collection<RemoteConfigurationFormat> remoteFormats,
+                                                          String contentType){
+        if(contentType==null){
+            return null;
+        }
+        int index = contentType.indexOf(';');
+        String mediaType = (index<0?contentType:contentType.substring(0, index)).trim();
+        for(RemoteConfigurationFormat remoteFormat:remoteFormats){
+            if(remoteFormat.getMediaType().equalsIgnoreCase(mediaType)){
+                return remoteFormat;
+            }
+        }
+        return null;
     }
 
     protected abstract Collection<URL> getAccessURLs();
 
+    /**
+     * Get the configuration sections to be read, e.g. {@code db} and {@code cache}. By default this method returns
+     * an empty collection and the complete configuration is read from the access URLs. If sections are returned,
+     * the access URLs are expected to be base URLs of a Tamaya configuration server and only the given
+     * sections are requested (see {@link #getSectionURL(URL, String)}).
+     * @return the sections to be read, never null.
+     */
+    protected Collection<String> getSections(){
+        return Collections.emptyList();
+    }
+
+    /**
+     * Evaluates the URL for reading the given section, by default {@code <baseURL>/keys/<section>?recursive=true}.
+     * @param baseURL the access URL, not null.
+     * @param section the section, not null.
+     * @return the URL to read the section's entries.
+     * @throws IOException if the URL cannot be created.
+     */
+    protected URL getSectionURL(URL baseURL, String section) throws IOException {
+        String base = baseURL.toExternalForm();
+        if(!base.endsWith("/")){
+            base += '/';
+        }
+        return new URL(base + "keys/" + URLEncoder.encode(section, "UTF-8") + "?recursive=true");
+    }
+
+    /**
+     * Evaluates the URL of the batch resource, by default {@code <baseURL>/batch}. Sections are read by a single
+     * batch request, if the server supports it, otherwise one {@link #getSectionURL(URL, String) section URL} is
+     * read per section.
+     * @param baseURL the access URL, not null.
+     * @return the URL of the batch resource.
+     * @throws IOException if the URL cannot be created.
+     */
+    protected URL getBatchURL(URL baseURL) throws IOException {
+        String base = baseURL.toExternalForm();
+        if(!base.endsWith("/")){
+            base += '/';
+        }
+        return new URL(base + "batch");
+    }
+
     protected ConfigurationFormat getConfigurationFormat(){
         return DEFAULT_FORMAT;
     }
 
+    /**
+     * Get the remote formats to be negotiated with the remote server, by default none. Override this method,
+     * e.g. returning a {@link KeyValueFormat}, to read compact binary representations, when supported by the
+     * server.
+     * @return the remote formats, in order of preference, never null.
+     */
+    protected Collection<RemoteConfigurationFormat> getRemoteFormats(){
+        return Collections.emptyList();
+    }
+
+    /**
+     * Maps the configuration data read by a {@link #getConfigurationFormat() configuration format} from an access
+     * URL to a flat property map. By default all entries are used with the keys as read. If this method is
+     * overridden, the default JSON format is parsed into configuration data passed to this method, instead of
+     * being streamed. The section and batch resources of a Tamaya server are not mapped by this method.
+     * @param data the configuration data read, may be null.
+     * @return the mapped properties, never null.
+     */
     protected Map<String,String> mapConfigurationData(ConfigurationData data){
-        Map<String,String> readProperties = new HashMap<>();
         if(data!=null){
+            Map<String,String> readProperties = new HashMap<>();
             for(PropertyValue val:data.getData()) {
                 readProperties.putAll(val.toMap());
             }
-            Map<String,String> newProperties = new HashMap<>();
-            for(Map.Entry<String,String> en:readProperties.entrySet()){
-                // filter data entries
-                newProperties.put(en.getKey(), en.getValue());
-            }
-            // the configs served by the tamaya server module has a 'data' root section containing the
-            // config  entries. if not present, we assume an alternate format, which is sued as is...
-            if(newProperties.isEmpty()){
-                Logger.getLogger(getClass().getName()).info(
-                        "Loaded remote config from: " + data.getResource() + ", does not have a data section, using as is...");
-                newProperties = readProperties;
-            }
-            Logger.getLogger(getClass().getName()).info(
-                    "Reloaded remote config from: " + data.getResource() + ", entriea read: " + this.properties.size());
-            return newProperties;
+            return readProperties;
         }
         return Collections.emptyMap();
     }
 
     @Override
     public PropertyValue get(String key) {
-        return getProperties().get(key);
+        init();
+        return properties.get(key);
     }
 
     public int getOrdinal(){
@@ -139,4 +628,48 @@ public abstract class BaseRemotePropertySource implements PropertySource{
         return 0;
     }
 
+    /**
+     * Statistics collected while reading a remote URL.
+     */
+    private static final class ReadStats {
+        private long bytes;
+        private long parseNanos;
+    }
+
+    /**
+     * Input stream counting the bytes read.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if(b>=0){
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if(n>0){
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
 }
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.remote;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * Compact binary format for transferring flat configuration maps as served by the Tamaya server module
+ * with media type {@code application/x-tamaya-kv}. The format is defined as follows (all integers are
+ * big-endian 32 bit values, strings are UTF-8 encoded):
+ * <pre>
+ *     magic       int ('TKV1')
+ *     count       int
+ *     count times:
+ *       keyLength   int
+ *       key         byte[keyLength]
+ *       valueLength int
+ *       value       byte[valueLength]
+ * </pre>
+ * The count and length fields are checked against the input actually read: buffers grow with the data
+ * received, not with the lengths declared, and a document ending early or containing more data than declared
+ * is rejected.
+ */
+public final class KeyValueFormat implements RemoteConfigurationFormat {
+
+    /** The media type of this format. */
+    public static final String MEDIA_TYPE = "application/x-tamaya-kv";
+
+    /** The magic header, {@code 'TKV1'}. */
+    static final int MAGIC = 0x544B5631;
+
+    @Override
+    public String getMediaType() {
+        return MEDIA_TYPE;
+    }
+
+    @Override
+    public void readProperties(String resource, InputStream inputStream, BiConsumer<String, String> consumer)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream));
+        if(in.readInt()!=MAGIC){
+            throw new IOException("Not a " + MEDIA_TYPE + " document: " + resource);
+        }
+        int count = in.readInt();
+        if(count<0){
+            throw new IOException("Invalid entry count " + count + " in: " + resource);
+        }
+        byte[] buffer = new byte[256];
+        int entry = 0;
+        try {
+            for (; entry < count; entry++) {
+                int length = in.readInt();
+                buffer = read(in, buffer, length, resource);
+                String key = new String(buffer, 0, length, StandardCharsets.UTF_8);
+                length = in.readInt();
+                buffer = read(in, buffer, length, resource);
+                consumer.accept(key, new String(buffer, 0, length, StandardCharsets.UTF_8));
+            }
+        }catch(EOFException e){
+            throw new IOException("Truncated " + MEDIA_TYPE + " document: " + resource + ", " + count
+                    + " entries declared, input ended in entry " + entry, e);
+        }
+        if(in.read()!=-1){
+            throw new IOException("More data than the " + count + " entries declared in: " + resource);
+        }
+    }
+
+    /**
+     * Reads {@code length} bytes into the buffer. The buffer is only grown, when it has been filled with the
+     * data received, so a corrupt length field does not allocate more than twice the input available.
+     */
+    private static byte[] read(InputStream in, byte[] buffer, int length, String resource) throws IOException {
+        if(length<0){
+            throw new IOException("Invalid entry length " + length + " in: " + resource);
+        }
+        int read = 0;
+        while(read<length){
+            if(read==buffer.length){
+                buffer = Arrays.copyOf(buffer, (int)Math.min(length, buffer.length*2L));
+            }
+            int n = in.read(buffer, read, Math.min(length, buffer.length) - read);
+            if(n<0){
+                throw new EOFException("Entry of " + length + " bytes ended after " + read + " bytes.");
+            }
+            read += n;
+        }
+        return buffer;
+    }
+
+    @Override
+    public String toString() {
+        return "KeyValueFormat{mediaType=" + MEDIA_TYPE + '}';
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.remote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.BiConsumer;
+
+/**
+ * Format for decoding configuration data read from a remote resource. Different to a
+ * {@link org.apache.tamaya.format.ConfigurationFormat} a remote format does not create an intermediate
+ * {@link org.apache.tamaya.format.ConfigurationData} tree, but passes all key/value pairs directly to the
+ * consumer given. Formats are selected by the media type returned by the remote server, the media types of all
+ * formats configured are sent as {@code Accept} header.
+ */
+public interface RemoteConfigurationFormat {
+
+    /**
+     * Get the media type read by this format, e.g. {@code application/x-tamaya-kv}.
+     * @return the media type, not null.
+     */
+    String getMediaType();
+
+    /**
+     * Reads the given input and passes all key/value pairs read to the given consumer.
+     * @param resource the resource name, used for logging and error messages.
+     * @param inputStream the input stream, not null. The stream is closed by the caller.
+     * @param consumer the consumer receiving the properties read, not null.
+     * @throws IOException if reading or decoding the input fails.
+     */
+    void readProperties(String resource, InputStream inputStream, BiConsumer<String,String> consumer)
+            throws IOException;
+
+}
@@ -0,0 +1,240 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.remote;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics container collecting reload statistics of a remote property source, such as reload latencies,
+ * bytes transferred, failures and the age of the data currently loaded. Recording is lock-free, so
+ * metrics can be read concurrently, e.g. by a JMX adapter.
+ */
+public final class RemoteSourceMetrics {
+
+    /** Upper bounds of the latency histogram buckets in milliseconds. */
+    private static final long[] LATENCY_BUCKETS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+
+    private final String sourceName;
+    private final AtomicLongArray latencyCounts = new AtomicLongArray(LATENCY_BUCKETS.length + 1);
+    private final LongAdder reloadCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+    private final LongAdder totalBytes = new LongAdder();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long lastLatencyNanos;
+    private volatile long lastBytes;
+    private volatile long lastParseNanos;
+    private volatile int entryCount;
+    private volatile long lastUpdate;
+
+    /**
+     * Creates a new instance.
+     * @param sourceName the name of the property source, not null.
+     */
+    public RemoteSourceMetrics(String sourceName) {
+        this.sourceName = Objects.requireNonNull(sourceName);
+    }
+
+    /**
+     * Records a successful reload.
+     * @param latencyNanos the overall reload duration in nanoseconds.
+     * @param bytes the number of bytes transferred.
+     * @param parseNanos the time spent reading and decoding the response in nanoseconds.
+     * @param entries the number of entries loaded.
+     */
+    public void recordSuccess(long latencyNanos, long bytes, long parseNanos, int entries){
+        recordLatency(latencyNanos);
+        reloadCount.increment();
+        totalBytes.add(bytes);
+        lastBytes = bytes;
+        lastParseNanos = parseNanos;
+        entryCount = entries;
+        lastUpdate = System.currentTimeMillis();
+        consecutiveFailures.set(0);
+    }
+
+    /**
+     * Records a failed reload.
+     * @param latencyNanos the duration until the reload failed in nanoseconds.
+     */
+    public void recordFailure(long latencyNanos){
+        recordLatency(latencyNanos);
+        failureCount.increment();
+        consecutiveFailures.incrementAndGet();
+    }
+
+    /**
+     * Records the data loaded from a local cache.
+     * @param timestamp the timestamp, when the cached data was stored.
+     * @param entries the number of entries loaded.
+     */
+    public void recordCacheLoad(long timestamp, int entries){
+        entryCount = entries;
+        lastUpdate = timestamp;
+    }
+
+    private void recordLatency(long latencyNanos){
+        lastLatencyNanos = latencyNanos;
+        long millis = TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+        int bucket = 0;
+        while(bucket < LATENCY_BUCKETS.length && millis > LATENCY_BUCKETS[bucket]){
+            bucket++;
+        }
+        latencyCounts.incrementAndGet(bucket);
+    }
+
+    /**
+     * Get the name of the property source.
+     * @return the source name, never null.
+     */
+    public String getSourceName() {
+        return sourceName;
+    }
+
+    /**
+     * Get the number of successful reloads.
+     * @return the number of successful reloads.
+     */
+    public long getReloadCount() {
+        return reloadCount.sum();
+    }
+
+    /**
+     * Get the number of failed reloads.
+     * @return the number of failed reloads.
+     */
+    public long getFailureCount() {
+        return failureCount.sum();
+    }
+
+    /**
+     * Get the number of reloads failed since the last successful reload.
+     * @return the number of consecutive failures.
+     */
+    public int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    /**
+     * Get the duration of the last reload attempt.
+     * @return the last latency in milliseconds.
+     */
+    public long getLastLatencyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastLatencyNanos);
+    }
+
+    /**
+     * Get an upper bound of the given reload latency percentile, as evaluated from the latency histogram.
+     * @param percentile the percentile, e.g. {@code 0.99}.
+     * @return the upper bound of the bucket containing the percentile in milliseconds, {@code -1} if no
+     * reloads were recorded, or {@link Long#MAX_VALUE}, if the percentile exceeds the last bucket.
+     */
+    public long getLatencyPercentileMillis(double percentile) {
+        long total = 0;
+        for(int i=0;i<latencyCounts.length();i++){
+            total += latencyCounts.get(i);
+        }
+        if(total==0){
+            return -1L;
+        }
+        long threshold = (long)Math.ceil(total * percentile);
+        long count = 0;
+        for(int i=0;i<LATENCY_BUCKETS.length;i++){
+            count += latencyCounts.get(i);
+            if(count>=threshold){
+                return LATENCY_BUCKETS[i];
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Get the reload latency histogram.
+     * @return the number of reloads keyed by the bucket's upper bound, e.g. {@code <=100ms}, never null.
+     */
+    public Map<String, Long> getLatencyHistogram() {
+        Map<String, Long> histogram = new LinkedHashMap<>();
+        for(int i=0;i<LATENCY_BUCKETS.length;i++){
+            histogram.put("<=" + LATENCY_BUCKETS[i] + "ms", latencyCounts.get(i));
+        }
+        histogram.put(">" + LATENCY_BUCKETS[LATENCY_BUCKETS.length-1] + "ms", latencyCounts.get(LATENCY_BUCKETS.length));
+        return histogram;
+    }
+
+    /**
+     * Get the number of bytes transferred by the last successful reload.
+     * @return the number of bytes.
+     */
+    public long getLastBytes() {
+        return lastBytes;
+    }
+
+    /**
+     * Get the overall number of bytes transferred by successful reloads.
+     * @return the number of bytes.
+     */
+    public long getTotalBytes() {
+        return totalBytes.sum();
+    }
+
+    /**
+     * Get the time spent reading and decoding the response of the last successful reload.
+     * @return the parse time in milliseconds.
+     */
+    public long getLastParseMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastParseNanos);
+    }
+
+    /**
+     * Get the number of entries currently loaded.
+     * @return the number of entries.
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Get the age of the data currently loaded.
+     * @return the age in milliseconds, or {@code -1}, if no data has been loaded.
+     */
+    public long getDataAgeMillis() {
+        long update = lastUpdate;
+        if(update==0){
+            return -1L;
+        }
+        return System.currentTimeMillis() - update;
+    }
+
+    @Override
+    public String toString() {
+        return "RemoteSourceMetrics{" +
+                "sourceName=" + sourceName +
+                ", reloadCount=" + getReloadCount() +
+                ", failureCount=" + getFailureCount() +
+                ", consecutiveFailures=" + getConsecutiveFailures() +
+                ", entryCount=" + entryCount +
+                ", dataAgeMillis=" + getDataAgeMillis() +
+                '}';
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.remote;
+
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParserFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * JSON format, which streams the document read directly to the property consumer without building an
+ * intermediate tree. Nested objects are flattened using {@code '.'} as separator, array elements are mapped
+ * as {@code key[index]}. Unless created with {@code serverSections=false}, documents served by the Tamaya server
+ * module are handled as follows:
+ * <ul>
+ *     <li>If the document contains a {@code data} root section, only the entries of this section are passed on,
+ *     with the {@code data.} prefix removed.</li>
+ *     <li>If the document contains an etcd compatible {@code node} root section, the {@code key/value} pairs of
+ *     all (nested) nodes are passed on, with the leading {@code '/'} of the keys removed.</li>
+ * </ul>
+ */
+public final class StreamingJsonFormat implements RemoteConfigurationFormat {
+
+    /** The media type of this format. */
+    public static final String MEDIA_TYPE = "application/json";
+
+    private static final String DATA_SECTION = "data";
+    private static final String NODE_SECTION = "node";
+
+    private static final JsonParserFactory PARSER_FACTORY = Json.createParserFactory(Collections.emptyMap());
+
+    private final boolean serverSections;
+
+    /**
+     * Creates a new format, handling the {@code data} and {@code node} sections of the Tamaya server module.
+     */
+    public StreamingJsonFormat() {
+        this(true);
+    }
+
+    /**
+     * Creates a new format.
+     * @param serverSections if true, the {@code data} and {@code node} sections of the Tamaya server module are
+     *                       unwrapped, otherwise all entries are flattened as read, like the
+     *                       {@link org.apache.tamaya.json.JSONFormat} does.
+     */
+    public StreamingJsonFormat(boolean serverSections) {
+        this.serverSections = serverSections;
+    }
+
+    @Override
+    public String getMediaType() {
+        return MEDIA_TYPE;
+    }
+
+    @Override
+    public void readProperties(String resource, InputStream inputStream, BiConsumer<String, String> consumer)
+            throws IOException {
+        // entries outside of a data or node section, only passed on, if the document has no such section. Only
+        // buffered with server sections, otherwise there are no such sections and entries are passed on as read.
+        List<String> rootEntries = serverSections ? new ArrayList<>() : null;
+        boolean hasSection = false;
+        Deque<Frame> frames = new ArrayDeque<>();
+        String keyName = null;
+        try {
+            JsonParser parser = PARSER_FACTORY.createParser(inputStream);
+            while (parser.hasNext()) {
+                JsonParser.Event event = parser.next();
+                Frame frame = frames.peek();
+                switch (event) {
+                    case KEY_NAME:
+                        keyName = parser.getString();
+                        break;
+                    case START_OBJECT:
+                    case START_ARRAY:
+                        boolean array = event == JsonParser.Event.START_ARRAY;
+                        if (frame == null) {
+                            frames.push(new Frame("", array, Frame.PLAIN));
+                        } else if (frame.mode == Frame.NODE) {
+                            frames.push(new Frame("", array, Frame.NODE));
+                        } else if (isRootSection(frames, frame, array, DATA_SECTION, keyName)) {
+                            hasSection = true;
+                            frames.push(new Frame("", false, Frame.DATA));
+                        } else if (isRootSection(frames, frame, array, NODE_SECTION, keyName)) {
+                            hasSection = true;
+                            frames.push(new Frame("", false, Frame.NODE));
+                        } else {
+                            frames.push(new Frame(frame.childKey(keyName), array, frame.mode));
+                        }
+                        break;
+                    case END_OBJECT:
+                    case END_ARRAY:
+                        frames.pop();
+                        if (frame.mode == Frame.NODE && frame.nodeKey != null && frame.nodeValue != null) {
+                            consumer.accept(frame.nodeKey.startsWith("/") ? frame.nodeKey.substring(1) :
+                                    frame.nodeKey, frame.nodeValue);
+                        }
+                        break;
+                    case VALUE_NULL:
+                        if (frame != null) {
+                            frame.childKey(keyName);
+                        }
+                        break;
+                    default:
+                        if (frame == null) {
+                            throw new IOException("Not a JSON object or array: " + resource);
+                        }
+                        String value = event == JsonParser.Event.VALUE_TRUE ? "true" :
+                                event == JsonParser.Event.VALUE_FALSE ? "false" : parser.getString();
+                        if (frame.mode == Frame.NODE) {
+                            frame.setNodeField(keyName, value);
+                        } else if (frame.mode == Frame.DATA) {
+                            consumer.accept(frame.childKey(keyName), value);
+                        } else if (rootEntries == null) {
+                            consumer.accept(frame.childKey(keyName), value);
+                        } else if (!hasSection) {
+                            rootEntries.add(frame.childKey(keyName));
+                            rootEntries.add(value);
+                        }
+                }
+            }
+        } catch (JsonException e) {
+            throw new IOException("Failed to parse JSON from " + resource, e);
+        }
+        if (rootEntries != null && !hasSection) {
+            for (int i = 0; i < rootEntries.size(); i += 2) {
+                consumer.accept(rootEntries.get(i), rootEntries.get(i + 1));
+            }
+        }
+    }
+
+    private boolean isRootSection(Deque<Frame> frames, Frame frame, boolean array, String section, String keyName) {
+        return serverSections && frames.size() == 1 && !frame.array && !array && section.equals(keyName);
+    }
+
+    @Override
+    public String toString() {
+        return "StreamingJsonFormat{mediaType=" + MEDIA_TYPE + ", serverSections=" + serverSections + '}';
+    }
+
+    /**
+     * Parser state of a JSON object or array.
+     */
+    private static final class Frame {
+        /** Plain JSON, keys are flattened. */
+        static final int PLAIN = 0;
+        /** Within the data section. */
+        static final int DATA = 1;
+        /** Within an etcd node tree. */
+        static final int NODE = 2;
+
+        private final String prefix;
+        private final boolean array;
+        private final int mode;
+        private int index;
+        private String nodeKey;
+        private String nodeValue;
+
+        Frame(String prefix, boolean array, int mode) {
+            this.prefix = prefix;
+            this.array = array;
+            this.mode = mode;
+        }
+
+        String childKey(String keyName) {
+            if (array) {
+                return prefix + '[' + (index++) + ']';
+            }
+            return prefix.isEmpty() ? keyName : prefix + '.' + keyName;
+        }
+
+        void setNodeField(String keyName, String value) {
+            if (array) {
+                return;
+            }
+            if ("key".equals(keyName)) {
+                nodeKey = value;
+            } else if ("value".equals(keyName)) {
+                nodeValue = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.remote.spi;
+
+import org.apache.tamaya.remote.RemoteSourceMetrics;
+
+import java.net.URL;
+
+/**
+ * Listener SPI notified after each reload attempt of a remote property source. Implementations are
+ * registered with the current {@link org.apache.tamaya.spi.ServiceContext}, e.g. to export the metrics
+ * collected.
+ */
+public interface RemoteMetricsListener {
+
+    /**
+     * Called after a remote URL has been read.
+     * @param url the URL read, not null.
+     * @param metrics the updated metrics of the property source, not null.
+     * @param error the error, if the reload failed, or null.
+     */
+    void reloaded(URL url, RemoteSourceMetrics metrics, Exception error);
+}
@@ -0,0 +1,303 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.remote;
+
+import org.apache.tamaya.format.ConfigurationData;
+import org.apache.tamaya.spi.PropertyValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link BaseRemotePropertySource}, especially the disk cache.
+ */
+public class BaseRemotePropertySourceTest {
+
+    private LocalConfigServer server;
+    private Path cacheDir;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LocalConfigServer().put("a", "1").put("b", "2");
+        cacheDir = Files.createTempDirectory("tamaya-remote-cache");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        try (Stream<Path> paths = Files.walk(cacheDir)) {
+            paths.sorted(Collections.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void testNotReadOnConstruction() throws IOException {
+        TestRemotePropertySource source = new TestRemotePropertySource("test", server.getConfigUrl(),
+                cacheDir.toFile());
+        assertTrue(server.getRequests().isEmpty());
+        assertEquals("1", source.get("a").getValue());
+        assertEquals(Collections.singletonList("GET /config"), server.getRequests());
+        assertEquals("test", source.getMetrics().getSourceName());
+    }
+
+    @Test
+    public void testRestartFromCache() throws IOException {
+        URL url = server.getConfigUrl();
+        TestRemotePropertySource source = new TestRemotePropertySource("test", url, cacheDir.toFile());
+        assertEquals(2, source.getProperties().size());
+        assertTrue(source.getCacheFile().isFile());
+        server.close();
+
+        TestRemotePropertySource restarted = new TestRemotePropertySource("test", url, cacheDir.toFile());
+        Map<String,PropertyValue> props = restarted.getProperties();
+        assertEquals(2, props.size());
+        assertEquals("1", props.get("a").getValue());
+        assertEquals("2", props.get("b").getValue());
+        assertEquals(2, restarted.getMetrics().getEntryCount());
+        assertTrue(restarted.getMetrics().getDataAgeMillis() >= 0);
+    }
+
+    @Test
+    public void testCorruptCacheFallsBackToRemote() throws IOException {
+        TestRemotePropertySource source = new TestRemotePropertySource("test", server.getConfigUrl(),
+                cacheDir.toFile());
+        Files.write(source.getCacheFile().toPath(), "a=\\uZZZZ".getBytes(StandardCharsets.ISO_8859_1));
+        assertEquals("1", source.get("a").getValue());
+        assertEquals(Collections.singletonList("GET /config"), server.getRequests());
+        // the corrupt cache has been replaced
+        assertEquals("1", readCache(source.getCacheFile()).getProperty("a"));
+    }
+
+    @Test
+    public void testCorruptCacheWithoutRemote() throws IOException {
+        URL url = server.getConfigUrl();
+        server.close();
+        TestRemotePropertySource source = new TestRemotePropertySource("test", url, cacheDir.toFile());
+        Files.write(source.getCacheFile().toPath(), "a=\\uZZZZ".getBytes(StandardCharsets.ISO_8859_1));
+        assertTrue(source.getProperties().isEmpty());
+        assertEquals(1, source.getMetrics().getFailureCount());
+    }
+
+    @Test
+    public void testCacheWrittenViaTempFile() throws IOException {
+        TestRemotePropertySource source = new TestRemotePropertySource("test", server.getConfigUrl(),
+                cacheDir.toFile());
+        source.init();
+        assertEquals(Collections.singletonList(source.getCacheFile().getName()), listCacheDir());
+        Properties cached = readCache(source.getCacheFile());
+        assertEquals(2, cached.size());
+        assertEquals("2", cached.getProperty("b"));
+
+        // a non empty directory can not be replaced, the temporary file must be removed
+        Files.delete(source.getCacheFile().toPath());
+        Files.createDirectories(source.getCacheFile().toPath().resolve("blocked"));
+        server.put("c", "3");
+        source.reload();
+        assertEquals(3, source.getProperties().size());
+        assertEquals(Collections.singletonList(source.getCacheFile().getName()), listCacheDir());
+    }
+
+    @Test
+    public void testNullValuesNotCached() throws IOException {
+        TestRemotePropertySource source = new TestRemotePropertySource("test", server.getConfigUrl(),
+                cacheDir.toFile());
+        Map<String,PropertyValue> config = new HashMap<>();
+        config.put("a", PropertyValue.createValue("a", "1"));
+        config.put("n", PropertyValue.createValue("n", null));
+        source.storeCache(config);
+        Properties cached = readCache(source.getCacheFile());
+        assertEquals(1, cached.size());
+        assertEquals("1", cached.getProperty("a"));
+        assertNull(cached.getProperty("n"));
+    }
+
+    @Test
+    public void testNoCacheDirectory() throws IOException {
+        TestRemotePropertySource source = new TestRemotePropertySource("test", server.getConfigUrl(), null);
+        assertEquals(2, source.getProperties().size());
+        assertNull(source.getCacheFile());
+        assertFalse(listCacheDir().iterator().hasNext());
+    }
+
+    @Test
+    public void testKeysAreReadAsServed() throws IOException {
+        server.setDocument("{\"timestamp\":1,\"data\":{\"a\":\"1\",\"b\":{\"c\":\"2\"}}}");
+        Map<String,PropertyValue> props = new TestRemotePropertySource("test", server.getConfigUrl(), null)
+                .getProperties();
+        assertEquals(3, props.size());
+        assertEquals("1", props.get("timestamp").getValue());
+        assertEquals("1", props.get("data.a").getValue());
+        assertEquals("2", props.get("data.b.c").getValue());
+    }
+
+    @Test
+    public void testMapConfigurationDataIsUsed() throws IOException {
+        TestRemotePropertySource source = new TestRemotePropertySource("test", server.getConfigUrl(), null) {
+            @Override
+            protected Map<String,String> mapConfigurationData(ConfigurationData data) {
+                return Collections.singletonMap("mapped", "true");
+            }
+        };
+        assertEquals(Collections.singleton("mapped"), source.getProperties().keySet());
+    }
+
+    @Test
+    public void testBatchRead() throws IOException {
+        putSections();
+        TestRemotePropertySource source = new TestRemotePropertySource("test", server.getUrl(), null)
+                .withSections("db", "cache");
+        Map<String,PropertyValue> props = source.getProperties();
+        assertEquals(3, props.size());
+        assertEquals("jdbc:h2:mem", props.get("db.url").getValue());
+        assertEquals("sa", props.get("db.user").getValue());
+        assertEquals("100", props.get("cache.size").getValue());
+        assertEquals(Collections.singletonList("POST /batch"), server.getRequests());
+
+        Map<String,PropertyValue> fetched = source.fetch(Collections.singletonList("other.key"),
+                Collections.singletonList("cache"));
+        assertEquals(2, fetched.size());
+        assertEquals("x", fetched.get("other.key").getValue());
+        assertEquals("100", fetched.get("cache.size").getValue());
+    }
+
+    @Test
+    public void testBatchNotFoundFallsBackToSections() throws IOException {
+        putSections();
+        server.setBatchSupported(false);
+        TestRemotePropertySource source = new TestRemotePropertySource("test", server.getUrl(), null)
+                .withSections("db", "cache");
+        Map<String,PropertyValue> props = source.getProperties();
+        assertEquals(3, props.size());
+        assertEquals("sa", props.get("db.user").getValue());
+        assertEquals("100", props.get("cache.size").getValue());
+        assertEquals(Arrays.asList("POST /batch", "GET /keys/db", "GET /keys/cache"), server.getRequests());
+
+        // batch requests are not retried
+        source.reload();
+        assertEquals(5, server.getRequests().size());
+        assertEquals(Arrays.asList("GET /keys/db", "GET /keys/cache"), server.getRequests().subList(3, 5));
+        try {
+            source.fetch(Collections.singletonList("db.url"), Collections.<String>emptyList());
+            fail("IOException expected.");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSectionFailureKeepsConfiguration() throws IOException {
+        putSections();
+        server.setBatchSupported(false);
+        TestRemotePropertySource source = new TestRemotePropertySource("test", server.getUrl(), null)
+                .withSections("db", "cache");
+        assertEquals(3, source.getProperties().size());
+
+        server.put("db.url", "jdbc:h2:file").failSection("cache");
+        source.reload();
+        Map<String,PropertyValue> props = source.getProperties();
+        assertEquals(3, props.size());
+        assertEquals("jdbc:h2:mem", props.get("db.url").getValue());
+        assertEquals(1, source.getMetrics().getReloadCount());
+        assertEquals(1, source.getMetrics().getFailureCount());
+        assertEquals(1, source.getMetrics().getConsecutiveFailures());
+    }
+
+    private void putSections() {
+        server.put("db.url", "jdbc:h2:mem").put("db.user", "sa").put("cache.size", "100").put("other.key", "x");
+    }
+
+    private List<String> listCacheDir() throws IOException {
+        try (Stream<Path> paths = Files.list(cacheDir)) {
+            return paths.map(p -> p.getFileName().toString()).collect(Collectors.toList());
+        }
+    }
+
+    private static Properties readCache(File file) throws IOException {
+        Properties props = new Properties();
+        try (InputStream is = Files.newInputStream(file.toPath())) {
+            props.load(is);
+        }
+        return props;
+    }
+
+    /**
+     * Remote property source configured by fields, which are not yet set, when the base class is constructed.
+     */
+    static class TestRemotePropertySource extends BaseRemotePropertySource {
+
+        private final String name;
+        private final URL url;
+        private final File cacheDir;
+        private Collection<String> sections = Collections.emptyList();
+
+        TestRemotePropertySource(String name, URL url, File cacheDir) {
+            this.name = name;
+            this.url = url;
+            this.cacheDir = cacheDir;
+        }
+
+        TestRemotePropertySource withSections(String... sections) {
+            this.sections = Arrays.asList(sections);
+            return this;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        protected Collection<String> getSections() {
+            return sections;
+        }
+
+        @Override
+        protected File getCacheDirectory() {
+            return cacheDir;
+        }
+
+        @Override
+        protected Collection<URL> getAccessURLs() {
+            return Collections.singletonList(url);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.remote;
+
+import org.apache.tamaya.format.ConfigurationData;
+import org.apache.tamaya.json.JSONFormat;
+import org.apache.tamaya.spi.PropertyValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares the wire size and parse time of the JSON formats and the {@link KeyValueFormat} for flat
+ * configuration maps. Not run as part of the test suite, start it manually:
+ * <pre>
+ * java -cp ... org.apache.tamaya.remote.KeyValueFormatDriver [rounds] [keys...]
+ * </pre>
+ * By default maps of 10,000 and 100,000 keys are measured, the parse time reported is the best of all rounds
+ * run after warming up.
+ */
+public final class KeyValueFormatDriver {
+
+    private KeyValueFormatDriver() {
+    }
+
+    public static void main(String... args) throws IOException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int[] sizes = {10_000, 100_000};
+        if(args.length > 1){
+            sizes = new int[args.length - 1];
+            for(int i=1;i<args.length;i++){
+                sizes[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        for(int numKeys:sizes){
+            compare(numKeys, rounds);
+        }
+    }
+
+    private static void compare(int numKeys, int rounds) throws IOException {
+        Map<String,String> props = new LinkedHashMap<>();
+        StringBuilder json = new StringBuilder("{");
+        for(int i=0;i<numKeys;i++){
+            String key = "section" + (i % 100) + ".key" + i;
+            String value = "value-" + i;
+            props.put(key, value);
+            json.append(i>0?",":"").append('"').append(key).append("\":\"").append(value).append('"');
+        }
+        byte[] jsonBytes = json.append('}').toString().getBytes(StandardCharsets.UTF_8);
+        byte[] kvBytes = KeyValueFormatTest.encode(props);
+        long jsonNanos = Long.MAX_VALUE;
+        long streamNanos = Long.MAX_VALUE;
+        long kvNanos = Long.MAX_VALUE;
+        // the first rounds only warm up
+        for(int round=-rounds/2;round<rounds;round++){
+            long start = System.nanoTime();
+            Map<String,String> jsonRead = readJson(jsonBytes);
+            long nanos = System.nanoTime() - start;
+            check(numKeys, jsonRead, "JSONFormat");
+            jsonNanos = round<0 ? jsonNanos : Math.min(jsonNanos, nanos);
+
+            start = System.nanoTime();
+            Map<String,String> streamRead = new HashMap<>();
+            new StreamingJsonFormat(false).readProperties("json", new ByteArrayInputStream(jsonBytes),
+                    streamRead::put);
+            nanos = System.nanoTime() - start;
+            check(numKeys, streamRead, "StreamingJsonFormat");
+            streamNanos = round<0 ? streamNanos : Math.min(streamNanos, nanos);
+
+            start = System.nanoTime();
+            Map<String,String> kvRead = new HashMap<>();
+            new KeyValueFormat().readProperties("kv", new ByteArrayInputStream(kvBytes), kvRead::put);
+            nanos = System.nanoTime() - start;
+            check(numKeys, kvRead, "KeyValueFormat");
+            kvNanos = round<0 ? kvNanos : Math.min(kvNanos, nanos);
+        }
+        System.out.printf("%,d keys: JSONFormat %,d bytes %.2fms, StreamingJsonFormat %,d bytes %.2fms, "
+                        + "KeyValueFormat %,d bytes %.2fms%n", numKeys,
+                jsonBytes.length, jsonNanos / 1e6, jsonBytes.length, streamNanos / 1e6, kvBytes.length, kvNanos / 1e6);
+    }
+
+    private static Map<String,String> readJson(byte[] jsonBytes) throws IOException {
+        ConfigurationData data = new JSONFormat().readConfiguration("json", new ByteArrayInputStream(jsonBytes));
+        Map<String,String> result = new HashMap<>();
+        for(PropertyValue val:data.getData()){
+            result.putAll(val.toMap());
+        }
+        return result;
+    }
+
+    private static void check(int numKeys, Map<String,String> read, String format) {
+        if(read.size()<numKeys){
+            throw new IllegalStateException(format + " read " + read.size() + " of " + numKeys + " keys.");
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.remote;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link KeyValueFormat}. The round trip with the server's writer is tested in the server module.
+ */
+public class KeyValueFormatTest {
+
+    private final KeyValueFormat format = new KeyValueFormat();
+
+    @Test
+    public void testReadProperties() throws IOException {
+        Map<String,String> props = new LinkedHashMap<>();
+        props.put("a", "aValue");
+        props.put("a.b.c", "");
+        props.put("umlauts", "\u00e4\u00f6\u00fc");
+        Map<String,String> read = new HashMap<>();
+        format.readProperties("test", new ByteArrayInputStream(encode(props)), read::put);
+        assertEquals(props, read);
+    }
+
+    @Test
+    public void testReadInvalid() {
+        try {
+            format.readProperties("test", new ByteArrayInputStream("{\"a\":\"b\"}".getBytes(StandardCharsets.UTF_8)),
+                    (k,v) -> {});
+            fail("IOException expected.");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testReadTruncated() throws IOException {
+        Map<String,String> props = new LinkedHashMap<>();
+        props.put("a", "aValue");
+        props.put("b", "bValue");
+        byte[] data = encode(props);
+        assertInvalid(Arrays.copyOf(data, data.length - 1));
+        assertInvalid(Arrays.copyOf(data, 8));
+    }
+
+    @Test
+    public void testReadInvalidCount() throws IOException {
+        byte[] data = encode(Collections.singletonMap("a", "b"));
+        assertInvalid(withInt(data, 4, 2));
+        assertInvalid(withInt(data, 4, Integer.MAX_VALUE));
+        assertInvalid(withInt(data, 4, -1));
+        // fewer entries declared than contained
+        assertInvalid(withInt(data, 4, 0));
+    }
+
+    @Test
+    public void testReadInvalidLength() throws IOException {
+        byte[] data = encode(Collections.singletonMap("a", "b"));
+        assertInvalid(withInt(data, 8, -1));
+        assertInvalid(withInt(data, 8, Integer.MAX_VALUE));
+        assertInvalid(withInt(data, 13, Integer.MAX_VALUE));
+        assertInvalid(withInt(data, 13, 2));
+    }
+
+    private void assertInvalid(byte[] data) {
+        try {
+            format.readProperties("test", new ByteArrayInputStream(data), (k,v) -> {});
+            fail("IOException expected.");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static byte[] withInt(byte[] data, int offset, int value) {
+        byte[] result = data.clone();
+        ByteBuffer.wrap(result).putInt(offset, value);
+        return result;
+    }
+
+    static byte[] encode(Map<String,String> props) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeInt(KeyValueFormat.MAGIC);
+        out.writeInt(props.size());
+        for(Map.Entry<String,String> en:props.entrySet()){
+            byte[] key = en.getKey().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(key.length);
+            out.write(key);
+            byte[] value = en.getValue().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(value.length);
+            out.write(value);
+        }
+        out.flush();
+        return bos.toByteArray();
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.remote;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * In-process HTTP server serving a flat JSON configuration document on {@code /config}, as well as the etcd
+ * compatible section resources ({@code GET /keys/<section>}) and the batch resource ({@code POST /batch}) of
+ * the Tamaya server module.
+ */
+final class LocalConfigServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final Map<String, String> config = new TreeMap<>();
+    private final List<String> requests = new ArrayList<>();
+    private final Set<String> failingSections = new HashSet<>();
+    private String document;
+    private boolean batchSupported = true;
+
+    LocalConfigServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * Get the base URL of this server.
+     * @return the base URL.
+     */
+    URL getUrl() throws IOException {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+    }
+
+    /**
+     * Get the URL of the full configuration document.
+     * @return the config URL.
+     */
+    URL getConfigUrl() throws IOException {
+        return new URL(getUrl(), "config");
+    }
+
+    synchronized LocalConfigServer put(String key, String value) {
+        config.put(key, value);
+        return this;
+    }
+
+    /**
+     * Sets the JSON document served on {@code /config}, instead of the entries put.
+     * @param json the document, or null, to serve the entries put.
+     * @return this instance.
+     */
+    synchronized LocalConfigServer setDocument(String json) {
+        this.document = json;
+        return this;
+    }
+
+    /**
+     * Enables or disables the batch resource, if disabled, batch requests are answered with {@code 404}.
+     * @param batchSupported true, to support batch requests.
+     * @return this instance.
+     */
+    synchronized LocalConfigServer setBatchSupported(boolean batchSupported) {
+        this.batchSupported = batchSupported;
+        return this;
+    }
+
+    /**
+     * Lets requests of the given section fail with {@code 500}.
+     * @param section the section.
+     * @return this instance.
+     */
+    synchronized LocalConfigServer failSection(String section) {
+        failingSections.add(section);
+        return this;
+    }
+
+    /**
+     * Get the requests served so far, e.g. {@code GET /config}.
+     * @return the requests.
+     */
+    synchronized List<String> getRequests() {
+        return new ArrayList<>(requests);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            synchronized (this) {
+                requests.add(exchange.getRequestMethod() + ' ' + path);
+            }
+            if ("GET".equals(exchange.getRequestMethod()) && "/config".equals(path)) {
+                String json;
+                synchronized (this) {
+                    json = document != null ? document : toJson(config);
+                }
+                respond(exchange, 200, json);
+            } else if ("GET".equals(exchange.getRequestMethod()) && path.startsWith("/keys/")) {
+                String section = path.substring("/keys/".length());
+                synchronized (this) {
+                    if (failingSections.contains(section)) {
+                        respond(exchange, 500, "{\"message\":\"Failed\"}");
+                    } else {
+                        respond(exchange, 200, toNode(new ArrayList<String>(), Collections.singletonList(section)));
+                    }
+                }
+            } else if ("POST".equals(exchange.getRequestMethod()) && "/batch".equals(path)) {
+                List<String> keys = new ArrayList<>();
+                List<String> prefixes = new ArrayList<>();
+                for (String param : readBody(exchange.getRequestBody()).split("&")) {
+                    int index = param.indexOf('=');
+                    String value = URLDecoder.decode(param.substring(index + 1), "UTF-8");
+                    if (param.startsWith("key=")) {
+                        keys.add(value);
+                    } else if (param.startsWith("prefix=")) {
+                        prefixes.add(value);
+                    }
+                }
+                synchronized (this) {
+                    if (batchSupported) {
+                        respond(exchange, 200, toNode(keys, prefixes));
+                    } else {
+                        respond(exchange, 404, "{\"message\":\"Not found\"}");
+                    }
+                }
+            } else {
+                respond(exchange, 404, "{\"message\":\"Not found\"}");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private synchronized String toJson(Map<String, String> entries) {
+        StringBuilder b = new StringBuilder("{");
+        for (Map.Entry<String, String> en : entries.entrySet()) {
+            if (b.length() > 1) {
+                b.append(',');
+            }
+            b.append(quote(en.getKey())).append(':').append(quote(en.getValue()));
+        }
+        return b.append('}').toString();
+    }
+
+    /**
+     * Creates an etcd directory node containing the given keys and all keys of the given sections.
+     */
+    private synchronized String toNode(List<String> keys, List<String> sections) {
+        StringBuilder b = new StringBuilder("{\"action\":\"get\",\"node\":{\"dir\":true,\"nodes\":[");
+        boolean first = true;
+        for (Map.Entry<String, String> en : config.entrySet()) {
+            boolean selected = keys.contains(en.getKey());
+            for (String section : sections) {
+                selected |= en.getKey().equals(section) || en.getKey().startsWith(section + '.');
+            }
+            if (selected) {
+                b.append(first ? "" : ",").append("{\"key\":").append(quote('/' + en.getKey()))
+                        .append(",\"value\":").append(quote(en.getValue())).append('}');
+                first = false;
+            }
+        }
+        return b.append("]}}").toString();
+    }
+
+    private static String readBody(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = is.read(buffer)) > 0) {
+            bos.write(buffer, 0, read);
+        }
+        return new String(bos.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    static String quote(String value) {
+        StringBuilder b = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                b.append('\\').append(c);
+            } else if (c < 0x20) {
+                b.append(String.format("\\u%04x", (int) c));
+            } else {
+                b.append(c);
+            }
+        }
+        return b.append('"').toString();
+    }
+
+    static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
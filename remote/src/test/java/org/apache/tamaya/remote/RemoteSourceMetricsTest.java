@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.remote;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link RemoteSourceMetrics}.
+ */
+public class RemoteSourceMetricsTest {
+
+    @Test
+    public void testInitialValues() {
+        RemoteSourceMetrics metrics = new RemoteSourceMetrics("test");
+        assertEquals("test", metrics.getSourceName());
+        assertEquals(0, metrics.getReloadCount());
+        assertEquals(0, metrics.getFailureCount());
+        assertEquals(0, metrics.getConsecutiveFailures());
+        assertEquals(-1L, metrics.getLatencyPercentileMillis(0.5));
+        assertEquals(-1L, metrics.getDataAgeMillis());
+        assertEquals(0, metrics.getEntryCount());
+    }
+
+    @Test
+    public void testLatency() {
+        RemoteSourceMetrics metrics = new RemoteSourceMetrics("test");
+        for (int i = 0; i < 98; i++) {
+            metrics.recordSuccess(TimeUnit.MILLISECONDS.toNanos(3), 0, 0, 1);
+        }
+        metrics.recordSuccess(TimeUnit.MILLISECONDS.toNanos(80), 0, 0, 1);
+        metrics.recordFailure(TimeUnit.SECONDS.toNanos(60));
+        assertEquals(60_000L, metrics.getLastLatencyMillis());
+        assertEquals(5L, metrics.getLatencyPercentileMillis(0.5));
+        assertEquals(100L, metrics.getLatencyPercentileMillis(0.99));
+        assertEquals(Long.MAX_VALUE, metrics.getLatencyPercentileMillis(1.0));
+        Map<String, Long> histogram = metrics.getLatencyHistogram();
+        assertEquals(15, histogram.size());
+        assertEquals(Long.valueOf(98), histogram.get("<=5ms"));
+        assertEquals(Long.valueOf(1), histogram.get("<=100ms"));
+        assertEquals(Long.valueOf(1), histogram.get(">30000ms"));
+        assertEquals(Long.valueOf(0), histogram.get("<=1ms"));
+    }
+
+    @Test
+    public void testFailures() {
+        RemoteSourceMetrics metrics = new RemoteSourceMetrics("test");
+        metrics.recordFailure(0);
+        metrics.recordFailure(0);
+        assertEquals(2, metrics.getFailureCount());
+        assertEquals(2, metrics.getConsecutiveFailures());
+        assertEquals(-1L, metrics.getDataAgeMillis());
+        metrics.recordSuccess(0, 0, 0, 1);
+        assertEquals(2, metrics.getFailureCount());
+        assertEquals(0, metrics.getConsecutiveFailures());
+        metrics.recordFailure(0);
+        assertEquals(3, metrics.getFailureCount());
+        assertEquals(1, metrics.getConsecutiveFailures());
+        assertEquals(1, metrics.getReloadCount());
+    }
+
+    @Test
+    public void testTransferAndEntries() {
+        RemoteSourceMetrics metrics = new RemoteSourceMetrics("test");
+        metrics.recordSuccess(0, 100, TimeUnit.MILLISECONDS.toNanos(7), 10);
+        metrics.recordSuccess(0, 50, TimeUnit.MILLISECONDS.toNanos(2), 5);
+        assertEquals(50, metrics.getLastBytes());
+        assertEquals(150, metrics.getTotalBytes());
+        assertEquals(2, metrics.getLastParseMillis());
+        assertEquals(5, metrics.getEntryCount());
+        // failures do not change the data loaded
+        metrics.recordFailure(0);
+        assertEquals(5, metrics.getEntryCount());
+        assertEquals(50, metrics.getLastBytes());
+    }
+
+    @Test
+    public void testDataAge() {
+        RemoteSourceMetrics metrics = new RemoteSourceMetrics("test");
+        long stored = System.currentTimeMillis() - 60_000L;
+        metrics.recordCacheLoad(stored, 3);
+        assertEquals(3, metrics.getEntryCount());
+        assertEquals(0, metrics.getReloadCount());
+        long age = metrics.getDataAgeMillis();
+        assertTrue(age >= 60_000L && age < 120_000L);
+        metrics.recordSuccess(0, 0, 0, 4);
+        assertTrue(metrics.getDataAgeMillis() < 60_000L);
+        assertEquals(4, metrics.getEntryCount());
+    }
+}
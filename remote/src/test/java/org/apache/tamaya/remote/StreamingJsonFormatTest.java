@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.remote;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link StreamingJsonFormat}.
+ */
+public class StreamingJsonFormatTest {
+
+    private final StreamingJsonFormat format = new StreamingJsonFormat();
+
+    @Test
+    public void testReadNested() throws IOException {
+        Map<String,String> props = read("{\"a\":{\"b\":1,\"c\":[true,null,\"x\"]},\"d\":\"e\"}");
+        assertEquals(4, props.size());
+        assertEquals("1", props.get("a.b"));
+        assertEquals("true", props.get("a.c[0]"));
+        assertEquals("x", props.get("a.c[2]"));
+        assertEquals("e", props.get("d"));
+    }
+
+    @Test
+    public void testReadDataSection() throws IOException {
+        Map<String,String> props = read("{\"timestamp\":1,\"data\":{\"a.b\":\"v\",\"n\":{\"m\":2}},\"z\":3}");
+        assertEquals(2, props.size());
+        assertEquals("v", props.get("a.b"));
+        assertEquals("2", props.get("n.m"));
+    }
+
+    @Test
+    public void testReadWithoutServerSections() throws IOException {
+        Map<String,String> props = new HashMap<>();
+        new StreamingJsonFormat(false).readProperties("test", new ByteArrayInputStream(
+                "{\"timestamp\":1,\"data\":{\"a.b\":\"v\"},\"node\":{\"key\":\"/k\"}}"
+                        .getBytes(StandardCharsets.UTF_8)), props::put);
+        assertEquals(3, props.size());
+        assertEquals("1", props.get("timestamp"));
+        assertEquals("v", props.get("data.a.b"));
+        assertEquals("/k", props.get("node.key"));
+    }
+
+    @Test
+    public void testReadWithoutServerSectionsPassesEntriesAsRead() {
+        Map<String,String> props = new HashMap<>();
+        try {
+            new StreamingJsonFormat(false).readProperties("test", new ByteArrayInputStream(
+                    "{\"a\":\"1\",\"b\":{\"c\":2}} 3".getBytes(StandardCharsets.UTF_8)), props::put);
+            fail("IOException expected.");
+        } catch (IOException e) {
+            // expected, but the entries before the error have been passed on already
+        }
+        assertEquals(2, props.size());
+        assertEquals("1", props.get("a"));
+        assertEquals("2", props.get("b.c"));
+    }
+
+    @Test
+    public void testReadEtcdNodes() throws IOException {
+        Map<String,String> props = read("{\"action\":\"get\",\"node\":{\"key\":\"/db\",\"dir\":true,\"nodes\":["
+                + "{\"key\":\"/db.url\",\"value\":\"jdbc:h2:mem\",\"createdIndex\":3},"
+                + "{\"key\":\"/db.pool\",\"dir\":true,\"nodes\":[{\"key\":\"/db.pool.size\",\"value\":\"10\"}]}]}}");
+        assertEquals(2, props.size());
+        assertEquals("jdbc:h2:mem", props.get("db.url"));
+        assertEquals("10", props.get("db.pool.size"));
+    }
+
+    @Test
+    public void testReadInvalid() {
+        try {
+            read("\"value\"");
+            fail("IOException expected.");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private Map<String,String> read(String json) throws IOException {
+        Map<String,String> props = new HashMap<>();
+        format.readProperties("test", new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), props::put);
+        return props;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeSet;
+
+/**
+ * Immutable, sorted snapshot of the {@link ConfigStore} at a given store index. Sections are evaluated as range
+ * scans on the sorted keys. The etcd meta data of a key (created and modified index, expiration) is stored with
+ * the key's {@link ConfigNode}.
+ * <p>
+ * The nodes are kept in a persistent {@link NodeTree}, so the store creates the snapshot of each write from the
+ * snapshot before, sharing all nodes not written.
+ */
+final class ConfigIndex {
+
+    private final long revision;
+    private final NodeTree tree;
+    private final SortedMap<String, ConfigNode> nodes;
+
+    /**
+     * Creates a new snapshot.
+     * @param revision the store index of this snapshot.
+     * @param tree the nodes visible, not null.
+     */
+    ConfigIndex(long revision, NodeTree tree) {
+        this.revision = revision;
+        this.tree = tree;
+        this.nodes = tree.asMap();
+    }
+
+    /**
+     * Get the revision of this snapshot, which is the store index of the last write visible.
+     * @return the revision.
+     */
+    long getRevision() {
+        return revision;
+    }
+
+    /**
+     * Get the tree of the nodes visible, to derive the snapshot of a following write.
+     * @return the tree, never null.
+     */
+    NodeTree getTree() {
+        return tree;
+    }
+
+    /**
+     * Get all nodes.
+     * @return the nodes sorted by key, never null.
+     */
+    SortedMap<String, ConfigNode> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Get the value of the given key.
+     * @param key the key, not null.
+     * @return the value, or null.
+     */
+    String get(String key) {
+        final ConfigNode node = tree.get(key);
+        return node == null ? null : node.getValue();
+    }
+
+    /**
+     * Get the node of the given key.
+     * @param key the key, not null.
+     * @return the node, or null.
+     */
+    ConfigNode getNode(String key) {
+        return tree.get(key);
+    }
+
+    /**
+     * Get all nodes of the given section, e.g. {@code a.b.c=value} for section {@code a.b}.
+     * @param section the section key, not null.
+     * @return the nodes of the section, with their full keys, never null.
+     */
+    SortedMap<String, ConfigNode> getSection(String section) {
+        final String prefix = section.endsWith(".") ? section : section + '.';
+        // all keys with the given prefix are lower than the prefix with the trailing '.' replaced by '/'.
+        return nodes.subMap(prefix, prefix.substring(0, prefix.length() - 1) + '/');
+    }
+
+    /**
+     * Selects the nodes of the given keys and sections. Each node is selected at most once, keys and sections
+     * contained in a section also selected are ignored. Nodes are not copied, the selection is a view composed
+     * of single nodes and section ranges.
+     * @param keys the keys to select, not null. Keys not present are ignored.
+     * @param sections the sections to select including the section's own key, the empty string selecting all
+     *                 nodes, not null.
+     * @return the nodes selected, ordered by key per key and section requested, never null.
+     */
+    Collection<ConfigNode> select(Collection<String> keys, Collection<String> sections) {
+        final Set<String> selected = new HashSet<>(sections);
+        final List<Collection<ConfigNode>> parts = new ArrayList<>();
+        if (selected.contains("")) {
+            parts.add(nodes.values());
+            return new Selection(parts);
+        }
+        for (final String section : new TreeSet<>(sections)) {
+            if (!isCovered(section, selected, false)) {
+                final ConfigNode node = tree.get(section);
+                if (node != null) {
+                    parts.add(Collections.singletonList(node));
+                }
+                parts.add(getSection(section).values());
+            }
+        }
+        for (final String key : new TreeSet<>(keys)) {
+            final ConfigNode node = tree.get(key);
+            if (node != null && !isCovered(key, selected, true)) {
+                parts.add(Collections.singletonList(node));
+            }
+        }
+        return new Selection(parts);
+    }
+
+    /**
+     * Checks, if a key is contained in one of the sections selected.
+     */
+    private static boolean isCovered(String key, Set<String> sections, boolean includeSelf) {
+        if (includeSelf && sections.contains(key)) {
+            return true;
+        }
+        for (int pos = key.lastIndexOf('.'); pos > 0; pos = key.lastIndexOf('.', pos - 1)) {
+            if (sections.contains(key.substring(0, pos))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read-only collection concatenating several node collections.
+     */
+    private static final class Selection extends AbstractCollection<ConfigNode> {
+        private final List<Collection<ConfigNode>> parts;
+
+        Selection(List<Collection<ConfigNode>> parts) {
+            this.parts = parts;
+        }
+
+        @Override
+        public Iterator<ConfigNode> iterator() {
+            final Iterator<Collection<ConfigNode>> partIterator = parts.iterator();
+            return new Iterator<ConfigNode>() {
+                private Iterator<ConfigNode> current = Collections.emptyIterator();
+
+                @Override
+                public boolean hasNext() {
+                    while (!current.hasNext() && partIterator.hasNext()) {
+                        current = partIterator.next().iterator();
+                    }
+                    return current.hasNext();
+                }
+
+                @Override
+                public ConfigNode next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return current.next();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (final Collection<ConfigNode> part : parts) {
+                size += part.size();
+            }
+            return size;
+        }
+    }
+}
@@ -0,0 +1,623 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Durable journal of a {@link ConfigStore}, consisting of an append-only write-ahead log and periodic snapshots.
+ * <p>
+ * Writes are appended to an in-memory queue and written by a single flusher thread, which syncs the log once
+ * for all records queued meanwhile (group commit). Writers wait for their record to be synced with
+ * {@link #awaitDurable(long)}, after having released the store's write lock, so concurrent writers share one
+ * fsync instead of syncing per request.
+ * <p>
+ * The log is split into segments ({@code wal-<segment>.log}). After a configurable number of records a compacted
+ * snapshot of all live keys ({@code snapshot-<index>.snap}) is written in the background through a memory-mapped
+ * file and a new log segment is started. Once the new snapshot is durable and has been read back successfully,
+ * the snapshots and segments older than the previous snapshot are deleted. So the previous snapshot and all
+ * segments written since are kept as a fallback, in case the newest snapshot turns out to be damaged.
+ * Recovery loads the latest valid snapshot and replays the records of the log with a higher index, so recovery
+ * time is bounded by the snapshot size and the snapshot interval, not by the number of writes ever made. If
+ * records between the snapshot loaded and the log are missing, recovery fails instead of losing them silently.
+ */
+final class ConfigJournal implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(ConfigJournal.class.getName());
+
+    /** System property defining the data directory, journaling is disabled if not set. */
+    static final String DATA_DIR_PROP = "tamaya.server.data.dir";
+
+    /** Default number of records written, before a new snapshot is created. */
+    static final int DEFAULT_SNAPSHOT_INTERVAL = 100_000;
+
+    private static final int SNAPSHOT_MAGIC = 0x54534E31; // 'TSN1'
+    private static final byte SET = 0;
+    private static final byte DELETE = 1;
+
+    private final Path directory;
+    private final int snapshotInterval;
+    private final Object lock = new Object();
+    private final Thread flusher;
+    private final ExecutorService snapshotExecutor = Executors.newSingleThreadExecutor(r -> {
+        final Thread thread = new Thread(r, "tamaya-server-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** Queued records (byte[]) and segment rotations (Long), guarded by lock. */
+    private List<Object> pending = new ArrayList<>();
+    private long appended;
+    private long synced;
+    private long segment;
+    private int recordsSinceSnapshot;
+    private IOException failure;
+    private boolean closed;
+    private FileChannel channel;
+    /** Index of the last verified snapshot, only accessed by the snapshot thread after recovery. */
+    private long retainedSnapshot;
+    /** First segment required by the last verified snapshot, only accessed by the snapshot thread after recovery. */
+    private long retainedSegment;
+
+    /**
+     * Opens the journal in the given directory. {@link #recover()} must be called before appending records.
+     * @param directory the data directory, created if not existing, not null.
+     * @param snapshotInterval the number of records written, before a new snapshot is created.
+     * @throws IOException if the directory cannot be created.
+     */
+    ConfigJournal(Path directory, int snapshotInterval) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.snapshotInterval = snapshotInterval;
+        this.flusher = new Thread(this::flushLoop, "tamaya-server-wal");
+        this.flusher.setDaemon(true);
+    }
+
+    /**
+     * Loads the latest snapshot and replays the write-ahead log. Afterwards a new log segment is started.
+     * @return the recovered state, never null.
+     * @throws IOException if reading fails, or if records are missing, e.g. since the latest snapshot is invalid
+     * and the files it replaced have already been deleted.
+     */
+    Recovery recover() throws IOException {
+        final Recovery recovery = new Recovery();
+        final TreeMap<Long, Path> snapshots = new TreeMap<>();
+        final TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (final Path file : files) {
+                final String name = file.getFileName().toString();
+                if (name.startsWith("snapshot-") && name.endsWith(".snap")) {
+                    snapshots.put(Long.parseLong(name.substring(9, name.length() - 5), 16), file);
+                } else if (name.startsWith("wal-") && name.endsWith(".log")) {
+                    segments.put(Long.parseLong(name.substring(4, name.length() - 4), 16), file);
+                }
+            }
+        }
+        for (final Path snapshot : snapshots.descendingMap().values()) {
+            try {
+                readSnapshot(snapshot, recovery);
+                break;
+            } catch (IOException | RuntimeException e) {
+                LOG.log(Level.WARNING, "Ignoring invalid snapshot " + snapshot, e);
+                recovery.nodes.clear();
+                recovery.configValues.clear();
+                recovery.index = 0L;
+            }
+        }
+        final long snapshotIndex = recovery.index;
+        for (final Map.Entry<Long, Path> en : segments.entrySet()) {
+            replaySegment(en.getValue(), snapshotIndex, recovery, en.getKey().equals(segments.lastKey()));
+        }
+        // the segments required by the snapshot loaded are not known, keep all present until the next snapshot
+        retainedSnapshot = snapshotIndex;
+        retainedSegment = segments.isEmpty() ? 1L : segments.firstKey();
+        synchronized (lock) {
+            segment = segments.isEmpty() ? 1L : segments.lastKey() + 1L;
+            channel = openSegment(segment);
+        }
+        flusher.start();
+        LOG.info("Recovered " + recovery.nodes.size() + " keys at index " + recovery.index + " from " + directory);
+        return recovery;
+    }
+
+    /**
+     * Queues a record for the given node version.
+     * @param node the node written, not null.
+     * @param config true, if the node was written from the configuration.
+     * @return the sequence number to be passed to {@link #awaitDurable(long)}.
+     */
+    long append(ConfigNode node, boolean config) {
+        final byte[] record = encode(node, config);
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Journal is closed.");
+            }
+            pending.add(record);
+            recordsSinceSnapshot++;
+            lock.notifyAll();
+            return ++appended;
+        }
+    }
+
+    /**
+     * Waits until the record with the given sequence number and all records before are synced to disk. After
+     * closing, the flusher still writes the records queued, so waiting continues until it has finished.
+     * @param sequence the sequence number returned by {@link #append(ConfigNode, boolean)}.
+     * @throws UncheckedIOException if writing the log failed.
+     * @throws IllegalStateException if the journal was closed without syncing the record.
+     */
+    void awaitDurable(long sequence) {
+        synchronized (lock) {
+            while (synced < sequence && failure == null && (!closed || flusher.isAlive())) {
+                try {
+                    // the flusher may terminate without notifying after closing, check it periodically
+                    lock.wait(closed ? 100L : 0L);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the write-ahead log.", e);
+                }
+            }
+            if (failure != null) {
+                throw new UncheckedIOException("Write-ahead log failed.", failure);
+            }
+            if (synced < sequence) {
+                throw new IllegalStateException("Journal closed before the record was written.");
+            }
+        }
+    }
+
+    /**
+     * Checks if enough records have been written since the last snapshot.
+     * @return true, if a new snapshot should be created.
+     */
+    boolean isSnapshotDue() {
+        synchronized (lock) {
+            return recordsSinceSnapshot >= snapshotInterval;
+        }
+    }
+
+    /**
+     * Starts a new log segment and writes the given snapshot in the background. Must be called while no records
+     * are appended, i.e. holding the store's write lock, so the new segment only contains records after the
+     * snapshot.
+     * @param snapshot the snapshot of all live keys, not null.
+     * @param configValues the values loaded from the configuration, not null.
+     */
+    void snapshot(ConfigIndex snapshot, Map<String, String> configValues) {
+        final long firstSegment;
+        synchronized (lock) {
+            firstSegment = ++segment;
+            pending.add(firstSegment);
+            recordsSinceSnapshot = 0;
+            lock.notifyAll();
+        }
+        final Map<String, String> config = new HashMap<>(configValues);
+        snapshotExecutor.execute(() -> {
+            try {
+                writeSnapshot(snapshot, config);
+                // only the snapshots and segments replaced by the previous snapshot are obsolete now
+                deleteObsoleteFiles(retainedSnapshot, retainedSegment);
+                retainedSnapshot = snapshot.getRevision();
+                retainedSegment = firstSegment;
+            } catch (final IOException | RuntimeException e) {
+                LOG.log(Level.SEVERE, "Failed to write snapshot at index " + snapshot.getRevision(), e);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        snapshotExecutor.shutdown();
+        try {
+            // a snapshot being written must not touch the directory after closing
+            snapshotExecutor.awaitTermination(10L, TimeUnit.SECONDS);
+            flusher.join(10_000L);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flushLoop() {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+        while (true) {
+            final List<Object> batch;
+            final long sequence;
+            synchronized (lock) {
+                while (pending.isEmpty() && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (final InterruptedException e) {
+                        closed = true;
+                    }
+                }
+                if (pending.isEmpty()) {
+                    closeChannel();
+                    return;
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+                sequence = appended;
+            }
+            try {
+                for (final Object entry : batch) {
+                    if (entry instanceof byte[]) {
+                        buffer.write((byte[]) entry);
+                    } else {
+                        writeFully(buffer);
+                        channel.force(false);
+                        channel.close();
+                        channel = openSegment((Long) entry);
+                    }
+                }
+                writeFully(buffer);
+                channel.force(false);
+            } catch (final IOException e) {
+                LOG.log(Level.SEVERE, "Failed to write the write-ahead log.", e);
+                synchronized (lock) {
+                    failure = e;
+                    lock.notifyAll();
+                }
+                closeChannel();
+                return;
+            }
+            synchronized (lock) {
+                synced = sequence;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void writeFully(ByteArrayOutputStream buffer) throws IOException {
+        final ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        buffer.reset();
+    }
+
+    private void closeChannel() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (final IOException e) {
+            LOG.log(Level.FINE, "Failed to close the write-ahead log.", e);
+        }
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        return FileChannel.open(directory.resolve(String.format("wal-%016x.log", number)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Encodes a log record: {@code int length, int crc32, byte type, byte config, long modifiedIndex,
+     * long createdIndex, long expiration, key, value (for type SET)}, strings as {@code int length, UTF-8 bytes}.
+     */
+    private static byte[] encode(ConfigNode node, boolean config) {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream(64 + node.getKey().length() * 2
+                + (node.isDeleted() ? 0 : node.getValue().length() * 2));
+        try {
+            final DataOutputStream out = new DataOutputStream(bos);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeByte(node.isDeleted() ? DELETE : SET);
+            out.writeBoolean(config);
+            out.writeLong(node.getModifiedIndex());
+            out.writeLong(node.getCreatedIndex());
+            out.writeLong(node.getExpiration());
+            writeString(out, node.getKey());
+            if (!node.isDeleted()) {
+                writeString(out, node.getValue());
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        final byte[] record = bos.toByteArray();
+        final CRC32 crc = new CRC32();
+        crc.update(record, 8, record.length - 8);
+        final ByteBuffer header = ByteBuffer.wrap(record);
+        header.putInt(record.length - 8);
+        header.putInt((int) crc.getValue());
+        return record;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Encodes a string as UTF-8 and adds it to the given list.
+     * @return the number of bytes required to write the string, including its length.
+     */
+    private static int encode(String value, List<byte[]> strings) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        strings.add(bytes);
+        return 4 + bytes.length;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void replaySegment(Path file, long snapshotIndex, Recovery recovery, boolean last) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final ByteBuffer data = ByteBuffer.allocate((int) in.size());
+            while (data.hasRemaining() && in.read(data) >= 0) {
+                // read the whole segment
+            }
+            data.flip();
+            int valid = 0;
+            while (data.remaining() >= 8) {
+                final int length = data.getInt();
+                final int checksum = data.getInt();
+                if (length < 0 || length > data.remaining()) {
+                    break;
+                }
+                final CRC32 crc = new CRC32();
+                crc.update(data.array(), data.position(), length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                final ByteBuffer record = ByteBuffer.wrap(data.array(), data.position(), length);
+                data.position(data.position() + length);
+                valid = data.position();
+                apply(record, snapshotIndex, recovery);
+            }
+            if (valid < data.limit()) {
+                LOG.warning("Truncating incomplete write-ahead log " + file + " at " + valid
+                        + " of " + data.limit() + " bytes.");
+                if (last) {
+                    in.truncate(valid);
+                }
+            }
+        }
+    }
+
+    private static void apply(ByteBuffer record, long snapshotIndex, Recovery recovery) throws IOException {
+        final byte type = record.get();
+        final boolean config = record.get() != 0;
+        final long modifiedIndex = record.getLong();
+        final long createdIndex = record.getLong();
+        final long expiration = record.getLong();
+        final String key = getString(record);
+        if (modifiedIndex <= snapshotIndex) {
+            return;
+        }
+        if (modifiedIndex != recovery.index + 1) {
+            // each write is assigned the next index, a gap means records or a snapshot are missing
+            throw new IOException("Missing journal records between index " + recovery.index + " and "
+                    + modifiedIndex + ".");
+        }
+        if (type == SET) {
+            final String value = getString(record);
+            recovery.nodes.put(key, new ConfigNode(key, value, createdIndex, modifiedIndex, expiration));
+            if (config) {
+                recovery.configValues.put(key, value);
+            }
+        } else {
+            recovery.nodes.remove(key);
+            if (config) {
+                recovery.configValues.remove(key);
+            }
+        }
+        recovery.index = modifiedIndex;
+    }
+
+    /**
+     * Writes a snapshot through a memory-mapped file: {@code int magic, long index, int nodeCount,
+     * nodeCount times (key, value, long createdIndex, long modifiedIndex, long expiration), int configCount,
+     * configCount times (key, value), long crc32}.
+     * <p>
+     * The strings are encoded once up front, so the size mapped always matches the bytes written, including
+     * strings, which are no valid UTF-16 and are encoded with replacement characters.
+     * <p>
+     * The snapshot is renamed to its final name and the directory is synced, then the snapshot is read back.
+     * If it cannot be read, it is deleted again and an IOException is thrown.
+     */
+    private void writeSnapshot(ConfigIndex snapshot, Map<String, String> configValues) throws IOException {
+        final List<byte[]> strings = new ArrayList<>((snapshot.getNodes().size() + configValues.size()) * 2);
+        long size = 4 + 8 + 4 + 4 + 8;
+        for (final ConfigNode node : snapshot.getNodes().values()) {
+            size += encode(node.getKey(), strings) + encode(node.getValue(), strings) + 24;
+        }
+        for (final Map.Entry<String, String> en : configValues.entrySet()) {
+            size += encode(en.getKey(), strings) + encode(en.getValue(), strings);
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot exceeds 2GB: " + size);
+        }
+        final Path tmp = directory.resolve("snapshot.tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final MappedByteBuffer buffer = out.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(SNAPSHOT_MAGIC);
+            buffer.putLong(snapshot.getRevision());
+            final Iterator<byte[]> encoded = strings.iterator();
+            buffer.putInt(snapshot.getNodes().size());
+            for (final ConfigNode node : snapshot.getNodes().values()) {
+                putString(buffer, encoded.next());
+                putString(buffer, encoded.next());
+                buffer.putLong(node.getCreatedIndex());
+                buffer.putLong(node.getModifiedIndex());
+                buffer.putLong(node.getExpiration());
+            }
+            buffer.putInt(configValues.size());
+            for (int i = 0; i < configValues.size(); i++) {
+                putString(buffer, encoded.next());
+                putString(buffer, encoded.next());
+            }
+            final ByteBuffer content = buffer.duplicate();
+            content.flip();
+            final CRC32 crc = new CRC32();
+            crc.update(content);
+            buffer.putLong(crc.getValue());
+            buffer.force();
+        }
+        final Path target = directory.resolve(String.format("snapshot-%016x.snap", snapshot.getRevision()));
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (final AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory();
+        try {
+            readSnapshot(target, new Recovery());
+        } catch (final IOException | RuntimeException e) {
+            Files.deleteIfExists(target);
+            throw new IOException("Snapshot written cannot be read: " + target, e);
+        }
+        LOG.fine("Written snapshot " + target + " with " + snapshot.getNodes().size() + " keys.");
+    }
+
+    /**
+     * Syncs the directory, so renames and deletions are durable in the order made.
+     */
+    private void syncDirectory() {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (final IOException e) {
+            // not supported on all platforms, e.g. Windows
+            LOG.log(Level.FINE, "Failed to sync directory " + directory, e);
+        }
+    }
+
+    private static void readSnapshot(Path file, Recovery recovery) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            if (buffer.limit() < 28 || buffer.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a snapshot: " + file);
+            }
+            final ByteBuffer content = buffer.duplicate();
+            content.position(0).limit(buffer.limit() - 8);
+            final CRC32 crc = new CRC32();
+            crc.update(content);
+            if (crc.getValue() != buffer.getLong(buffer.limit() - 8)) {
+                throw new IOException("Invalid snapshot checksum: " + file);
+            }
+            try {
+                final long index = buffer.getLong();
+                final int count = buffer.getInt();
+                for (int i = 0; i < count; i++) {
+                    final String key = getString(buffer);
+                    final String value = getString(buffer);
+                    recovery.nodes.put(key, new ConfigNode(key, value, buffer.getLong(), buffer.getLong(),
+                            buffer.getLong()));
+                }
+                final int configCount = buffer.getInt();
+                for (int i = 0; i < configCount; i++) {
+                    recovery.configValues.put(getString(buffer), getString(buffer));
+                }
+                recovery.index = index;
+            } catch (final BufferUnderflowException e) {
+                throw new IOException("Truncated snapshot: " + file, e);
+            }
+        }
+    }
+
+    private void deleteObsoleteFiles(long snapshotIndex, long firstSegment) throws IOException {
+        final List<Path> obsolete = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (final Path file : files) {
+                final String name = file.getFileName().toString();
+                if (name.startsWith("snapshot-") && name.endsWith(".snap")
+                        && Long.parseLong(name.substring(9, name.length() - 5), 16) < snapshotIndex) {
+                    obsolete.add(file);
+                } else if (name.startsWith("wal-") && name.endsWith(".log")
+                        && Long.parseLong(name.substring(4, name.length() - 4), 16) < firstSegment) {
+                    obsolete.add(file);
+                }
+            }
+        }
+        for (final Path file : obsolete) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * The state recovered from the journal.
+     */
+    static final class Recovery {
+        private final Map<String, ConfigNode> nodes = new HashMap<>();
+        private final Map<String, String> configValues = new HashMap<>();
+        private long index;
+
+        /**
+         * Get the keys recovered.
+         * @return the nodes by key, never null.
+         */
+        Map<String, ConfigNode> getNodes() {
+            return Collections.unmodifiableMap(nodes);
+        }
+
+        /**
+         * Get the values last loaded from the configuration.
+         * @return the values by key, never null.
+         */
+        Map<String, String> getConfigValues() {
+            return Collections.unmodifiableMap(configValues);
+        }
+
+        /**
+         * Get the index of the last write recovered.
+         * @return the store index.
+         */
+        long getIndex() {
+            return index;
+        }
+    }
+}
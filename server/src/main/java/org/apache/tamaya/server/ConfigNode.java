@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Immutable version of a key in the {@link ConfigStore}. Each write creates a new version, which replaces the
+ * version before in the snapshots published from then on, while snapshots already published keep the version
+ * they contain. Deletions and expirations are written as tombstone versions, which are reported to watchers, but
+ * are not contained in snapshots.
+ */
+final class ConfigNode implements Map.Entry<String, String> {
+
+    private final String key;
+    private final String value;
+    private final long createdIndex;
+    private final long modifiedIndex;
+    private final long expiration;
+
+    /**
+     * Creates a new version.
+     * @param key the key, not null.
+     * @param value the value, or null for a tombstone.
+     * @param createdIndex the store index the key was created with.
+     * @param modifiedIndex the store index of this version.
+     * @param expiration the expiration time in milliseconds, or 0, if this version does not expire.
+     */
+    ConfigNode(String key, String value, long createdIndex, long modifiedIndex, long expiration) {
+        this.key = Objects.requireNonNull(key);
+        this.value = value;
+        this.createdIndex = createdIndex;
+        this.modifiedIndex = modifiedIndex;
+        this.expiration = expiration;
+    }
+
+    @Override
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public String setValue(String value) {
+        throw new UnsupportedOperationException("ConfigNode is immutable.");
+    }
+
+    long getCreatedIndex() {
+        return createdIndex;
+    }
+
+    long getModifiedIndex() {
+        return modifiedIndex;
+    }
+
+    /**
+     * Get the expiration time.
+     * @return the expiration time in milliseconds, or 0, if this version does not expire.
+     */
+    long getExpiration() {
+        return expiration;
+    }
+
+    /**
+     * Get the expiration time in the etcd (RFC 3339) format.
+     * @return the expiration time, or null, if this version does not expire.
+     */
+    String getExpirationString() {
+        return expiration == 0L ? null : Instant.ofEpochMilli(expiration).toString();
+    }
+
+    /**
+     * Get the remaining time to live in seconds, rounded up.
+     * @param now the current time in milliseconds.
+     * @return the remaining time to live, or 0, if this version does not expire.
+     */
+    long getTtl(long now) {
+        if (expiration == 0L) {
+            return 0L;
+        }
+        return Math.max(0L, (expiration - now + 999L) / 1000L);
+    }
+
+    /**
+     * Checks if this version is a tombstone, i.e. the key was deleted or has expired.
+     * @return true, if this version is a tombstone.
+     */
+    boolean isDeleted() {
+        return value == null;
+    }
+
+    /**
+     * Checks if this version has expired.
+     * @param now the current time in milliseconds.
+     * @return true, if this version has an expiration time before or equal to the given time.
+     */
+    boolean isExpired(long now) {
+        return expiration != 0L && expiration <= now;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Map.Entry)) {
+            return false;
+        }
+        final Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+        return key.equals(other.getKey()) && Objects.equals(value, other.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+        return key.hashCode() ^ Objects.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return "ConfigNode{" +
+                "key='" + key + '\'' +
+                ", value='" + value + '\'' +
+                ", createdIndex=" + createdIndex +
+                ", modifiedIndex=" + modifiedIndex +
+                ", expiration=" + expiration +
+                '}';
+    }
+}
@@ -0,0 +1,532 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-memory, multi-versioned key store with etcd v2 write semantics. Every write is assigned the next store
+ * index, which becomes the {@code modifiedIndex} of the written key, while {@code createdIndex} is kept until
+ * the key is deleted. Writes support TTLs, expired by a {@link TimerWheel}, and compare-and-swap conditions
+ * ({@code prevValue, prevIndex, prevExist}).
+ * <p>
+ * Writes are serialized, reads never block on writers: each write publishes an immutable {@link ConfigIndex} of
+ * all keys at its store index, derived from the snapshot before by copying only the path to the key written (see
+ * {@link NodeTree}). {@link #snapshot()} just returns the snapshot published last, which is shared by all readers
+ * until the next write.
+ * <p>
+ * The properties of the Tamaya configuration are loaded into the store by {@link #syncConfiguration(Map)}, which
+ * applies changes of the configuration as writes.
+ * <p>
+ * If a {@link ConfigJournal} is configured, the store is recovered from it on creation and all writes are
+ * journaled. Write operations return only after their changes are durable.
+ * <p>
+ * Keys and values of all stores are deduplicated by a shared {@link StringPool}, so values common to several
+ * stores, e.g. of the namespaces of a server, are kept only once.
+ * <p>
+ * Changes can be watched by {@link #watch(String, boolean, Long, Consumer)}. Watchers are notified
+ * asynchronously, once a change is durable.
+ */
+final class ConfigStore implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(ConfigStore.class.getName());
+
+    /** Duration of a timer wheel tick in milliseconds. */
+    private static final long TICK_MILLIS = 500L;
+
+    /** Number of changes kept for watches on past indexes, as in etcd. */
+    private static final int EVENT_HISTORY = 1000;
+
+    private static final String[] META_SUFFIXES = {".createdIndex", ".modifiedIndex", ".ttl", ".expiration"};
+
+    /** Pool of the keys and values of all stores. */
+    private static final StringPool STRINGS = new StringPool();
+
+    private static final ScheduledExecutorService EXPIRY_EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "tamaya-server-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ExecutorService WATCH_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        final Thread thread = new Thread(r, "tamaya-server-watch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Random identifier of this store instance, distinguishing it from stores of earlier processes. */
+    private final String epoch = Long.toHexString(UUID.randomUUID().getMostSignificantBits());
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final LongSupplier clock;
+    private final TimerWheel expirations;
+    private final ScheduledFuture<?> expiryTask;
+    private final WatchHub watches;
+    private volatile long index;
+    private volatile ConfigIndex snapshot;
+    private final ConfigJournal journal;
+    /** The values loaded from the configuration, guarded by the write lock. */
+    private final Map<String, String> configValues = new HashMap<>();
+    private volatile Map<String, String> configuration = Collections.emptyMap();
+    private long lastSequence;
+
+    /**
+     * Creates a new, empty store using the system clock.
+     */
+    ConfigStore() {
+        this(System::currentTimeMillis, null);
+    }
+
+    /**
+     * Creates a new store.
+     * @param clock the clock used for TTLs, returning the current time in milliseconds, not null.
+     * @param journal the journal to recover from and to write to, or null for a transient store. The journal is
+     *                closed with the store.
+     * @throws UncheckedIOException if the journal cannot be recovered.
+     */
+    ConfigStore(LongSupplier clock, ConfigJournal journal) {
+        this.clock = Objects.requireNonNull(clock);
+        this.expirations = new TimerWheel(TICK_MILLIS, 512, clock.getAsLong());
+        this.journal = journal;
+        NodeTree tree = NodeTree.EMPTY;
+        if (journal != null) {
+            final ConfigJournal.Recovery recovery;
+            try {
+                recovery = journal.recover();
+            } catch (final IOException e) {
+                throw new UncheckedIOException("Failed to recover the config store.", e);
+            }
+            for (final ConfigNode recovered : recovery.getNodes().values()) {
+                final ConfigNode node = new ConfigNode(STRINGS.intern(recovered.getKey()),
+                        STRINGS.intern(recovered.getValue()), recovered.getCreatedIndex(),
+                        recovered.getModifiedIndex(), recovered.getExpiration());
+                tree = tree.put(node);
+                if (node.getExpiration() != 0L) {
+                    expirations.schedule(node.getKey(), node.getModifiedIndex(), node.getExpiration());
+                }
+            }
+            for (final Map.Entry<String, String> en : recovery.getConfigValues().entrySet()) {
+                configValues.put(STRINGS.intern(en.getKey()), STRINGS.intern(en.getValue()));
+            }
+            index = recovery.getIndex();
+        }
+        this.snapshot = new ConfigIndex(index, tree);
+        this.watches = new WatchHub(EVENT_HISTORY, index, this::notifyWatchers);
+        this.expiryTask = EXPIRY_EXECUTOR.scheduleWithFixedDelay(this::processExpirations,
+                TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the epoch of this store, a random identifier created for each store instance. Indexes are only
+     * comparable within an epoch, since a restarted store without journal starts counting them again.
+     * @return the epoch, never null.
+     */
+    String getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Get the current store index, i.e. the index of the last write.
+     * @return the current store index.
+     */
+    long getIndex() {
+        return index;
+    }
+
+    /**
+     * Get an immutable snapshot of all keys at the current store index.
+     * @return the snapshot, never null.
+     */
+    ConfigIndex snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Watches a key or section for changes, like etcd's {@code wait=true} reads.
+     * @param key the key or section to watch, the empty string for all keys.
+     * @param recursive if true, changes of all keys of the section are reported as well.
+     * @param waitIndex if not null, the first matching change with this or a higher index is reported, otherwise
+     *                  the next matching change.
+     * @param listener the listener notified with the change, not null. The listener is called once, either
+     *                 immediately, if a matching change is already known, or by the watch thread later. It must
+     *                 not block.
+     * @return the watch, which can be cancelled, never null.
+     * @throws StoreException if the requested index is no longer kept.
+     */
+    WatchHub.Watch watch(String key, boolean recursive, Long waitIndex, Consumer<Change> listener) {
+        return watches.watch(key, recursive, waitIndex, listener);
+    }
+
+    /**
+     * Get the number of pending watches.
+     * @return the number of watches.
+     */
+    int getWatchCount() {
+        return watches.size();
+    }
+
+    /**
+     * Sets the value of a key.
+     * @param key the key, not null.
+     * @param value the value, not null.
+     * @param ttl the time to live in seconds, or null.
+     * @param prevValue if not null, the key's current value must be equal to this value.
+     * @param prevIndex if not null, the key's current modification index must be equal to this index.
+     * @param prevExist if not null, defines, if the key must (true) or must not (false) exist.
+     * @return the change applied, never null.
+     * @throws StoreException if a condition is not met.
+     */
+    Change set(String key, String value, Integer ttl, String prevValue, Long prevIndex, Boolean prevExist) {
+        Objects.requireNonNull(key);
+        if (value == null) {
+            throw new StoreException(StoreException.VALUE_REQUIRED, '/' + key, index);
+        }
+        final Change change;
+        final long lastWritten;
+        writeLock.lock();
+        try {
+            final long now = clock.getAsLong();
+            final ConfigNode current = live(snapshot.getNode(key), now);
+            if (Boolean.FALSE.equals(prevExist) && current != null) {
+                throw new StoreException(StoreException.NODE_EXIST, '/' + key, index);
+            }
+            final boolean compare = prevValue != null || prevIndex != null;
+            if ((compare || Boolean.TRUE.equals(prevExist)) && current == null) {
+                throw new StoreException(StoreException.KEY_NOT_FOUND, '/' + key, index);
+            }
+            checkCompare(current, prevValue, prevIndex);
+            final String action;
+            if (compare) {
+                action = "compareAndSwap";
+            } else if (Boolean.FALSE.equals(prevExist)) {
+                action = "create";
+            } else if (Boolean.TRUE.equals(prevExist)) {
+                action = "update";
+            } else {
+                action = "set";
+            }
+            final long expiration = ttl != null && ttl > 0 ? now + ttl * 1000L : 0L;
+            change = apply(action, key, value, expiration, current, false);
+            lastWritten = lastSequence;
+            checkSnapshot();
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(lastWritten);
+        return change;
+    }
+
+    /**
+     * Deletes a key.
+     * @param key the key, not null.
+     * @param recursive if true, all keys of the key's section are deleted as well.
+     * @param prevValue if not null, the key's current value must be equal to this value.
+     * @param prevIndex if not null, the key's current modification index must be equal to this index.
+     * @return the change applied to the key, never null.
+     * @throws StoreException if the key does not exist or a condition is not met.
+     */
+    Change delete(String key, boolean recursive, String prevValue, Long prevIndex) {
+        Objects.requireNonNull(key);
+        final Change change;
+        final long lastWritten;
+        writeLock.lock();
+        try {
+            final long now = clock.getAsLong();
+            final ConfigNode current = live(snapshot.getNode(key), now);
+            final List<String> children = new ArrayList<>();
+            if (recursive) {
+                for (final ConfigNode child : snapshot.getSection(key).values()) {
+                    if (live(child, now) != null) {
+                        children.add(child.getKey());
+                    }
+                }
+            }
+            if (current == null && (children.isEmpty() || prevValue != null || prevIndex != null)) {
+                throw new StoreException(StoreException.KEY_NOT_FOUND, '/' + key, index);
+            }
+            checkCompare(current, prevValue, prevIndex);
+            final String action = prevValue != null || prevIndex != null ? "compareAndDelete" : "delete";
+            for (final String child : children) {
+                apply(action, child, null, 0L, snapshot.getNode(child), false);
+            }
+            if (current == null) {
+                // deleting a section without a value of its own
+                change = new Change(action, new ConfigNode(key, null, index, index, 0L), null);
+            } else {
+                change = apply(action, key, null, 0L, current, false);
+            }
+            lastWritten = lastSequence;
+            checkSnapshot();
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(lastWritten);
+        return change;
+    }
+
+    /**
+     * Applies the changes of the Tamaya configuration since the last call as writes. Meta entries
+     * ({@code _key.createdIndex} etc.) of keys present are not stored, since the store manages them itself.
+     * @param properties the current configuration properties, not null.
+     */
+    void syncConfiguration(Map<String, String> properties) {
+        if (configuration.equals(properties)) {
+            return;
+        }
+        final long lastWritten;
+        writeLock.lock();
+        try {
+            final Map<String, String> values = configValues(properties);
+            final long now = clock.getAsLong();
+            for (final Map.Entry<String, String> en : values.entrySet()) {
+                if (!en.getValue().equals(configValues.get(en.getKey()))) {
+                    apply("set", en.getKey(), en.getValue(), 0L, live(snapshot.getNode(en.getKey()), now), true);
+                }
+            }
+            for (final String key : new ArrayList<>(configValues.keySet())) {
+                if (!values.containsKey(key)) {
+                    final ConfigNode current = live(snapshot.getNode(key), now);
+                    if (current != null) {
+                        apply("delete", key, null, 0L, current, true);
+                    } else {
+                        configValues.remove(key);
+                    }
+                }
+            }
+            configuration = new HashMap<>(properties);
+            lastWritten = lastSequence;
+            checkSnapshot();
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(lastWritten);
+    }
+
+    /**
+     * Expires all keys, whose TTL has passed. Called periodically by the expiry thread.
+     */
+    void processExpirations() {
+        try {
+            final long now = clock.getAsLong();
+            for (final TimerWheel.Timeout timeout : expirations.advance(now)) {
+                writeLock.lock();
+                try {
+                    final ConfigNode current = snapshot.getNode(timeout.getKey());
+                    if (current != null && !current.isDeleted()
+                            && current.getModifiedIndex() == timeout.getModifiedIndex()) {
+                        apply("expire", current.getKey(), null, 0L, current, false);
+                        checkSnapshot();
+                    }
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        } catch (final Exception e) {
+            LOG.log(Level.WARNING, "Failed to expire keys.", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        expiryTask.cancel(false);
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Writes a new version of a key. Must be called holding the write lock.
+     */
+    private Change apply(String action, String rawKey, String rawValue, long expiration, ConfigNode current,
+                         boolean config) {
+        final String key = STRINGS.intern(rawKey);
+        final String value = STRINGS.intern(rawValue);
+        final long newIndex = index + 1;
+        final long createdIndex = current != null ? current.getCreatedIndex() : newIndex;
+        final ConfigNode node = new ConfigNode(key, value, createdIndex, newIndex, expiration);
+        if (journal != null) {
+            lastSequence = journal.append(node, config);
+        }
+        if (config) {
+            if (value == null) {
+                configValues.remove(key);
+            } else {
+                configValues.put(key, value);
+            }
+        }
+        final NodeTree tree = snapshot.getTree();
+        snapshot = new ConfigIndex(newIndex, value == null ? tree.remove(key) : tree.put(node));
+        index = newIndex;
+        if (expiration != 0L) {
+            expirations.schedule(key, newIndex, expiration);
+        }
+        final Change change = new Change(action, node, current);
+        watches.publish(change);
+        return change;
+    }
+
+    /**
+     * Notifies watchers of a change once it is durable. Called by the watch hub holding the write lock.
+     */
+    private void notifyWatchers(Runnable notification) {
+        final long sequence = lastSequence;
+        WATCH_EXECUTOR.execute(() -> {
+            try {
+                awaitDurable(sequence);
+            } catch (final UncheckedIOException e) {
+                LOG.log(Level.WARNING, "Change not durable, watchers are not notified.", e);
+                return;
+            }
+            try {
+                notification.run();
+            } catch (final RuntimeException e) {
+                LOG.log(Level.WARNING, "Failed to notify watchers.", e);
+            }
+        });
+    }
+
+    /**
+     * Starts writing a snapshot, if due. Must be called holding the write lock, so the snapshot and the journal
+     * segment started are consistent.
+     */
+    private void checkSnapshot() {
+        if (journal != null && journal.isSnapshotDue()) {
+            journal.snapshot(snapshot(), configValues);
+        }
+    }
+
+    private void awaitDurable(long sequence) {
+        if (journal != null) {
+            journal.awaitDurable(sequence);
+        }
+    }
+
+    private void checkCompare(ConfigNode current, String prevValue, Long prevIndex) {
+        if (current == null) {
+            return;
+        }
+        if (prevValue != null && !prevValue.equals(current.getValue())) {
+            throw new StoreException(StoreException.TEST_FAILED,
+                    "[" + prevValue + " != " + current.getValue() + "]", index);
+        }
+        if (prevIndex != null && prevIndex != current.getModifiedIndex()) {
+            throw new StoreException(StoreException.TEST_FAILED,
+                    "[" + prevIndex + " != " + current.getModifiedIndex() + "]", index);
+        }
+    }
+
+    private static ConfigNode live(ConfigNode node, long now) {
+        if (node == null || node.isDeleted() || node.isExpired(now)) {
+            return null;
+        }
+        return node;
+    }
+
+    /**
+     * Evaluates the values of the given configuration properties, excluding null values and meta entries of
+     * keys present.
+     */
+    private static Map<String, String> configValues(Map<String, String> properties) {
+        final Map<String, String> values = new HashMap<>(properties.size() * 4 / 3 + 1);
+        for (final Map.Entry<String, String> en : properties.entrySet()) {
+            if (en.getValue() == null) {
+                continue;
+            }
+            final String key = metaKey(en.getKey());
+            if (key == null || !properties.containsKey(key)) {
+                values.put(en.getKey(), en.getValue());
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Evaluates the key a meta entry belongs to.
+     * @param key the property key, not null.
+     * @return the key described, or null, if the given key is not a meta entry.
+     */
+    private static String metaKey(String key) {
+        if (!key.startsWith("_")) {
+            return null;
+        }
+        for (final String suffix : META_SUFFIXES) {
+            if (key.endsWith(suffix) && key.length() > suffix.length() + 1) {
+                return key.substring(1, key.length() - suffix.length());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A change applied to the store.
+     */
+    static final class Change {
+        private final String action;
+        private final ConfigNode node;
+        private final ConfigNode prevNode;
+
+        private Change(String action, ConfigNode node, ConfigNode prevNode) {
+            this.action = action;
+            this.node = node;
+            this.prevNode = prevNode;
+        }
+
+        /**
+         * Get the etcd action, e.g. {@code set, create, update, compareAndSwap, delete, compareAndDelete,
+         * expire}.
+         * @return the action, never null.
+         */
+        String getAction() {
+            return action;
+        }
+
+        /**
+         * Get the version written, a tombstone for deletions.
+         * @return the version written, never null.
+         */
+        ConfigNode getNode() {
+            return node;
+        }
+
+        /**
+         * Get the version replaced.
+         * @return the version replaced, or null, if the key did not exist.
+         */
+        ConfigNode getPrevNode() {
+            return prevNode;
+        }
+    }
+}
@@ -18,43 +18,200 @@
  */
 package org.apache.tamaya.server;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.HashSet;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 
 import javax.json.Json;
-import javax.json.JsonArray;
-import javax.json.JsonArrayBuilder;
-import javax.json.JsonObject;
-import javax.json.JsonObjectBuilder;
-import javax.json.JsonWriter;
 import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.tamaya.Configuration;
-import org.apache.tamaya.ConfigurationProvider;
 import org.apache.tamaya.functions.ConfigurationFunctions;
 
 /**
- * Configuration resource with an etcd compatible REST API
- * (excluding the blocking API calls).
+ * Configuration resource with an etcd compatible REST API. Watches ({@code wait=true}) are supported on the
+ * {@code /v2/keys} resources, without blocking a thread per watcher.
+ * <p>
+ * Besides the current configuration, the resource serves namespaces (tenants) listed by the configuration key
+ * {@code tamaya.server.namespaces}, e.g. {@code shop, billing}. All resources are available per namespace
+ * below {@code /ns/<namespace>}, e.g. {@code /ns/shop/keys/db.url}, serving the configuration section
+ * {@code tamaya.server.ns.<namespace>}. Each namespace has its own store, snapshots and response cache and is
+ * synchronized with the configuration independently.
  */
 @Path("/")
 @Produces({MediaType.APPLICATION_JSON, MediaType.TEXT_PLAIN})
-public class ConfigurationResource {
-    private final AtomicLong readCounter = new AtomicLong();
-    private final AtomicLong writeCounter = new AtomicLong();
-    private final AtomicLong deleteCounter = new AtomicLong();
+public class ConfigurationServices {
+    private static final Logger LOG = Logger.getLogger(ConfigurationServices.class.getName());
 
+    private final LongAdder readCounter = new LongAdder();
+    private final LongAdder writeCounter = new LongAdder();
+    private final LongAdder deleteCounter = new LongAdder();
+
+    /** Maximal number of nodes of a cached response, larger responses are streamed. */
+    private static final int STREAMING_THRESHOLD = 1000;
+
+    private static final JsonGeneratorFactory GENERATOR_FACTORY = Json.createGeneratorFactory(
+            Collections.<String, Object>emptyMap());
+
+    /** Interval in milliseconds, in which the configuration is checked for changes. */
+    private static final long CONFIG_CHECK_INTERVAL = 1000L;
+
+    /** Response header containing the current etcd index. */
+    private static final String ETCD_INDEX_HEADER = "X-Etcd-Index";
+
+    /** Time in seconds, after which an unanswered watch is cancelled, so the client can retry. */
+    private static final long WATCH_TIMEOUT = 300L;
+
+    private static final ScheduledExecutorService CONFIG_SYNC_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "tamaya-server-config-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /** Configuration key listing the namespaces served, comma separated. */
+    static final String NAMESPACES_KEY = "tamaya.server.namespaces";
+
+    /** Prefix of the configuration sections served as namespaces. */
+    static final String NAMESPACE_PREFIX = "tamaya.server.ns.";
+
+    /** Valid namespace names, which are used as configuration sections and directory names. */
+    private static final Pattern NAMESPACE_PATTERN = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private final Supplier<Configuration> configuration;
+    private final ConfigStore store;
+    private final ServerMetrics metrics;
+    /** The namespaces created so far, only set for the current configuration's resource. */
+    private final ConcurrentMap<String, ConfigurationServices> namespaces;
+    /** The namespaces listed, refreshed with the store, whenever the configuration is checked for changes. */
+    private volatile String namespacesListed;
+    private volatile Set<String> namespaceNames = Collections.emptySet();
+    private volatile ScheduledFuture<?> configSyncTask;
+    private final AtomicBoolean configSyncing = new AtomicBoolean();
+    private final AtomicBoolean configWatched = new AtomicBoolean();
+    private volatile long nextConfigCheck;
+    private volatile ResponseCache responseCache;
+
+    /**
+     * Creates the resource serving the current configuration and its namespaces.
+     */
+    public ConfigurationServices() {
+        this(null, Configuration::current, null);
+    }
+
+    /**
+     * Creates a resource.
+     *
+     * @param namespace the namespace served, null for the current configuration.
+     * @param configuration the supplier of the configuration served, not null.
+     * @param metrics the metrics shared with the current configuration's resource, or null.
+     */
+    private ConfigurationServices(String namespace, Supplier<Configuration> configuration, ServerMetrics metrics) {
+        this.configuration = configuration;
+        this.store = createStore(namespace);
+        this.metrics = metrics != null ? metrics : new ServerMetrics(store);
+        this.namespaces = namespace == null ? new ConcurrentHashMap<>() : null;
+    }
+
+
+    /**
+     * Sub resource locator for the resources of a namespace, e.g. {@code /ns/shop/keys/db.url}. Namespaces are
+     * created on first access, namespaces no longer listed are removed.
+     *
+     * @param name the namespace.
+     * @return the resource serving the namespace.
+     * @throws NotFoundException if the namespace is not listed.
+     */
+    @Path("/ns/{namespace}")
+    public ConfigurationServices namespace(@PathParam("namespace") String name) {
+        if (namespaces == null || name == null || !NAMESPACE_PATTERN.matcher(name).matches()) {
+            throw new NotFoundException();
+        }
+        getIndex();
+        if (!namespaceNames.contains(name)) {
+            final ConfigurationServices removed = namespaces.remove(name);
+            if (removed != null) {
+                LOG.info("Removing namespace " + name);
+                removed.close();
+            }
+            throw new NotFoundException();
+        }
+        return namespaces.computeIfAbsent(name, n -> new ConfigurationServices(n, () -> Configuration.current()
+                .with(ConfigurationFunctions.section(NAMESPACE_PREFIX + n, true)), metrics));
+    }
+
+    /**
+     * Updates the namespaces listed by the configuration. The list is parsed again only, if it changed.
+     *
+     * @param listed the namespaces listed, comma separated, or null.
+     */
+    private void updateNamespaceNames(String listed) {
+        if (Objects.equals(listed, namespacesListed)) {
+            return;
+        }
+        final Set<String> names = new HashSet<>();
+        if (listed != null) {
+            for (final String name : listed.split(",")) {
+                if (!name.trim().isEmpty()) {
+                    names.add(name.trim());
+                }
+            }
+        }
+        namespaceNames = Collections.unmodifiableSet(names);
+        namespacesListed = listed;
+    }
 
     @GET
     @Path("/version")
@@ -66,102 +223,215 @@ public class ConfigurationResource {
         return String.format("{ \"version\" : \"%s: %s\" }", product, version);
     }
 
+    /**
+     * This models a etcd2 compliant access point for getting all property values or waiting for the next change.
+     *
+     * @param recursive NOT YET IMPLEMENTED!
+     * @param wait if true, the response is suspended until any key changes.
+     * @param waitIndex if set with {@code wait}, the first change with this or a higher index is returned.
+     * @param request the current request, used for evaluating {@code If-None-Match}.
+     * @param headers the current request's headers, used for evaluating {@code Accept-Encoding}.
+     * @param response the response to resume with all configuration property values, or the change.
+     */
     @GET
     @Path("/v2/keys")
-    public String readEtcdConfig(@QueryParam("recursive") Boolean recursive) {
-        return readConfig(recursive);
+    public void readEtcdConfig(@QueryParam("recursive") Boolean recursive, @QueryParam("wait") Boolean wait,
+                               @QueryParam("waitIndex") Long waitIndex, @Context Request request,
+                               @Context HttpHeaders headers, @Suspended AsyncResponse response) {
+        if (Boolean.TRUE.equals(wait)) {
+            watch("", true, waitIndex, response);
+        } else {
+            response.resume(readConfig(recursive, request, headers));
+        }
     }
 
     /**
      * This models a etcd2 compliant access point for getting a property value.
      *
      * @param recursive NOT YET IMPLEMENTED!
+     * @param request the current request, used for evaluating {@code If-None-Match}.
+     * @param headers the current request's headers, used for evaluating {@code Accept-Encoding}.
      * @return all configuration property values.
      */
     @GET
     @Path("/keys")
-    public String readConfig(@QueryParam("recursive") Boolean recursive) {
-        readCounter.incrementAndGet();
-        final Configuration config = Configuration.current();
-        final Map<String, String> children = config.getProperties();
-        final JsonArrayBuilder ab = Json.createArrayBuilder();
-        for (final Map.Entry<String, String> en : children.entrySet()) {
-            final Node node = new Node(config, en.getKey(), "node");
-            ab.add(node.createJsonObject());
-        }
-        final Node node = new Node(config, null, "node", ab.build());
-        final JsonObjectBuilder root = Json.createObjectBuilder().add("action", "get")
-                .add("node", node.createJsonObject());
-        final StringWriter writer = new StringWriter();
-        final JsonWriter jwriter = Json.createWriter(writer);
-        jwriter.writeObject(root.build());
-        return writer.toString();
+    public Response readConfig(@QueryParam("recursive") Boolean recursive, @Context Request request,
+                               @Context HttpHeaders headers) {
+        readCounter.increment();
+        return cachedResponse("readConfig", request, headers, null, false, MediaType.APPLICATION_JSON,
+                ConfigurationServices::writeJson);
     }
 
     /**
-     * This models a etcd2 compliant access point for getting a property value.
+     * This models a etcd2 compliant access point for getting a property value or waiting for its next change.
+     * A watch is answered with the first matching change, e.g.
+     * <pre>
+     * {"action":"set","node":{"key":"/a.b","value":"2","modifiedIndex":8,"createdIndex":7},
+     *  "prevNode":{"key":"/a.b","value":"1","modifiedIndex":7,"createdIndex":7}}
+     * </pre>
+     * If {@code waitIndex} is older than the changes kept, the etcd error 401 is returned, so the client has to
+     * read the current state again. Watches not answered within {@link #WATCH_TIMEOUT} seconds are cancelled
+     * ({@code 503 Service Unavailable}).
      *
      * @param key       name of the key to show
-     * @param recursive NOT YET IMPLEMENTED!
-     * @return specific configuration key derived from the given key name.
+     * @param recursive if true, the section's values are returned, even if a value exists for the key. For
+     *                  watches, changes of all keys of the section are reported.
+     * @param wait if true, the response is suspended until the key changes.
+     * @param waitIndex if set with {@code wait}, the first change with this or a higher index is returned.
+     * @param request the current request, used for evaluating {@code If-None-Match}.
+     * @param headers the current request's headers, used for evaluating {@code Accept-Encoding}.
+     * @param response the response to resume with the configuration key derived from the given key name, or the
+     *                 change.
      */
     @GET
     @Path("/v2/keys/{key}")
-    public String readEtcdConfig(@PathParam("key") String key, @QueryParam("recursive") Boolean recursive) {
-        return readConfig(key, recursive);
+    public void readEtcdConfig(@PathParam("key") String key, @QueryParam("recursive") Boolean recursive,
+                               @QueryParam("wait") Boolean wait, @QueryParam("waitIndex") Long waitIndex,
+                               @Context Request request, @Context HttpHeaders headers,
+                               @Suspended AsyncResponse response) {
+        if (Boolean.TRUE.equals(wait)) {
+            watch(normalizeKey(key), Boolean.TRUE.equals(recursive), waitIndex, response);
+        } else {
+            response.resume(readConfig(key, recursive, request, headers));
+        }
     }
 
     /**
      * This models a etcd2 compliant access point for getting a property value.
      *
      * @param key       name of the key to show
-     * @param recursive NOT YET IMPLEMENTED!
+     * @param recursive if true, the section's values are returned, even if a value exists for the key.
+     * @param request the current request, used for evaluating {@code If-None-Match}.
+     * @param headers the current request's headers, used for evaluating {@code Accept-Encoding}.
      * @return configuration value of the given key.
      */
     @GET
     @Path("/keys/{key}")
-    public String readConfig(@PathParam("key") String key, @QueryParam("recursive") Boolean recursive) {
-        readCounter.incrementAndGet();
-        final Configuration config = Configuration.current();
-        if (key != null) {
-            if (key.startsWith("/")) {
-                key = key.substring(1);
-            }
-            if (config.get(key) != null && !recursive) {
-                final Node node = new Node(config, key, "node");
-                final JsonObjectBuilder root = Json.createObjectBuilder().add("action", "get")
-                        .add("node", node.createJsonObject());
-                final StringWriter writer = new StringWriter();
-                final JsonGenerator gen = Json.createGenerator(writer);
-                gen.write(root.build());
-                return writer.toString();
-            }
-        }
-        Map<String, String> children = null;
-        if (key == null) {
-            children = config.getProperties();
-        } else {
-            children = config.with(ConfigurationFunctions.section(key)).getProperties();
-        }
-        final JsonArrayBuilder ab = Json.createArrayBuilder();
-        for (final Map.Entry<String, String> en : children.entrySet()) {
-            final Node node = new Node(config, en.getKey(), "node");
-            ab.add(node.createJsonObject());
-        }
-        final Node node = new Node(config, key, "node", ab.build());
-        final JsonObjectBuilder root = Json.createObjectBuilder().add("action", "get")
-                .add("node", node.createJsonObject());
-        final StringWriter writer = new StringWriter();
-        final JsonWriter jwriter = Json.createWriter(writer);
-        jwriter.writeObject(root.build());
-        return writer.toString();
+    public Response readConfig(@PathParam("key") String key, @QueryParam("recursive") Boolean recursive,
+                               @Context Request request, @Context HttpHeaders headers) {
+        readCounter.increment();
+        return cachedResponse("readConfig", request, headers, normalizeKey(key), Boolean.TRUE.equals(recursive),
+                MediaType.APPLICATION_JSON, ConfigurationServices::writeJson);
+    }
+
+    /**
+     * Access point returning all configuration property values in the compact binary key/value format
+     * ({@code application/x-tamaya-kv}). The format is selected by the client's {@code Accept} header.
+     *
+     * @param recursive NOT YET IMPLEMENTED!
+     * @param request the current request, used for evaluating {@code If-None-Match}.
+     * @param headers the current request's headers, used for evaluating {@code Accept-Encoding}.
+     * @return all configuration property values, binary encoded.
+     */
+    @GET
+    @Path("/keys")
+    @Produces(KeyValueWriter.MEDIA_TYPE)
+    public Response readConfigBinary(@QueryParam("recursive") Boolean recursive, @Context Request request,
+                                     @Context HttpHeaders headers) {
+        readCounter.increment();
+        return cachedResponse("readConfigBinary", request, headers, null, false, KeyValueWriter.MEDIA_TYPE,
+                ConfigurationServices::writeBinary);
+    }
+
+    /**
+     * Access point returning a configuration value or section in the compact binary key/value format
+     * ({@code application/x-tamaya-kv}). The format is selected by the client's {@code Accept} header.
+     *
+     * @param key       name of the key or section to show
+     * @param recursive if true, the section's values are returned, even if a value exists for the key.
+     * @param request the current request, used for evaluating {@code If-None-Match}.
+     * @param headers the current request's headers, used for evaluating {@code Accept-Encoding}.
+     * @return configuration value(s) of the given key, binary encoded.
+     */
+    @GET
+    @Path("/keys/{key}")
+    @Produces(KeyValueWriter.MEDIA_TYPE)
+    public Response readConfigBinary(@PathParam("key") String key, @QueryParam("recursive") Boolean recursive,
+                                     @Context Request request, @Context HttpHeaders headers) {
+        readCounter.increment();
+        return cachedResponse("readConfigBinary", request, headers, normalizeKey(key),
+                Boolean.TRUE.equals(recursive), KeyValueWriter.MEDIA_TYPE, ConfigurationServices::writeBinary);
+    }
+
+    /**
+     * Batch access point returning the values of several keys and sections from a single snapshot, e.g.
+     * {@code /batch?key=a.b&key=c&prefix=db}. The response is streamed as an etcd directory node listing all
+     * nodes found, including their meta entries (indexes, expiration). Keys not found are omitted.
+     *
+     * @param keys the keys to read.
+     * @param prefixes the sections to read, including the section's own key, {@code /} for all keys.
+     * @param headers the current request's headers, used for evaluating {@code Accept-Encoding}.
+     * @return the nodes found.
+     */
+    @GET
+    @Path("/batch")
+    public Response readBatch(@QueryParam("key") List<String> keys, @QueryParam("prefix") List<String> prefixes,
+                              @Context HttpHeaders headers) {
+        return batchResponse("readBatch", keys, prefixes, headers, MediaType.APPLICATION_JSON,
+                ConfigurationServices::writeBatchJson);
+    }
+
+    /**
+     * Batch access point returning the values of several keys and sections in the compact binary key/value
+     * format ({@code application/x-tamaya-kv}).
+     *
+     * @param keys the keys to read.
+     * @param prefixes the sections to read, including the section's own key, {@code /} for all keys.
+     * @param headers the current request's headers, used for evaluating {@code Accept-Encoding}.
+     * @return the values found, binary encoded.
+     * @see #readBatch(List, List, HttpHeaders)
+     */
+    @GET
+    @Path("/batch")
+    @Produces(KeyValueWriter.MEDIA_TYPE)
+    public Response readBatchBinary(@QueryParam("key") List<String> keys,
+                                    @QueryParam("prefix") List<String> prefixes, @Context HttpHeaders headers) {
+        return batchResponse("readBatchBinary", keys, prefixes, headers, KeyValueWriter.MEDIA_TYPE,
+                KeyValueWriter::write);
+    }
+
+    /**
+     * Form variant of {@link #readBatch(List, List, HttpHeaders)}, for key lists exceeding the URL length
+     * limits.
+     *
+     * @param keys the keys to read.
+     * @param prefixes the sections to read, including the section's own key, {@code /} for all keys.
+     * @param headers the current request's headers, used for evaluating {@code Accept-Encoding}.
+     * @return the nodes found.
+     */
+    @POST
+    @Path("/batch")
+    @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+    public Response postBatch(@FormParam("key") List<String> keys, @FormParam("prefix") List<String> prefixes,
+                              @Context HttpHeaders headers) {
+        return readBatch(keys, prefixes, headers);
+    }
+
+    /**
+     * Form variant of {@link #readBatchBinary(List, List, HttpHeaders)}, for key lists exceeding the URL length
+     * limits.
+     *
+     * @param keys the keys to read.
+     * @param prefixes the sections to read, including the section's own key, {@code /} for all keys.
+     * @param headers the current request's headers, used for evaluating {@code Accept-Encoding}.
+     * @return the values found, binary encoded.
+     */
+    @POST
+    @Path("/batch")
+    @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+    @Produces(KeyValueWriter.MEDIA_TYPE)
+    public Response postBatchBinary(@FormParam("key") List<String> keys,
+                                    @FormParam("prefix") List<String> prefixes, @Context HttpHeaders headers) {
+        return readBatchBinary(keys, prefixes, headers);
     }
 
     @PUT
     @Path("/v2/keys/{key}")
-    public String writeEtcdConfig(@PathParam("key") String key, @javax.ws.rs.FormParam("value") String value,
-                                  @FormParam("ttl") Integer ttl) {
-        return writeConfig(key, value, ttl);
+    public Response writeEtcdConfig(@PathParam("key") String key, @FormParam("value") String value,
+                                    @FormParam("ttl") Integer ttl, @QueryParam("prevValue") String prevValue,
+                                    @QueryParam("prevIndex") Long prevIndex,
+                                    @QueryParam("prevExist") Boolean prevExist) {
+        return writeConfig(key, value, ttl, prevValue, prevIndex, prevExist);
     }
 
     /**
@@ -183,128 +453,618 @@ public class ConfigurationResource {
      * }
      * }
      * </pre>
+     * Values written overlay the configuration's values, until the configuration value changes.
      *
      * @param key name of the key to show
      * @param value configuration value for the given key
-     * @param ttl time to live
-     * @return written configuration value.
+     * @param ttl time to live in seconds, optional.
+     * @param prevValue if set, the value is only written, if the current value is equal (compare and swap).
+     * @param prevIndex if set, the value is only written, if the current modification index is equal
+     *                  (compare and swap).
+     * @param prevExist if set, the value is only written, if the key exists (true) or does not exist (false).
+     * @return written configuration value, or the etcd error.
      */
     @PUT
     @Path("/keys/{key}")
-    public String writeConfig(@PathParam("key") String key, @javax.ws.rs.FormParam("value") String value,
-                              @FormParam("ttl") Integer ttl) {
-        writeCounter.incrementAndGet();
-        final Configuration config = Configuration.current();
-        if (key.startsWith("/")) {
-            key = key.substring(1);
-        }
-        final Node prevNode = new Node(config, key, "prevNode");
-        // TODO implement write! value and ttl as input
-        final Node node = new Node(config, key, "node");
-        final JsonObjectBuilder root = Json.createObjectBuilder().add("action", "set")
-                .add("node", node.createJsonObject())
-                .add("prevNode", prevNode.createJsonObject());
-        final StringWriter writer = new StringWriter();
-        final JsonWriter jwriter = Json.createWriter(writer);
-        jwriter.writeObject(root.build());
-        return writer.toString();
+    public Response writeConfig(@PathParam("key") String key, @FormParam("value") String value,
+                                @FormParam("ttl") Integer ttl, @QueryParam("prevValue") String prevValue,
+                                @QueryParam("prevIndex") Long prevIndex, @QueryParam("prevExist") Boolean prevExist) {
+        writeCounter.increment();
+        final ServerMetrics.Sample sample = metrics.start("writeConfig");
+        try {
+            getIndex();
+            final ConfigStore.Change change = store.set(normalizeKey(key), value, ttl, prevValue, prevIndex,
+                    prevExist);
+            return changeResponse(change, change.getPrevNode() == null ? 201 : 200, sample);
+        } catch (final StoreException e) {
+            return errorResponse(e, sample);
+        } catch (final RuntimeException e) {
+            sample.stop(500, 0L);
+            throw e;
+        }
     }
 
     @DELETE
     @Path("/v2/keys/{key}")
-    public String deleteEtcdConfig(@PathParam("key") String key) {
-        return deleteConfig(key);
+    public Response deleteEtcdConfig(@PathParam("key") String key, @QueryParam("recursive") Boolean recursive,
+                                     @QueryParam("prevValue") String prevValue,
+                                     @QueryParam("prevIndex") Long prevIndex) {
+        return deleteConfig(key, recursive, prevValue, prevIndex);
     }
 
+    /**
+     * This models a etcd2 compliant access point for deleting a property value.
+     *
+     * @param key name of the key to delete
+     * @param recursive if true, all values of the key's section are deleted as well.
+     * @param prevValue if set, the key is only deleted, if the current value is equal (compare and delete).
+     * @param prevIndex if set, the key is only deleted, if the current modification index is equal
+     *                  (compare and delete).
+     * @return the deleted configuration value, or the etcd error.
+     */
     @DELETE
     @Path("/keys/{key}")
-    public String deleteConfig(@PathParam("key") String key) {
-        deleteCounter.incrementAndGet();
-        final Configuration config = Configuration.current();
-        if (key.startsWith("/")) {
-            key = key.substring(1);
-        }
-        final Node prevNode = new Node(config, key, "prevNode");
-        // TODO implement write! value and ttl as input
-        final Node node = new Node(config, key, "node");
-        final JsonObjectBuilder root = Json.createObjectBuilder().add("action", "delete")
-                .add("node", node.createJsonObject())
-                .add("prevNode", prevNode.createJsonObject());
+    public Response deleteConfig(@PathParam("key") String key, @QueryParam("recursive") Boolean recursive,
+                                 @QueryParam("prevValue") String prevValue, @QueryParam("prevIndex") Long prevIndex) {
+        deleteCounter.increment();
+        final ServerMetrics.Sample sample = metrics.start("deleteConfig");
+        try {
+            getIndex();
+            return changeResponse(store.delete(normalizeKey(key), Boolean.TRUE.equals(recursive), prevValue,
+                    prevIndex), 200, sample);
+        } catch (final StoreException e) {
+            return errorResponse(e, sample);
+        } catch (final RuntimeException e) {
+            sample.stop(500, 0L);
+            throw e;
+        }
+    }
+
+    /**
+     * Registers a watch, resuming the response with the first matching change. The watch is removed, when the
+     * response completes otherwise, e.g. by a timeout.
+     *
+     * @param key the key or section to watch, the empty string for all keys.
+     * @param recursive if true, changes of all keys of the section are reported.
+     * @param waitIndex the index to start watching from, or null.
+     * @param response the suspended response, not null.
+     */
+    private void watch(String key, boolean recursive, Long waitIndex, AsyncResponse response) {
+        readCounter.increment();
+        final ServerMetrics.Sample sample = metrics.start("watch");
+        final WatchHub.Watch watch;
+        try {
+            getIndex();
+            startConfigSync();
+            watch = store.watch(key, recursive, waitIndex,
+                    change -> response.resume(changeResponse(change, 200, sample)));
+        } catch (final StoreException e) {
+            response.resume(errorResponse(e, sample));
+            return;
+        } catch (final RuntimeException e) {
+            sample.stop(500, 0L);
+            throw e;
+        }
+        response.register((CompletionCallback) throwable -> {
+            watch.cancel();
+            // only recorded, if not answered by a change
+            sample.stop(500, 0L);
+        });
+        response.setTimeoutHandler(suspended -> {
+            if (watch.cancel()) {
+                sample.stop(503, 0L);
+                suspended.cancel();
+            }
+        });
+        response.setTimeout(WATCH_TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Starts checking the configuration for changes periodically, so watchers are notified of configuration
+     * changes even if no other requests arrive.
+     */
+    private void startConfigSync() {
+        if (configWatched.compareAndSet(false, true)) {
+            configSyncTask = CONFIG_SYNC_EXECUTOR.scheduleWithFixedDelay(() -> {
+                try {
+                    getIndex();
+                } catch (final RuntimeException e) {
+                    LOG.log(Level.WARNING, "Failed to check the configuration for changes.", e);
+                }
+            }, CONFIG_CHECK_INTERVAL, CONFIG_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Creates the etcd compliant response of a change.
+     *
+     * @param change the change applied, not null.
+     * @param status the HTTP status.
+     * @param sample the request's metrics sample to be stopped, not null.
+     * @return the response, never null.
+     */
+    private Response changeResponse(ConfigStore.Change change, int status, ServerMetrics.Sample sample) {
+        final long now = System.currentTimeMillis();
         final StringWriter writer = new StringWriter();
-        final JsonWriter jwriter = Json.createWriter(writer);
-        jwriter.writeObject(root.build());
-        return writer.toString();
+        final JsonGenerator gen = GENERATOR_FACTORY.createGenerator(writer);
+        gen.writeStartObject().write("action", change.getAction()).writeStartObject("node");
+        writeNodeFields(gen, change.getNode(), now);
+        gen.writeEnd();
+        if (change.getPrevNode() != null) {
+            gen.writeStartObject("prevNode");
+            writeNodeFields(gen, change.getPrevNode(), now);
+            gen.writeEnd();
+        }
+        gen.writeEnd();
+        gen.close();
+        final String body = writer.toString();
+        sample.stop(status, body.length());
+        return Response.status(status).entity(body).type(MediaType.APPLICATION_JSON)
+                .header(ETCD_INDEX_HEADER, store.getIndex()).build();
     }
 
-    public long getDeleteCounter() {
-        return deleteCounter.get();
+    /**
+     * Creates the etcd compliant error response.
+     *
+     * @param e the error, not null.
+     * @param sample the request's metrics sample to be stopped, not null.
+     * @return the response, never null.
+     */
+    private static Response errorResponse(StoreException e, ServerMetrics.Sample sample) {
+        final StringWriter writer = new StringWriter();
+        final JsonGenerator gen = GENERATOR_FACTORY.createGenerator(writer);
+        gen.writeStartObject()
+                .write("errorCode", e.getErrorCode())
+                .write("message", e.getErrorMessage())
+                .write("cause", e.getErrorCause())
+                .write("index", e.getIndex())
+                .writeEnd();
+        gen.close();
+        final String body = writer.toString();
+        sample.stop(e.getStatus(), body.length());
+        return Response.status(e.getStatus()).entity(body).type(MediaType.APPLICATION_JSON)
+                .header(ETCD_INDEX_HEADER, e.getIndex()).build();
     }
 
-    public long getReadCounter() {
-        return readCounter.get();
+    /**
+     * Writes the etcd compliant JSON representation of a key or section. The document is generated as a stream,
+     * so memory usage does not depend on the number of nodes written.
+     *
+     * @param index the index to read from, not null.
+     * @param key the key, or null for all keys.
+     * @param recursive if true, the section's values are returned, even if a value exists for the key.
+     * @param out the target stream, not null. The stream is flushed, but not closed.
+     */
+    private static void writeJson(ConfigIndex index, String key, boolean recursive, OutputStream out) {
+        final long now = System.currentTimeMillis();
+        final JsonGenerator gen = GENERATOR_FACTORY.createGenerator(out, StandardCharsets.UTF_8);
+        gen.writeStartObject().write("action", "get").writeStartObject("node");
+        final ConfigNode node = key == null ? null : index.getNode(key);
+        if (key == null) {
+            gen.write("dir", true);
+        } else if (node == null) {
+            gen.write("key", '/' + key);
+        } else {
+            writeNodeFields(gen, node, now);
+        }
+        if (node == null || recursive) {
+            final Map<String, ConfigNode> children = key == null ? index.getNodes() : index.getSection(key);
+            gen.writeStartArray("nodes");
+            for (final ConfigNode child : children.values()) {
+                gen.writeStartObject();
+                writeNodeFields(gen, child, now);
+                gen.writeEnd();
+            }
+            gen.writeEnd();
+        }
+        gen.writeEnd().writeEnd();
+        gen.flush();
     }
 
-    public long getWriteCounter() {
-        return writeCounter.get();
+    /**
+     * Writes the etcd compliant JSON representation of the nodes selected by a batch request, as a directory node
+     * listing the nodes.
+     *
+     * @param nodes the nodes, not null.
+     * @param out the target stream, not null. The stream is flushed, but not closed.
+     */
+    private static void writeBatchJson(Collection<ConfigNode> nodes, OutputStream out) {
+        final long now = System.currentTimeMillis();
+        final JsonGenerator gen = GENERATOR_FACTORY.createGenerator(out, StandardCharsets.UTF_8);
+        gen.writeStartObject().write("action", "get").writeStartObject("node").write("dir", true)
+                .writeStartArray("nodes");
+        for (final ConfigNode node : nodes) {
+            gen.writeStartObject();
+            writeNodeFields(gen, node, now);
+            gen.writeEnd();
+        }
+        gen.writeEnd().writeEnd().writeEnd();
+        gen.flush();
     }
 
     /**
-     * Internal representation of a configuration node as modeled by etc.
+     * Writes the binary key/value representation of a key or section.
+     *
+     * @param index the index to read from, not null.
+     * @param key the key, or null for all keys.
+     * @param recursive if true, the section's values are returned, even if a value exists for the key.
+     * @param out the target stream, not null. The stream is flushed, but not closed.
+     * @throws IOException if writing fails.
      */
-    private static final class Node {
-        private Integer createdIndex;
-        private Integer modifiedIndex;
-        private final String key;
-        private String value;
-        private final String nodeId;
-        private Integer ttl;
-        private String expiration;
-        private final JsonArray nodes;
+    private static void writeBinary(ConfigIndex index, String key, boolean recursive, OutputStream out)
+            throws IOException {
+        if (key == null) {
+            KeyValueWriter.write(index.getNodes().values(), out);
+            return;
+        }
+        final ConfigNode node = index.getNode(key);
+        if (node != null && !recursive) {
+            KeyValueWriter.write(Collections.singletonList(node), out);
+        } else {
+            KeyValueWriter.write(index.getSection(key).values(), out);
+        }
+    }
 
-        Node(Configuration config, String key, String nodeId) {
-            this(config, key, nodeId, null);
+    /**
+     * Writes the fields of an etcd node.
+     *
+     * @param gen the generator, not null.
+     * @param node the node, not null.
+     * @param now the current time in milliseconds, used for evaluating the remaining TTL.
+     */
+    private static void writeNodeFields(JsonGenerator gen, ConfigNode node, long now) {
+        gen.write("key", '/' + node.getKey());
+        if (!node.isDeleted()) {
+            gen.write("value", node.getValue());
         }
+        if (node.getExpiration() != 0L) {
+            gen.write("expiration", node.getExpirationString());
+            gen.write("ttl", node.getTtl(now));
+        }
+        gen.write("modifiedIndex", node.getModifiedIndex());
+        gen.write("createdIndex", node.getCreatedIndex());
+    }
 
-        Node(Configuration config, String key, String nodeId, JsonArray nodes) {
-            this.key = key;
-            this.nodeId = Objects.requireNonNull(nodeId);
-            if (key != null) {
-                value = config.get(key);
-                createdIndex = config.getOrDefault("_" + key + ".createdIndex", Integer.class, null);
-                modifiedIndex = config.getOrDefault("_" + key + ".modifiedIndex", Integer.class, null);
-                ttl = config.getOrDefault("_" + key + ".ttl", Integer.class, null);
-                expiration = config.getOrDefault("_" + key + ".expiration", null);
-            }
-            this.nodes = nodes;
+    /**
+     * Returns the response for the current configuration revision. Responses with up to
+     * {@link #STREAMING_THRESHOLD} nodes are serialized only once per revision and cached, larger responses are
+     * streamed directly to the client, gzip compressed, if the client accepts it. If the client already has the
+     * current representation ({@code If-None-Match}), {@code 304 Not Modified} is returned. All cached responses
+     * are dropped at once, when the revision changes.
+     *
+     * @param endpoint the endpoint name the request is recorded for, not null.
+     * @param request the current request, or null.
+     * @param headers the current request's headers, or null.
+     * @param key the key requested, or null for all keys.
+     * @param recursive the recursive flag requested.
+     * @param mediaType the media type of the response, not null.
+     * @param writer the writer creating the response body from the index, not null.
+     * @return the response, never null.
+     */
+    private Response cachedResponse(String endpoint, Request request, HttpHeaders headers, String key,
+                                    boolean recursive, String mediaType, BodyWriter writer) {
+        final ServerMetrics.Sample sample = metrics.start(endpoint);
+        try {
+            return cachedResponse(sample, request, headers, key, recursive, mediaType, writer);
+        } catch (final RuntimeException e) {
+            sample.stop(500, 0L);
+            throw e;
         }
+    }
 
-        JsonObject createJsonObject() {
-            final JsonObjectBuilder nodeBuilder = Json.createObjectBuilder();
-            if (key != null) {
-                nodeBuilder.add("key", '/' + key);
-            } else {
-                nodeBuilder.add("dir", true);
+    private Response cachedResponse(ServerMetrics.Sample sample, Request request, HttpHeaders headers, String key,
+                                    boolean recursive, String mediaType, BodyWriter writer) {
+        final ConfigIndex index = getIndex();
+        ResponseCache cache = this.responseCache;
+        if (cache == null || cache.getRevision() < index.getRevision()) {
+            cache = new ResponseCache(store.getEpoch(), index.getRevision());
+            this.responseCache = cache;
+        } else if (cache.getRevision() > index.getRevision()) {
+            // outdated index, do not mix it into the current cache
+            cache = new ResponseCache(store.getEpoch(), index.getRevision());
+        }
+        metrics.recordCacheLookup();
+        final ResponseCache.Entry entry = cache.get(key, recursive, mediaType, () -> {
+            metrics.recordCacheMiss();
+            return serialize(index, key, recursive, writer);
+        });
+        final boolean gzip = entry.getBody() == null && acceptsGzip(headers);
+        final EntityTag entityTag = gzip ? new EntityTag(entry.getEntityTag().getValue() + "-gzip")
+                : entry.getEntityTag();
+        if (request != null) {
+            final Response.ResponseBuilder notModified = request.evaluatePreconditions(entityTag);
+            if (notModified != null) {
+                sample.stop(304, 0L);
+                return notModified.tag(entityTag).header("Vary", "Accept, Accept-Encoding").build();
             }
-            if (value != null) {
-                nodeBuilder.add("value", value);
+        }
+        final Response.ResponseBuilder builder;
+        if (entry.getBody() != null) {
+            sample.stop(200, entry.getBody().length);
+            builder = Response.ok(entry.getBody(), mediaType);
+        } else {
+            builder = Response.ok(streamed(sample, gzip, out -> writer.write(index, key, recursive, out)),
+                    mediaType);
+            if (gzip) {
+                builder.header(HttpHeaders.CONTENT_ENCODING, "gzip");
             }
-            if (createdIndex != null) {
-                nodeBuilder.add("createdIndex", createdIndex.intValue());
+        }
+        return builder.tag(entityTag).header("Vary", "Accept, Accept-Encoding").build();
+    }
+
+    /**
+     * Returns the streamed response of a batch request. All nodes are read from the same snapshot.
+     *
+     * @param endpoint the endpoint name the request is recorded for, not null.
+     * @param keys the keys requested, or null.
+     * @param prefixes the sections requested, or null.
+     * @param headers the current request's headers, or null.
+     * @param mediaType the media type of the response, not null.
+     * @param writer the writer creating the response body, not null.
+     * @return the response, never null.
+     */
+    private Response batchResponse(String endpoint, List<String> keys, List<String> prefixes,
+                                   HttpHeaders headers, String mediaType, BatchWriter writer) {
+        readCounter.increment();
+        final ServerMetrics.Sample sample = metrics.start(endpoint);
+        try {
+            final ConfigIndex index = getIndex();
+            final Collection<ConfigNode> nodes = index.select(normalizeKeys(keys), normalizeKeys(prefixes));
+            final boolean gzip = acceptsGzip(headers);
+            final Response.ResponseBuilder builder = Response.ok(streamed(sample, gzip,
+                    out -> writer.write(nodes, out)), mediaType);
+            if (gzip) {
+                builder.header(HttpHeaders.CONTENT_ENCODING, "gzip");
             }
-            if (modifiedIndex != null) {
-                nodeBuilder.add("modifiedIndex", modifiedIndex.intValue());
+            return builder.header(ETCD_INDEX_HEADER, index.getRevision())
+                    .header("Vary", "Accept, Accept-Encoding").build();
+        } catch (final RuntimeException e) {
+            sample.stop(500, 0L);
+            throw e;
+        }
+    }
+
+    /**
+     * Access point exposing the server's request metrics in the Prometheus text exposition format.
+     *
+     * @return the metrics.
+     */
+    @GET
+    @Path("/metrics")
+    @Produces(ServerMetrics.TEXT_MEDIA_TYPE)
+    public Response readMetrics() {
+        return Response.ok((StreamingOutput) out -> metrics.writeText(
+                new OutputStreamWriter(out, StandardCharsets.UTF_8)), ServerMetrics.TEXT_MEDIA_TYPE).build();
+    }
+
+    /**
+     * Creates a streamed response body, gzip compressed if requested. The request's sample is stopped, when the
+     * body is written completely.
+     *
+     * @param sample the request's metrics sample, not null.
+     * @param gzip if true, the body is gzip compressed.
+     * @param body the body writer, not null. The stream passed counts the uncompressed bytes written.
+     * @return the streamed response body, never null.
+     */
+    private static StreamingOutput streamed(ServerMetrics.Sample sample, boolean gzip, StreamBody body) {
+        return out -> {
+            final GZIPOutputStream gzipOut = gzip ? new GZIPOutputStream(out, 8192) : null;
+            final CountingOutputStream counter = new CountingOutputStream(gzip ? gzipOut
+                    : new BufferedOutputStream(out, 8192));
+            boolean completed = false;
+            try {
+                body.write(counter);
+                if (gzipOut != null) {
+                    gzipOut.finish();
+                }
+                completed = true;
+            } finally {
+                sample.stop(completed ? 200 : 500, counter.count);
             }
-            if (ttl != null) {
-                nodeBuilder.add("ttl", ttl.intValue());
+        };
+    }
+
+    /**
+     * Serializes a response to be cached.
+     *
+     * @return the serialized response, or null, if the response is too large to be cached.
+     */
+    private static byte[] serialize(ConfigIndex index, String key, boolean recursive, BodyWriter writer) {
+        final Map<String, ConfigNode> children;
+        if (key == null) {
+            children = index.getNodes();
+        } else if (index.getNode(key) != null && !recursive) {
+            children = Collections.emptyMap();
+        } else {
+            children = index.getSection(key);
+        }
+        int count = 0;
+        for (final Iterator<String> it = children.keySet().iterator(); it.hasNext(); it.next()) {
+            if (++count > STREAMING_THRESHOLD) {
+                return null;
             }
-            if (expiration != null) {
-                nodeBuilder.add("expiration", value);
+        }
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream(256 + count * 64);
+        try {
+            writer.write(index, key, recursive, bos);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bos.toByteArray();
+    }
+
+    private static boolean acceptsGzip(HttpHeaders headers) {
+        if (headers == null) {
+            return false;
+        }
+        final String acceptEncoding = headers.getHeaderString(HttpHeaders.ACCEPT_ENCODING);
+        return acceptEncoding != null && acceptEncoding.toLowerCase(Locale.ENGLISH).contains("gzip");
+    }
+
+    private static String normalizeKey(String key) {
+        if (key != null && key.startsWith("/")) {
+            return key.substring(1);
+        }
+        return key;
+    }
+
+    /**
+     * Normalizes the keys or sections of a batch request, removing leading {@code '/'} and trailing {@code '.'}.
+     */
+    private static List<String> normalizeKeys(List<String> keys) {
+        if (keys == null) {
+            return Collections.emptyList();
+        }
+        final List<String> normalized = new ArrayList<>(keys.size());
+        for (final String key : keys) {
+            String value = normalizeKey(key.trim());
+            while (value.endsWith(".")) {
+                value = value.substring(0, value.length() - 1);
             }
-            if (nodes != null) {
-                nodeBuilder.add("nodes", nodes);
+            normalized.add(value);
+        }
+        return normalized;
+    }
+
+    /**
+     * Creates the store, which is journaled to the directory configured by the system property
+     * {@code tamaya.server.data.dir}, namespaces to its subdirectory {@code ns/<namespace>}. Without a data
+     * directory, written values are lost on restart.
+     *
+     * @param namespace the namespace, or null.
+     * @return the store, never null.
+     */
+    private static ConfigStore createStore(String namespace) {
+        final String dataDir = System.getProperty(ConfigJournal.DATA_DIR_PROP);
+        if (dataDir == null) {
+            return new ConfigStore();
+        }
+        try {
+            return new ConfigStore(System::currentTimeMillis, new ConfigJournal(
+                    namespace == null ? Paths.get(dataDir) : Paths.get(dataDir, "ns", namespace),
+                    ConfigJournal.DEFAULT_SNAPSHOT_INTERVAL));
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Failed to open the data directory " + dataDir, e);
+        }
+    }
+
+    /**
+     * Get the snapshot of the current store state. At most once per check interval the configuration is checked
+     * for changes, which are applied to the store. Only one request performs the check, all other requests
+     * continue using the current snapshot meanwhile.
+     *
+     * @return the snapshot to be used, never null.
+     */
+    private ConfigIndex getIndex() {
+        if (System.currentTimeMillis() >= nextConfigCheck) {
+            if (nextConfigCheck == 0L) {
+                // the store must be initialized before the first request is answered
+                synchronized (store) {
+                    if (nextConfigCheck == 0L) {
+                        syncConfiguration();
+                        nextConfigCheck = System.currentTimeMillis() + CONFIG_CHECK_INTERVAL;
+                    }
+                }
+            } else if (configSyncing.compareAndSet(false, true)) {
+                try {
+                    syncConfiguration();
+                    nextConfigCheck = System.currentTimeMillis() + CONFIG_CHECK_INTERVAL;
+                } finally {
+                    configSyncing.set(false);
+                }
             }
-            return nodeBuilder.build();
         }
+        return store.snapshot();
+    }
+
+    /**
+     * Applies the current configuration to the store and, for the current configuration's resource, updates the
+     * namespaces listed.
+     */
+    private void syncConfiguration() {
+        final Map<String, String> properties = configuration.get().getProperties();
+        store.syncConfiguration(properties);
+        if (namespaces != null) {
+            updateNamespaceNames(properties.get(NAMESPACES_KEY));
+        }
+    }
+
+    public long getDeleteCounter() {
+        return deleteCounter.sum();
+    }
+
+    public long getReadCounter() {
+        return readCounter.sum();
+    }
+
+    public long getWriteCounter() {
+        return writeCounter.sum();
     }
 
+    /**
+     * Stops synchronizing the configuration and closes the store.
+     */
+    void close() {
+        final ScheduledFuture<?> task = configSyncTask;
+        if (task != null) {
+            task.cancel(false);
+        }
+        store.close();
+    }
+
+    /**
+     * Get the request metrics of this resource, shared by all namespaces.
+     *
+     * @return the metrics, never null.
+     */
+    ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Writes a streamed response body.
+     */
+    @FunctionalInterface
+    private interface StreamBody {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Output stream counting the bytes written.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Writes a response body for the nodes of a batch request.
+     */
+    @FunctionalInterface
+    private interface BatchWriter {
+        void write(Collection<ConfigNode> nodes, OutputStream out) throws IOException;
+    }
+
+    /**
+     * Writes a response body for a key or section.
+     */
+    @FunctionalInterface
+    private interface BodyWriter {
+        void write(ConfigIndex index, String key, boolean recursive, OutputStream out) throws IOException;
+    }
 }
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request metrics of a configuration server endpoint: request and error counts, requests in flight, a latency
+ * histogram in microseconds and a response size histogram in bytes. All updates are contention-free.
+ */
+final class EndpointMetrics implements EndpointMetricsMBean {
+
+    private final String name;
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final Histogram latencies = new Histogram();
+    private final Histogram responseSizes = new Histogram();
+
+    EndpointMetrics(String name) {
+        this.name = Objects.requireNonNull(name);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void started() {
+        inFlight.increment();
+    }
+
+    /**
+     * Records a completed request.
+     * @param latencyNanos the request latency in nanoseconds.
+     * @param status the HTTP status.
+     * @param bytes the size of the response body, before compression.
+     */
+    void completed(long latencyNanos, int status, long bytes) {
+        inFlight.decrement();
+        latencies.record(latencyNanos / 1000L);
+        responseSizes.record(bytes);
+        if (status >= 400) {
+            errors.increment();
+        }
+    }
+
+    Histogram getLatencies() {
+        return latencies;
+    }
+
+    Histogram getResponseSizes() {
+        return responseSizes;
+    }
+
+    @Override
+    public long getRequestCount() {
+        return latencies.getCount();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getInFlight() {
+        return inFlight.sum();
+    }
+
+    @Override
+    public long getLatencyP50Micros() {
+        return latencies.getValueAtPercentile(0.5);
+    }
+
+    @Override
+    public long getLatencyP99Micros() {
+        return latencies.getValueAtPercentile(0.99);
+    }
+
+    @Override
+    public long getLatencyMaxMicros() {
+        return latencies.getMax();
+    }
+
+    @Override
+    public long getResponseBytes() {
+        return responseSizes.getSum();
+    }
+
+    @Override
+    public long getResponseSizeP99() {
+        return responseSizes.getValueAtPercentile(0.99);
+    }
+
+    @Override
+    public String toString() {
+        return "EndpointMetrics{name=" + name + ", requests=" + getRequestCount() + ", errors=" + getErrorCount()
+                + ", inFlight=" + getInFlight() + ", p99=" + getLatencyP99Micros() + "us}";
+    }
+}
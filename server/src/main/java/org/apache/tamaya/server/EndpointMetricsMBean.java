@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+/**
+ * JMX view of the request metrics of a configuration server endpoint, registered as
+ * {@code org.apache.tamaya.server:type=ServerMetrics,endpoint=<name>}.
+ */
+public interface EndpointMetricsMBean {
+
+    /**
+     * Get the number of requests completed.
+     * @return the number of requests.
+     */
+    long getRequestCount();
+
+    /**
+     * Get the number of requests answered with an error status (4xx, 5xx).
+     * @return the number of failed requests.
+     */
+    long getErrorCount();
+
+    /**
+     * Get the number of requests currently processed, including suspended watches.
+     * @return the number of requests in flight.
+     */
+    long getInFlight();
+
+    /**
+     * Get the median request latency.
+     * @return the latency in microseconds.
+     */
+    long getLatencyP50Micros();
+
+    /**
+     * Get the 99th percentile of the request latency.
+     * @return the latency in microseconds.
+     */
+    long getLatencyP99Micros();
+
+    /**
+     * Get the largest request latency.
+     * @return the latency in microseconds.
+     */
+    long getLatencyMaxMicros();
+
+    /**
+     * Get the overall number of response body bytes sent, before compression.
+     * @return the number of bytes.
+     */
+    long getResponseBytes();
+
+    /**
+     * Get the 99th percentile of the response body size, before compression.
+     * @return the size in bytes.
+     */
+    long getResponseSizeP99();
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative values with log-linear buckets, similar to HdrHistogram: each power of two
+ * is divided into {@value #SUB_BUCKETS} linear buckets, so recorded values are resolved with a relative error
+ * below 12.5%, using a fixed, small array for the whole range of {@code long} values up to 2<sup>40</sup>.
+ * Larger values are counted in the last bucket. Recording is a single atomic increment per bucket, plus
+ * contention-free count, sum and maximum updates.
+ */
+final class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    /** Number of linear buckets per power of two. */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** Highest power of two resolved. */
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    /**
+     * Records a value.
+     * @param value the value, negative values are recorded as 0.
+     */
+    void record(long value) {
+        final long v = Math.max(0L, value);
+        counts.incrementAndGet(bucket(v));
+        count.increment();
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    /**
+     * Get the number of values recorded.
+     * @return the number of values.
+     */
+    long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Get the sum of all values recorded.
+     * @return the sum.
+     */
+    long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Get the largest value recorded.
+     * @return the maximum, 0 if no values were recorded.
+     */
+    long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Get an upper bound of the given percentile.
+     * @param percentile the percentile, e.g. {@code 0.99}.
+     * @return the highest value of the bucket containing the percentile, but at most the maximum recorded, or
+     *         0 if no values were recorded.
+     */
+    long getValueAtPercentile(double percentile) {
+        final long[] snapshot = snapshot();
+        long total = 0L;
+        for (final long c : snapshot) {
+            total += c;
+        }
+        if (total == 0L) {
+            return 0L;
+        }
+        final long threshold = Math.max(1L, (long) Math.ceil(total * percentile));
+        long seen = 0L;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= threshold) {
+                return Math.min(highestValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Get the number of values recorded, which are less than or equal to the given bound. Values of the bucket
+     * containing the bound are only counted, if the bound is the bucket's highest value, e.g. {@code 2^n-1}, so
+     * the count may be too low by the resolution of the histogram.
+     * @param bound the bound.
+     * @return the number of values up to the bound.
+     */
+    long getCountAtOrBelow(long bound) {
+        long result = 0L;
+        for (int i = 0; i < BUCKET_COUNT && highestValue(i) <= bound; i++) {
+            result += counts.get(i);
+        }
+        return result;
+    }
+
+    private long[] snapshot() {
+        final long[] snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+    static int bucket(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        final int bucket = shift * SUB_BUCKETS + (int) (value >>> shift);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    static long highestValue(int bucket) {
+        if (bucket == BUCKET_COUNT - 1) {
+            return Long.MAX_VALUE;
+        }
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = bucket / SUB_BUCKETS - 1;
+        final long top = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+}
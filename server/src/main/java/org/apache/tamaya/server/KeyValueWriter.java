@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Writer for the compact binary key/value format ({@code application/x-tamaya-kv}) as read by the
+ * remote property sources. The format is defined as follows (all integers are big-endian 32 bit values,
+ * strings are UTF-8 encoded):
+ * <pre>
+ *     magic       int ('TKV1')
+ *     count       int
+ *     count times:
+ *       keyLength   int
+ *       key         byte[keyLength]
+ *       valueLength int
+ *       value       byte[valueLength]
+ * </pre>
+ */
+final class KeyValueWriter {
+
+    /** The media type of the binary key/value format. */
+    static final String MEDIA_TYPE = "application/x-tamaya-kv";
+
+    /** The magic header, {@code 'TKV1'}. */
+    private static final int MAGIC = 0x544B5631;
+
+    private KeyValueWriter(){}
+
+    /**
+     * Encodes the given properties.
+     * @param properties the properties, not null.
+     * @return the encoded bytes.
+     */
+    static byte[] write(Collection<? extends Map.Entry<String,String>> properties){
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(properties.size() * 32 + 8);
+        try {
+            write(properties, bos);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Writes the given properties to the given output stream, entries with null values are ignored.
+     * @param properties the properties, not null.
+     * @param outputStream the target stream, not null. The stream is flushed, but not closed.
+     * @throws IOException if writing fails.
+     */
+    static void write(Collection<? extends Map.Entry<String,String>> properties, OutputStream outputStream)
+            throws IOException {
+        int count = 0;
+        for(Map.Entry<String,String> en:properties){
+            if(en.getValue()!=null){
+                count++;
+            }
+        }
+        DataOutputStream out = new DataOutputStream(outputStream);
+        out.writeInt(MAGIC);
+        out.writeInt(count);
+        for(Map.Entry<String,String> en:properties){
+            if(en.getValue()!=null) {
+                writeString(out, en.getKey());
+                writeString(out, en.getValue());
+            }
+        }
+        out.flush();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
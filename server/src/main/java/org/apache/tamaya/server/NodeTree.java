@@ -0,0 +1,385 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * Persistent (immutable) AVL tree of {@link ConfigNode}s sorted by key. Updates copy only the path to the node
+ * changed, i.e. {@code O(log n)} nodes, all other nodes are shared with the previous version. So each write can
+ * publish a new version, while readers keep using the version they obtained without any locking.
+ */
+final class NodeTree {
+
+    /** The empty tree. */
+    static final NodeTree EMPTY = new NodeTree(null);
+
+    private final Node root;
+
+    private NodeTree(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Get the node of the given key.
+     * @param key the key, not null.
+     * @return the node, or null.
+     */
+    ConfigNode get(String key) {
+        Node node = root;
+        while (node != null) {
+            final int cmp = key.compareTo(node.value.getKey());
+            if (cmp == 0) {
+                return node.value;
+            }
+            node = cmp < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    /**
+     * Adds or replaces the node with the given node's key.
+     * @param value the node, not null.
+     * @return the new tree, this tree is not changed.
+     */
+    NodeTree put(ConfigNode value) {
+        return new NodeTree(put(root, value));
+    }
+
+    /**
+     * Removes the node with the given key.
+     * @param key the key, not null.
+     * @return the new tree, or this tree, if the key is not contained.
+     */
+    NodeTree remove(String key) {
+        final Node newRoot = remove(root, key);
+        return newRoot == root ? this : new NodeTree(newRoot);
+    }
+
+    /**
+     * Get the number of nodes.
+     * @return the number of nodes.
+     */
+    int size() {
+        return size(root);
+    }
+
+    /**
+     * Get a read-only, sorted map view of this tree.
+     * @return the map view, never null.
+     */
+    SortedMap<String, ConfigNode> asMap() {
+        return new MapView(null, null);
+    }
+
+    private static Node put(Node node, ConfigNode value) {
+        if (node == null) {
+            return new Node(value, null, null);
+        }
+        final int cmp = value.getKey().compareTo(node.value.getKey());
+        if (cmp == 0) {
+            return new Node(value, node.left, node.right);
+        }
+        return cmp < 0 ? balance(node.value, put(node.left, value), node.right)
+                : balance(node.value, node.left, put(node.right, value));
+    }
+
+    private static Node remove(Node node, String key) {
+        if (node == null) {
+            return null;
+        }
+        final int cmp = key.compareTo(node.value.getKey());
+        if (cmp < 0) {
+            final Node left = remove(node.left, key);
+            return left == node.left ? node : balance(node.value, left, node.right);
+        }
+        if (cmp > 0) {
+            final Node right = remove(node.right, key);
+            return right == node.right ? node : balance(node.value, node.left, right);
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        Node min = node.right;
+        while (min.left != null) {
+            min = min.left;
+        }
+        return balance(min.value, node.left, removeMin(node.right));
+    }
+
+    private static Node removeMin(Node node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        return balance(node.value, removeMin(node.left), node.right);
+    }
+
+    /**
+     * Creates a node from subtrees, whose heights differ by at most two, rotating if required.
+     */
+    private static Node balance(ConfigNode value, Node left, Node right) {
+        final int leftHeight = height(left);
+        final int rightHeight = height(right);
+        if (leftHeight > rightHeight + 1) {
+            if (height(left.left) >= height(left.right)) {
+                return new Node(left.value, left.left, new Node(value, left.right, right));
+            }
+            return new Node(left.right.value, new Node(left.value, left.left, left.right.left),
+                    new Node(value, left.right.right, right));
+        }
+        if (rightHeight > leftHeight + 1) {
+            if (height(right.right) >= height(right.left)) {
+                return new Node(right.value, new Node(value, left, right.left), right.right);
+            }
+            return new Node(right.left.value, new Node(value, left, right.left.left),
+                    new Node(right.value, right.left.right, right.right));
+        }
+        return new Node(value, left, right);
+    }
+
+    private static int height(Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    /**
+     * Evaluates the number of keys lower than the given key.
+     * @param key the key, or null for the number of all keys.
+     */
+    private int rank(String key) {
+        if (key == null) {
+            return size(root);
+        }
+        int rank = 0;
+        Node node = root;
+        while (node != null) {
+            if (key.compareTo(node.value.getKey()) <= 0) {
+                node = node.left;
+            } else {
+                rank += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+        return rank;
+    }
+
+    private static final class Node {
+        private final ConfigNode value;
+        private final Node left;
+        private final Node right;
+        private final int height;
+        private final int size;
+
+        Node(ConfigNode value, Node left, Node right) {
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+            this.size = size(left) + size(right) + 1;
+        }
+    }
+
+    /**
+     * In-order iterator over the nodes with keys in {@code [from, to)}.
+     */
+    private final class NodeIterator implements Iterator<ConfigNode> {
+        private final Deque<Node> path = new ArrayDeque<>();
+        private final String to;
+
+        NodeIterator(String from, String to) {
+            this.to = to;
+            Node node = root;
+            while (node != null) {
+                if (from == null || from.compareTo(node.value.getKey()) <= 0) {
+                    path.push(node);
+                    node = node.left;
+                } else {
+                    node = node.right;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !path.isEmpty() && (to == null || path.peek().value.getKey().compareTo(to) < 0);
+        }
+
+        @Override
+        public ConfigNode next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Node node = path.pop();
+            for (Node child = node.right; child != null; child = child.left) {
+                path.push(child);
+            }
+            return node.value;
+        }
+    }
+
+    /**
+     * Read-only map view of the nodes with keys in {@code [from, to)}, null bounds are unbounded.
+     */
+    private final class MapView extends AbstractMap<String, ConfigNode> implements SortedMap<String, ConfigNode> {
+        private final String from;
+        private final String to;
+
+        MapView(String from, String to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        private boolean inRange(String key) {
+            return (from == null || key.compareTo(from) >= 0) && (to == null || key.compareTo(to) < 0);
+        }
+
+        @Override
+        public ConfigNode get(Object key) {
+            return key instanceof String && inRange((String) key) ? NodeTree.this.get((String) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public int size() {
+            return rank(to) - (from == null ? 0 : rank(from));
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return !new NodeIterator(from, to).hasNext();
+        }
+
+        @Override
+        public Collection<ConfigNode> values() {
+            return new AbstractCollection<ConfigNode>() {
+                @Override
+                public Iterator<ConfigNode> iterator() {
+                    return new NodeIterator(from, to);
+                }
+
+                @Override
+                public int size() {
+                    return MapView.this.size();
+                }
+            };
+        }
+
+        @Override
+        public Set<Map.Entry<String, ConfigNode>> entrySet() {
+            return new AbstractSet<Map.Entry<String, ConfigNode>>() {
+                @Override
+                public Iterator<Map.Entry<String, ConfigNode>> iterator() {
+                    final Iterator<ConfigNode> nodes = new NodeIterator(from, to);
+                    return new Iterator<Map.Entry<String, ConfigNode>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return nodes.hasNext();
+                        }
+
+                        @Override
+                        public Map.Entry<String, ConfigNode> next() {
+                            final ConfigNode node = nodes.next();
+                            return new SimpleImmutableEntry<>(node.getKey(), node);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return MapView.this.size();
+                }
+            };
+        }
+
+        @Override
+        public Comparator<? super String> comparator() {
+            return null;
+        }
+
+        @Override
+        public SortedMap<String, ConfigNode> subMap(String fromKey, String toKey) {
+            if (fromKey.compareTo(toKey) > 0) {
+                throw new IllegalArgumentException("fromKey > toKey");
+            }
+            return new MapView(max(from, fromKey), min(to, toKey));
+        }
+
+        @Override
+        public SortedMap<String, ConfigNode> headMap(String toKey) {
+            return new MapView(from, min(to, toKey));
+        }
+
+        @Override
+        public SortedMap<String, ConfigNode> tailMap(String fromKey) {
+            return new MapView(max(from, fromKey), to);
+        }
+
+        @Override
+        public String firstKey() {
+            return new NodeIterator(from, to).next().getKey();
+        }
+
+        @Override
+        public String lastKey() {
+            ConfigNode last = null;
+            Node node = root;
+            while (node != null) {
+                if (to == null || node.value.getKey().compareTo(to) < 0) {
+                    last = node.value;
+                    node = node.right;
+                } else {
+                    node = node.left;
+                }
+            }
+            if (last == null || !inRange(last.getKey())) {
+                throw new NoSuchElementException();
+            }
+            return last.getKey();
+        }
+
+        private String min(String bound, String key) {
+            return bound == null || key.compareTo(bound) < 0 ? key : bound;
+        }
+
+        private String max(String bound, String key) {
+            return bound == null || key.compareTo(bound) > 0 ? key : bound;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import javax.ws.rs.core.EntityTag;
+
+/**
+ * Cache of serialized responses for one revision of the configuration index. Entries are keyed by
+ * (key, recursive, media type) and carry a strong entity tag. Responses too large to be kept in memory are
+ * cached without a body, so only their entity tag is reused and the body is streamed on each request.
+ * Entity tags consist of the store's epoch, the revision and a digest of the cache key and body, if cached.
+ * Since a restarted store counts its revisions again, the epoch prevents tags of a former process from
+ * matching a different representation.
+ * A cache is never invalidated entry by entry, instead it is replaced as a whole, when the index revision
+ * changes.
+ */
+final class ResponseCache {
+
+    /** Maximal number of cached responses, further responses are serialized per request. */
+    static final int MAX_ENTRIES = 4096;
+
+    private final String epoch;
+    private final long revision;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new, empty cache.
+     * @param epoch the epoch of the store the configuration index is read from, not null.
+     * @param revision the revision of the configuration index the cached responses are created from.
+     */
+    ResponseCache(String epoch, long revision) {
+        this.epoch = epoch;
+        this.revision = revision;
+    }
+
+    /**
+     * Get the revision of the configuration index the cached responses are created from.
+     * @return the revision.
+     */
+    long getRevision() {
+        return revision;
+    }
+
+    /**
+     * Get the cached response, serializing it, if not yet cached.
+     * @param key the key requested, or null for all keys.
+     * @param recursive the recursive flag requested.
+     * @param mediaType the media type of the response, not null.
+     * @param serializer the serializer used, if the response is not cached, not null. The serializer returns
+     *                   null, if the response should be streamed.
+     * @return the cached response, never null.
+     */
+    Entry get(String key, boolean recursive, String mediaType, Supplier<byte[]> serializer) {
+        final String cacheKey = mediaType + '|' + recursive + '|' + (key == null ? "" : '/' + key);
+        Entry entry = entries.get(cacheKey);
+        if (entry == null) {
+            entry = new Entry(epoch, revision, cacheKey, serializer.get());
+            if (entries.size() < MAX_ENTRIES) {
+                final Entry existing = entries.putIfAbsent(cacheKey, entry);
+                if (existing != null) {
+                    entry = existing;
+                }
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * A serialized response.
+     */
+    static final class Entry {
+        private final byte[] body;
+        private final EntityTag entityTag;
+
+        private Entry(String epoch, long revision, String cacheKey, byte[] body) {
+            this.body = body;
+            // the body of streamed responses is determined by epoch, revision and cache key
+            final MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (final NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 not supported.", e);
+            }
+            digest.update(cacheKey.getBytes(StandardCharsets.UTF_8));
+            if (body != null) {
+                digest.update(body);
+            }
+            final StringBuilder tag = new StringBuilder(epoch).append('-').append(Long.toHexString(revision))
+                    .append('-');
+            final byte[] hash = digest.digest();
+            for (int i = 0; i < 8; i++) {
+                tag.append(Character.forDigit((hash[i] >> 4) & 0xF, 16))
+                        .append(Character.forDigit(hash[i] & 0xF, 16));
+            }
+            this.entityTag = new EntityTag(tag.toString());
+        }
+
+        /**
+         * Get the serialized body, which must not be modified.
+         * @return the body, or null, if the response must be streamed.
+         */
+        byte[] getBody() {
+            return body;
+        }
+
+        /**
+         * Get the strong entity tag of the body.
+         * @return the entity tag, never null.
+         */
+        EntityTag getEntityTag() {
+            return entityTag;
+        }
+    }
+}
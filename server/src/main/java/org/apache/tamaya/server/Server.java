@@ -20,20 +20,30 @@ package org.apache.tamaya.server;
 
 import org.apache.catalina.Context;
 import org.apache.catalina.Wrapper;
+import org.apache.catalina.connector.Connector;
 import org.apache.catalina.startup.Tomcat;
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.ProtocolHandler;
 import org.apache.tamaya.Configuration;
-import org.apache.tamaya.ConfigurationProvider;
 
 import javax.ws.rs.core.Application;
 import java.io.File;
 import java.util.HashSet;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
- * Main Application for the Tamaya Configuration Server.
+ * Main Application for the Tamaya Configuration Server. The server's connector is tuned by the
+ * {@code tamaya.server.*} configuration keys, see {@link ServerOptions}.
  */
 public class Server {
 
+    private static final Logger LOG = Logger.getLogger(Server.class.getName());
+
     /**
      * Utility class.
      */
@@ -50,29 +60,93 @@ public class Server {
 
     public static void start(String contextPath, int port) throws Exception {
         Objects.requireNonNull(contextPath);
+        start(ServerOptions.of(Configuration.current(), contextPath, port)).getServer().await();
+    }
+
+    /**
+     * Starts the server without waiting for it to be stopped.
+     * @param options the server settings, not null.
+     * @return the running server, never null.
+     * @throws Exception if the server cannot be started.
+     */
+    static Tomcat start(ServerOptions options) throws Exception {
         String appBase = ".";
         Tomcat tomcat = new Tomcat();
-        tomcat.setPort(port);
+        tomcat.setPort(options.getPort());
+        tomcat.setConnector(createConnector(options));
+        tomcat.getService().addConnector(tomcat.getConnector());
 
         // Define a web application context.
-        Context context = tomcat.addWebapp(contextPath, new File(
+        Context context = tomcat.addWebapp(options.getContextPath(), new File(
                 appBase).getAbsolutePath());
         // Add servlet that will register Jersey REST resources
         String servletName = "cxf-servlet";
         Wrapper wrapper = tomcat.addServlet(context, servletName,
                 org.apache.cxf.jaxrs.servlet.CXFNonSpringJaxrsServlet.class.getName());
         wrapper.addInitParameter("javax.ws.rs.Application", ResourceLoader.class.getName());
+        // watches suspend their requests
+        wrapper.setAsyncSupported(true);
         context.addServletMapping("/*", servletName);
         tomcat.start();
-        tomcat.getServer().await();
+        LOG.info("Tamaya server started: " + options);
+        return tomcat;
+    }
+
+    /**
+     * Creates the HTTP connector. Properties not supported by the protocol handler are logged and ignored.
+     * @param options the server settings, not null.
+     * @return the connector, never null.
+     */
+    private static Connector createConnector(ServerOptions options) {
+        Connector connector = new Connector(options.getProtocol());
+        connector.setPort(options.getPort());
+        setProperty(connector, "maxConnections", options.getMaxConnections());
+        setProperty(connector, "acceptCount", options.getAcceptCount());
+        setProperty(connector, "minSpareThreads", options.getMinThreads());
+        setProperty(connector, "maxThreads", options.getMaxThreads());
+        setProperty(connector, "keepAliveTimeout", options.getKeepAliveTimeout());
+        setProperty(connector, "maxKeepAliveRequests", options.getMaxKeepAliveRequests());
+        setProperty(connector, "compression", options.getCompression());
+        setProperty(connector, "compressionMinSize", options.getCompressionMinSize());
+        setProperty(connector, "compressableMimeType", ServerOptions.COMPRESSED_MEDIA_TYPES);
+        if (options.isVirtualThreads()) {
+            Executor executor = virtualThreadExecutor();
+            ProtocolHandler handler = connector.getProtocolHandler();
+            if (executor == null) {
+                LOG.warning("Virtual threads are not supported by this JVM, using a thread pool.");
+            } else if (handler instanceof AbstractProtocol) {
+                ((AbstractProtocol<?>) handler).setExecutor(executor);
+            } else {
+                LOG.warning("Protocol " + options.getProtocol() + " does not support executors, using a thread pool.");
+            }
+        }
+        return connector;
+    }
+
+    private static void setProperty(Connector connector, String name, Object value) {
+        if (!connector.setProperty(name, String.valueOf(value))) {
+            LOG.warning("Connector property not supported: " + name + '=' + value);
+        }
+    }
+
+    /**
+     * Creates an executor starting a virtual thread per task. Virtual threads are looked up reflectively, so the
+     * server still runs on JVMs without them.
+     * @return the executor, or null, if virtual threads are not supported.
+     */
+    static Executor virtualThreadExecutor() {
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.log(Level.FINE, "Virtual threads not available.", e);
+            return null;
+        }
     }
 
 
     public static void main(String... args) throws Exception {
-        Configuration config = Configuration.current();
-        String contextPath = config.getOrDefault("tamaya.server.contextPath", "/");
-        int port = config.getOrDefault("tamaya.server.port", Integer.class, 8085);
-        start(contextPath, port);
+        ServerOptions options = ServerOptions.of(Configuration.current());
+        start(options).getServer().await();
     }
 
     /**
@@ -81,12 +155,13 @@ public class Server {
     public final static class ResourceLoader extends Application{
 
         @Override
-        public Set<Class<?>> getClasses() {
-            final Set<Class<?>> classes = new HashSet<>();
-            // register root resource
-            classes.add(ConfigurationServices.class);
-            return classes;
+        public Set<Object> getSingletons() {
+            final Set<Object> singletons = new HashSet<>();
+            // register root resource as singleton, so counters and indexes are shared across requests
+            final ConfigurationServices services = new ConfigurationServices();
+            services.getMetrics().registerMBeans();
+            singletons.add(services);
+            return singletons;
         }
     }
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,320 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Request metrics of the configuration server, kept per endpoint (see {@link EndpointMetrics}), plus response
+ * cache and store statistics. The metrics are exposed in the Prometheus text exposition format
+ * ({@link #writeText(Writer)}) and, once {@link #registerMBeans() registered}, through JMX.
+ */
+final class ServerMetrics implements ServerMetricsMBean {
+
+    private static final Logger LOG = Logger.getLogger(ServerMetrics.class.getName());
+
+    /** Media type of the text exposition format. */
+    static final String TEXT_MEDIA_TYPE = "text/plain; version=0.0.4";
+
+    /** JMX domain of the metrics MBeans. */
+    static final String JMX_DOMAIN = "org.apache.tamaya.server";
+
+    /**
+     * Upper bounds of the exported latency buckets in microseconds. Since the bounds are not aligned to the
+     * histogram's buckets, a histogram bucket is only counted for a bound, if it lies completely below it.
+     */
+    private static final long[] LATENCY_BOUNDS = {250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000,
+            500000, 1000000, 2500000, 5000000, 10000000};
+
+    private final ConfigStore store;
+    private final ConcurrentMap<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+    private final LongAdder cacheRequests = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final AtomicBoolean registered = new AtomicBoolean();
+
+    /**
+     * Creates new metrics.
+     * @param store the store, whose watches and index are reported, not null.
+     */
+    ServerMetrics(ConfigStore store) {
+        this.store = Objects.requireNonNull(store);
+    }
+
+    /**
+     * Starts measuring a request.
+     * @param endpoint the endpoint name, not null.
+     * @return the sample to be stopped, when the response is complete, never null.
+     */
+    Sample start(String endpoint) {
+        final EndpointMetrics metrics = endpoint(endpoint);
+        metrics.started();
+        return new Sample(metrics, System.nanoTime());
+    }
+
+    /**
+     * Records a lookup of the response cache.
+     */
+    void recordCacheLookup() {
+        cacheRequests.increment();
+    }
+
+    /**
+     * Records a response not found in the response cache.
+     */
+    void recordCacheMiss() {
+        cacheMisses.increment();
+    }
+
+    /**
+     * Get the metrics of the endpoints used so far.
+     * @return the endpoint metrics, never null.
+     */
+    Collection<EndpointMetrics> getEndpoints() {
+        return endpoints.values();
+    }
+
+    private EndpointMetrics endpoint(String name) {
+        EndpointMetrics metrics = endpoints.get(name);
+        if (metrics == null) {
+            metrics = endpoints.computeIfAbsent(name, EndpointMetrics::new);
+            if (registered.get()) {
+                register(metrics, endpointObjectName(name));
+            }
+        }
+        return metrics;
+    }
+
+    @Override
+    public long getRequestCount() {
+        long count = 0L;
+        for (final EndpointMetrics metrics : endpoints.values()) {
+            count += metrics.getRequestCount();
+        }
+        return count;
+    }
+
+    @Override
+    public long getInFlight() {
+        long count = 0L;
+        for (final EndpointMetrics metrics : endpoints.values()) {
+            count += metrics.getInFlight();
+        }
+        return count;
+    }
+
+    @Override
+    public long getCacheRequests() {
+        return cacheRequests.sum();
+    }
+
+    @Override
+    public double getCacheHitRate() {
+        final long requests = cacheRequests.sum();
+        if (requests == 0L) {
+            return 0.0;
+        }
+        return Math.max(0L, requests - cacheMisses.sum()) / (double) requests;
+    }
+
+    @Override
+    public int getWatchCount() {
+        return store.getWatchCount();
+    }
+
+    @Override
+    public long getStoreIndex() {
+        return store.getIndex();
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text exposition format (version 0.0.4).
+     * @param out the target, not null.
+     * @throws IOException if writing fails.
+     */
+    void writeText(Writer out) throws IOException {
+        final Map<String, EndpointMetrics> sorted = new TreeMap<>(endpoints);
+        header(out, "tamaya_server_requests_total", "counter", "Requests completed.");
+        for (final EndpointMetrics metrics : sorted.values()) {
+            sample(out, "tamaya_server_requests_total", metrics, null, metrics.getRequestCount());
+        }
+        header(out, "tamaya_server_request_errors_total", "counter", "Requests answered with an error status.");
+        for (final EndpointMetrics metrics : sorted.values()) {
+            sample(out, "tamaya_server_request_errors_total", metrics, null, metrics.getErrorCount());
+        }
+        header(out, "tamaya_server_requests_in_flight", "gauge", "Requests currently processed.");
+        for (final EndpointMetrics metrics : sorted.values()) {
+            sample(out, "tamaya_server_requests_in_flight", metrics, null, metrics.getInFlight());
+        }
+        header(out, "tamaya_server_request_duration_seconds", "histogram", "Request latencies.");
+        for (final EndpointMetrics metrics : sorted.values()) {
+            final Histogram latencies = metrics.getLatencies();
+            final long count = latencies.getCount();
+            for (final long bound : LATENCY_BOUNDS) {
+                sample(out, "tamaya_server_request_duration_seconds_bucket", metrics,
+                        seconds(bound), latencies.getCountAtOrBelow(bound));
+            }
+            sample(out, "tamaya_server_request_duration_seconds_bucket", metrics, "+Inf", count);
+            out.write("tamaya_server_request_duration_seconds_sum{endpoint=\"" + metrics.getName() + "\"} "
+                    + seconds(latencies.getSum()) + '\n');
+            sample(out, "tamaya_server_request_duration_seconds_count", metrics, null, count);
+        }
+        header(out, "tamaya_server_response_bytes", "summary", "Response body sizes before compression.");
+        for (final EndpointMetrics metrics : sorted.values()) {
+            final Histogram sizes = metrics.getResponseSizes();
+            out.write("tamaya_server_response_bytes{endpoint=\"" + metrics.getName() + "\",quantile=\"0.5\"} "
+                    + sizes.getValueAtPercentile(0.5) + '\n');
+            out.write("tamaya_server_response_bytes{endpoint=\"" + metrics.getName() + "\",quantile=\"0.99\"} "
+                    + sizes.getValueAtPercentile(0.99) + '\n');
+            sample(out, "tamaya_server_response_bytes_sum", metrics, null, sizes.getSum());
+            sample(out, "tamaya_server_response_bytes_count", metrics, null, sizes.getCount());
+        }
+        header(out, "tamaya_server_response_cache_lookups_total", "counter", "Response cache lookups.");
+        out.write("tamaya_server_response_cache_lookups_total " + cacheRequests.sum() + '\n');
+        header(out, "tamaya_server_response_cache_misses_total", "counter", "Response cache misses.");
+        out.write("tamaya_server_response_cache_misses_total " + cacheMisses.sum() + '\n');
+        header(out, "tamaya_server_watches", "gauge", "Pending watches.");
+        out.write("tamaya_server_watches " + getWatchCount() + '\n');
+        header(out, "tamaya_server_store_index", "gauge", "Index of the last write.");
+        out.write("tamaya_server_store_index " + getStoreIndex() + '\n');
+        out.flush();
+    }
+
+    private static void header(Writer out, String name, String type, String help) throws IOException {
+        out.write("# HELP " + name + ' ' + help + '\n');
+        out.write("# TYPE " + name + ' ' + type + '\n');
+    }
+
+    private static void sample(Writer out, String name, EndpointMetrics metrics, String le, long value)
+            throws IOException {
+        out.write(name + "{endpoint=\"" + metrics.getName() + '"'
+                + (le == null ? "" : ",le=\"" + le + '"') + "} " + value + '\n');
+    }
+
+    private static String seconds(long micros) {
+        return Double.toString(micros / 1e6);
+    }
+
+    /**
+     * Registers the server and endpoint MBeans with the platform MBean server. MBeans registered under the same
+     * names before, e.g. by a previous server instance, are replaced. Endpoints used later are registered, when
+     * first used.
+     */
+    void registerMBeans() {
+        if (registered.compareAndSet(false, true)) {
+            register(this, serverObjectName());
+            for (final EndpointMetrics metrics : endpoints.values()) {
+                register(metrics, endpointObjectName(metrics.getName()));
+            }
+        }
+    }
+
+    /**
+     * Unregisters all MBeans registered by {@link #registerMBeans()}.
+     */
+    void unregisterMBeans() {
+        if (registered.compareAndSet(true, false)) {
+            final List<ObjectName> names = new ArrayList<>();
+            names.add(serverObjectName());
+            for (final String endpoint : endpoints.keySet()) {
+                names.add(endpointObjectName(endpoint));
+            }
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            for (final ObjectName name : names) {
+                try {
+                    if (server.isRegistered(name)) {
+                        server.unregisterMBean(name);
+                    }
+                } catch (final JMException e) {
+                    LOG.log(Level.WARNING, "Failed to unregister MBean " + name, e);
+                }
+            }
+        }
+    }
+
+    static ObjectName serverObjectName() {
+        return objectName(JMX_DOMAIN + ":type=ServerMetrics");
+    }
+
+    static ObjectName endpointObjectName(String endpoint) {
+        return objectName(JMX_DOMAIN + ":type=ServerMetrics,endpoint=" + ObjectName.quote(endpoint));
+    }
+
+    private static ObjectName objectName(String name) {
+        try {
+            return new ObjectName(name);
+        } catch (final JMException e) {
+            throw new IllegalArgumentException("Invalid object name: " + name, e);
+        }
+    }
+
+    private static void register(Object mbean, ObjectName name) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(mbean, name);
+        } catch (final JMException e) {
+            LOG.log(Level.WARNING, "Failed to register MBean " + name, e);
+        }
+    }
+
+    /**
+     * Measurement of a single request, stopped once when the response is complete.
+     */
+    static final class Sample {
+        private final EndpointMetrics metrics;
+        private final long start;
+        private final AtomicBoolean stopped = new AtomicBoolean();
+
+        private Sample(EndpointMetrics metrics, long start) {
+            this.metrics = metrics;
+            this.start = start;
+        }
+
+        /**
+         * Stops the measurement. Further calls are ignored.
+         * @param status the HTTP status sent.
+         * @param bytes the size of the response body sent, before compression.
+         */
+        void stop(int status, long bytes) {
+            if (stopped.compareAndSet(false, true)) {
+                metrics.completed(System.nanoTime() - start, status, bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+/**
+ * JMX view of the overall metrics of the configuration server, registered as
+ * {@code org.apache.tamaya.server:type=ServerMetrics}. Metrics per endpoint are registered separately, see
+ * {@link EndpointMetricsMBean}.
+ */
+public interface ServerMetricsMBean {
+
+    /**
+     * Get the number of requests completed by all endpoints.
+     * @return the number of requests.
+     */
+    long getRequestCount();
+
+    /**
+     * Get the number of requests currently processed by all endpoints.
+     * @return the number of requests in flight.
+     */
+    long getInFlight();
+
+    /**
+     * Get the number of reads, which looked up the response cache.
+     * @return the number of cache lookups.
+     */
+    long getCacheRequests();
+
+    /**
+     * Get the ratio of cache lookups, which found a serialized response.
+     * @return the hit rate between 0 and 1, or 0 if there were no lookups.
+     */
+    double getCacheHitRate();
+
+    /**
+     * Get the number of pending watches.
+     * @return the number of watches.
+     */
+    int getWatchCount();
+
+    /**
+     * Get the current store index.
+     * @return the index of the last write.
+     */
+    long getStoreIndex();
+}
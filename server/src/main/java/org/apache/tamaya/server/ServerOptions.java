@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+import java.util.Objects;
+
+import org.apache.tamaya.Configuration;
+
+/**
+ * Settings of the embedded server, read from the {@code tamaya.server.*} configuration keys:
+ * <table>
+ *     <caption>Server settings</caption>
+ *     <tr><th>Key</th><th>Default</th><th>Description</th></tr>
+ *     <tr><td>tamaya.server.contextPath</td><td>/</td><td>the context path</td></tr>
+ *     <tr><td>tamaya.server.port</td><td>8085</td><td>the HTTP port, 0 for any free port</td></tr>
+ *     <tr><td>tamaya.server.connector.protocol</td><td>org.apache.coyote.http11.Http11NioProtocol</td>
+ *         <td>the connector's protocol handler, e.g. {@code org.apache.coyote.http11.Http11Nio2Protocol}
+ *         on Tomcat 8 and later</td></tr>
+ *     <tr><td>tamaya.server.maxConnections</td><td>10000</td><td>the maximal number of open connections</td></tr>
+ *     <tr><td>tamaya.server.acceptCount</td><td>100</td><td>the backlog of connections not yet accepted</td></tr>
+ *     <tr><td>tamaya.server.threads.min</td><td>10</td><td>the number of request threads kept idle</td></tr>
+ *     <tr><td>tamaya.server.threads.max</td><td>200</td><td>the maximal number of request threads</td></tr>
+ *     <tr><td>tamaya.server.threads.virtual</td><td>false</td><td>if true, requests are processed on virtual
+ *         threads, if supported by the JVM, ignoring the thread pool settings</td></tr>
+ *     <tr><td>tamaya.server.keepAlive.timeout</td><td>20000</td><td>the time in milliseconds an idle
+ *         connection is kept open</td></tr>
+ *     <tr><td>tamaya.server.keepAlive.maxRequests</td><td>100</td><td>the maximal number of requests per
+ *         connection, -1 for unlimited</td></tr>
+ *     <tr><td>tamaya.server.compression</td><td>on</td><td>the response compression mode, {@code off, on}
+ *         or {@code force}</td></tr>
+ *     <tr><td>tamaya.server.compression.minSize</td><td>2048</td><td>the minimal size in bytes of responses
+ *         compressed</td></tr>
+ * </table>
+ */
+final class ServerOptions {
+
+    /** The NIO connector, available on all supported Tomcat versions. */
+    static final String NIO_PROTOCOL = "org.apache.coyote.http11.Http11NioProtocol";
+
+    /** The media types compressed, the binary key/value format is not worth compressing. */
+    static final String COMPRESSED_MEDIA_TYPES = "application/json,text/plain";
+
+    private final String contextPath;
+    private final int port;
+    private final String protocol;
+    private final int maxConnections;
+    private final int acceptCount;
+    private final int minThreads;
+    private final int maxThreads;
+    private final boolean virtualThreads;
+    private final int keepAliveTimeout;
+    private final int maxKeepAliveRequests;
+    private final String compression;
+    private final int compressionMinSize;
+
+    private ServerOptions(Configuration config, String contextPath, int port) {
+        this.contextPath = Objects.requireNonNull(contextPath);
+        this.port = port;
+        this.protocol = config.getOrDefault("tamaya.server.connector.protocol", NIO_PROTOCOL);
+        this.maxConnections = config.getOrDefault("tamaya.server.maxConnections", Integer.class, 10000);
+        this.acceptCount = config.getOrDefault("tamaya.server.acceptCount", Integer.class, 100);
+        this.minThreads = config.getOrDefault("tamaya.server.threads.min", Integer.class, 10);
+        this.maxThreads = config.getOrDefault("tamaya.server.threads.max", Integer.class, 200);
+        this.virtualThreads = config.getOrDefault("tamaya.server.threads.virtual", Boolean.class, false);
+        this.keepAliveTimeout = config.getOrDefault("tamaya.server.keepAlive.timeout", Integer.class, 20000);
+        this.maxKeepAliveRequests = config.getOrDefault("tamaya.server.keepAlive.maxRequests", Integer.class, 100);
+        this.compression = config.getOrDefault("tamaya.server.compression", "on");
+        this.compressionMinSize = config.getOrDefault("tamaya.server.compression.minSize", Integer.class, 2048);
+        if (minThreads < 0 || maxThreads < 1 || minThreads > maxThreads) {
+            throw new IllegalArgumentException("Invalid thread pool size: " + minThreads + ".." + maxThreads);
+        }
+    }
+
+    /**
+     * Reads the settings from the configuration.
+     * @param config the configuration, not null.
+     * @return the settings, never null.
+     */
+    static ServerOptions of(Configuration config) {
+        return new ServerOptions(config, config.getOrDefault("tamaya.server.contextPath", "/"),
+                config.getOrDefault("tamaya.server.port", Integer.class, 8085));
+    }
+
+    /**
+     * Reads the settings from the configuration, overriding the context path and port.
+     * @param config the configuration, not null.
+     * @param contextPath the context path, not null.
+     * @param port the HTTP port, 0 for any free port.
+     * @return the settings, never null.
+     */
+    static ServerOptions of(Configuration config, String contextPath, int port) {
+        return new ServerOptions(config, contextPath, port);
+    }
+
+    String getContextPath() {
+        return contextPath;
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    String getProtocol() {
+        return protocol;
+    }
+
+    int getMaxConnections() {
+        return maxConnections;
+    }
+
+    int getAcceptCount() {
+        return acceptCount;
+    }
+
+    int getMinThreads() {
+        return minThreads;
+    }
+
+    int getMaxThreads() {
+        return maxThreads;
+    }
+
+    boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    int getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    int getMaxKeepAliveRequests() {
+        return maxKeepAliveRequests;
+    }
+
+    String getCompression() {
+        return compression;
+    }
+
+    int getCompressionMinSize() {
+        return compressionMinSize;
+    }
+
+    @Override
+    public String toString() {
+        return "ServerOptions{contextPath='" + contextPath + "', port=" + port + ", protocol='" + protocol
+                + "', maxConnections=" + maxConnections + ", acceptCount=" + acceptCount
+                + ", threads=" + (virtualThreads ? "virtual" : minThreads + ".." + maxThreads)
+                + ", keepAliveTimeout=" + keepAliveTimeout + ", maxKeepAliveRequests=" + maxKeepAliveRequests
+                + ", compression='" + compression + "', compressionMinSize=" + compressionMinSize + '}';
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+/**
+ * Exception thrown by the {@link ConfigStore}, modelling the etcd v2 error responses.
+ */
+final class StoreException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /** etcd error code: key not found. */
+    static final int KEY_NOT_FOUND = 100;
+    /** etcd error code: compare failed. */
+    static final int TEST_FAILED = 101;
+    /** etcd error code: key already exists. */
+    static final int NODE_EXIST = 105;
+    /** etcd error code: value is required. */
+    static final int VALUE_REQUIRED = 200;
+    /** etcd error code: the event in requested index is outdated and cleared. */
+    static final int EVENT_INDEX_CLEARED = 401;
+
+    private final int errorCode;
+    private final String errorCause;
+    private final long index;
+
+    /**
+     * Creates a new exception.
+     * @param errorCode the etcd error code.
+     * @param errorCause the etcd error cause, e.g. the key concerned.
+     * @param index the current store index.
+     */
+    StoreException(int errorCode, String errorCause, long index) {
+        super(message(errorCode) + ": " + errorCause);
+        this.errorCode = errorCode;
+        this.errorCause = errorCause;
+        this.index = index;
+    }
+
+    private static String message(int errorCode) {
+        switch (errorCode) {
+            case KEY_NOT_FOUND:
+                return "Key not found";
+            case TEST_FAILED:
+                return "Compare failed";
+            case NODE_EXIST:
+                return "Key already exists";
+            case VALUE_REQUIRED:
+                return "Value is Required in POST form";
+            case EVENT_INDEX_CLEARED:
+                return "The event in requested index is outdated and cleared";
+            default:
+                return "Error " + errorCode;
+        }
+    }
+
+    int getErrorCode() {
+        return errorCode;
+    }
+
+    String getErrorMessage() {
+        return message(errorCode);
+    }
+
+    String getErrorCause() {
+        return errorCause;
+    }
+
+    long getIndex() {
+        return index;
+    }
+
+    /**
+     * Get the HTTP status code etcd answers this error with.
+     * @return the HTTP status code.
+     */
+    int getStatus() {
+        switch (errorCode) {
+            case KEY_NOT_FOUND:
+                return 404;
+            case TEST_FAILED:
+            case NODE_EXIST:
+                return 412;
+            default:
+                return 400;
+        }
+    }
+}
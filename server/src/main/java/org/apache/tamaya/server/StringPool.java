@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Pool deduplicating equal strings, so keys and values shared by many stores, e.g. the namespaces of a server,
+ * are kept in memory only once. Strings are held weakly, so they are dropped, once no store references them
+ * anymore. Unlike {@link String#intern()}, the pool does not grow the JVM's string table.
+ * <p>
+ * The pool is split into stripes by the strings' hash codes, each guarded by its own lock, so concurrent writers
+ * of different stores rarely contend.
+ */
+final class StringPool {
+
+    /** Number of stripes, a power of two. */
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    StringPool() {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Get the pooled instance of a string.
+     * @param value the string, or null.
+     * @return the pooled string equal to the given one, or null.
+     */
+    String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        final int hash = value.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)].intern(value);
+    }
+
+    /**
+     * Get the number of strings pooled.
+     * @return the number of strings, including strings not yet collected.
+     */
+    int size() {
+        int size = 0;
+        for (final Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    /**
+     * Part of the pool guarded by a lock of its own.
+     */
+    private static final class Stripe {
+        private final Map<String, WeakReference<String>> strings = new WeakHashMap<>();
+
+        synchronized String intern(String value) {
+            final WeakReference<String> ref = strings.get(value);
+            final String pooled = ref == null ? null : ref.get();
+            if (pooled != null) {
+                return pooled;
+            }
+            strings.put(value, new WeakReference<>(value));
+            return value;
+        }
+
+        synchronized int size() {
+            return strings.size();
+        }
+    }
+}
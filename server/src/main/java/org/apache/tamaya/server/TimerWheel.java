@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Hashed timer wheel tracking the expiration of keys written with a TTL. Instead of one timer per key, timeouts
+ * are hashed into a fixed number of slots by their expiration tick, and a single ticker calls
+ * {@link #advance(long)} to collect all timeouts due. Scheduling and advancing are O(1) per timeout, independent
+ * of the number of keys with a TTL. The wheel does not own a thread.
+ */
+final class TimerWheel {
+
+    private final long tickMillis;
+    private final List<Timeout>[] slots;
+    private final int mask;
+    private long currentTick;
+    private int size;
+
+    /**
+     * Creates a new wheel.
+     * @param tickMillis the duration of a tick in milliseconds.
+     * @param slotCount the number of slots, rounded up to a power of two.
+     * @param now the current time in milliseconds.
+     */
+    @SuppressWarnings("unchecked")
+    TimerWheel(long tickMillis, int slotCount, long now) {
+        if (tickMillis <= 0 || slotCount <= 0) {
+            throw new IllegalArgumentException("tickMillis and slotCount must be positive.");
+        }
+        this.tickMillis = tickMillis;
+        int count = Integer.highestOneBit(slotCount);
+        if (count < slotCount) {
+            count <<= 1;
+        }
+        this.slots = new List[count];
+        for (int i = 0; i < count; i++) {
+            slots[i] = new ArrayList<>();
+        }
+        this.mask = count - 1;
+        this.currentTick = now / tickMillis;
+    }
+
+    /**
+     * Schedules the expiration of a key version.
+     * @param key the key, not null.
+     * @param modifiedIndex the modification index of the version expiring.
+     * @param expiration the expiration time in milliseconds.
+     */
+    synchronized void schedule(String key, long modifiedIndex, long expiration) {
+        // ticks already passed are processed with the next advance
+        final long tick = Math.max(expiration / tickMillis, currentTick);
+        slots[(int) (tick & mask)].add(new Timeout(key, modifiedIndex, tick));
+        size++;
+    }
+
+    /**
+     * Advances the wheel to the given time and removes all timeouts due.
+     * @param now the current time in milliseconds.
+     * @return the timeouts due, never null.
+     */
+    synchronized List<Timeout> advance(long now) {
+        final long targetTick = now / tickMillis;
+        if (targetTick < currentTick || size == 0) {
+            currentTick = Math.max(currentTick, targetTick);
+            return new ArrayList<>(0);
+        }
+        final List<Timeout> due = new ArrayList<>();
+        // after a long pause, each slot is visited only once
+        final long lastTick = Math.min(targetTick, currentTick + mask);
+        for (long tick = currentTick; tick <= lastTick; tick++) {
+            final Iterator<Timeout> it = slots[(int) (tick & mask)].iterator();
+            while (it.hasNext()) {
+                final Timeout timeout = it.next();
+                if (timeout.tick <= targetTick) {
+                    it.remove();
+                    due.add(timeout);
+                }
+            }
+        }
+        size -= due.size();
+        currentTick = targetTick + 1;
+        return due;
+    }
+
+    /**
+     * Get the number of pending timeouts.
+     * @return the number of pending timeouts.
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * The expiration of a key version.
+     */
+    static final class Timeout {
+        private final String key;
+        private final long modifiedIndex;
+        private final long tick;
+
+        private Timeout(String key, long modifiedIndex, long tick) {
+            this.key = key;
+            this.modifiedIndex = modifiedIndex;
+            this.tick = tick;
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        long getModifiedIndex() {
+            return modifiedIndex;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Product name and version of the server, read from {@code META-INF/tamaya-server-version.properties}, which is
+ * filtered by the build.
+ */
+public final class VersionProperties {
+
+    private static final String RESOURCE = "/META-INF/tamaya-server-version.properties";
+
+    private static final String PRODUCT;
+    private static final String VERSION;
+
+    static {
+        Properties props = new Properties();
+        try (InputStream is = VersionProperties.class.getResourceAsStream(RESOURCE)) {
+            if (is != null) {
+                props.load(is);
+            }
+        } catch (IOException e) {
+            Logger.getLogger(VersionProperties.class.getName()).log(Level.WARNING,
+                    "Failed to read server version from: " + RESOURCE, e);
+        }
+        PRODUCT = props.getProperty("server.product", "Apache Tamaya Server");
+        VERSION = props.getProperty("server.version", "unknown");
+    }
+
+    private VersionProperties() {
+    }
+
+    /**
+     * Get the product name of the server.
+     * @return the product name, never null.
+     */
+    public static String getProduct() {
+        return PRODUCT;
+    }
+
+    /**
+     * Get the version of the server.
+     * @return the version, never null.
+     */
+    public static String getVersion() {
+        return VERSION;
+    }
+}
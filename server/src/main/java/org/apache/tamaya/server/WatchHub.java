@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Dispatches the changes of a {@link ConfigStore} to watchers, modelling etcd v2 watches
+ * ({@code wait=true&waitIndex=N}). Each watch fires at most once, with the first matching change.
+ * <p>
+ * The most recent changes are kept in a ring buffer addressed by their modification index, so a watch with a
+ * {@code waitIndex} in the past is answered immediately from the history, or rejected with
+ * {@link StoreException#EVENT_INDEX_CLEARED}, if the index has been dropped. Pending watches are registered by
+ * key, recursive watches by section, so a change is matched against the watches of the key and its parent
+ * sections only, instead of against all watches.
+ */
+final class WatchHub {
+
+    private final ConfigStore.Change[] history;
+    private final Executor executor;
+    /** Non-recursive watches by key. */
+    private final Map<String, Set<Watch>> keyWatches = new HashMap<>();
+    /** Recursive watches by section, the empty section being the root. */
+    private final Map<String, Set<Watch>> sectionWatches = new HashMap<>();
+    /** Index of the oldest change in the history. */
+    private long firstIndex;
+    /** Index of the newest change published. */
+    private long lastIndex;
+
+    /**
+     * Creates a new hub.
+     * @param capacity the number of changes kept in the history.
+     * @param index the current store index, the history starts after it.
+     * @param executor the executor notifying watchers, not null.
+     */
+    WatchHub(int capacity, long index, Executor executor) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.history = new ConfigStore.Change[capacity];
+        this.executor = Objects.requireNonNull(executor);
+        this.firstIndex = index + 1;
+        this.lastIndex = index;
+    }
+
+    /**
+     * Registers a watch.
+     * @param key the key or section to watch, the empty string for the root section.
+     * @param recursive if true, changes of all keys of the section are reported as well. Watches on the root
+     *                  section are always recursive.
+     * @param waitIndex if not null, the first matching change with this or a higher index is reported, otherwise
+     *                  the first matching change from now on.
+     * @param listener the listener notified, not null.
+     * @return the watch, never null. If a matching change is found in the history, the listener has already been
+     *         notified on the calling thread.
+     * @throws StoreException if the history no longer contains the requested index.
+     */
+    Watch watch(String key, boolean recursive, Long waitIndex, Consumer<ConfigStore.Change> listener) {
+        final Watch watch = new Watch(Objects.requireNonNull(key), recursive || key.isEmpty(),
+                Objects.requireNonNull(listener));
+        ConfigStore.Change found = null;
+        synchronized (this) {
+            if (waitIndex != null && waitIndex > 0L) {
+                if (waitIndex < firstIndex && firstIndex > 1L) {
+                    throw new StoreException(StoreException.EVENT_INDEX_CLEARED,
+                            "the requested history has been cleared [" + firstIndex + '/' + waitIndex + ']',
+                            lastIndex);
+                }
+                for (long i = Math.max(waitIndex, firstIndex); i <= lastIndex && found == null; i++) {
+                    final ConfigStore.Change change = history[slot(i)];
+                    if (watch.matches(change.getNode().getKey())) {
+                        found = change;
+                    }
+                }
+                watch.minIndex = waitIndex;
+            }
+            if (found == null) {
+                watches(watch).computeIfAbsent(key, k -> new LinkedHashSet<>()).add(watch);
+            }
+        }
+        if (found != null) {
+            watch.done = true;
+            listener.accept(found);
+        }
+        return watch;
+    }
+
+    /**
+     * Adds a change to the history and notifies the matching watches. Changes must be published in the order of
+     * their indexes.
+     * @param change the change, not null.
+     */
+    void publish(ConfigStore.Change change) {
+        final String key = change.getNode().getKey();
+        final long index = change.getNode().getModifiedIndex();
+        final List<Watch> fired = new ArrayList<>();
+        synchronized (this) {
+            history[slot(index)] = change;
+            lastIndex = index;
+            if (index - firstIndex >= history.length) {
+                firstIndex = index - history.length + 1;
+            }
+            collect(keyWatches.get(key), index, fired);
+            collect(sectionWatches.get(""), index, fired);
+            for (int pos = key.indexOf('.'); pos > 0; pos = key.indexOf('.', pos + 1)) {
+                collect(sectionWatches.get(key.substring(0, pos)), index, fired);
+            }
+            collect(sectionWatches.get(key), index, fired);
+            for (final Watch watch : fired) {
+                remove(watch);
+            }
+        }
+        if (!fired.isEmpty()) {
+            executor.execute(() -> {
+                for (final Watch watch : fired) {
+                    watch.listener.accept(change);
+                }
+            });
+        }
+    }
+
+    /**
+     * Get the number of pending watches.
+     * @return the number of pending watches.
+     */
+    synchronized int size() {
+        int size = 0;
+        for (final Set<Watch> watches : keyWatches.values()) {
+            size += watches.size();
+        }
+        for (final Set<Watch> watches : sectionWatches.values()) {
+            size += watches.size();
+        }
+        return size;
+    }
+
+    private static void collect(Set<Watch> watches, long index, List<Watch> fired) {
+        if (watches == null) {
+            return;
+        }
+        for (final Watch watch : watches) {
+            if (index >= watch.minIndex) {
+                watch.done = true;
+                fired.add(watch);
+            }
+        }
+    }
+
+    private synchronized void remove(Watch watch) {
+        final Map<String, Set<Watch>> watches = watches(watch);
+        final Set<Watch> registered = watches.get(watch.key);
+        if (registered != null && registered.remove(watch) && registered.isEmpty()) {
+            watches.remove(watch.key);
+        }
+    }
+
+    private Map<String, Set<Watch>> watches(Watch watch) {
+        return watch.recursive ? sectionWatches : keyWatches;
+    }
+
+    private int slot(long index) {
+        return (int) (index % history.length);
+    }
+
+    /**
+     * A registered watch.
+     */
+    final class Watch {
+        private final String key;
+        private final boolean recursive;
+        private final Consumer<ConfigStore.Change> listener;
+        /** Changes below this index are not reported, guarded by the hub. */
+        private long minIndex;
+        /** If true, the watch has fired, guarded by the hub. */
+        private boolean done;
+
+        private Watch(String key, boolean recursive, Consumer<ConfigStore.Change> listener) {
+            this.key = key;
+            this.recursive = recursive;
+            this.listener = listener;
+        }
+
+        private boolean matches(String changedKey) {
+            if (changedKey.equals(key)) {
+                return true;
+            }
+            return recursive && (key.isEmpty()
+                    || changedKey.startsWith(key) && changedKey.charAt(key.length()) == '.');
+        }
+
+        /**
+         * Removes the watch, if it has not fired yet.
+         * @return true, if the watch was removed before firing.
+         */
+        boolean cancel() {
+            synchronized (WatchHub.this) {
+                if (done) {
+                    return false;
+                }
+                done = true;
+                remove(this);
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConfigIndexTest {
+
+    @Test
+    public void metaEntriesAreNotListedAsNodes() {
+        Map<String, String> props = new HashMap<>();
+        props.put("a.b", "1");
+        props.put("_a.b.ttl", "5");
+        props.put("_a.b.modifiedIndex", "7");
+        props.put("_orphan.ttl", "3");
+
+        try (ConfigStore store = new ConfigStore()) {
+            store.syncConfiguration(props);
+            ConfigIndex index = store.snapshot();
+
+            assertThat(index.getNodes()).containsOnlyKeys("a.b", "_orphan.ttl");
+            // indexes are managed by the store, not read from the meta entries
+            assertThat(index.getNode("a.b").getModifiedIndex()).isLessThanOrEqualTo(index.getRevision());
+            assertThat(index.getNode("a.b").getExpiration()).isEqualTo(0L);
+        }
+    }
+
+    @Test
+    public void sectionsAreRangeScans() {
+        Map<String, String> props = new HashMap<>();
+        props.put("a", "0");
+        props.put("a.b", "1");
+        props.put("a.c.d", "2");
+        props.put("a-b", "3");
+        props.put("ab", "4");
+
+        try (ConfigStore store = new ConfigStore()) {
+            store.syncConfiguration(props);
+            ConfigIndex index = store.snapshot();
+
+            assertThat(index.getSection("a")).containsOnlyKeys("a.b", "a.c.d");
+            assertThat(index.getSection("a.c")).containsOnlyKeys("a.c.d");
+            assertThat(index.getSection("x")).isEmpty();
+        }
+    }
+
+    @Test
+    public void snapshotsOnlyChangeOnWrites() {
+        Map<String, String> props = new HashMap<>();
+        props.put("a", "1");
+        try (ConfigStore store = new ConfigStore()) {
+            store.syncConfiguration(props);
+            ConfigIndex index = store.snapshot();
+
+            store.syncConfiguration(new HashMap<>(props));
+            assertThat(store.snapshot()).isSameAs(index);
+            props.put("a", "2");
+            store.syncConfiguration(props);
+            ConfigIndex updated = store.snapshot();
+            assertThat(updated).isNotSameAs(index);
+            assertThat(updated.getRevision()).isEqualTo(index.getRevision() + 1);
+            assertThat(updated.get("a")).isEqualTo("2");
+            assertThat(index.get("a")).isEqualTo("1");
+
+            store.syncConfiguration(Collections.<String, String>emptyMap());
+            assertThat(store.snapshot().getNodes()).isEmpty();
+            assertThat(updated.getNodes()).containsOnlyKeys("a");
+        }
+    }
+
+    @Test
+    public void batchesSelectEachNodeOnce() {
+        Map<String, String> props = new HashMap<>();
+        props.put("a", "0");
+        props.put("a.b", "1");
+        props.put("a.b.c", "2");
+        props.put("a-b", "3");
+        props.put("x.y", "4");
+        props.put("z", "5");
+
+        try (ConfigStore store = new ConfigStore()) {
+            store.syncConfiguration(props);
+            ConfigIndex index = store.snapshot();
+
+            assertThat(keys(index.select(Arrays.asList("z", "a.b.c", "missing", "z"), Arrays.asList("a.b", "a"))))
+                    .containsExactly("a", "a.b", "a.b.c", "z");
+            assertThat(keys(index.select(Collections.singletonList("a-b"), Collections.singletonList("x"))))
+                    .containsExactly("x.y", "a-b");
+            assertThat(index.select(Collections.singletonList("z"), Collections.singletonList(""))).hasSize(6);
+        }
+    }
+
+    private static List<String> keys(Iterable<ConfigNode> nodes) {
+        List<String> keys = new ArrayList<>();
+        for (ConfigNode node : nodes) {
+            keys.add(node.getKey());
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class ConfigJournalTest {
+
+    private Path dir;
+
+    @Before
+    public void createDirectory() throws IOException {
+        dir = Files.createTempDirectory("tamaya-journal");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        for (Path file : files()) {
+            Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void writesSurviveRestart() throws Exception {
+        try (ConfigStore store = open(1000)) {
+            store.set("a", "1", null, null, null, null);
+            store.set("b", "2", 60, null, null, null);
+            store.set("a", "3", null, null, null, null);
+            store.delete("b", false, null, null);
+        }
+        try (ConfigStore store = open(1000)) {
+            assertThat(store.getIndex()).isEqualTo(4L);
+            assertThat(store.snapshot().getNodes()).containsOnlyKeys("a");
+            assertThat(store.snapshot().getNode("a").getCreatedIndex()).isEqualTo(1L);
+            assertThat(store.set("c", "4", null, null, null, null).getNode().getModifiedIndex()).isEqualTo(5L);
+        }
+    }
+
+    @Test
+    public void snapshotsCompactTheLog() throws Exception {
+        try (ConfigStore store = open(10)) {
+            for (int i = 0; i < 25; i++) {
+                store.set("key" + (i % 5), "value" + i, null, null, null, null);
+            }
+        }
+        awaitSnapshots(2);
+        // the previous snapshot and its segments are kept, older segments are deleted
+        assertThat(count(".snap")).isEqualTo(2);
+        assertThat(Files.exists(dir.resolve(String.format("wal-%016x.log", 1L)))).isFalse();
+        try (ConfigStore store = open(10)) {
+            assertThat(store.getIndex()).isEqualTo(25L);
+            assertThat(store.snapshot().getNodes()).hasSize(5);
+            assertThat(store.snapshot().get("key4")).isEqualTo("value24");
+        }
+    }
+
+    @Test
+    public void invalidSnapshotsFallBackToThePreviousSnapshot() throws Exception {
+        try (ConfigStore store = open(10)) {
+            for (int i = 0; i < 25; i++) {
+                store.set("key" + (i % 5), "value" + i, null, null, null, null);
+            }
+        }
+        awaitSnapshots(2);
+        corrupt(dir.resolve(String.format("snapshot-%016x.snap", 20L)));
+        try (ConfigStore store = open(10)) {
+            assertThat(store.getIndex()).isEqualTo(25L);
+            assertThat(store.snapshot().getNodes()).hasSize(5);
+            assertThat(store.snapshot().get("key0")).isEqualTo("value20");
+            assertThat(store.snapshot().get("key4")).isEqualTo("value24");
+        }
+    }
+
+    @Test
+    public void missingRecordsFailRecovery() throws Exception {
+        try (ConfigStore store = open(10)) {
+            for (int i = 0; i < 25; i++) {
+                store.set("key" + (i % 5), "value" + i, null, null, null, null);
+            }
+        }
+        awaitSnapshots(2);
+        corrupt(dir.resolve(String.format("snapshot-%016x.snap", 20L)));
+        Files.delete(dir.resolve(String.format("snapshot-%016x.snap", 10L)));
+        ConfigJournal journal = new ConfigJournal(dir, 10);
+        try {
+            journal.recover();
+            fail("IOException expected.");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).contains("Missing journal records");
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void unpairedSurrogatesSurviveSnapshots() throws Exception {
+        try (ConfigStore store = open(4)) {
+            store.set("high", "a\uD800b", null, null, null, null);
+            store.set("low\uDC00", "c\uDC00\uD800", null, null, null, null);
+            store.set("pair", "\uD83D\uDE00", null, null, null, null);
+            store.syncConfiguration(Collections.singletonMap("config", "\uD800"));
+            store.set("last", "1", null, null, null, null);
+        }
+        for (int i = 0; i < 50 && count(".snap") < 1; i++) {
+            Thread.sleep(100L);
+        }
+        assertThat(count(".snap")).isEqualTo(1);
+        try (ConfigStore store = open(4)) {
+            assertThat(store.getIndex()).isEqualTo(5L);
+            // unpaired surrogates are written as '?', as by String.getBytes
+            assertThat(store.snapshot().get("high")).isEqualTo("a?b");
+            assertThat(store.snapshot().get("low?")).isEqualTo("c??");
+            assertThat(store.snapshot().get("pair")).isEqualTo("\uD83D\uDE00");
+            assertThat(store.snapshot().get("config")).isEqualTo("?");
+            assertThat(store.snapshot().get("last")).isEqualTo("1");
+        }
+    }
+
+    @Test
+    public void recordsQueuedWhenClosingAreSynced() throws Exception {
+        ConfigJournal journal = new ConfigJournal(dir, 1000);
+        journal.recover();
+        long sequence = journal.append(new ConfigNode("a", "1", 1L, 1L, 0L), false);
+        journal.close();
+        journal.awaitDurable(sequence);
+        try (ConfigStore store = open(1000)) {
+            assertThat(store.snapshot().get("a")).isEqualTo("1");
+        }
+    }
+
+    @Test
+    public void incompleteRecordsAreTruncated() throws Exception {
+        try (ConfigStore store = open(1000)) {
+            store.set("a", "1", null, null, null, null);
+            store.set("b", "2", null, null, null, null);
+        }
+        Path wal = null;
+        for (Path file : files()) {
+            if (file.toString().endsWith(".log") && Files.size(file) > 0) {
+                wal = file;
+            }
+        }
+        try (FileChannel channel = FileChannel.open(wal, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        try (ConfigStore store = open(1000)) {
+            assertThat(store.getIndex()).isEqualTo(1L);
+            assertThat(store.snapshot().get("a")).isEqualTo("1");
+            assertThat(store.snapshot().get("b")).isNull();
+        }
+    }
+
+    @Test
+    public void writtenValuesAreNotOverriddenByUnchangedConfiguration() throws Exception {
+        try (ConfigStore store = open(1000)) {
+            store.syncConfiguration(Collections.singletonMap("a", "config"));
+            store.set("a", "written", null, null, null, null);
+        }
+        try (ConfigStore store = open(1000)) {
+            store.syncConfiguration(Collections.singletonMap("a", "config"));
+            assertThat(store.snapshot().get("a")).isEqualTo("written");
+            store.syncConfiguration(Collections.singletonMap("a", "changed"));
+            assertThat(store.snapshot().get("a")).isEqualTo("changed");
+        }
+    }
+
+    private void awaitSnapshots(int expected) throws Exception {
+        // snapshot writing is asynchronous, give it some time
+        for (int i = 0; i < 50 && count(".snap") < expected; i++) {
+            Thread.sleep(100L);
+        }
+    }
+
+    private static void corrupt(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, 20L);
+            b.put(0, (byte) (b.get(0) ^ 0xFF));
+            b.rewind();
+            channel.write(b, 20L);
+        }
+    }
+
+    private ConfigStore open(int snapshotInterval) throws IOException {
+        return new ConfigStore(System::currentTimeMillis, new ConfigJournal(dir, snapshotInterval));
+    }
+
+    private int count(String suffix) throws IOException {
+        int count = 0;
+        for (Path file : files()) {
+            if (file.toString().endsWith(suffix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private List<Path> files() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+}
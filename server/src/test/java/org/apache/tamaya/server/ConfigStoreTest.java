@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class ConfigStoreTest {
+
+    private final AtomicLong clock = new AtomicLong(1_000_000L);
+    private final ConfigStore store = new ConfigStore(clock::get, null);
+
+    @After
+    public void close() {
+        store.close();
+    }
+
+    @Test
+    public void writesAssignIndexes() {
+        ConfigStore.Change first = store.set("a", "1", null, null, null, null);
+        ConfigStore.Change second = store.set("a", "2", null, null, null, null);
+
+        assertThat(first.getAction()).isEqualTo("set");
+        assertThat(first.getPrevNode()).isNull();
+        assertThat(second.getNode().getCreatedIndex()).isEqualTo(1L);
+        assertThat(second.getNode().getModifiedIndex()).isEqualTo(2L);
+        assertThat(second.getPrevNode().getValue()).isEqualTo("1");
+        assertThat(store.getIndex()).isEqualTo(2L);
+        assertThat(store.snapshot().get("a")).isEqualTo("2");
+    }
+
+    @Test
+    public void compareAndSwap() {
+        store.set("a", "1", null, null, null, null);
+
+        assertError(() -> store.set("a", "x", null, "2", null, null), StoreException.TEST_FAILED);
+        assertError(() -> store.set("a", "x", null, null, 5L, null), StoreException.TEST_FAILED);
+        assertError(() -> store.set("a", "x", null, null, null, false), StoreException.NODE_EXIST);
+        assertError(() -> store.set("b", "x", null, null, null, true), StoreException.KEY_NOT_FOUND);
+
+        ConfigStore.Change change = store.set("a", "2", null, "1", 1L, null);
+        assertThat(change.getAction()).isEqualTo("compareAndSwap");
+        assertThat(store.snapshot().get("a")).isEqualTo("2");
+    }
+
+    @Test
+    public void deleteLeavesOlderSnapshotsUntouched() {
+        store.set("a.b", "1", null, null, null, null);
+        store.set("a.c", "2", null, null, null, null);
+        ConfigIndex before = store.snapshot();
+
+        ConfigStore.Change change = store.delete("a", true, null, null);
+
+        assertThat(change.getAction()).isEqualTo("delete");
+        assertThat(store.snapshot().getNodes()).isEmpty();
+        assertThat(before.getNodes()).containsOnlyKeys("a.b", "a.c");
+        assertError(() -> store.delete("a.b", false, null, null), StoreException.KEY_NOT_FOUND);
+
+        ConfigStore.Change created = store.set("a.b", "3", null, null, null, null);
+        assertThat(created.getNode().getCreatedIndex()).isEqualTo(created.getNode().getModifiedIndex());
+    }
+
+    @Test
+    public void keysExpireAfterTtl() {
+        store.set("a", "1", 2, null, null, null);
+        ConfigNode node = store.snapshot().getNode("a");
+        assertThat(node.getTtl(clock.get())).isEqualTo(2L);
+        assertThat(node.getExpirationString()).isNotNull();
+
+        clock.addAndGet(1_000L);
+        store.processExpirations();
+        assertThat(store.snapshot().get("a")).isEqualTo("1");
+
+        clock.addAndGet(1_500L);
+        store.processExpirations();
+        assertThat(store.snapshot().get("a")).isNull();
+        assertThat(store.getIndex()).isEqualTo(2L);
+    }
+
+    @Test
+    public void rewrittenKeysDoNotExpire() {
+        store.set("a", "1", 1, null, null, null);
+        store.set("a", "2", null, null, null, null);
+
+        clock.addAndGet(5_000L);
+        store.processExpirations();
+
+        assertThat(store.snapshot().get("a")).isEqualTo("2");
+    }
+
+    private static void assertError(Runnable runnable, int errorCode) {
+        try {
+            runnable.run();
+            fail("StoreException expected.");
+        } catch (StoreException e) {
+            assertThat(e.getErrorCode()).isEqualTo(errorCode);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HistogramTest {
+
+    @Test
+    public void bucketsCoverTheirValues() {
+        for (long value = 0; value < 1_000_000; value += 7) {
+            final int bucket = Histogram.bucket(value);
+            assertThat(Histogram.highestValue(bucket)).isGreaterThanOrEqualTo(value);
+            if (bucket > 0) {
+                assertThat(Histogram.highestValue(bucket - 1)).isLessThan(value);
+            }
+            // relative error below 12.5%
+            assertThat(Histogram.highestValue(bucket) - value).isLessThanOrEqualTo(value / 8);
+        }
+        assertThat(Histogram.highestValue(Histogram.bucket(Long.MAX_VALUE))).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void percentiles() {
+        final Histogram histogram = new Histogram();
+        assertThat(histogram.getValueAtPercentile(0.99)).isEqualTo(0L);
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertThat(histogram.getCount()).isEqualTo(1000L);
+        assertThat(histogram.getSum()).isEqualTo(500500L);
+        assertThat(histogram.getMax()).isEqualTo(1000L);
+        assertThat(histogram.getValueAtPercentile(0.5)).isBetween(500L, 500L + 500L / 8);
+        assertThat(histogram.getValueAtPercentile(0.99)).isBetween(990L, 1000L);
+        assertThat(histogram.getValueAtPercentile(1.0)).isEqualTo(1000L);
+        assertThat(histogram.getCountAtOrBelow(15L)).isEqualTo(15L);
+        assertThat(histogram.getCountAtOrBelow(1023L)).isEqualTo(1000L);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+import org.apache.tamaya.remote.KeyValueFormat;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Round trip of {@link KeyValueWriter} with the remote client's {@link KeyValueFormat}.
+ */
+public class KeyValueWriterTest {
+
+    @Test
+    public void roundTrip() throws IOException {
+        final Map<String, String> props = new LinkedHashMap<>();
+        props.put("a", "aValue");
+        props.put("quoted", "\"a\" = 'b': \\c\\");
+        props.put("control", "line1\nline2\r\n\ttab\u0000");
+        props.put("with space.and=equals:colon", "#not a comment");
+        props.put("empty", "");
+        props.put("", "empty key");
+        props.put("umlauts.\u00e4\u00f6\u00fc", "\u00c4\u00d6\u00dc\u00df");
+        props.put("cjk", "\u914d\u7f6e");
+        props.put("emoji", "\ud83d\ude00 smile");
+        assertThat(read(KeyValueWriter.write(props.entrySet()))).isEqualTo(props);
+    }
+
+    @Test
+    public void nullValuesAreSkipped() throws IOException {
+        final byte[] data = KeyValueWriter.write(Arrays.asList(
+                new AbstractMap.SimpleEntry<>("a", "1"),
+                new AbstractMap.SimpleEntry<>("b", (String) null)));
+        assertThat(read(data)).containsOnlyKeys("a");
+    }
+
+    @Test
+    public void emptyDocument() throws IOException {
+        assertThat(read(KeyValueWriter.write(new LinkedHashMap<String, String>().entrySet()))).isEmpty();
+    }
+
+    private static Map<String, String> read(byte[] data) throws IOException {
+        final Map<String, String> read = new LinkedHashMap<>();
+        new KeyValueFormat().readProperties("test", new ByteArrayInputStream(data), read::put);
+        return read;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+import org.apache.catalina.startup.Tomcat;
+import org.apache.tamaya.Configuration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process load driver for {@code GET /keys/{key}}: starts the server on a free port and reports the
+ * requests per second achieved by a number of client threads using keep-alive connections. Not run as part of
+ * the test suite, start it manually:
+ * <pre>
+ * java -cp ... org.apache.tamaya.server.KeysLoadDriver [clients] [seconds] [key]
+ * </pre>
+ * The server is configured by the {@code tamaya.server.*} keys as usual, e.g.
+ * {@code -Dtamaya.server.threads.virtual=true}.
+ */
+public final class KeysLoadDriver {
+
+    private KeysLoadDriver() {
+    }
+
+    public static void main(String... args) throws Exception {
+        final int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        final int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        final String key = args.length > 2 ? args[2] : "java.version";
+        final Tomcat tomcat = Server.start(ServerOptions.of(Configuration.current(), "/", 0));
+        try {
+            final URL url = new URL("http://localhost:" + tomcat.getConnector().getLocalPort() + "/keys/" + key);
+            // warm up, then measure
+            run(url, clients, Math.max(1, seconds / 5));
+            final long start = System.nanoTime();
+            final long[] result = run(url, clients, seconds);
+            final double elapsed = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%d clients, %d requests in %.1fs: %.0f requests/s, %d errors%n",
+                    clients, result[0], elapsed, result[0] / elapsed, result[1]);
+        } finally {
+            tomcat.stop();
+            tomcat.destroy();
+        }
+    }
+
+    /**
+     * Sends requests from the given number of threads for the given time.
+     * @return the number of successful and failed requests.
+     */
+    private static long[] run(URL url, int clients, int seconds) throws InterruptedException {
+        final LongAdder requests = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final long end = System.nanoTime() + seconds * 1_000_000_000L;
+        final CountDownLatch done = new CountDownLatch(clients);
+        final List<Thread> threads = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            final Thread thread = new Thread(() -> {
+                final byte[] buffer = new byte[8192];
+                try {
+                    while (System.nanoTime() < end) {
+                        if (get(url, buffer)) {
+                            requests.increment();
+                        } else {
+                            errors.increment();
+                        }
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }, "load-client-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+        }
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        done.await();
+        return new long[]{requests.sum(), errors.sum()};
+    }
+
+    private static boolean get(URL url, byte[] buffer) {
+        try {
+            final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestProperty("Accept", "application/json");
+            final boolean ok = connection.getResponseCode() == 200;
+            // read the body completely, so the connection is reused
+            try (InputStream in = ok ? connection.getInputStream() : connection.getErrorStream()) {
+                while (in != null && in.read(buffer) >= 0) {
+                    // discard
+                }
+            }
+            return ok;
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+}
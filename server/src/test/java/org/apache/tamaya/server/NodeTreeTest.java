@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NodeTreeTest {
+
+    @Test
+    public void updatesDoNotChangeEarlierVersions() {
+        NodeTree empty = NodeTree.EMPTY;
+        NodeTree one = empty.put(node("a", "1"));
+        NodeTree two = one.put(node("b", "2"));
+        NodeTree replaced = two.put(node("a", "3"));
+        NodeTree removed = replaced.remove("b");
+
+        assertThat(empty.size()).isEqualTo(0);
+        assertThat(one.asMap()).containsOnlyKeys("a");
+        assertThat(two.get("a").getValue()).isEqualTo("1");
+        assertThat(replaced.get("a").getValue()).isEqualTo("3");
+        assertThat(replaced.get("b").getValue()).isEqualTo("2");
+        assertThat(removed.asMap()).containsOnlyKeys("a");
+        assertThat(removed.remove("missing")).isSameAs(removed);
+    }
+
+    @Test
+    public void behavesLikeSortedMap() {
+        Random random = new Random(42L);
+        TreeMap<String, ConfigNode> expected = new TreeMap<>();
+        NodeTree tree = NodeTree.EMPTY;
+        for (int i = 0; i < 5000; i++) {
+            String key = "k" + random.nextInt(500);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                tree = tree.remove(key);
+            } else {
+                ConfigNode node = node(key, String.valueOf(i));
+                expected.put(key, node);
+                tree = tree.put(node);
+            }
+        }
+        SortedMap<String, ConfigNode> map = tree.asMap();
+        assertThat(tree.size()).isEqualTo(expected.size());
+        assertThat(new ArrayList<>(map.values())).containsExactlyElementsOf(expected.values());
+        assertThat(map.firstKey()).isEqualTo(expected.firstKey());
+        assertThat(map.lastKey()).isEqualTo(expected.lastKey());
+        for (int i = 0; i < 100; i++) {
+            String from = "k" + random.nextInt(500);
+            String to = from + random.nextInt(10);
+            SortedMap<String, ConfigNode> range = map.subMap(from, to);
+            SortedMap<String, ConfigNode> expectedRange = expected.subMap(from, to);
+            assertThat(range.size()).isEqualTo(expectedRange.size());
+            assertThat(range.keySet()).containsExactlyElementsOf(expectedRange.keySet());
+            assertThat(range.isEmpty()).isEqualTo(expectedRange.isEmpty());
+            assertThat(map.headMap(from).size()).isEqualTo(expected.headMap(from).size());
+            assertThat(map.tailMap(from).size()).isEqualTo(expected.tailMap(from).size());
+        }
+    }
+
+    private static ConfigNode node(String key, String value) {
+        return new ConfigNode(key, value, 1L, 1L, 0L);
+    }
+}
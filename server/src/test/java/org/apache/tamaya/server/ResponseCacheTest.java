@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+import org.junit.Test;
+
+import javax.ws.rs.core.EntityTag;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ResponseCacheTest {
+
+    @Test
+    public void responsesAreSerializedOnce() {
+        ResponseCache cache = new ResponseCache("e", 1L);
+        AtomicInteger calls = new AtomicInteger();
+
+        ResponseCache.Entry first = cache.get("a", false, "application/json", () -> {
+            calls.incrementAndGet();
+            return "{}".getBytes(StandardCharsets.UTF_8);
+        });
+        ResponseCache.Entry second = cache.get("a", false, "application/json", () -> {
+            calls.incrementAndGet();
+            return "{}".getBytes(StandardCharsets.UTF_8);
+        });
+
+        assertThat(second).isSameAs(first);
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void entityTagsDifferPerRepresentation() {
+        ResponseCache cache = new ResponseCache("e", 1L);
+        byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+
+        ResponseCache.Entry plain = cache.get("a", false, "application/json", () -> body);
+        ResponseCache.Entry recursive = cache.get("a", true, "application/json", () -> "[]".getBytes(StandardCharsets.UTF_8));
+        ResponseCache.Entry binary = cache.get("a", false, KeyValueWriter.MEDIA_TYPE, () -> body);
+        ResponseCache.Entry nextRevision = new ResponseCache("e", 2L).get("a", false, "application/json", () -> body);
+
+        assertThat(plain.getEntityTag()).isNotEqualTo(recursive.getEntityTag());
+        assertThat(plain.getEntityTag()).isNotEqualTo(binary.getEntityTag());
+        assertThat(plain.getEntityTag()).isNotEqualTo(nextRevision.getEntityTag());
+    }
+
+    @Test
+    public void entityTagsOfARestartedStoreDiffer() {
+        final String cached;
+        final String streamed;
+        try (ConfigStore store = new ConfigStore()) {
+            store.syncConfiguration(Collections.singletonMap("a", "1"));
+            cached = tagOf(store, false).getValue();
+            streamed = tagOf(store, true).getValue();
+        }
+        // the restarted store reaches the same revision with different values, If-None-Match must not match
+        try (ConfigStore restarted = new ConfigStore()) {
+            restarted.syncConfiguration(Collections.singletonMap("a", "2"));
+            assertThat(tagOf(restarted, false).getValue()).isNotEqualTo(cached);
+            assertThat(tagOf(restarted, true).getValue()).isNotEqualTo(streamed);
+        }
+    }
+
+    @Test
+    public void entityTagsOfStreamedResponsesDifferPerStore() {
+        try (ConfigStore first = new ConfigStore(); ConfigStore second = new ConfigStore()) {
+            final EntityTag streamed = new ResponseCache(first.getEpoch(), 1L).get(null, true, "application/json",
+                    () -> null).getEntityTag();
+            assertThat(new ResponseCache(first.getEpoch(), 1L).get(null, true, "application/json", () -> null)
+                    .getEntityTag().getValue()).isEqualTo(streamed.getValue());
+            assertThat(new ResponseCache(second.getEpoch(), 1L).get(null, true, "application/json", () -> null)
+                    .getEntityTag().getValue()).isNotEqualTo(streamed.getValue());
+        }
+    }
+
+    private static EntityTag tagOf(ConfigStore store, boolean streamed) {
+        final ConfigIndex index = store.snapshot();
+        return new ResponseCache(store.getEpoch(), index.getRevision()).get("a", false, "application/json",
+                () -> streamed ? null : index.getNode("a").getValue().getBytes(StandardCharsets.UTF_8))
+                .getEntityTag();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ServerMetricsTest {
+
+    private final ConfigStore store = new ConfigStore();
+    private final ServerMetrics metrics = new ServerMetrics(store);
+
+    @After
+    public void close() {
+        metrics.unregisterMBeans();
+        store.close();
+    }
+
+    @Test
+    public void samplesAreRecordedOnce() {
+        final ServerMetrics.Sample sample = metrics.start("readConfig");
+        assertThat(metrics.getInFlight()).isEqualTo(1L);
+        sample.stop(200, 100L);
+        sample.stop(500, 100L);
+        metrics.start("writeConfig").stop(412, 20L);
+        assertThat(metrics.getInFlight()).isEqualTo(0L);
+        assertThat(metrics.getRequestCount()).isEqualTo(2L);
+        for (final EndpointMetrics endpoint : metrics.getEndpoints()) {
+            assertThat(endpoint.getRequestCount()).isEqualTo(1L);
+            assertThat(endpoint.getErrorCount()).isEqualTo("writeConfig".equals(endpoint.getName()) ? 1L : 0L);
+        }
+    }
+
+    @Test
+    public void cacheHitRate() {
+        assertThat(metrics.getCacheHitRate()).isEqualTo(0.0);
+        for (int i = 0; i < 4; i++) {
+            metrics.recordCacheLookup();
+        }
+        metrics.recordCacheMiss();
+        assertThat(metrics.getCacheHitRate()).isEqualTo(0.75);
+    }
+
+    @Test
+    public void textExposition() throws Exception {
+        metrics.start("readConfig").stop(200, 100L);
+        store.set("a", "1", null, null, null, null);
+        final StringWriter writer = new StringWriter();
+        metrics.writeText(writer);
+        final String text = writer.toString();
+        assertThat(text).contains("# TYPE tamaya_server_requests_total counter\n");
+        assertThat(text).contains("tamaya_server_requests_total{endpoint=\"readConfig\"} 1\n");
+        assertThat(text).contains("tamaya_server_request_duration_seconds_bucket{endpoint=\"readConfig\",le=\"+Inf\"} 1\n");
+        assertThat(text).contains("tamaya_server_response_bytes_sum{endpoint=\"readConfig\"} 100\n");
+        assertThat(text).contains("tamaya_server_store_index 1\n");
+    }
+
+    @Test
+    public void mbeansAreRegistered() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        metrics.start("readConfig").stop(200, 100L);
+        metrics.registerMBeans();
+        metrics.start("watch");
+        assertThat(server.getAttribute(ServerMetrics.serverObjectName(), "RequestCount")).isEqualTo(1L);
+        assertThat(server.getAttribute(ServerMetrics.endpointObjectName("readConfig"), "ResponseBytes"))
+                .isEqualTo(100L);
+        assertThat(server.getAttribute(ServerMetrics.endpointObjectName("watch"), "InFlight")).isEqualTo(1L);
+        metrics.unregisterMBeans();
+        assertThat(server.isRegistered(ServerMetrics.serverObjectName())).isFalse();
+        assertThat(server.isRegistered(ServerMetrics.endpointObjectName("watch"))).isFalse();
+    }
+}
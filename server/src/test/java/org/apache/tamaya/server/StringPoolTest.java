@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StringPoolTest {
+
+    @Test
+    public void equalStringsArePooled() {
+        final StringPool pool = new StringPool();
+        final String value = new String("value");
+        assertThat(pool.intern(value)).isSameAs(value);
+        assertThat(pool.intern(new String("value"))).isSameAs(value);
+        assertThat(pool.intern(null)).isNull();
+    }
+
+    @Test
+    public void concurrentCallersGetTheSameInstance() throws Exception {
+        final StringPool pool = new StringPool();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<String[]>> results = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                results.add(executor.submit((Callable<String[]>) () -> {
+                    final String[] pooled = new String[1000];
+                    for (int i = 0; i < pooled.length; i++) {
+                        pooled[i] = pool.intern(new String("key" + i));
+                    }
+                    return pooled;
+                }));
+            }
+            final String[] first = results.get(0).get();
+            for (final Future<String[]> result : results) {
+                final String[] pooled = result.get();
+                for (int i = 0; i < pooled.length; i++) {
+                    assertThat(pooled[i]).isSameAs(first[i]);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void storesShareValues() {
+        try (ConfigStore first = new ConfigStore(); ConfigStore second = new ConfigStore()) {
+            first.syncConfiguration(Collections.singletonMap(new String("db.url"), new String("jdbc:h2:mem")));
+            second.syncConfiguration(Collections.singletonMap(new String("db.url"), new String("jdbc:h2:mem")));
+            final ConfigNode a = first.snapshot().getNode("db.url");
+            final ConfigNode b = second.snapshot().getNode("db.url");
+            assertThat(a.getKey()).isSameAs(b.getKey());
+            assertThat(a.getValue()).isSameAs(b.getValue());
+        }
+    }
+}
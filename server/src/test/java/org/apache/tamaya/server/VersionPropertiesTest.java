@@ -39,7 +39,7 @@ public class VersionPropertiesTest {
         assertThat(VersionProperties.getVersion()).isNotEqualTo("");
         assertThat(VersionProperties.getVersion()).isEqualTo(properties.get("server.version"));
         assertThat(VersionProperties.getProduct()).isNotNull();
-        assertThat(VersionProperties.getProduce()).isNotEqualTo("");
+        assertThat(VersionProperties.getProduct()).isNotEqualTo("");
         assertThat(VersionProperties.getProduct()).isEqualTo(properties.get("server.product"));
     }
 }
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.server;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class WatchHubTest {
+
+    private final ConfigStore store = new ConfigStore();
+
+    @After
+    public void closeStore() {
+        store.close();
+    }
+
+    @Test
+    public void watchesFireOnceForTheirKey() throws Exception {
+        final Recorder recorder = new Recorder();
+        store.watch("a.b", false, null, recorder);
+        store.set("a.bc", "0", null, null, null, null);
+        store.set("a.b.c", "0", null, null, null, null);
+        store.set("a.b", "1", null, null, null, null);
+        store.set("a.b", "2", null, null, null, null);
+        assertThat(recorder.await(1)).containsExactly("set /a.b=1");
+        Thread.sleep(50L);
+        assertThat(recorder.changes).hasSize(1);
+    }
+
+    @Test
+    public void recursiveWatchesFireForSectionKeys() throws Exception {
+        final Recorder section = new Recorder();
+        final Recorder root = new Recorder();
+        store.watch("a", true, null, section);
+        store.watch("", false, null, root);
+        store.set("ab", "0", null, null, null, null);
+        store.set("a.b.c", "1", null, null, null, null);
+        assertThat(section.await(1)).containsExactly("set /a.b.c=1");
+        assertThat(root.await(1)).containsExactly("set /ab=0");
+    }
+
+    @Test
+    public void pastIndexesAreAnsweredFromTheHistory() throws Exception {
+        store.set("a", "1", null, null, null, null);
+        store.set("b", "2", null, null, null, null);
+        store.delete("a", false, null, null);
+        final Recorder recorder = new Recorder();
+        store.watch("a", false, 2L, recorder);
+        // answered on the calling thread
+        assertThat(recorder.changes).containsExactly("delete /a=null");
+        final Recorder future = new Recorder();
+        store.watch("b", false, 5L, future);
+        store.set("b", "3", null, null, null, null);
+        store.set("b", "4", null, null, null, null);
+        assertThat(future.await(1)).containsExactly("set /b=4");
+    }
+
+    @Test
+    public void clearedIndexesAreRejected() {
+        final WatchHub hub = new WatchHub(4, 0L, Runnable::run);
+        for (long i = 1; i <= 6; i++) {
+            hub.publish(store.set("k" + i, "v", null, null, null, null));
+        }
+        try {
+            hub.watch("k1", false, 2L, change -> { });
+            fail("history should have been cleared");
+        } catch (final StoreException e) {
+            assertThat(e.getErrorCode()).isEqualTo(StoreException.EVENT_INDEX_CLEARED);
+        }
+        final Recorder recorder = new Recorder();
+        hub.watch("k4", false, 3L, recorder);
+        assertThat(recorder.changes).containsExactly("set /k4=v");
+    }
+
+    @Test
+    public void cancelledWatchesAreRemoved() throws Exception {
+        final WatchHub hub = new WatchHub(4, 0L, Runnable::run);
+        final Recorder recorder = new Recorder();
+        final WatchHub.Watch watch = hub.watch("a", true, null, recorder);
+        assertThat(hub.size()).isEqualTo(1);
+        assertThat(watch.cancel()).isTrue();
+        assertThat(hub.size()).isEqualTo(0);
+        hub.publish(store.set("a.b", "1", null, null, null, null));
+        assertThat(recorder.changes).isEmpty();
+        assertThat(watch.cancel()).isFalse();
+    }
+
+    private static final class Recorder implements Consumer<ConfigStore.Change> {
+        private final List<String> changes = new ArrayList<>();
+
+        @Override
+        public synchronized void accept(ConfigStore.Change change) {
+            changes.add(change.getAction() + ' ' + '/' + change.getNode().getKey() + '='
+                    + change.getNode().getValue());
+            notifyAll();
+        }
+
+        synchronized List<String> await(int count) throws InterruptedException {
+            final long end = System.currentTimeMillis() + 5000L;
+            while (changes.size() < count && System.currentTimeMillis() < end) {
+                wait(100L);
+            }
+            return new ArrayList<>(changes);
+        }
+    }
+}
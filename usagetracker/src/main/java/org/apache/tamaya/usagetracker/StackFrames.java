@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.usagetracker;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Captures the frames of the current call stack, skipping the frames of ignored packages. On Java 9 and later the
+ * stack is walked lazily using {@code java.lang.StackWalker}, so only the frames up to the last one requested are
+ * materialized. Frames are filtered on the class name read from the {@code StackFrame}, the frames kept are
+ * passed to a {@link FrameMapper} as class name, method name and line number, so no {@link StackTraceElement} is
+ * created. On Java 8 the stack trace of a {@link Throwable} is evaluated instead.
+ */
+final class StackFrames {
+
+    private static final Logger LOG = Logger.getLogger(StackFrames.class.getName());
+
+    /** The {@code StackWalker} instance, or null, when running on Java 8. */
+    private static final Object WALKER;
+    /** {@code StackWalker.walk(Function)}, typed as {@code (Object,Function)Object}. */
+    private static final MethodHandle WALK;
+    /** {@code StackFrame.getClassName()}, typed as {@code (Object)String}. */
+    private static final MethodHandle CLASS_NAME;
+    /** {@code StackFrame.getMethodName()}, typed as {@code (Object)String}. */
+    private static final MethodHandle METHOD_NAME;
+    /** {@code StackFrame.getLineNumber()}, typed as {@code (Object)int}. */
+    private static final MethodHandle LINE_NUMBER;
+    /** {@code StackFrame.toStackTraceElement()}, typed as {@code (Object)StackTraceElement}. */
+    private static final MethodHandle TO_ELEMENT;
+
+    static {
+        Object walker = null;
+        MethodHandle walk = null;
+        MethodHandle className = null;
+        MethodHandle methodName = null;
+        MethodHandle lineNumber = null;
+        MethodHandle toElement = null;
+        try {
+            Class<?> walkerType = Class.forName("java.lang.StackWalker");
+            Class<?> frameType = Class.forName("java.lang.StackWalker$StackFrame");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            walk = lookup.findVirtual(walkerType, "walk",
+                    MethodType.methodType(Object.class, Function.class))
+                    .asType(MethodType.methodType(Object.class, Object.class, Function.class));
+            className = lookup.findVirtual(frameType, "getClassName", MethodType.methodType(String.class))
+                    .asType(MethodType.methodType(String.class, Object.class));
+            methodName = lookup.findVirtual(frameType, "getMethodName", MethodType.methodType(String.class))
+                    .asType(MethodType.methodType(String.class, Object.class));
+            lineNumber = lookup.findVirtual(frameType, "getLineNumber", MethodType.methodType(int.class))
+                    .asType(MethodType.methodType(int.class, Object.class));
+            toElement = lookup.findVirtual(frameType, "toStackTraceElement",
+                    MethodType.methodType(StackTraceElement.class))
+                    .asType(MethodType.methodType(StackTraceElement.class, Object.class));
+            walker = walkerType.getMethod("getInstance").invoke(null);
+        } catch (ClassNotFoundException e) {
+            // Java 8, use Throwable.getStackTrace()
+        } catch (Exception e) {
+            LOG.log(Level.FINE, "StackWalker not accessible, using Throwable.getStackTrace() instead.", e);
+            walker = null;
+        }
+        WALKER = walker;
+        WALK = walk;
+        CLASS_NAME = className;
+        METHOD_NAME = methodName;
+        LINE_NUMBER = lineNumber;
+        TO_ELEMENT = toElement;
+    }
+
+    private StackFrames() {
+    }
+
+    /**
+     * Captures the frames of the current caller, starting with the caller of the method calling this method.
+     * Frames of this class and of the ignored packages are skipped.
+     * @param maxFrames the maximal number of frames returned.
+     * @param ignoredPackages the prefixes of the class names to skip, not null.
+     * @return the frames, starting with the innermost frame, never null.
+     */
+    static List<StackTraceElement> capture(int maxFrames, Collection<String> ignoredPackages) {
+        return capture(maxFrames, ignoredPackages, StackFrames::toElement, ste -> ste);
+    }
+
+    /**
+     * Captures the frames of the current caller, starting with the caller of the method calling this method.
+     * Frames of this class and of the ignored packages are skipped.
+     * @param maxFrames the maximal number of frames returned.
+     * @param ignoredPackages the prefixes of the class names to skip, not null.
+     * @param mapper the mapper creating the result of a frame kept, not null.
+     * @param <T> the result type.
+     * @return the results of the frames kept, starting with the innermost frame, never null.
+     */
+    static <T> List<T> capture(int maxFrames, Collection<String> ignoredPackages, FrameMapper<T> mapper) {
+        return capture(maxFrames, ignoredPackages,
+                frame -> mapper.map(className(frame), methodName(frame), lineNumber(frame)),
+                ste -> mapper.map(ste.getClassName(), ste.getMethodName(), ste.getLineNumber()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> capture(int maxFrames, Collection<String> ignoredPackages,
+                                       Function<Object, T> frameMapper, Function<StackTraceElement, T> steMapper) {
+        if (maxFrames <= 0) {
+            return new ArrayList<>();
+        }
+        if (WALKER != null) {
+            Function<Stream<Object>, List<T>> collector = frames -> frames
+                    .filter(frame -> !isIgnored(className(frame), ignoredPackages))
+                    .limit(maxFrames)
+                    .map(frameMapper)
+                    .collect(Collectors.toList());
+            try {
+                return (List<T>) (Object) WALK.invokeExact(WALKER, (Function) collector);
+            } catch (Throwable e) {
+                LOG.log(Level.FINEST, "StackWalker failed, using Throwable.getStackTrace() instead.", e);
+            }
+        }
+        List<T> trace = new ArrayList<>();
+        for (StackTraceElement ste : new Throwable().getStackTrace()) {
+            if (!isIgnored(ste.getClassName(), ignoredPackages)) {
+                trace.add(steMapper.apply(ste));
+                if (trace.size() >= maxFrames) {
+                    break;
+                }
+            }
+        }
+        return trace;
+    }
+
+    private static boolean isIgnored(String className, Collection<String> ignoredPackages) {
+        if (className.equals(StackFrames.class.getName())) {
+            return true;
+        }
+        for (String ignored : ignoredPackages) {
+            if (className.startsWith(ignored)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String className(Object frame) {
+        try {
+            return (String) CLASS_NAME.invokeExact(frame);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to access stack frame.", e);
+        }
+    }
+
+    private static String methodName(Object frame) {
+        try {
+            return (String) METHOD_NAME.invokeExact(frame);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to access stack frame.", e);
+        }
+    }
+
+    private static int lineNumber(Object frame) {
+        try {
+            return (int) LINE_NUMBER.invokeExact(frame);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to access stack frame.", e);
+        }
+    }
+
+    private static StackTraceElement toElement(Object frame) {
+        try {
+            return (StackTraceElement) TO_ELEMENT.invokeExact(frame);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to access stack frame.", e);
+        }
+    }
+
+    /**
+     * Creates the result of a stack frame kept.
+     * @param <T> the result type.
+     */
+    @FunctionalInterface
+    interface FrameMapper<T> {
+        /**
+         * Maps a stack frame.
+         * @param className the class name, not null.
+         * @param methodName the method name, not null.
+         * @param lineNumber the line number, or a negative value, if not available.
+         * @return the result, not null.
+         */
+        T map(String className, String methodName, int lineNumber);
+    }
+
+}
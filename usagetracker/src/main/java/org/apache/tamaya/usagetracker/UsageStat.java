@@ -24,12 +24,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Metrics container containing access statistics for a given configuration key.
@@ -37,6 +39,18 @@ import java.util.concurrent.atomic.AtomicLong;
 public final class UsageStat {
 
     private static final String[] EMPTY_TRACE = new String[0];
+
+    /**
+     * The maximal number of access point references cached.
+     */
+    private static final int MAX_CACHED_REFS = 4096;
+
+    /**
+     * Cache of the reference identifiers of the stack frames evaluated, so they are only formatted once per
+     * calling class, method and line.
+     */
+    private static final Map<FrameKey,String> REFS = new ConcurrentHashMap<>();
+
     /**
      * the config entry's key.
      */
@@ -50,6 +64,22 @@ public final class UsageStat {
      * The maximal length of the stacktrace stored.
      */
     private static int maxTrace = 10;
+    /**
+     * Only every n-th access of a key is tracked with its access point.
+     */
+    private static int samplingRate = Math.max(1, Integer.getInteger("tamaya.usage-report.sampling-rate", 1));
+    /**
+     * The overall number of accesses of this key, including the accesses not sampled.
+     */
+    private final LongAdder usageCount = new LongAdder();
+    /**
+     * The number of sampling decisions taken for this key, selecting every n-th access.
+     */
+    private final AtomicLong sampleCounter = new AtomicLong();
+    /**
+     * The maximal number of value changes kept per access point.
+     */
+    private static int valueHistorySize = Math.max(0, Integer.getInteger("tamaya.usage-report.value-history", 10));
 
     /**
      * Creates a usage statistics container for a given key.
@@ -76,6 +106,44 @@ public final class UsageStat {
         UsageStat.maxTrace =maxTrace;
     }
 
+    /**
+     * Get the sampling rate, default is 1, which tracks every access. It can be initially set with the
+     * {@code tamaya.usage-report.sampling-rate} system property.
+     * @return the sampling rate, n means every n-th access of a key is tracked.
+     */
+    public static int getSamplingRate(){
+        return UsageStat.samplingRate;
+    }
+
+    /**
+     * Sets the sampling rate. Evaluating the access point of a configuration access is expensive, so in production
+     * only every n-th access of a key should be tracked. The overall usage count still includes all accesses.
+     * @param samplingRate the sampling rate, n means every n-th access of a key is tracked, values less than
+     *                     1 are treated as 1.
+     */
+    public static void setSamplingRate(int samplingRate){
+        UsageStat.samplingRate = Math.max(1, samplingRate);
+    }
+
+    /**
+     * Get the maximal number of value changes kept per access point, default is 10. It can be initially set
+     * with the {@code tamaya.usage-report.value-history} system property.
+     * @return the maximal number of value changes kept.
+     */
+    public static int getValueHistorySize(){
+        return UsageStat.valueHistorySize;
+    }
+
+    /**
+     * Sets the maximal number of value changes kept per access point. Only changes of the value read are
+     * recorded, when the history is full the oldest change is discarded. The size only applies to access
+     * points tracked afterwards.
+     * @param valueHistorySize the maximal number of value changes kept, 0 disables tracking of the values.
+     */
+    public static void setValueHistorySize(int valueHistorySize){
+        UsageStat.valueHistorySize = Math.max(0, valueHistorySize);
+    }
+
     /**
      * Get the target key of this instance.
      *
@@ -90,6 +158,8 @@ public final class UsageStat {
      */
     public void clearMetrics(){
         this.accessDetails.clear();
+        this.usageCount.reset();
+        this.sampleCounter.set(0);
     }
 
     /**
@@ -102,16 +172,13 @@ public final class UsageStat {
     }
 
     /**
-     * Get the overall number of accesses, hereby summing up the access details tracked.
+     * Get the overall number of accesses. Other than the access details, which only contain the accesses
+     * sampled, this includes all accesses.
      *
      * @return the overall number of accesses.
      */
     public int getUsageCount() {
-        int count = 0;
-        for(AccessStats ref: accessDetails.values()){
-            count += ref.getAccessCount();
-        }
-        return count;
+        return (int) usageCount.sum();
     }
 
     /**
@@ -176,92 +243,178 @@ public final class UsageStat {
 
     /**
      * Evaluates the current access point from the current stacktrace and adds an according
-     * usage reference createObject (or updates any existing one) for the given key.
+     * usage reference createObject (or updates any existing one) for the given key. Only every
+     * n-th access is evaluated, as configured by {@link #setSamplingRate(int)}.
      * @param value the createValue returned, not null.
      * @param maxTraceLength the maximal length of the stored stacktrace.
      */
     public void trackUsage(PropertyValue value, int maxTraceLength){
-        String accessPoint = null;
-        if(maxTraceLength>0) {
-            Exception e = new Exception();
-            List<String> trace = new ArrayList<>();
-            stack:
-            for (StackTraceElement ste : e.getStackTrace()) {
-                for (String ignored : ConfigUsage.getInstance().getIgnoredPackages()) {
-                    if (ste.getClassName().startsWith(ignored)) {
-                        continue stack;
-                    }
-                }
-                String ref = ste.getClassName() + '#' + ste.getMethodName() + "(line:" + ste.getLineNumber() + ')';
-                trace.add(ref);
-                if (accessPoint == null) {
-                    accessPoint = ref;
-                }
-                if (trace.size() >= maxTraceLength) {
-                    break;
-                }
-            }
-            if (accessPoint == null) {
-                // all ignored, take first one, with different package
-                accessPoint = "<unknown/filtered/internal>";
-            }
-            AccessStats details = getAccessDetails(accessPoint, trace.toArray(new String[trace.size()]));
-            details.trackAccess(value);
-        }else{
+        if(!isSampled()){
+            countUsage();
+            return;
+        }
+        trackUsage(value, captureTrace(maxTraceLength), System.currentTimeMillis());
+    }
+
+    /**
+     * Adds an access, which has not been sampled, to the overall number of accesses.
+     */
+    public void countUsage(){
+        usageCount.increment();
+    }
+
+    /**
+     * Adds a usage reference createObject (or updates any existing one) for an access captured before,
+     * e.g. by another thread.
+     * @param value the createValue returned, not null.
+     * @param trace the stacktrace captured with {@link #captureTrace(int)}, or null, if stack traces
+     *              are disabled.
+     * @param timestamp the time of the access.
+     */
+    public void trackUsage(PropertyValue value, String[] trace, long timestamp){
+        usageCount.increment();
+        String accessPoint;
+        if(trace==null){
             accessPoint = "<disabled>";
-            AccessStats details = getAccessDetails(accessPoint, EMPTY_TRACE);
-            details.trackAccess(value);
+            trace = EMPTY_TRACE;
+        }else if(trace.length > 0) {
+            accessPoint = trace[0];
+        } else {
+            // all ignored, take first one, with different package
+            accessPoint = "<unknown/filtered/internal>";
         }
+        getAccessDetails(accessPoint, trace).trackAccess(value, timestamp);
+    }
+
+    /**
+     * Decides whether the current access of this key should be tracked with its access point. Every n-th call
+     * returns true, as configured by {@link #setSamplingRate(int)}, starting with the first call.
+     * @return true, if the access point of the current access should be evaluated.
+     */
+    public boolean isSampled(){
+        int rate = samplingRate;
+        return rate<=1 || sampleCounter.getAndIncrement() % rate == 0;
+    }
+
+    /**
+     * Evaluates the current stacktrace, skipping the frames of the ignored packages.
+     * @param maxTraceLength the maximal length of the stacktrace.
+     * @return the references of the frames, starting with the access point, or null, if
+     * {@code maxTraceLength} is not positive.
+     */
+    public static String[] captureTrace(int maxTraceLength){
+        if(maxTraceLength<=0){
+            return null;
+        }
+        List<String> refs = StackFrames.capture(maxTraceLength,
+                ConfigUsage.getInstance().getIgnoredPackages(), UsageStat::toRef);
+        return refs.toArray(new String[refs.size()]);
+    }
+
+    private static String toRef(String className, String methodName, int lineNumber) {
+        FrameKey frameKey = new FrameKey(className, methodName, lineNumber);
+        String ref = REFS.get(frameKey);
+        if(ref==null){
+            ref = className + '#' + methodName + "(line:" + lineNumber + ')';
+            if(REFS.size() < MAX_CACHED_REFS){
+                REFS.put(frameKey, ref);
+            }
+        }
+        return ref;
     }
 
     private AccessStats getAccessDetails(String accessPoint, String[] trace) {
         AccessStats details = accessDetails.get(accessPoint);
         if(details==null){
-            details = new AccessStats(key, accessPoint, trace);
-            accessDetails.put(accessPoint, details);
+            details = accessDetails.computeIfAbsent(accessPoint, ap -> new AccessStats(key, ap, trace));
         }
         return details;
     }
 
     /**
      * Class modelling the access details tracked per detailed item, e.g. per class in the owning package.
+     * Accesses are recorded without locking, the counter and timestamps are striped across the threads
+     * recording and only merged when read. The values read are kept in a ring buffer of fixed capacity,
+     * which only records changes of the value, so the memory used does not grow with the number of accesses.
      */
     public static final class AccessStats {
-        private String key;
-        private AtomicLong accessCount = new AtomicLong();
-        private long lastAccessTS;
-        private long firstAccessTS;
-        private String[] stackTrace;
-        private String accessPoint;
-        private Map<Long, PropertyValue> trackedValues;
+        private final String key;
+        private final LongAdder accessCount = new LongAdder();
+        private final LongAccumulator lastAccessTS = new LongAccumulator(Math::max, 0L);
+        private final LongAccumulator firstAccessTS = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        private final String[] stackTrace;
+        private final String accessPoint;
+        /** Ring buffer of the value changes, guarded by this instance. */
+        private final TrackedValue[] trackedValues;
+        /** Index of the next value change written, guarded by this instance. */
+        private int nextValue;
+        /** The value recorded last, to skip unchanged values without locking. */
+        private volatile PropertyValue lastValue;
 
         public AccessStats(String key, String accessPoint, String[] stackTrace){
+            this(key, accessPoint, stackTrace, valueHistorySize);
+        }
+
+        public AccessStats(String key, String accessPoint, String[] stackTrace, int valueHistorySize){
             this.key = Objects.requireNonNull(key);
             this.accessPoint = Objects.requireNonNull(accessPoint);
             this.stackTrace = stackTrace.clone();
+            this.trackedValues = new TrackedValue[Math.max(0, valueHistorySize)];
         }
 
         public void clearStats(){
-            lastAccessTS = 0;
-            firstAccessTS = 0;
-            accessCount.set(0);
+            lastAccessTS.reset();
+            firstAccessTS.reset();
+            accessCount.reset();
+            synchronized (this) {
+                Arrays.fill(trackedValues, null);
+                nextValue = 0;
+                lastValue = null;
+            }
         }
 
         public long trackAccess(PropertyValue value){
-            long count = accessCount.incrementAndGet();
-            lastAccessTS = System.currentTimeMillis();
-            if(firstAccessTS==0){
-                firstAccessTS = lastAccessTS;
+            return trackAccess(value, System.currentTimeMillis());
+        }
+
+        /**
+         * Records an access.
+         * @param value the value read, or null.
+         * @param now the time of the access.
+         * @return the number of accesses recorded, including this one. Accesses recorded concurrently may or
+         * may not be included.
+         */
+        public long trackAccess(PropertyValue value, long now){
+            accessCount.increment();
+            lastAccessTS.accumulate(now);
+            if(firstAccessTS.get()>now){
+                firstAccessTS.accumulate(now);
             }
-            if(value!=null){
+            if(value!=null && trackedValues.length>0 && !isSameValue(value, lastValue)){
                 synchronized (this) {
-                    if(trackedValues==null){
-                        trackedValues = new HashMap<>();
+                    if(!isSameValue(value, lastValue)){
+                        trackedValues[nextValue] = new TrackedValue(now, value);
+                        nextValue = (nextValue + 1) % trackedValues.length;
+                        lastValue = value;
                     }
-                    trackedValues.put(lastAccessTS, value);
                 }
             }
-            return count;
+            return accessCount.sum();
+        }
+
+        private static boolean isSameValue(PropertyValue value, PropertyValue previous){
+            if(value==previous){
+                return true;
+            }
+            if(previous==null){
+                return false;
+            }
+            String text = value.getValue();
+            String previousText = previous.getValue();
+            if(text==null || previousText==null){
+                return text==previousText;
+            }
+            return text.hashCode()==previousText.hashCode() && text.equals(previousText);
         }
 
         public String getKey(){
@@ -269,7 +422,7 @@ public final class UsageStat {
         }
 
         public long getAccessCount() {
-            return accessCount.get();
+            return accessCount.sum();
         }
 
         public String getAccessPoint() {
@@ -277,25 +430,47 @@ public final class UsageStat {
         }
 
         public long getFirstAccessTS() {
-            return firstAccessTS;
+            long first = firstAccessTS.get();
+            return first==Long.MAX_VALUE?0L:first;
         }
 
         public long getLastAccessTS() {
-            return lastAccessTS;
+            return lastAccessTS.get();
         }
 
         public String[] getStackTrace() {
             return stackTrace.clone();
         }
 
+        /**
+         * Get the values tracked by access timestamp. Changes recorded in the same millisecond are
+         * reduced to the last one, use {@link #getValueHistory()} to get all changes.
+         * @return the values tracked, ordered by timestamp, never null.
+         */
         public Map<Long, PropertyValue> getTrackedValues(){
+            Map<Long, PropertyValue> result = new LinkedHashMap<>();
+            for(TrackedValue trackedValue:getValueHistory()){
+                result.put(trackedValue.getTimestamp(), trackedValue.getValue());
+            }
+            return result;
+        }
+
+        /**
+         * Get the changes of the value read, oldest first. At most the configured value history size
+         * changes are kept.
+         * @return the value changes, never null.
+         */
+        public List<TrackedValue> getValueHistory(){
+            List<TrackedValue> result = new ArrayList<>(trackedValues.length);
             synchronized (this) {
-                if (trackedValues == null) {
-                    return Collections.emptyMap();
-                } else {
-                    return new HashMap<>(trackedValues);
+                for(int i=0;i<trackedValues.length;i++){
+                    TrackedValue trackedValue = trackedValues[(nextValue + i) % trackedValues.length];
+                    if(trackedValue!=null){
+                        result.add(trackedValue);
+                    }
                 }
             }
+            return result;
         }
 
         @Override
@@ -303,13 +478,74 @@ public final class UsageStat {
             return "AccessStats{" +
                     "key=" + key +
                     ", accessCount=" + accessCount +
-                    ", lastAccessTS=" + lastAccessTS +
-                    ", firstAccessTS=" + firstAccessTS +
+                    ", lastAccessTS=" + getLastAccessTS() +
+                    ", firstAccessTS=" + getFirstAccessTS() +
                     ", accessPoint='" + accessPoint + '\'' +
-                    ", trackedValues=" + trackedValues +
+                    ", trackedValues=" + getValueHistory() +
                     ", stackTrace=" + Arrays.toString(stackTrace) +
                     '}';
         }
     }
 
+    /**
+     * A value read, together with the time it was first read.
+     */
+    public static final class TrackedValue {
+        private final long timestamp;
+        private final PropertyValue value;
+
+        public TrackedValue(long timestamp, PropertyValue value){
+            this.timestamp = timestamp;
+            this.value = Objects.requireNonNull(value);
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public PropertyValue getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return "TrackedValue{" +
+                    "timestamp=" + timestamp +
+                    ", value=" + value +
+                    '}';
+        }
+    }
+
+    /**
+     * Key of the reference cache, identifying an access point by class, method and line.
+     */
+    private static final class FrameKey {
+        private final String className;
+        private final String methodName;
+        private final int lineNumber;
+
+        FrameKey(String className, String methodName, int lineNumber) {
+            this.className = className;
+            this.methodName = methodName;
+            this.lineNumber = lineNumber;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof FrameKey)) {
+                return false;
+            }
+            FrameKey other = (FrameKey) o;
+            return lineNumber == other.lineNumber && className.equals(other.className)
+                    && methodName.equals(other.methodName);
+        }
+
+        @Override
+        public int hashCode() {
+            return (className.hashCode() * 31 + methodName.hashCode()) * 31 + lineNumber;
+        }
+    }
 }
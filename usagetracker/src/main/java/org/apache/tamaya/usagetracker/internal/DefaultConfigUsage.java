@@ -24,6 +24,7 @@ import org.apache.tamaya.usagetracker.UsageStat;
 import org.apache.tamaya.usagetracker.spi.ConfigUsageSpi;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -33,18 +34,59 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Default implementation of the module's SPI.
+ * <p>
+ * Accesses are not aggregated by the thread reading the configuration. The reading thread only evaluates the
+ * access point, if the access is sampled, and publishes a compact event into a preallocated ring buffer. A single
+ * background thread aggregates the events into the {@link UsageStat} instances. If the buffer is full, events are
+ * dropped and counted, the reading thread is never blocked. The buffer size can be configured with the
+ * {@code tamaya.usage-report.buffer-size} system property, default is 8192.
+ * <p>
+ * Events reference keys and access points by compact ids. The number of ids assigned is bounded by the
+ * {@code tamaya.usage-report.registry-size} system property, default is 65536 per registry. Accesses of keys or
+ * access points, for which no id is available anymore, are aggregated by the reading thread itself.
  */
 public class DefaultConfigUsage implements ConfigUsageSpi {
 
+    private static final Logger LOG = Logger.getLogger(DefaultConfigUsage.class.getName());
+
+    /** Caller id of accesses not sampled, which are only counted. */
+    private static final int NOT_SAMPLED = -1;
+    /** Caller id of accesses sampled, while stack traces are disabled. */
+    private static final int NO_TRACE = -2;
+
+    /** The consumer thread stops after being idle for this time, it is restarted on demand. */
+    private static final long IDLE_TIMEOUT = TimeUnit.SECONDS.toNanos(5);
+    private static final long MAX_PARK = TimeUnit.MILLISECONDS.toNanos(10);
+    /** Maximal time readers of the statistics wait for the events published being aggregated. */
+    private static final long AWAIT_TIMEOUT = TimeUnit.SECONDS.toNanos(1);
+
     private Set<String> ignoredPackages = new HashSet<>();
 
-    private Map<String, UsageStat> stats = new ConcurrentHashMap<>();
+    private final Map<String, UsageStat> stats = new ConcurrentHashMap<>();
+
+    private final UsageEventBuffer events = new UsageEventBuffer(
+            Integer.getInteger("tamaya.usage-report.buffer-size", 8192));
+
+    private final Registry<String> keys;
+
+    private final Registry<CallSite> callers;
+
+    private final UsageEventBuffer.Handler aggregator = this::aggregate;
+
+    private final AtomicBoolean consumerRunning = new AtomicBoolean();
+
+    private volatile Thread consumer;
 
     /** By default usage tracking is not enabled. */
-    private boolean usageTrackingEnabled = initEnabled();
+    private volatile boolean usageTrackingEnabled = initEnabled();
 
     /**
      * Method that checks the 'tamaya.usage-report' system property for
@@ -60,11 +102,22 @@ public class DefaultConfigUsage implements ConfigUsageSpi {
     }
 
     public DefaultConfigUsage(){
+        this(Integer.getInteger("tamaya.usage-report.registry-size", 65536));
+    }
+
+    /**
+     * Creates a new instance.
+     * @param registrySize the maximal number of keys and of access points, which are assigned an id each.
+     */
+    DefaultConfigUsage(int registrySize){
+        keys = new Registry<>(registrySize);
+        callers = new Registry<>(registrySize);
         ignoredPackages.add("com.intellij");
         ignoredPackages.add("java");
         ignoredPackages.add("org.junit");
         ignoredPackages.add("junit");
         ignoredPackages.add("javax");
+        ignoredPackages.add("jdk");
         ignoredPackages.add("sun");
         ignoredPackages.add("oracle");
         ignoredPackages.add("com.sun");
@@ -94,11 +147,13 @@ public class DefaultConfigUsage implements ConfigUsageSpi {
 
     @Override
     public UsageStat getSinglePropertyStats(String key) {
+        awaitEvents();
         return this.stats.get(key);
     }
 
     @Override
     public UsageStat getAllPropertiesStats() {
+        awaitEvents();
         return this.stats.get("<<all>>");
     }
 
@@ -108,9 +163,18 @@ public class DefaultConfigUsage implements ConfigUsageSpi {
      */
     @Override
     public Collection<UsageStat> getUsageStats() {
+        awaitEvents();
         return stats.values();
     }
 
+    /**
+     * Get the number of accesses not tracked, because the event buffer was full.
+     * @return the number of accesses dropped.
+     */
+    public long getDroppedEvents() {
+        return events.getDropped();
+    }
+
     @Override
     public void recordAllPropertiesAccess(ConfigurationContext context){
         recordSingleKeyAccess(PropertyValue.createValue("<<all>>","<not stored>"), context);
@@ -122,12 +186,111 @@ public class DefaultConfigUsage implements ConfigUsageSpi {
         if(!isTrackingEnabled()){
             return;
         }
-        UsageStat usage = this.stats.get(value.getKey());
+        UsageStat usage = getOrCreateUsage(value.getKey());
+        int keyId = keys.idOf(value.getKey());
+        int callerId = NOT_SAMPLED;
+        String[] trace = null;
+        if(usage.isSampled()){
+            trace = UsageStat.captureTrace(UsageStat.getMaxTrace());
+            callerId = trace==null?NO_TRACE:callers.idOf(new CallSite(trace));
+        }
+        long now = System.currentTimeMillis();
+        if(keyId==Registry.FULL || callerId==Registry.FULL){
+            if(callerId==NOT_SAMPLED){
+                usage.countUsage();
+            }else{
+                usage.trackUsage(value, trace, now);
+            }
+        }else if(events.offer(keyId, callerId, now, callerId==NOT_SAMPLED?null:value)){
+            startConsumer();
+        }
+    }
+
+    /**
+     * Aggregates an event into the usage statistics, only called by the consumer thread.
+     */
+    private void aggregate(int keyId, int callerId, long timestamp, PropertyValue value) {
+        UsageStat usage = getOrCreateUsage(keys.get(keyId));
+        if(callerId==NOT_SAMPLED){
+            usage.countUsage();
+        }else{
+            usage.trackUsage(value, callerId==NO_TRACE?null:callers.get(callerId).trace, timestamp);
+        }
+    }
+
+    private UsageStat getOrCreateUsage(String key) {
+        UsageStat usage = this.stats.get(key);
         if(usage==null){
-            usage = new UsageStat(value.getKey());
-            this.stats.put(value.getKey(), usage);
+            usage = this.stats.computeIfAbsent(key, UsageStat::new);
+        }
+        return usage;
+    }
+
+    private void startConsumer() {
+        if(!consumerRunning.get() && consumerRunning.compareAndSet(false, true)){
+            Thread thread = new Thread(this::consume, "tamaya-usage-tracker");
+            thread.setDaemon(true);
+            consumer = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Consumer loop, aggregating the events published. When no events are published, the thread parks with
+     * increasing pauses and finally stops, it is started again, when the next event is published. If the thread
+     * dies from an error, it is started again as well.
+     */
+    private void consume() {
+        boolean stopped = false;
+        try{
+            long idleSince = System.nanoTime();
+            long park = 0L;
+            while(!stopped){
+                int consumed = 0;
+                try{
+                    consumed = events.drain(aggregator);
+                }catch(RuntimeException e){
+                    LOG.log(Level.WARNING, "Failed to aggregate configuration usage event.", e);
+                    continue;
+                }
+                if(consumed>0){
+                    idleSince = System.nanoTime();
+                    park = 0L;
+                }else if(System.nanoTime() - idleSince > IDLE_TIMEOUT){
+                    consumerRunning.set(false);
+                    // an event published meanwhile may not have started a new consumer
+                    stopped = events.isEmpty() || !consumerRunning.compareAndSet(false, true);
+                }else{
+                    park = Math.min(MAX_PARK, Math.max(TimeUnit.MICROSECONDS.toNanos(50), park * 2));
+                    LockSupport.parkNanos(this, park);
+                }
+            }
+        }finally{
+            if(!stopped){
+                LOG.severe("Configuration usage consumer failed, it is restarted with the next event.");
+                consumerRunning.set(false);
+                if(!events.isEmpty()){
+                    startConsumer();
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the events published so far being aggregated, so the statistics read reflect all accesses
+     * of the calling thread.
+     */
+    private void awaitEvents() {
+        long published = events.getPublished();
+        if(events.getConsumed()>=published){
+            return;
+        }
+        long end = System.nanoTime() + AWAIT_TIMEOUT;
+        while(events.getConsumed()<published && System.nanoTime()<end){
+            startConsumer();
+            LockSupport.unpark(consumer);
+            LockSupport.parkNanos(this, TimeUnit.MICROSECONDS.toNanos(100));
         }
-        usage.trackUsage(value);
     }
 
 
@@ -139,7 +302,12 @@ public class DefaultConfigUsage implements ConfigUsageSpi {
         StringBuilder b = new StringBuilder();
         b.append("Apache Tamaya Configuration Usage Metrics\n");
         b.append("=========================================\n");
-        b.append("DATE: ").append(new Date()).append("\n\n");
+        b.append("DATE: ").append(new Date()).append("\n");
+        long dropped = getDroppedEvents();
+        if(dropped>0){
+            b.append("DROPPED: ").append(dropped).append(" accesses not tracked\n");
+        }
+        b.append('\n');
         List<UsageStat> usages = new ArrayList<>(getUsageStats());
         Collections.sort(usages, new Comparator<UsageStat>() {
             @Override
@@ -172,7 +340,84 @@ public class DefaultConfigUsage implements ConfigUsageSpi {
 
     @Override
     public void clearStats() {
+        awaitEvents();
         this.stats.clear();
     }
 
+    /**
+     * Assigns compact ids to the keys and call sites published, so events do not reference them directly.
+     * Ids are only assigned once, lookups do not lock. At most the configured number of ids is assigned, so the
+     * memory used is bounded.
+     */
+    private static final class Registry<T> {
+        /** Returned instead of an id, if all ids have been assigned. */
+        static final int FULL = Integer.MIN_VALUE;
+
+        private final Map<T, Integer> ids = new ConcurrentHashMap<>();
+        private final int maxSize;
+        private volatile Object[] values;
+        private volatile boolean full;
+
+        Registry(int maxSize) {
+            this.maxSize = Math.max(0, maxSize);
+            this.values = new Object[Math.min(64, this.maxSize)];
+        }
+
+        int idOf(T value) {
+            Integer id = ids.get(value);
+            if(id!=null){
+                return id;
+            }
+            return full ? FULL : register(value);
+        }
+
+        private synchronized int register(T value) {
+            Integer id = ids.get(value);
+            if(id!=null){
+                return id;
+            }
+            int next = ids.size();
+            if(next>=maxSize){
+                full = true;
+                return FULL;
+            }
+            Object[] current = values;
+            if(next>=current.length){
+                current = Arrays.copyOf(current, Math.min(maxSize, current.length * 2));
+            }
+            current[next] = value;
+            values = current;
+            ids.put(value, next);
+            return next;
+        }
+
+        @SuppressWarnings("unchecked")
+        T get(int id) {
+            return (T) values[id];
+        }
+    }
+
+    /**
+     * The stack trace of an access point, as captured by {@link UsageStat#captureTrace(int)}.
+     */
+    private static final class CallSite {
+        private final String[] trace;
+        private final int hash;
+
+        CallSite(String[] trace) {
+            this.trace = trace;
+            this.hash = Arrays.hashCode(trace);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CallSite && hash==((CallSite) o).hash && Arrays.equals(trace, ((CallSite) o).trace);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
 }
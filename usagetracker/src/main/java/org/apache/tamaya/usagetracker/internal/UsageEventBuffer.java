@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.usagetracker.internal;
+
+import org.apache.tamaya.spi.PropertyValue;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, lock-free ring buffer of usage events with many producers and a single consumer. The slots are
+ * preallocated, publishing an event does not allocate. Each slot carries a sequence number, telling the
+ * producers whether the slot is free and the consumer whether the event has been written completely.
+ * If the buffer is full, events are dropped and counted, producers never block.
+ */
+final class UsageEventBuffer {
+
+    /**
+     * Handler of the events taken from the buffer.
+     */
+    interface Handler {
+        void onEvent(int keyId, int callerId, long timestamp, PropertyValue value);
+    }
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final int[] keyIds;
+    private final int[] callerIds;
+    private final long[] timestamps;
+    private final PropertyValue[] values;
+
+    /** The position of the next event published. */
+    private final AtomicLong tail = new AtomicLong();
+    /** The position of the next event consumed, only written by the consumer. */
+    private volatile long head;
+
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Creates a new buffer.
+     * @param capacity the minimal capacity, rounded up to the next power of two.
+     */
+    UsageEventBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.keyIds = new int[size];
+        this.callerIds = new int[size];
+        this.timestamps = new long[size];
+        this.values = new PropertyValue[size];
+    }
+
+    /**
+     * Publishes an event, can be called by any thread.
+     * @return true, if the event was published, false if it was dropped, because the buffer is full.
+     */
+    boolean offer(int keyId, int callerId, long timestamp, PropertyValue value) {
+        long pos = tail.get();
+        while (true) {
+            int slot = (int) pos & mask;
+            long available = sequences.get(slot) - pos;
+            if (available == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    keyIds[slot] = keyId;
+                    callerIds[slot] = callerId;
+                    timestamps[slot] = timestamp;
+                    values[slot] = value;
+                    sequences.lazySet(slot, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (available < 0) {
+                dropped.increment();
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Passes all events published to the handler, must only be called by the consumer thread.
+     * @return the number of events consumed.
+     */
+    int drain(Handler handler) {
+        long pos = head;
+        int count = 0;
+        while (true) {
+            int slot = (int) pos & mask;
+            if (sequences.get(slot) != pos + 1) {
+                break;
+            }
+            PropertyValue value = values[slot];
+            values[slot] = null;
+            try {
+                handler.onEvent(keyIds[slot], callerIds[slot], timestamps[slot], value);
+            } finally {
+                sequences.lazySet(slot, pos + mask + 1);
+                pos++;
+                head = pos;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of events published so far. Together with {@link #getConsumed()} this allows to wait for
+     * the events published being consumed.
+     * @return the number of events published.
+     */
+    long getPublished() {
+        return tail.get();
+    }
+
+    /**
+     * Get the number of events consumed so far.
+     * @return the number of events consumed.
+     */
+    long getConsumed() {
+        return head;
+    }
+
+    /**
+     * Checks whether events are waiting to be consumed.
+     * @return true, if no events are waiting.
+     */
+    boolean isEmpty() {
+        return head >= tail.get();
+    }
+
+    /**
+     * Get the number of events dropped, because the buffer was full.
+     * @return the number of events dropped.
+     */
+    long getDropped() {
+        return dropped.sum();
+    }
+
+    int getCapacity() {
+        return mask + 1;
+    }
+}
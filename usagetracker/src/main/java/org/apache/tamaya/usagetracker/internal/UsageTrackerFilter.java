@@ -29,14 +29,35 @@ import javax.annotation.Priority;
 /**
  * Configuration filter to be applied at the end of the filter chain. This filter
  * actually does not change the current filter createValue, but use the filter process
- * to track configuration usage.
+ * to track configuration usage. The usage tracker is resolved once, when the filter is
+ * loaded for a configuration context, so the filter costs a single check, while usage
+ * tracking is disabled.
  */
 @Priority(Integer.MAX_VALUE)
 public class UsageTrackerFilter implements PropertyFilter{
 
+    private final ConfigUsageSpi tracker;
+
+    /**
+     * Creates a new filter, using the usage tracker also used by {@link org.apache.tamaya.usagetracker.ConfigUsage}.
+     */
+    public UsageTrackerFilter(){
+        this(ServiceContextManager.getServiceContext().getService(ConfigUsageSpi.class));
+    }
+
+    /**
+     * Creates a new filter.
+     * @param tracker the usage tracker, or null, if no tracker is available.
+     */
+    UsageTrackerFilter(ConfigUsageSpi tracker){
+        this.tracker = tracker;
+    }
+
     @Override
     public PropertyValue filterProperty(PropertyValue value, FilterContext context) {
-        ConfigUsageSpi tracker = ServiceContextManager.getServiceContext().getService(ConfigUsageSpi.class);
+        if (tracker == null || !tracker.isTrackingEnabled()) {
+            return value;
+        }
         if (context.isSinglePropertyScoped()) {
             tracker.recordSingleKeyAccess(value, context.getConfigurationContext());
         } else {
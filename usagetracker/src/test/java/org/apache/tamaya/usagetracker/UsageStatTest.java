@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.usagetracker;
+
+import org.apache.tamaya.spi.PropertyValue;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link UsageStat}.
+ */
+public class UsageStatTest {
+
+    @After
+    public void tearDown() {
+        UsageStat.setSamplingRate(1);
+        UsageStat.setValueHistorySize(10);
+    }
+
+    @Test
+    public void testTrackUsageWithoutTrace() {
+        UsageStat stat = new UsageStat("a");
+        stat.trackUsage(PropertyValue.createValue("a", "1"), 0);
+        stat.trackUsage(PropertyValue.createValue("a", "1"), 0);
+        assertThat(stat.getUsageCount()).isEqualTo(2);
+        assertThat(stat.getReferenceCount()).isEqualTo(1);
+        UsageStat.AccessStats details = stat.getAccessDetails().iterator().next();
+        assertThat(details.getAccessPoint()).isEqualTo("<disabled>");
+        assertThat(details.getAccessCount()).isEqualTo(2);
+        assertThat(details.getStackTrace()).isEmpty();
+    }
+
+    @Test
+    public void testSampling() {
+        UsageStat.setSamplingRate(4);
+        UsageStat stat = new UsageStat("a");
+        for (int i = 0; i < 1000; i++) {
+            stat.trackUsage(PropertyValue.createValue("a", "1"), 0);
+        }
+        assertThat(stat.getUsageCount()).isEqualTo(1000);
+        // every 4th access is tracked, starting with the first one
+        assertThat(stat.getAccessDetails().iterator().next().getAccessCount()).isEqualTo(250L);
+        stat.clearMetrics();
+        assertThat(stat.getUsageCount()).isEqualTo(0);
+        assertThat(stat.getReferenceCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testConcurrentTracking() throws Exception {
+        UsageStat stat = new UsageStat("a");
+        PropertyValue value = PropertyValue.createValue("a", "1");
+        Thread[] threads = new Thread[32];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int n = 0; n < 10000; n++) {
+                    stat.trackUsage(value, 0);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(stat.getUsageCount()).isEqualTo(320000);
+        assertThat(stat.getReferenceCount()).isEqualTo(1);
+        UsageStat.AccessStats details = stat.getAccessDetails().iterator().next();
+        assertThat(details.getAccessCount()).isEqualTo(320000L);
+        assertThat(details.getFirstAccessTS()).isGreaterThan(0L);
+        assertThat(details.getLastAccessTS()).isGreaterThanOrEqualTo(details.getFirstAccessTS());
+        details.clearStats();
+        assertThat(details.getAccessCount()).isEqualTo(0L);
+        assertThat(details.getFirstAccessTS()).isEqualTo(0L);
+        assertThat(details.getLastAccessTS()).isEqualTo(0L);
+    }
+
+    @Test
+    public void testValueHistoryKeepsLastChanges() {
+        UsageStat.AccessStats details = new UsageStat.AccessStats("a", "test", new String[0], 3);
+        long count = 0;
+        for (String value : new String[]{"1", "1", "2", "2", "3", "4", "4"}) {
+            assertThat(details.trackAccess(PropertyValue.createValue("a", value))).isEqualTo(++count);
+        }
+        List<UsageStat.TrackedValue> history = details.getValueHistory();
+        assertThat(history).hasSize(3);
+        assertThat(history.get(0).getValue().getValue()).isEqualTo("2");
+        assertThat(history.get(1).getValue().getValue()).isEqualTo("3");
+        assertThat(history.get(2).getValue().getValue()).isEqualTo("4");
+        assertThat(history.get(0).getTimestamp()).isLessThanOrEqualTo(history.get(2).getTimestamp());
+        assertThat(details.getAccessCount()).isEqualTo(7L);
+        details.clearStats();
+        assertThat(details.getValueHistory()).isEmpty();
+        assertThat(details.getTrackedValues()).isEmpty();
+    }
+
+    @Test
+    public void testValueHistorySize() {
+        UsageStat.setValueHistorySize(0);
+        UsageStat stat = new UsageStat("a");
+        stat.trackUsage(PropertyValue.createValue("a", "1"), 0);
+        stat.trackUsage(PropertyValue.createValue("a", "2"), 0);
+        assertThat(stat.getAccessDetails().iterator().next().getValueHistory()).isEmpty();
+        UsageStat.setValueHistorySize(-1);
+        assertThat(UsageStat.getValueHistorySize()).isEqualTo(0);
+    }
+
+    @Test
+    public void testSamplingRateIsAtLeastOne() {
+        UsageStat.setSamplingRate(0);
+        assertThat(UsageStat.getSamplingRate()).isEqualTo(1);
+    }
+
+    @Test
+    public void testCaptureSkipsIgnoredPackages() {
+        List<StackTraceElement> frames = StackFrames.capture(2, Arrays.asList("java", "jdk", "sun"));
+        assertThat(frames).hasSize(2);
+        assertThat(frames.get(0).getClassName()).isEqualTo(UsageStatTest.class.getName());
+        assertThat(frames.get(0).getMethodName()).isEqualTo("testCaptureSkipsIgnoredPackages");
+        frames = StackFrames.capture(5, Arrays.asList("java", "jdk", "sun", "org.apache.tamaya"));
+        assertThat(frames.size()).isBetween(1, 5);
+        for (StackTraceElement frame : frames) {
+            assertThat(frame.getClassName()).doesNotStartWith("org.apache.tamaya");
+        }
+        assertThat(StackFrames.capture(0, Arrays.asList("java"))).isEmpty();
+    }
+
+    @Test
+    public void testCaptureMapsFrames() {
+        List<String> refs = StackFrames.capture(1, Arrays.asList("java", "jdk", "sun"),
+                (className, methodName, lineNumber) -> className + '#' + methodName + ':' + (lineNumber > 0));
+        assertThat(refs).containsExactly(UsageStatTest.class.getName() + "#testCaptureMapsFrames:true");
+        String[] trace = UsageStat.captureTrace(3);
+        assertThat(trace.length).isBetween(0, 3);
+        for (String ref : trace) {
+            assertThat(ref).doesNotStartWith("org.apache.tamaya");
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.usagetracker.internal;
+
+import org.apache.tamaya.spi.PropertyValue;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link UsageEventBuffer}.
+ */
+public class UsageEventBufferTest {
+
+    @Test
+    public void testCapacityIsPowerOfTwo() {
+        assertThat(new UsageEventBuffer(0).getCapacity()).isEqualTo(2);
+        assertThat(new UsageEventBuffer(8).getCapacity()).isEqualTo(8);
+        assertThat(new UsageEventBuffer(9).getCapacity()).isEqualTo(16);
+    }
+
+    @Test
+    public void testOfferAndDrain() {
+        UsageEventBuffer buffer = new UsageEventBuffer(4);
+        PropertyValue value = PropertyValue.createValue("a", "1");
+        List<String> events = new ArrayList<>();
+        for (int round = 0; round < 3; round++) {
+            assertThat(buffer.isEmpty()).isTrue();
+            assertThat(buffer.offer(1, 2, 3L, value)).isTrue();
+            assertThat(buffer.offer(4, 5, 6L, null)).isTrue();
+            assertThat(buffer.isEmpty()).isFalse();
+            assertThat(buffer.drain((key, caller, timestamp, v) ->
+                    events.add(key + ":" + caller + ":" + timestamp + ":" + v))).isEqualTo(2);
+        }
+        assertThat(events).hasSize(6);
+        assertThat(events.get(4)).isEqualTo("1:2:3:" + value);
+        assertThat(events.get(5)).isEqualTo("4:5:6:null");
+        assertThat(buffer.getPublished()).isEqualTo(6L);
+        assertThat(buffer.getConsumed()).isEqualTo(6L);
+    }
+
+    @Test
+    public void testFullBufferDropsEvents() {
+        UsageEventBuffer buffer = new UsageEventBuffer(4);
+        for (int i = 0; i < 4; i++) {
+            assertThat(buffer.offer(i, 0, 0L, null)).isTrue();
+        }
+        assertThat(buffer.offer(4, 0, 0L, null)).isFalse();
+        assertThat(buffer.offer(5, 0, 0L, null)).isFalse();
+        assertThat(buffer.getDropped()).isEqualTo(2L);
+        List<Integer> keys = new ArrayList<>();
+        buffer.drain((key, caller, timestamp, value) -> keys.add(key));
+        assertThat(keys).containsExactly(0, 1, 2, 3);
+        assertThat(buffer.offer(6, 0, 0L, null)).isTrue();
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        UsageEventBuffer buffer = new UsageEventBuffer(1024);
+        Thread[] producers = new Thread[8];
+        for (int i = 0; i < producers.length; i++) {
+            int producer = i;
+            producers[i] = new Thread(() -> {
+                for (int n = 0; n < 10000; n++) {
+                    while (!buffer.offer(producer, n, 0L, null)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            producers[i].start();
+        }
+        int[] next = new int[producers.length];
+        long consumed = 0;
+        while (consumed < producers.length * 10000L) {
+            consumed += buffer.drain((key, caller, timestamp, value) -> {
+                // events of a producer are consumed in order
+                assertThat(caller).isEqualTo(next[key]);
+                next[key]++;
+            });
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertThat(buffer.isEmpty()).isTrue();
+    }
+}
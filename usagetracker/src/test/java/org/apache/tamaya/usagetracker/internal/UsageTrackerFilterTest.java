@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tamaya.usagetracker.internal;
+
+import org.apache.tamaya.spi.ConfigurationContext;
+import org.apache.tamaya.spi.FilterContext;
+import org.apache.tamaya.spi.PropertyValue;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link UsageTrackerFilter}.
+ */
+public class UsageTrackerFilterTest {
+
+    private final DefaultConfigUsage usage = new DefaultConfigUsage();
+    private final UsageTrackerFilter filter = new UsageTrackerFilter(usage);
+
+    @Test
+    public void testFilterWhenDisabled() {
+        usage.enableUsageTracking(false);
+        PropertyValue value = PropertyValue.createValue("a", "1");
+        assertThat(filter.filterProperty(value, new FilterContext(value, ConfigurationContext.EMPTY)))
+                .isSameAs(value);
+        assertThat(usage.getUsageStats()).isEmpty();
+    }
+
+    @Test
+    public void testFilterWhenEnabled() {
+        usage.enableUsageTracking(true);
+        PropertyValue value = PropertyValue.createValue("a", "1");
+        assertThat(filter.filterProperty(value, new FilterContext(value, ConfigurationContext.EMPTY)))
+                .isSameAs(value);
+        assertThat(usage.getSinglePropertyStats("a").getUsageCount()).isEqualTo(1);
+        filter.filterProperty(value, new FilterContext(value, Collections.singletonMap("a", value),
+                ConfigurationContext.EMPTY));
+        assertThat(usage.getAllPropertiesStats().getUsageCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testConcurrentAccessesAreAggregated() throws Exception {
+        usage.enableUsageTracking(true);
+        PropertyValue value = PropertyValue.createValue("a", "1");
+        Thread[] readers = new Thread[8];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(() -> {
+                for (int n = 0; n < 1000; n++) {
+                    filter.filterProperty(value, new FilterContext(value, ConfigurationContext.EMPTY));
+                }
+            });
+            readers[i].start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertThat(usage.getSinglePropertyStats("a").getUsageCount() + usage.getDroppedEvents()).isEqualTo(8000L);
+    }
+
+    @Test
+    public void testAccessesBeyondTheRegistryAreAggregated() {
+        DefaultConfigUsage bounded = new DefaultConfigUsage(2);
+        bounded.enableUsageTracking(true);
+        UsageTrackerFilter boundedFilter = new UsageTrackerFilter(bounded);
+        for (int i = 0; i < 5; i++) {
+            PropertyValue value = PropertyValue.createValue("k" + i, "1");
+            boundedFilter.filterProperty(value, new FilterContext(value, ConfigurationContext.EMPTY));
+            boundedFilter.filterProperty(value, new FilterContext(value, ConfigurationContext.EMPTY));
+        }
+        for (int i = 0; i < 5; i++) {
+            assertThat(bounded.getSinglePropertyStats("k" + i).getUsageCount()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void testFilterWithoutTracker() {
+        PropertyValue value = PropertyValue.createValue("a", "1");
+        assertThat(new UsageTrackerFilter(null).filterProperty(value,
+                new FilterContext(value, ConfigurationContext.EMPTY))).isSameAs(value);
+    }
+}